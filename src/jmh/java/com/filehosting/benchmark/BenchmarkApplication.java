@@ -0,0 +1,59 @@
+package com.filehosting.benchmark;
+
+import com.filehosting.FileHostingApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Starts the application for a benchmark trial with its uploads in a temp directory
+ * and an in-memory H2 database, so trials never see each other's files.
+ */
+final class BenchmarkApplication {
+
+    private BenchmarkApplication() {
+    }
+
+    static ConfigurableApplicationContext start(Path uploadDirectory, boolean web, String... extraArgs) {
+        // Devtools would otherwise restart the context in a second class loader
+        System.setProperty("spring.devtools.restart.enabled", "false");
+
+        // Command-line arguments, so they take precedence over application.yml
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.datasource.url=jdbc:h2:mem:benchmark-" + System.nanoTime() + ";DB_CLOSE_ON_EXIT=FALSE",
+                "--spring.h2.console.enabled=false",
+                // Devtools' shutdown hook for in-memory databases runs after the pool is closed
+                "--spring.autoconfigure.exclude=org.springframework.boot.devtools.autoconfigure.DevToolsDataSourceAutoConfiguration",
+                "--app.upload.path=" + uploadDirectory,
+                "--app.upload.max-size-gb=1000",
+                "--logging.level.root=WARN",
+                "--logging.level.org.apache.catalina.core=OFF"));
+        args.addAll(List.of(extraArgs));
+
+        SpringApplicationBuilder builder = new SpringApplicationBuilder(FileHostingApplication.class);
+        if (!web) {
+            builder.web(WebApplicationType.NONE);
+        }
+        return builder.run(args.toArray(new String[0]));
+    }
+
+    static void stop(ConfigurableApplicationContext context, Path uploadDirectory) throws IOException {
+        SpringApplication.exit(context);
+        delete(uploadDirectory);
+    }
+
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
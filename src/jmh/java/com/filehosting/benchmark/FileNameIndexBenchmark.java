@@ -0,0 +1,53 @@
+package com.filehosting.benchmark;
+
+import com.filehosting.util.FileNameIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileNameIndex.search over a million names, the size search must stay under a
+ * millisecond at. Names pair two of twenty words, so every word and its first letters
+ * match about a tenth of them; "eport" only matches inside words and is the one query
+ * that still intersects every match.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class FileNameIndexBenchmark {
+
+    private static final String[] WORDS = {
+        "report", "holiday", "invoice", "photo", "scan", "draft", "final", "budget", "meeting", "notes",
+        "backup", "video", "summer", "project", "resume", "contract", "img", "dsc", "screenshot", "data"
+    };
+    private static final String[] EXTENSIONS = {"pdf", "jpg", "png", "mp4", "txt", "docx", "zip"};
+
+    @Param({"r", "re", "rep", "report", "pdf", "report pdf", "r p", "eport"})
+    public String query;
+
+    @Param({"1000000"})
+    public int fileCount;
+
+    private FileNameIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        index = new FileNameIndex();
+        for (int i = 0; i < fileCount; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + (random.nextBoolean() ? "_" : " ")
+                    + WORDS[random.nextInt(WORDS.length)] + "_" + random.nextInt(100_000)
+                    + "." + EXTENSIONS[random.nextInt(EXTENSIONS.length)];
+            index.add(i, name, "application/octet-stream");
+        }
+    }
+
+    @Benchmark
+    public long[] search() {
+        return index.search(query, 50);
+    }
+}
@@ -0,0 +1,84 @@
+package com.filehosting.benchmark;
+
+import com.filehosting.util.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The FileUtils helpers on the upload and listing paths. Hashing reads a temp file of
+ * each size; the string helpers run over a fixed mix of realistic inputs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileUtilsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class HashState {
+
+        @Param({"1", "64"})
+        public int fileSizeMb;
+
+        Path file;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            file = Files.createTempFile("hash-benchmark", ".bin");
+            byte[] block = new byte[1024 * 1024];
+            new Random(42).nextBytes(block);
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (int i = 0; i < fileSizeMb; i++) {
+                    out.write(block);
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class NameState {
+
+        final String[] fileNames = {
+            "IMG_20240101_123456.jpg",
+            "Quarterly report (final) v2.pdf",
+            "résumé – José Müller.docx",
+            "../../etc/passwd",
+            "backup____2024__01__01.tar.gz",
+            "日本語のファイル名.txt"
+        };
+
+        final long[] sizes = {0, 512, 48_000, 5_242_880, 1_610_612_736L, 21_474_836_480L};
+    }
+
+    @Benchmark
+    public String calculateFileHash(HashState state) throws IOException {
+        return FileUtils.calculateFileHash(state.file);
+    }
+
+    @Benchmark
+    public void sanitizeFilename(NameState state, Blackhole blackhole) {
+        for (String fileName : state.fileNames) {
+            blackhole.consume(FileUtils.sanitizeFilename(fileName));
+        }
+    }
+
+    @Benchmark
+    public void formatFileSize(NameState state, Blackhole blackhole) {
+        for (long size : state.sizes) {
+            blackhole.consume(FileUtils.formatFileSize(size));
+        }
+    }
+}
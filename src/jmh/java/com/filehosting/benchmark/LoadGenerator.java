@@ -0,0 +1,628 @@
+package com.filehosting.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays a mix of uploads, downloads, ZIP downloads, searches and page loads over HTTP
+ * and reports throughput, latency percentiles and error rates per operation.
+ *
+ * By default the application is started in this JVM on a random port, with uploads in a
+ * temp directory and an in-memory database; any option the generator does not know is
+ * passed on to it, so Tomcat, Hikari or app.* settings can be compared run against run.
+ * With --target=URL an already running server is loaded instead, which keeps the
+ * generator's own CPU use off the server being measured.
+ *
+ * Each of --clients virtual threads runs requests back to back (a closed loop), picking
+ * the next operation by --mix weight. Files are seeded through the chunked upload API
+ * before the run; uploads during the run stream generated content, so multi-GB uploads
+ * need disk space but no client memory. Requests started during --warmup are not counted;
+ * rates are over the time from the end of warmup until the last counted request finished.
+ *
+ * mvn -Pbenchmark test-compile exec:exec@load -Dload.args="--clients=64 --server.tomcat.threads.max=100"
+ */
+public final class LoadGenerator {
+
+    private static final String BOUNDARY = "load-generator-boundary";
+    private static final String[] WORDS = {"report", "invoice", "holiday", "backup", "photo", "draft", "music", "notes"};
+    private static final int FILLER_SIZE = 64 * 1024;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] REPORTED_SETTINGS = {
+            "spring.profiles.active", "spring.threads.virtual.enabled", "server.tomcat.threads.max",
+            "server.tomcat.max-connections", "server.tomcat.accept-count",
+            "spring.datasource.hikari.maximum-pool-size", "app.transfers.max-concurrent-uploads",
+            "app.transfers.max-concurrent-downloads", "app.upload.ingest-parallelism"};
+
+    enum Operation {
+        UPLOAD("upload", 2),
+        CHUNKED_UPLOAD("chunked", 1),
+        DOWNLOAD("download", 40),
+        RANGE("range", 20),
+        ZIP("zip", 2),
+        ZIP_ALL("zip-all", 0),
+        SEARCH("search", 15),
+        LIST("list", 5),
+        INDEX("index", 15);
+
+        final String key;
+        final int defaultWeight;
+
+        Operation(String key, int defaultWeight) {
+            this.key = key;
+            this.defaultWeight = defaultWeight;
+        }
+
+        static Operation of(String key) {
+            for (Operation operation : values()) {
+                if (operation.key.equals(key)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation '" + key + "', expected one of "
+                    + Arrays.stream(values()).map(o -> o.key).toList());
+        }
+    }
+
+    private final Options options;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final byte[] filler = new byte[FILLER_SIZE];
+    private final Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+    private final List<SeedFile> files = new ArrayList<>();
+    private final AtomicLong uploadSequence = new AtomicLong();
+    private final AtomicLong lastFinishedNanos = new AtomicLong();
+    private URI base;
+    private volatile long measureFromNanos = Long.MAX_VALUE;
+    private volatile long endNanos;
+
+    private LoadGenerator(Options options) {
+        this.options = options;
+        new Random(42).nextBytes(filler);
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new Stats());
+        }
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        LoadGenerator generator = new LoadGenerator(options);
+
+        Path directory = null;
+        ConfigurableApplicationContext context = null;
+        Map<String, String> settings = new LinkedHashMap<>();
+        try {
+            if (options.target != null) {
+                generator.base = URI.create(options.target.endsWith("/") ? options.target : options.target + "/");
+            } else {
+                directory = Files.createTempDirectory("load-generator");
+                List<String> appArgs = new ArrayList<>(List.of(
+                        "--server.port=0",
+                        "--spring.servlet.multipart.max-file-size=-1",
+                        "--spring.servlet.multipart.max-request-size=-1"));
+                appArgs.addAll(options.appArgs);
+                context = BenchmarkApplication.start(directory, true, appArgs.toArray(new String[0]));
+
+                Environment environment = context.getEnvironment();
+                generator.base = URI.create("http://localhost:" + environment.getProperty("local.server.port") + "/");
+                for (String setting : REPORTED_SETTINGS) {
+                    settings.put(setting, environment.getProperty(setting, "(default)"));
+                }
+            }
+
+            generator.seed();
+            generator.run();
+            generator.report(settings);
+        } finally {
+            if (context != null) {
+                BenchmarkApplication.stop(context, directory);
+            }
+        }
+    }
+
+    // Seeding
+
+    private void seed() throws IOException, InterruptedException {
+        System.out.println("Seeding " + options.seedFiles + " file(s) of " + options.seedSizeKb + " KB at " + base);
+        for (int i = 0; i < options.seedFiles; i++) {
+            String name = "load-" + i + "-" + WORDS[i % WORDS.length] + ".txt";
+            JsonNode file = chunkedUpload(name, options.seedSizeKb * 1024L);
+            if (file == null) {
+                throw new IllegalStateException("Seeding failed, is the server accepting uploads?");
+            }
+            files.add(new SeedFile(file.get("id").asLong(), file.get("fileSize").asLong()));
+        }
+
+        // Against a running server, existing files are downloaded too
+        HttpResponse<byte[]> listing = client.send(get("api/files?limit=500").build(), HttpResponse.BodyHandlers.ofByteArray());
+        if (listing.statusCode() == 200) {
+            for (JsonNode file : objectMapper.readTree(listing.body()).get("files")) {
+                SeedFile seedFile = new SeedFile(file.get("id").asLong(), file.get("fileSize").asLong());
+                if (!files.contains(seedFile)) {
+                    files.add(seedFile);
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IllegalStateException("No files to download: use --seed-files=N");
+        }
+    }
+
+    // Run
+
+    private void run() throws InterruptedException {
+        Operation[] schedule = options.schedule();
+        System.out.println("Running " + options.clients + " client(s) for " + options.warmupSeconds + "s warmup + "
+                + options.durationSeconds + "s, mix " + options.mix);
+
+        long start = System.nanoTime();
+        measureFromNanos = start + Duration.ofSeconds(options.warmupSeconds).toNanos();
+        endNanos = measureFromNanos + Duration.ofSeconds(options.durationSeconds).toNanos();
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < options.clients; i++) {
+                clients.execute(() -> {
+                    while (System.nanoTime() < endNanos) {
+                        Operation operation = schedule[ThreadLocalRandom.current().nextInt(schedule.length)];
+                        execute(operation);
+                        if (options.thinkMs > 0) {
+                            try {
+                                Thread.sleep(options.thinkMs);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private void execute(Operation operation) {
+        long started = System.nanoTime();
+        Outcome outcome;
+        try {
+            outcome = switch (operation) {
+                case UPLOAD -> formUpload();
+                case CHUNKED_UPLOAD -> {
+                    long size = options.uploadSizeMb * 1024L * 1024L;
+                    JsonNode file = chunkedUpload("load-upload-" + uploadSequence.incrementAndGet() + ".bin", size);
+                    yield file != null ? new Outcome(201, size, 0) : new Outcome(-1, 0, 0);
+                }
+                case DOWNLOAD -> download(randomFile(), false);
+                case RANGE -> download(randomFile(), true);
+                case ZIP -> zip();
+                case ZIP_ALL -> expect(200, send(get("download-all").build()));
+                case SEARCH -> expect(200, send(get("search?q=" + WORDS[ThreadLocalRandom.current().nextInt(WORDS.length)]).build()));
+                case LIST -> expect(200, send(get("api/files?limit=50").build()));
+                case INDEX -> expect(200, send(get("").build()));
+            };
+        } catch (IOException | RuntimeException e) {
+            outcome = new Outcome(-1, 0, 0, e.getClass().getSimpleName());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        // Requests still running at the end are waited for, so long ZIP downloads and
+        // uploads are not left out of their own statistics
+        long finished = System.nanoTime();
+        if (started >= measureFromNanos) {
+            stats.get(operation).record(finished - started, outcome);
+            lastFinishedNanos.accumulateAndGet(finished, Math::max);
+        }
+    }
+
+    private Outcome formUpload() throws IOException, InterruptedException {
+        long size = options.uploadSizeMb * 1024L * 1024L;
+        String name = "load-upload-" + uploadSequence.incrementAndGet() + ".bin";
+        byte[] head = ("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"files\"; filename=\"" + name + "\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+        HttpRequest request = request("upload")
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(() ->
+                        new SequenceInputStream(new ByteArrayInputStream(head),
+                                new SequenceInputStream(content(size), new ByteArrayInputStream(tail)))),
+                        head.length + size + tail.length))
+                .build();
+        // The form answers with a redirect either way; per-file failures only show up
+        // as a flash message, so use the chunked operation to count rejected uploads
+        return expect(302, send(request)).withBytesSent(size);
+    }
+
+    /**
+     * @return the stored file, or null if any step failed
+     */
+    private JsonNode chunkedUpload(String name, long size) throws IOException, InterruptedException {
+        HttpResponse<byte[]> created = client.send(request("api/uploads?fileName=" + encode(name) + "&fileSize=" + size
+                + "&contentType=text/plain").POST(HttpRequest.BodyPublishers.noBody()).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        if (created.statusCode() != 201) {
+            return null;
+        }
+        String sessionId = objectMapper.readTree(created.body()).get("id").asText();
+        long chunkSize = created.headers().firstValueAsLong("Upload-Chunk-Size").orElse(8L * 1024 * 1024);
+
+        InputStream content = content(size);
+        for (long offset = 0; offset < size; offset += chunkSize) {
+            long length = Math.min(chunkSize, size - offset);
+            byte[] chunk = content.readNBytes((int) length);
+            HttpResponse<Void> written = client.send(request("api/uploads/" + sessionId + "?offset=" + offset)
+                    .PUT(HttpRequest.BodyPublishers.ofByteArray(chunk)).build(), HttpResponse.BodyHandlers.discarding());
+            if (written.statusCode() != 200) {
+                return null;
+            }
+        }
+
+        HttpResponse<byte[]> completed = client.send(request("api/uploads/" + sessionId + "/complete")
+                .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofByteArray());
+        return completed.statusCode() == 201 ? objectMapper.readTree(completed.body()) : null;
+    }
+
+    private Outcome download(SeedFile file, boolean ranged) throws IOException, InterruptedException {
+        HttpRequest.Builder request = get("download/" + file.id);
+        if (!ranged) {
+            return expect(200, send(request.build()));
+        }
+        long length = Math.min(file.size, options.rangeSizeKb * 1024L);
+        long start = file.size > length ? ThreadLocalRandom.current().nextLong(file.size - length + 1) : 0;
+        request.header("Range", "bytes=" + start + "-" + (start + length - 1));
+        return expect(file.size > 0 ? 206 : 200, send(request.build()));
+    }
+
+    private Outcome zip() throws IOException, InterruptedException {
+        StringBuilder form = new StringBuilder("zipName=load");
+        for (int i = 0; i < options.zipFiles; i++) {
+            form.append("&selectedFiles=").append(randomFile().id);
+        }
+        return expect(200, send(request("download-zip")
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form.toString())).build()));
+    }
+
+    /**
+     * Sends the request and reads the whole response body, counting its bytes.
+     */
+    private Outcome send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        long received = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream body = response.body()) {
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                received += read;
+            }
+        }
+        return new Outcome(response.statusCode(), 0, received);
+    }
+
+    private static Outcome expect(int status, Outcome outcome) {
+        return outcome.status == status ? outcome : outcome.failed(String.valueOf(outcome.status));
+    }
+
+    /**
+     * Generated content: a unique prefix, so deduplication never short-circuits the
+     * upload, followed by repeated random bytes.
+     */
+    private InputStream content(long size) {
+        byte[] prefix = (UUID.randomUUID() + "\n").getBytes(StandardCharsets.US_ASCII);
+        return new InputStream() {
+            private long position;
+
+            @Override
+            public int read() {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                if (position >= size) {
+                    return -1;
+                }
+                int count;
+                if (position < prefix.length) {
+                    count = (int) Math.min(Math.min(length, prefix.length - position), size - position);
+                    System.arraycopy(prefix, (int) position, buffer, offset, count);
+                } else {
+                    int fillerOffset = (int) (position % FILLER_SIZE);
+                    count = (int) Math.min(Math.min(length, FILLER_SIZE - fillerOffset), size - position);
+                    System.arraycopy(filler, fillerOffset, buffer, offset, count);
+                }
+                position += count;
+                return count;
+            }
+        };
+    }
+
+    private SeedFile randomFile() {
+        return files.get(ThreadLocalRandom.current().nextInt(files.size()));
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(base.resolve(path)).timeout(Duration.ofSeconds(options.timeoutSeconds));
+    }
+
+    private HttpRequest.Builder get(String path) {
+        return request(path).GET();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    // Report
+
+    private void report(Map<String, String> settings) throws IOException {
+        double seconds = Math.max(options.durationSeconds, millis(lastFinishedNanos.get() - measureFromNanos) / 1000.0);
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("target", options.target != null ? options.target : "embedded");
+        json.put("clients", options.clients);
+        json.put("durationSeconds", seconds);
+        json.put("mix", options.mix);
+        json.put("uploadSizeMb", options.uploadSizeMb);
+        json.put("settings", settings);
+        Map<String, Object> operations = new LinkedHashMap<>();
+        json.put("operations", operations);
+
+        System.out.println();
+        settings.forEach((key, value) -> System.out.println(key + " = " + value));
+        System.out.printf("%n%-9s %8s %7s %7s %9s %9s %9s %9s %9s %9s %9s%n", "operation", "requests", "errors",
+                "error%", "req/s", "MB/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+
+        long totalRequests = 0;
+        long totalErrors = 0;
+        for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+            Stats operationStats = entry.getValue();
+            long[] latencies = operationStats.sortedLatencies();
+            if (latencies.length == 0) {
+                continue;
+            }
+            long errors = operationStats.errors.sum();
+            totalRequests += latencies.length;
+            totalErrors += errors;
+
+            double megabytes = (operationStats.bytesSent.sum() + operationStats.bytesReceived.sum()) / (1024.0 * 1024.0);
+            double[] percentiles = new double[PERCENTILES.length];
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                percentiles[i] = millis(percentile(latencies, PERCENTILES[i]));
+            }
+            double max = millis(latencies[latencies.length - 1]);
+            double errorRate = 100.0 * errors / latencies.length;
+
+            System.out.printf("%-9s %8d %7d %6.2f%% %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n", entry.getKey().key,
+                    latencies.length, errors, errorRate, latencies.length / seconds, megabytes / seconds,
+                    percentiles[0], percentiles[1], percentiles[2], percentiles[3], max);
+
+            Map<String, Object> operation = new LinkedHashMap<>();
+            operation.put("requests", latencies.length);
+            operation.put("errors", errors);
+            operation.put("errorsByCause", operationStats.errorCauses());
+            operation.put("requestsPerSecond", latencies.length / seconds);
+            operation.put("megabytesPerSecond", megabytes / seconds);
+            Map<String, Double> latency = new LinkedHashMap<>();
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                latency.put("p" + (PERCENTILES[i] % 1 == 0 ? String.valueOf((int) PERCENTILES[i]) : String.valueOf(PERCENTILES[i])),
+                        percentiles[i]);
+            }
+            latency.put("max", max);
+            operation.put("latencyMs", latency);
+            operations.put(entry.getKey().key, operation);
+        }
+
+        System.out.printf("%ntotal: %d requests, %.1f req/s, %d errors (%.2f%%)%n", totalRequests,
+                totalRequests / seconds, totalErrors, totalRequests == 0 ? 0.0 : 100.0 * totalErrors / totalRequests);
+        for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+            Map<String, Long> causes = entry.getValue().errorCauses();
+            if (!causes.isEmpty()) {
+                System.out.println("  " + entry.getKey().key + " errors: " + causes);
+            }
+        }
+
+        Path reportPath = Paths.get(options.report);
+        if (reportPath.getParent() != null) {
+            Files.createDirectories(reportPath.getParent());
+        }
+        objectMapper.enable(SerializationFeature.INDENT_OUTPUT).writeValue(reportPath.toFile(), json);
+        System.out.println("Report written to " + reportPath.toAbsolutePath());
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /**
+     * Latencies and error counts of one operation.
+     */
+    private static final class Stats {
+
+        private long[] latencies = new long[1024];
+        private int count;
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final ConcurrentHashMap<String, LongAdder> causes = new ConcurrentHashMap<>();
+
+        void record(long latencyNanos, Outcome outcome) {
+            synchronized (this) {
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = latencyNanos;
+            }
+            bytesSent.add(outcome.bytesSent);
+            bytesReceived.add(outcome.bytesReceived);
+            if (outcome.error != null) {
+                errors.increment();
+                causes.computeIfAbsent(outcome.error, cause -> new LongAdder()).increment();
+            }
+        }
+
+        synchronized long[] sortedLatencies() {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        Map<String, Long> errorCauses() {
+            Map<String, Long> result = new LinkedHashMap<>();
+            causes.forEach((cause, adder) -> result.put(cause, adder.sum()));
+            return result;
+        }
+    }
+
+    private static final class Outcome {
+
+        final int status;
+        final long bytesSent;
+        final long bytesReceived;
+        final String error;
+
+        Outcome(int status, long bytesSent, long bytesReceived) {
+            this(status, bytesSent, bytesReceived, status < 0 ? "failed" : null);
+        }
+
+        Outcome(int status, long bytesSent, long bytesReceived, String error) {
+            this.status = status;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+            this.error = error;
+        }
+
+        Outcome failed(String cause) {
+            return new Outcome(status, bytesSent, bytesReceived, cause);
+        }
+
+        Outcome withBytesSent(long sent) {
+            return new Outcome(status, sent, bytesReceived, error);
+        }
+    }
+
+    private record SeedFile(long id, long size) {
+    }
+
+    /**
+     * Generator options; every other --key=value argument is passed to the application.
+     */
+    private static final class Options {
+
+        String target;
+        int clients = 16;
+        int durationSeconds = 60;
+        int warmupSeconds = 10;
+        int thinkMs;
+        int timeoutSeconds = 600;
+        String mix = "";
+        long uploadSizeMb = 16;
+        int seedFiles = 100;
+        int seedSizeKb = 1024;
+        int rangeSizeKb = 256;
+        int zipFiles = 10;
+        String report = "target/load-report.json";
+        final List<String> appArgs = new ArrayList<>();
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0) {
+                    throw new IllegalArgumentException("Expected --key=value, got: " + arg);
+                }
+                String key = arg.substring(2, equals);
+                String value = arg.substring(equals + 1);
+                switch (key) {
+                    case "target" -> options.target = value;
+                    case "clients" -> options.clients = Integer.parseInt(value);
+                    case "duration" -> options.durationSeconds = Integer.parseInt(value);
+                    case "warmup" -> options.warmupSeconds = Integer.parseInt(value);
+                    case "think-ms" -> options.thinkMs = Integer.parseInt(value);
+                    case "timeout" -> options.timeoutSeconds = Integer.parseInt(value);
+                    case "mix" -> options.mix = value;
+                    case "upload-size-mb" -> options.uploadSizeMb = Long.parseLong(value);
+                    case "seed-files" -> options.seedFiles = Integer.parseInt(value);
+                    case "seed-size-kb" -> options.seedSizeKb = Integer.parseInt(value);
+                    case "range-size-kb" -> options.rangeSizeKb = Integer.parseInt(value);
+                    case "zip-files" -> options.zipFiles = Integer.parseInt(value);
+                    case "report" -> options.report = value;
+                    default -> options.appArgs.add(arg);
+                }
+            }
+            if (options.mix.isEmpty()) {
+                StringBuilder defaults = new StringBuilder();
+                for (Operation operation : Operation.values()) {
+                    if (operation.defaultWeight > 0) {
+                        defaults.append(defaults.length() > 0 ? "," : "").append(operation.key).append(':')
+                                .append(operation.defaultWeight);
+                    }
+                }
+                options.mix = defaults.toString();
+            }
+            options.schedule();
+            return options;
+        }
+
+        /**
+         * @return operations repeated by weight, to pick from uniformly
+         */
+        Operation[] schedule() {
+            List<Operation> schedule = new ArrayList<>();
+            for (String entry : mix.split(",")) {
+                String[] parts = entry.trim().split(":");
+                Operation operation = Operation.of(parts[0]);
+                int weight = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+                for (int i = 0; i < weight; i++) {
+                    schedule.add(operation);
+                }
+            }
+            if (schedule.isEmpty()) {
+                throw new IllegalArgumentException("--mix has no operation with a positive weight");
+            }
+            return schedule.toArray(new Operation[0]);
+        }
+    }
+}
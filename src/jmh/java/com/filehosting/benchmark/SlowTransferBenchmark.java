@@ -0,0 +1,132 @@
+package com.filehosting.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How the rest of the service fares while many clients upload slowly.
+ *
+ * Each trial starts the application on a random port with Tomcat's pool at the
+ * production size (50 threads), either with platform threads or with virtual threads,
+ * and opens slowUploads connections that trickle a large multipart upload at about
+ * 5 KB/s for as long as the trial runs. The benchmark measures /api/storage latency
+ * meanwhile. Once slow uploads outnumber the pool, platform threads cannot serve the
+ * probe at all and every sample hits the 5 s timeout; with virtual threads the latency
+ * stays flat. All slow uploads are admitted (app.transfers limits are raised to
+ * match), so this measures the thread model rather than the transfer limits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class SlowTransferBenchmark {
+
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(5);
+    private static final int TRICKLE_BYTES = 1024;
+    private static final long TRICKLE_INTERVAL_MS = 200;
+    private static final String BOUNDARY = "slow-transfer-benchmark";
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    @Param({"25", "100", "400"})
+    public int slowUploads;
+
+    private Path directory;
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private URI probe;
+    private final List<Socket> sockets = new ArrayList<>();
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("slow-transfer-benchmark");
+        context = BenchmarkApplication.start(directory, true,
+                "--server.port=0",
+                "--server.tomcat.threads.max=50",
+                "--server.tomcat.max-connections=" + (slowUploads + 100),
+                "--spring.threads.virtual.enabled=" + virtualThreads,
+                "--spring.servlet.multipart.max-file-size=-1",
+                "--spring.servlet.multipart.max-request-size=-1",
+                "--app.transfers.max-concurrent-uploads=" + slowUploads);
+
+        int port = Integer.parseInt(context.getEnvironment().getProperty("local.server.port"));
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        probe = URI.create("http://localhost:" + port + "/api/storage");
+
+        running = true;
+        for (int i = 0; i < slowUploads; i++) {
+            Socket socket = new Socket("localhost", port);
+            sockets.add(socket);
+            Thread.ofVirtual().name("slow-upload-" + i).start(() -> trickle(socket));
+        }
+        // Let the uploads reach the server before measuring
+        Thread.sleep(2000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        running = false;
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        sockets.clear();
+        BenchmarkApplication.stop(context, directory);
+    }
+
+    /**
+     * @return the status code, or -1 if the probe timed out
+     */
+    @Benchmark
+    public int storageStatus() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(probe).timeout(PROBE_TIMEOUT).GET().build();
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (HttpTimeoutException e) {
+            return -1;
+        }
+    }
+
+    private void trickle(Socket socket) {
+        String preamble = "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"files\"; filename=\"slow.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n";
+        String head = "POST /upload HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "Content-Type: multipart/form-data; boundary=" + BOUNDARY + "\r\n"
+                + "Content-Length: " + (1L << 30) + "\r\n\r\n"
+                + preamble;
+        byte[] chunk = new byte[TRICKLE_BYTES];
+
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+            while (running) {
+                out.write(chunk);
+                out.flush();
+                Thread.sleep(TRICKLE_INTERVAL_MS);
+            }
+        } catch (IOException | InterruptedException e) {
+            // Closed at teardown
+        }
+    }
+}
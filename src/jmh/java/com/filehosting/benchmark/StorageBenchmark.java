@@ -0,0 +1,80 @@
+package com.filehosting.benchmark;
+
+import com.filehosting.model.UploadedFile;
+import com.filehosting.service.FileStorageService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileStorageService.storeFile end to end: quota reservation, copy and hash into the
+ * blob store, and the database insert. Every stored file has distinct content, so
+ * deduplication never short-circuits the copy. Files are deleted after each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+
+    @Param({"16", "1024", "16384"})
+    public int fileSizeKb;
+
+    @Param({"1", "16"})
+    public int fileCount;
+
+    private Path directory;
+    private ConfigurableApplicationContext context;
+    private FileStorageService fileStorageService;
+    private byte[] content;
+    private long sequence;
+    private final List<Long> storedIds = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("storage-benchmark");
+        context = BenchmarkApplication.start(directory, false);
+        fileStorageService = context.getBean(FileStorageService.class);
+
+        content = new byte[fileSizeKb * 1024];
+        new Random(42).nextBytes(content);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteStoredFiles() {
+        for (Long id : storedIds) {
+            fileStorageService.deleteFile(id);
+        }
+        storedIds.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkApplication.stop(context, directory);
+    }
+
+    @Benchmark
+    public long storeFiles() throws IOException {
+        long bytes = 0;
+        for (int i = 0; i < fileCount; i++) {
+            // A fresh prefix makes every upload new content
+            ByteBuffer.wrap(content).putLong(sequence++);
+            UploadedFile stored = fileStorageService.storeFile(
+                    new MockMultipartFile("files", "upload-" + i + ".bin", "application/octet-stream", content));
+            storedIds.add(stored.getId());
+            bytes += stored.getFileSize();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,121 @@
+package com.filehosting.benchmark;
+
+import com.filehosting.util.ParallelZipWriter;
+import com.filehosting.util.ZipStreamWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Serial deflate (one core, as ZipService did before) against the parallel block engine,
+ * on text-like files that compress roughly as well as logs or CSV exports.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipCompressionBenchmark {
+
+    private static final String[] WORDS = {
+        "upload", "download", "storage", "file", "archive", "request", "error", "INFO", "user",
+        "2024-01-01T12:00:00", "GET", "POST", "/api/storage", "200", "404", "bytes", "session"
+    };
+
+    @Param({"8"})
+    public int fileCount;
+
+    @Param({"1", "32"})
+    public int fileSizeMb;
+
+    @Param({"2", "4"})
+    public int parallelism;
+
+    @Param({"6"})
+    public int level;
+
+    private Path directory;
+    private List<Path> files;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("zip-benchmark");
+        files = new ArrayList<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < fileCount; i++) {
+            Path file = directory.resolve("file-" + i + ".log");
+            long target = fileSizeMb * 1024L * 1024L;
+            try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+                long written = 0;
+                while (written < target) {
+                    String word = WORDS[random.nextInt(WORDS.length)];
+                    writer.write(word);
+                    writer.write(random.nextInt(12) == 0 ? '\n' : ' ');
+                    written += word.length() + 1;
+                }
+            }
+            files.add(file);
+        }
+
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.shutdownNow();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long serial() throws IOException {
+        OutputStream out = OutputStream.nullOutputStream();
+        try (ZipStreamWriter zip = new ZipStreamWriter(out, level)) {
+            byte[] buffer = new byte[64 * 1024];
+            for (Path file : files) {
+                zip.putNextEntry(file.getFileName().toString(), Files.size(file), 0L, true);
+                try (InputStream in = Files.newInputStream(file)) {
+                    int length;
+                    while ((length = in.read(buffer)) >= 0) {
+                        zip.write(buffer, 0, length);
+                    }
+                }
+                zip.closeEntry();
+            }
+            zip.finish();
+            return zip.getBytesWritten();
+        }
+    }
+
+    @Benchmark
+    public long parallel() throws IOException {
+        OutputStream out = OutputStream.nullOutputStream();
+        try (ZipStreamWriter zip = new ZipStreamWriter(out, level)) {
+            ParallelZipWriter parallelZip = new ParallelZipWriter(zip, pool, 1024 * 1024, parallelism * 2);
+            for (Path file : files) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    parallelZip.addEntry(file.getFileName().toString(), in, Files.size(file), 0L, level);
+                }
+            }
+            parallelZip.drain();
+            zip.finish();
+            return zip.getBytesWritten();
+        }
+    }
+}
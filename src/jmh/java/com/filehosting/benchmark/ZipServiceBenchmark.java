@@ -0,0 +1,84 @@
+package com.filehosting.benchmark;
+
+import com.filehosting.service.FileStorageService;
+import com.filehosting.service.ZipService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ZipService.writeZip over stored files, as a selected-files download does: metadata
+ * lookup, reading from the blob store and deflate. Half the files are text-like and
+ * compress well; the other half are random bytes, which are stored as-is.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipServiceBenchmark {
+
+    @Param({"16", "128"})
+    public int fileCount;
+
+    @Param({"64", "4096"})
+    public int fileSizeKb;
+
+    @Param({"1", "2"})
+    public int parallelism;
+
+    private Path directory;
+    private ConfigurableApplicationContext context;
+    private ZipService zipService;
+    private final List<Long> fileIds = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("zip-service-benchmark");
+        context = BenchmarkApplication.start(directory, false, "--app.zip.parallelism=" + parallelism);
+        zipService = context.getBean(ZipService.class);
+        FileStorageService fileStorageService = context.getBean(FileStorageService.class);
+
+        Random random = new Random(42);
+        for (int i = 0; i < fileCount; i++) {
+            boolean text = i % 2 == 0;
+            byte[] content = text ? textContent(random, fileSizeKb * 1024) : new byte[fileSizeKb * 1024];
+            if (!text) {
+                random.nextBytes(content);
+            }
+            String name = text ? "log-" + i + ".txt" : "data-" + i + ".bin";
+            String contentType = text ? "text/plain" : "application/octet-stream";
+            fileIds.add(fileStorageService.storeFile(new MockMultipartFile("files", name, contentType, content)).getId());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkApplication.stop(context, directory);
+    }
+
+    @Benchmark
+    public void writeZip() throws IOException {
+        zipService.writeZip(fileIds, OutputStream.nullOutputStream());
+    }
+
+    private static byte[] textContent(Random random, int size) {
+        String[] words = {"upload", "download", "storage", "INFO", "GET", "/api/storage", "200", "bytes"};
+        StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            text.append(words[random.nextInt(words.length)]).append(random.nextInt(12) == 0 ? '\n' : ' ');
+        }
+        return text.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -1,5 +1,6 @@
 package com.filehosting.config;
 
+import com.filehosting.util.FanOutLayout;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
@@ -7,18 +8,70 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import jakarta.annotation.PostConstruct;
 import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @Configuration
 public class FileStorageConfig implements WebMvcConfigurer {
     
+    public static final String DEFAULT_VOLUME = "default";
+    
     @Value("${app.upload.path}")
     private String uploadPath;
     
     @Value("${app.upload.max-size-gb}")
     private int maxStorageGb;
     
+    @Value("${app.upload.session-path:${app.upload.path}/.sessions}")
+    private String sessionPath;
+    
+    @Value("${app.upload.blob-path:${app.upload.path}/blobs}")
+    private String blobPath;
+    
+    @Value("${app.upload.session-ttl-hours:24}")
+    private int sessionTtlHours;
+    
+    @Value("${app.upload.ingest-parallelism:4}")
+    private int ingestParallelism;
+    
+    // Comma separated "name=path" pairs of volumes added to the default one (the blob path),
+    // e.g. "disk2=/mnt/disk2/blobs,disk3=/mnt/disk3/blobs"
+    @Value("${app.upload.volumes:}")
+    private String volumes;
+    
+    @Value("${app.upload.volume-min-free-mb:1024}")
+    private long volumeMinFreeMb;
+    
+    @Value("${app.upload.layout.levels:2}")
+    private int layoutLevels;
+    
+    @Value("${app.upload.layout.chars-per-level:2}")
+    private int layoutCharsPerLevel;
+    
+    private FanOutLayout layout;
+    
+    private final Map<String, String> volumeRoots = new LinkedHashMap<>();
+    
     @PostConstruct
     public void init() {
+        layout = new FanOutLayout(layoutLevels, layoutCharsPerLevel);
+        
+        volumeRoots.put(DEFAULT_VOLUME, blobPath);
+        for (String pair : volumes.split(",")) {
+            if (pair.isBlank()) {
+                continue;
+            }
+            
+            String[] parts = pair.split("=", 2);
+            String name = parts[0].trim();
+            if (parts.length != 2 || !name.matches("[A-Za-z0-9_-]{1,64}") || parts[1].isBlank()) {
+                throw new IllegalArgumentException("Invalid app.upload.volumes entry: " + pair);
+            }
+            // Naming one "default" moves the default volume off the blob path
+            volumeRoots.put(name, parts[1].trim());
+        }
+        
         // Create upload directory if it doesn't exist
         File uploadDir = new File(uploadPath);
         if (!uploadDir.exists()) {
@@ -33,9 +86,8 @@ public class FileStorageConfig implements WebMvcConfigurer {
     
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        // Serve uploaded files
-        registry.addResourceHandler("/uploads/**")
-                .addResourceLocations("file:" + uploadPath + "/");
+        // Uploaded files are served by FileHostingController (/uploads/{storedName}) so that
+        // they get the same range, conditional and zero-copy handling as downloads
         
         // Serve static resources
         registry.addResourceHandler("/static/**")
@@ -46,6 +98,44 @@ public class FileStorageConfig implements WebMvcConfigurer {
         return uploadPath;
     }
     
+    public String getSessionPath() {
+        return sessionPath;
+    }
+    
+    public String getBlobPath() {
+        return blobPath;
+    }
+    
+    public int getSessionTtlHours() {
+        return sessionTtlHours;
+    }
+    
+    /**
+     * Directory layout of blobs and legacy uploads; files in another layout are moved
+     * by StorageLayoutMigrator.
+     */
+    public FanOutLayout getLayout() {
+        return layout;
+    }
+    
+    /**
+     * Volume names and root directories, the default volume first.
+     */
+    public Map<String, String> getVolumeRoots() {
+        return Collections.unmodifiableMap(volumeRoots);
+    }
+    
+    /**
+     * Space every volume keeps free; files are not placed on a volume that would go below it.
+     */
+    public long getVolumeMinFreeBytes() {
+        return volumeMinFreeMb * 1024 * 1024;
+    }
+    
+    public int getIngestParallelism() {
+        return Math.max(1, ingestParallelism);
+    }
+    
     public long getMaxStorageBytes() {
         return (long) maxStorageGb * 1024 * 1024 * 1024; // Convert GB to bytes
     }
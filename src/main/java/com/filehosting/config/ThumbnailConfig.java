@@ -0,0 +1,75 @@
+package com.filehosting.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import jakarta.annotation.PostConstruct;
+import java.util.Arrays;
+
+@Configuration
+public class ThumbnailConfig {
+
+    // Comma separated bounding box sizes in pixels, e.g. "160,320,640"
+    @Value("${app.thumbnails.sizes:160,320,640}")
+    private String sizes;
+
+    @Value("${app.thumbnails.path:${app.upload.path}/.thumbnails}")
+    private String cachePath;
+
+    @Value("${app.thumbnails.cache-size-mb:512}")
+    private long cacheSizeMb;
+
+    @Value("${app.thumbnails.workers:2}")
+    private int workers;
+
+    @Value("${app.thumbnails.queue-size:1000}")
+    private int queueSize;
+
+    private int[] parsedSizes;
+
+    @PostConstruct
+    public void init() {
+        parsedSizes = Arrays.stream(sizes.split(","))
+                .map(String::trim)
+                .filter(size -> !size.isEmpty())
+                .mapToInt(Integer::parseInt)
+                .sorted()
+                .distinct()
+                .toArray();
+        if (parsedSizes.length == 0 || parsedSizes[0] <= 0) {
+            throw new IllegalArgumentException("app.thumbnails.sizes must list positive sizes: " + sizes);
+        }
+    }
+
+    public int[] getSizes() {
+        return parsedSizes.clone();
+    }
+
+    /**
+     * The smallest configured size that covers the request, or the largest one.
+     */
+    public int resolveSize(int requested) {
+        for (int size : parsedSizes) {
+            if (size >= requested) {
+                return size;
+            }
+        }
+        return parsedSizes[parsedSizes.length - 1];
+    }
+
+    public String getCachePath() {
+        return cachePath;
+    }
+
+    public long getCacheSizeBytes() {
+        return Math.max(1, cacheSizeMb) * 1024 * 1024;
+    }
+
+    public int getWorkers() {
+        return Math.max(1, workers);
+    }
+
+    public int getQueueSize() {
+        return Math.max(1, queueSize);
+    }
+}
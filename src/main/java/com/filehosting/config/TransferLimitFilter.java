@@ -0,0 +1,175 @@
+package com.filehosting.config;
+
+import com.filehosting.service.FileServingService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caps the number of uploads and downloads in progress at once.
+ *
+ * With virtual threads a slow client no longer costs a scarce request thread, so the
+ * container would accept as many transfers as it has connections. These limits keep
+ * the disk and memory load bounded instead: a transfer over the limit waits briefly
+ * for a slot and is then turned away with 503 and Retry-After. Page views, previews
+ * and API calls are never queued behind transfers.
+ *
+ * A slot is held until the body has been sent: files are written on the request thread
+ * rather than by sendfile after it returns, still without copying them onto the heap,
+ * and streamed ZIPs release theirs when the async request completes.
+ */
+@Component
+public class TransferLimitFilter extends OncePerRequestFilter {
+
+    private static final String RETRY_AFTER_SECONDS = "10";
+
+    @Value("${app.transfers.max-concurrent-uploads:32}")
+    private int maxConcurrentUploads;
+
+    @Value("${app.transfers.max-concurrent-downloads:64}")
+    private int maxConcurrentDownloads;
+
+    @Value("${app.transfers.queue-timeout-ms:10000}")
+    private long queueTimeoutMs;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Semaphore uploadSlots;
+    private Semaphore downloadSlots;
+    private Counter rejectedUploads;
+    private Counter rejectedDownloads;
+
+    @PostConstruct
+    public void init() {
+        int uploadLimit = Math.max(1, maxConcurrentUploads);
+        int downloadLimit = Math.max(1, maxConcurrentDownloads);
+        uploadSlots = new Semaphore(uploadLimit, true);
+        downloadSlots = new Semaphore(downloadLimit, true);
+
+        Gauge.builder("filehosting.transfers.active", uploadSlots, slots -> uploadLimit - slots.availablePermits())
+                .description("Transfers in progress")
+                .tag("direction", "upload")
+                .register(meterRegistry);
+        Gauge.builder("filehosting.transfers.active", downloadSlots, slots -> downloadLimit - slots.availablePermits())
+                .description("Transfers in progress")
+                .tag("direction", "download")
+                .register(meterRegistry);
+        rejectedUploads = rejectedCounter("upload");
+        rejectedDownloads = rejectedCounter("download");
+    }
+
+    private Counter rejectedCounter(String direction) {
+        return Counter.builder("filehosting.transfers.rejected")
+                .description("Transfers turned away because the limit stayed reached")
+                .tag("direction", direction)
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Semaphore slots = slotsFor(request);
+        if (slots == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        boolean acquired;
+        try {
+            acquired = slots.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            (slots == uploadSlots ? rejectedUploads : rejectedDownloads).increment();
+            response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS);
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many transfers in progress");
+            return;
+        }
+
+        boolean releaseNow = true;
+        try {
+            if (slots == downloadSlots) {
+                request.setAttribute(FileServingService.SEND_IN_THREAD, Boolean.TRUE);
+            }
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                // Streamed ZIP downloads keep writing after this thread returns
+                request.getAsyncContext().addListener(new ReleaseOnComplete(slots));
+                releaseNow = false;
+            }
+        } finally {
+            if (releaseNow) {
+                slots.release();
+            }
+        }
+    }
+
+    private Semaphore slotsFor(HttpServletRequest request) {
+        String method = request.getMethod();
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+
+        if (("POST".equals(method) && path.equals("/upload"))
+                || ("PUT".equals(method) && path.startsWith("/api/uploads/"))
+                || ("POST".equals(method) && path.startsWith("/api/uploads/") && path.endsWith("/complete"))) {
+            return uploadSlots;
+        }
+        if ((("GET".equals(method) || "HEAD".equals(method))
+                && (path.startsWith("/download/") || path.startsWith("/uploads/") || path.equals("/download-all")))
+                || ("POST".equals(method) && path.equals("/download-zip"))) {
+            return downloadSlots;
+        }
+        return null;
+    }
+
+    private static final class ReleaseOnComplete implements AsyncListener {
+
+        private final Semaphore slots;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        ReleaseOnComplete(Semaphore slots) {
+            this.slots = slots;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            if (released.compareAndSet(false, true)) {
+                slots.release();
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            // onComplete follows once the timeout is handled
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            // onComplete follows once the error is handled
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
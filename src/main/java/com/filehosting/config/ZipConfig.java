@@ -0,0 +1,88 @@
+package com.filehosting.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+
+import jakarta.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Configuration
+public class ZipConfig {
+
+    @Value("${app.zip.parallelism:0}")
+    private int parallelism;
+
+    @Value("${app.zip.block-size-kb:1024}")
+    private int blockSizeKb;
+
+    // Comma separated "content-type=level" pairs, e.g. "text/*=6,application/pdf=6,*=5"
+    @Value("${app.zip.compression-levels:*=6}")
+    private String compressionLevels;
+
+    private final Map<String, Integer> exactLevels = new HashMap<>();
+    private final Map<String, Integer> prefixLevels = new LinkedHashMap<>();
+    private int defaultLevel = 6;
+
+    @PostConstruct
+    public void init() {
+        for (String pair : compressionLevels.split(",")) {
+            if (pair.isBlank()) {
+                continue;
+            }
+
+            String[] parts = pair.split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid app.zip.compression-levels entry: " + pair);
+            }
+
+            String type = parts[0].trim().toLowerCase();
+            int level = Integer.parseInt(parts[1].trim());
+            if (level < 0 || level > 9) {
+                throw new IllegalArgumentException("Compression level must be between 0 and 9: " + pair);
+            }
+
+            if (type.equals("*")) {
+                defaultLevel = level;
+            } else if (type.endsWith("/*")) {
+                prefixLevels.put(type.substring(0, type.length() - 1), level);
+            } else {
+                exactLevels.put(type, level);
+            }
+        }
+    }
+
+    public int getParallelism() {
+        // 0 means one deflate worker per core
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getBlockSize() {
+        return Math.max(64, blockSizeKb) * 1024;
+    }
+
+    public int getCompressionLevel(String contentType) {
+        if (contentType == null) {
+            return defaultLevel;
+        }
+
+        String type = contentType.toLowerCase();
+        int parameters = type.indexOf(';');
+        if (parameters >= 0) {
+            type = type.substring(0, parameters).trim();
+        }
+
+        Integer level = exactLevels.get(type);
+        if (level != null) {
+            return level;
+        }
+
+        for (Map.Entry<String, Integer> prefix : prefixLevels.entrySet()) {
+            if (type.startsWith(prefix.getKey())) {
+                return prefix.getValue();
+            }
+        }
+        return defaultLevel;
+    }
+}
@@ -0,0 +1,121 @@
+package com.filehosting.controller;
+
+import com.filehosting.model.FileSummary;
+import com.filehosting.model.UploadSession;
+import com.filehosting.model.UploadedFile;
+import com.filehosting.service.ChunkedUploadService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Resumable upload protocol for large files:
+ * create a session, PUT chunks at byte offsets (in any order, in parallel),
+ * GET the session to see which ranges arrived, then POST /complete.
+ */
+@RestController
+@RequestMapping("/api/uploads")
+public class ChunkedUploadController {
+
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @PostMapping
+    public ResponseEntity<?> createSession(@RequestParam("fileName") String fileName,
+                                           @RequestParam("fileSize") long fileSize,
+                                           @RequestParam(value = "contentType", required = false) String contentType) {
+        try {
+            UploadSession session = chunkedUploadService.createSession(fileName, fileSize, contentType);
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .header("Upload-Chunk-Size", String.valueOf(ChunkedUploadService.RECOMMENDED_CHUNK_SIZE))
+                    .body(session);
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            return error(HttpStatus.INSUFFICIENT_STORAGE, e.getMessage());
+        } catch (IOException e) {
+            return error(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to create upload session: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/{sessionId}")
+    public ResponseEntity<UploadSession> getSession(@PathVariable String sessionId) {
+        return chunkedUploadService.getSession(sessionId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @PutMapping("/{sessionId}")
+    public ResponseEntity<?> uploadChunk(@PathVariable String sessionId,
+                                         @RequestParam(value = "offset", required = false) Long offset,
+                                         @RequestHeader(value = HttpHeaders.CONTENT_RANGE, required = false) String contentRange,
+                                         HttpServletRequest request) {
+        if (chunkedUploadService.getSession(sessionId).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        // "Content-Range: bytes 0-8388607/*" takes precedence over ?offset=
+        long start;
+        long length = request.getContentLengthLong();
+        if (contentRange != null && contentRange.startsWith("bytes ")) {
+            try {
+                String range = contentRange.substring(6, contentRange.indexOf('/') > 0 ? contentRange.indexOf('/') : contentRange.length());
+                int dash = range.indexOf('-');
+                start = Long.parseLong(range.substring(0, dash).trim());
+                long end = Long.parseLong(range.substring(dash + 1).trim());
+                length = end - start + 1;
+            } catch (RuntimeException e) {
+                return error(HttpStatus.BAD_REQUEST, "Invalid Content-Range: " + contentRange);
+            }
+        } else if (offset != null) {
+            start = offset;
+        } else {
+            return error(HttpStatus.BAD_REQUEST, "Chunk offset is required");
+        }
+
+        try {
+            return ResponseEntity.ok(chunkedUploadService.writeChunk(sessionId, start, length, request.getInputStream()));
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            return error(HttpStatus.CONFLICT, e.getMessage());
+        } catch (IOException e) {
+            return error(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to write chunk: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/{sessionId}/complete")
+    public ResponseEntity<?> completeSession(@PathVariable String sessionId) {
+        if (chunkedUploadService.getSession(sessionId).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+
+        try {
+            UploadedFile uploadedFile = chunkedUploadService.completeSession(sessionId);
+            return ResponseEntity.status(HttpStatus.CREATED).body(FileSummary.of(uploadedFile));
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            return error(HttpStatus.CONFLICT, e.getMessage());
+        } catch (IOException e) {
+            return error(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to complete upload: " + e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<Void> abortSession(@PathVariable String sessionId) {
+        return chunkedUploadService.abortSession(sessionId)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    private ResponseEntity<Map<String, String>> error(HttpStatus status, String message) {
+        return ResponseEntity.status(status).body(Map.of("error", message));
+    }
+}
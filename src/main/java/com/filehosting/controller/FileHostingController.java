@@ -1,34 +1,54 @@
 package com.filehosting.controller;
 
+import com.filehosting.model.FilePage;
+import com.filehosting.model.ReconcileReport;
 import com.filehosting.model.StorageInfo;
 import com.filehosting.model.UploadedFile;
+import com.filehosting.service.ContentVariantService;
+import com.filehosting.service.FileContentCache;
+import com.filehosting.service.FileServingService;
 import com.filehosting.service.FileStorageService;
 import com.filehosting.service.StorageMonitoringService;
+import com.filehosting.service.StorageReconcileService;
+import com.filehosting.service.StorageTieringService;
+import com.filehosting.service.StorageVolumeService;
+import com.filehosting.service.ThumbnailService;
+import com.filehosting.service.UploadIngestService;
 import com.filehosting.service.ZipService;
+import com.filehosting.util.FileUtils;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Controller
 public class FileHostingController {
     
+    private static final int PAGE_SIZE = 48;
+    private static final int MAX_API_PAGE_SIZE = 500;
+    private static final int MAX_BULK_DELETE = 10000;
+    private static final long PREVIEW_WAIT_SECONDS = 10;
+    
     @Autowired
     private FileStorageService fileStorageService;
     
@@ -38,12 +58,39 @@ public class FileHostingController {
     @Autowired
     private ZipService zipService;
     
+    @Autowired
+    private FileServingService fileServingService;
+    
+    @Autowired
+    private ThumbnailService thumbnailService;
+    
+    @Autowired
+    private UploadIngestService uploadIngestService;
+    
+    @Autowired
+    private StorageVolumeService volumeService;
+    
+    @Autowired
+    private StorageTieringService tieringService;
+    
+    @Autowired
+    private FileContentCache contentCache;
+    
+    @Autowired
+    private ContentVariantService variantService;
+    
+    @Autowired
+    private StorageReconcileService reconcileService;
+    
     @GetMapping("/")
-    public String index(Model model) {
-        List<UploadedFile> files = fileStorageService.getAllFiles();
+    public String index(@RequestParam(value = "cursor", required = false) String cursor, Model model) {
+        String from = validCursor(cursor);
+        FilePage page = fileStorageService.getFilePage(from, PAGE_SIZE);
         StorageInfo storageInfo = storageService.getStorageInfo();
         
-        model.addAttribute("files", files);
+        model.addAttribute("files", page.getFiles());
+        model.addAttribute("nextCursor", page.getNextCursor());
+        model.addAttribute("pagedFrom", from);
         model.addAttribute("storageInfo", storageInfo);
         model.addAttribute("isStorageWarning", storageService.isStorageWarning());
         model.addAttribute("isStorageFull", storageService.isStorageFull());
@@ -60,78 +107,133 @@ public class FileHostingController {
             return "redirect:/";
         }
         
-        int uploadedCount = 0;
-        StringBuilder errors = new StringBuilder();
-        
-        for (MultipartFile file : files) {
-            if (file.isEmpty()) {
-                continue;
-            }
-            
-            try {
-                // Check if storage can accommodate the file
-                if (!storageService.canUploadFile(file.getSize())) {
-                    errors.append("File '").append(file.getOriginalFilename())
-                          .append("' exceeds available storage space. ");
-                    continue;
-                }
-                
-                // Validate file type
-                if (!fileStorageService.isValidFileType(file)) {
-                    errors.append("File '").append(file.getOriginalFilename())
-                          .append("' has unsupported file type. ");
-                    continue;
-                }
-                
-                fileStorageService.storeFile(file);
-                uploadedCount++;
-                
-            } catch (IOException e) {
-                errors.append("Failed to upload '").append(file.getOriginalFilename())
-                      .append("': ").append(e.getMessage()).append(" ");
-            } catch (IllegalStateException e) {
-                errors.append(e.getMessage()).append(" ");
-                break; // Stop processing if storage is full
-            }
-        }
+        UploadIngestService.Result result = uploadIngestService.ingest(files);
+        int uploadedCount = result.getUploadedCount();
+        String errors = result.getErrors();
         
         if (uploadedCount > 0) {
             redirectAttributes.addFlashAttribute("success", 
                 uploadedCount + " file(s) uploaded successfully!");
         }
         
-        if (errors.length() > 0) {
-            redirectAttributes.addFlashAttribute("error", errors.toString());
+        if (!errors.isEmpty()) {
+            redirectAttributes.addFlashAttribute("error", errors);
         }
         
         return "redirect:/";
     }
     
     @GetMapping("/download/{id}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable Long id) {
+    public void downloadFile(@PathVariable Long id, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
         Optional<UploadedFile> fileOpt = fileStorageService.getFileById(id);
         
         if (fileOpt.isEmpty()) {
-            return ResponseEntity.notFound().build();
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
         
         UploadedFile uploadedFile = fileOpt.get();
-        Path filePath = Paths.get(uploadedFile.getFilePath());
+        Path filePath = fileStorageService.resolveFilePath(uploadedFile);
         
-        if (!Files.exists(filePath)) {
-            return ResponseEntity.notFound().build();
+        boolean downloaded;
+        Path variant = variantService.select(uploadedFile, request, response);
+        FileContentCache.Entry cached = variant == null ? contentCache.get(uploadedFile, filePath) : null;
+        if (variant != null) {
+            downloaded = fileServingService.serveEncoded(variant, ContentVariantService.GZIP,
+                    uploadedFile.getContentType(), uploadedFile.getOriginalName(), true, request, response);
+        } else if (cached != null) {
+            downloaded = fileServingService.serve(cached.getData(), cached.getLastModified(),
+                    uploadedFile.getContentType(), uploadedFile.getOriginalName(), true, request, response);
+        } else if (Files.exists(filePath)) {
+            try (StorageVolumeService.Activity reading = volumeService.reading(filePath)) {
+                // Counted as a read until the body is sent, not just until sendfile is queued
+                sendInThreadWhileCounted(reading, request);
+                downloaded = fileServingService.serve(filePath, uploadedFile.getContentType(),
+                        uploadedFile.getOriginalName(), true, request, response);
+            }
+        } else {
+            Path coldPath = tieringService.coldCopyOf(uploadedFile);
+            if (coldPath == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            downloaded = serveColdCopy(uploadedFile, coldPath, true, request, response);
         }
         
-        // Increment download count
-        fileStorageService.incrementDownloadCount(uploadedFile);
+        // Resumed or partial fetches and revalidations are not new downloads
+        if (downloaded) {
+            fileStorageService.incrementDownloadCount(uploadedFile);
+        } else {
+            fileStorageService.recordAccess(uploadedFile);
+        }
+    }
+    
+    @GetMapping("/uploads/{storedName:.+}")
+    public void serveUploadedFile(@PathVariable String storedName, HttpServletRequest request,
+                                  HttpServletResponse response) throws IOException {
+        Optional<UploadedFile> fileOpt = fileStorageService.getFileByStoredName(storedName);
+        Path filePath = fileOpt.map(fileStorageService::resolveFilePath).orElse(null);
+        Path variant = filePath != null ? variantService.select(fileOpt.get(), request, response) : null;
+        FileContentCache.Entry cached = filePath != null && variant == null ? contentCache.get(fileOpt.get(), filePath) : null;
+        Path coldPath = variant == null && cached == null && filePath != null && !Files.exists(filePath)
+                ? tieringService.coldCopyOf(fileOpt.get()) : null;
         
-        Resource resource = new FileSystemResource(filePath);
+        if (filePath == null || (variant == null && cached == null && coldPath == null && !Files.exists(filePath))) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
         
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, 
-                       "attachment; filename=\"" + uploadedFile.getOriginalName() + "\"")
-                .header(HttpHeaders.CONTENT_TYPE, uploadedFile.getContentType())
-                .body(resource);
+        // Shown inline for previews, but never allowed to run scripts on this origin
+        response.setHeader("Content-Security-Policy", "sandbox");
+        if (variant != null) {
+            fileServingService.serveEncoded(variant, ContentVariantService.GZIP, fileOpt.get().getContentType(),
+                    fileOpt.get().getOriginalName(), false, request, response);
+        } else if (cached != null) {
+            fileServingService.serve(cached.getData(), cached.getLastModified(), fileOpt.get().getContentType(),
+                    fileOpt.get().getOriginalName(), false, request, response);
+        } else if (coldPath != null) {
+            serveColdCopy(fileOpt.get(), coldPath, false, request, response);
+        } else {
+            try (StorageVolumeService.Activity reading = volumeService.reading(filePath)) {
+                sendInThreadWhileCounted(reading, request);
+                fileServingService.serve(filePath, fileOpt.get().getContentType(),
+                        fileOpt.get().getOriginalName(), false, request, response);
+            }
+        }
+        fileStorageService.recordAccess(fileOpt.get());
+    }
+    
+    @GetMapping("/preview/{id}")
+    public void servePreview(@PathVariable Long id, @RequestParam(value = "size", defaultValue = "320") int size,
+                             HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Optional<UploadedFile> fileOpt = fileStorageService.getFileById(id);
+        
+        if (fileOpt.isEmpty() || !thumbnailService.isSupported(fileOpt.get())) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        
+        Path preview;
+        try {
+            preview = thumbnailService.getThumbnail(fileOpt.get(), size).get(PREVIEW_WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException | TimeoutException e) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, "5");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        } catch (ExecutionException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        
+        // Previews are derived from immutable content, so clients never need to revalidate
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "public, max-age=31536000, immutable");
+        fileServingService.serve(preview, "image/jpeg", "preview-" + fileOpt.get().getOriginalName() + ".jpg",
+                false, request, response);
     }
     
     @PostMapping("/delete/{id}")
@@ -147,44 +249,49 @@ public class FileHostingController {
         return "redirect:/";
     }
     
+    /**
+     * Deletes the files with the given ids, sent as a JSON array. Their space is freed at
+     * once; the files on disk are removed in the background.
+     */
+    @PostMapping("/api/files/delete")
+    @ResponseBody
+    public ResponseEntity<?> deleteFiles(@RequestBody List<Long> ids) {
+        if (ids.isEmpty() || ids.size() > MAX_BULK_DELETE) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Between 1 and " + MAX_BULK_DELETE + " file ids can be deleted at once"));
+        }
+        int deleted = fileStorageService.deleteFiles(ids);
+        return ResponseEntity.ok(Map.of("requested", ids.size(), "deleted", deleted));
+    }
+    
     @PostMapping("/download-zip")
-    public ResponseEntity<Resource> downloadSelectedFiles(@RequestParam("selectedFiles") List<Long> fileIds,
-                                                         @RequestParam(value = "zipName", defaultValue = "files") String zipName) {
+    public ResponseEntity<StreamingResponseBody> downloadSelectedFiles(@RequestParam("selectedFiles") List<Long> fileIds,
+                                                                       @RequestParam(value = "zipName", defaultValue = "files") String zipName) {
         
         if (fileIds.isEmpty()) {
             return ResponseEntity.badRequest().build();
         }
         
-        try {
-            File zipFile = zipService.createZipFile(fileIds, zipName);
-            Resource resource = new FileSystemResource(zipFile);
-            
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, 
-                           "attachment; filename=\"" + zipFile.getName() + "\"")
-                    .header(HttpHeaders.CONTENT_TYPE, "application/zip")
-                    .body(resource);
-                    
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        }
+        // The archive is written to the response as entries are read, so the
+        // first bytes go out immediately and nothing is staged on disk
+        StreamingResponseBody body = outputStream -> zipService.writeZip(fileIds, outputStream);
+        
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, 
+                       "attachment; filename=\"" + FileUtils.sanitizeFilename(zipName) + ".zip\"")
+                .header(HttpHeaders.CONTENT_TYPE, "application/zip")
+                .body(body);
     }
     
     @GetMapping("/download-all")
-    public ResponseEntity<Resource> downloadAllFiles() {
-        try {
-            File zipFile = zipService.createZipFileFromAll();
-            Resource resource = new FileSystemResource(zipFile);
-            
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, 
-                           "attachment; filename=\"all_files.zip\"")
-                    .header(HttpHeaders.CONTENT_TYPE, "application/zip")
-                    .body(resource);
-                    
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        }
+    public ResponseEntity<StreamingResponseBody> downloadAllFiles() {
+        StreamingResponseBody body = zipService::writeAllFilesZip;
+        
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, 
+                       "attachment; filename=\"all_files.zip\"")
+                .header(HttpHeaders.CONTENT_TYPE, "application/zip")
+                .body(body);
     }
     
     @GetMapping("/api/storage")
@@ -193,12 +300,62 @@ public class FileHostingController {
         return storageService.getStorageInfo();
     }
     
+    /**
+     * Starts a check of the files on disk against the database in the background. With
+     * repair, orphan files are removed and files whose content is missing are deleted.
+     */
+    @PostMapping("/api/storage/reconcile")
+    @ResponseBody
+    public ResponseEntity<?> startReconcile(@RequestParam(value = "repair", defaultValue = "false") boolean repair) {
+        if (!reconcileService.startReconcile(repair)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", "A reconciliation is already running"));
+        }
+        return ResponseEntity.accepted().body(Map.of("started", true, "repair", repair));
+    }
+    
+    @GetMapping("/api/storage/reconcile")
+    @ResponseBody
+    public Map<String, Object> getReconcileStatus() {
+        ReconcileReport report = reconcileService.getLastReport();
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", reconcileService.isRunning());
+        status.put("lastReport", report);
+        return status;
+    }
+    
+    @GetMapping("/api/files")
+    @ResponseBody
+    public ResponseEntity<?> listFiles(@RequestParam(value = "cursor", required = false) String cursor,
+                                       @RequestParam(value = "limit", defaultValue = "50") int limit,
+                                       @RequestParam(value = "type", required = false) String type,
+                                       @RequestParam(value = "q", required = false) String query) {
+        int size = Math.max(1, Math.min(limit, MAX_API_PAGE_SIZE));
+        try {
+            FilePage page;
+            if (query != null && !query.isBlank()) {
+                page = fileStorageService.searchFilePage(query, cursor, size);
+            } else if (type != null && contentCategory(type) != null) {
+                page = fileStorageService.getFilePageByCategory(contentCategory(type), cursor, size);
+            } else {
+                page = fileStorageService.getFilePage(cursor, size);
+            }
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+    }
+    
     @GetMapping("/search")
-    public String searchFiles(@RequestParam("q") String query, Model model) {
-        List<UploadedFile> files = fileStorageService.searchFiles(query);
+    public String searchFiles(@RequestParam("q") String query,
+                              @RequestParam(value = "cursor", required = false) String cursor, Model model) {
+        String from = validCursor(cursor);
+        FilePage page = fileStorageService.searchFilePage(query, from, PAGE_SIZE);
         StorageInfo storageInfo = storageService.getStorageInfo();
         
-        model.addAttribute("files", files);
+        model.addAttribute("files", page.getFiles());
+        model.addAttribute("nextCursor", page.getNextCursor());
+        model.addAttribute("pagedFrom", from);
         model.addAttribute("storageInfo", storageInfo);
         model.addAttribute("searchQuery", query);
         model.addAttribute("isStorageWarning", storageService.isStorageWarning());
@@ -208,23 +365,19 @@ public class FileHostingController {
     }
     
     @GetMapping("/filter/{type}")
-    public String filterFiles(@PathVariable String type, Model model) {
-        List<UploadedFile> files;
-        
-        switch (type.toLowerCase()) {
-            case "images":
-                files = fileStorageService.getImageFiles();
-                break;
-            case "videos":
-                files = fileStorageService.getVideoFiles();
-                break;
-            default:
-                files = fileStorageService.getAllFiles();
-        }
+    public String filterFiles(@PathVariable String type,
+                              @RequestParam(value = "cursor", required = false) String cursor, Model model) {
+        String from = validCursor(cursor);
+        String contentCategory = contentCategory(type);
+        FilePage page = contentCategory != null
+                ? fileStorageService.getFilePageByCategory(contentCategory, from, PAGE_SIZE)
+                : fileStorageService.getFilePage(from, PAGE_SIZE);
         
         StorageInfo storageInfo = storageService.getStorageInfo();
         
-        model.addAttribute("files", files);
+        model.addAttribute("files", page.getFiles());
+        model.addAttribute("nextCursor", page.getNextCursor());
+        model.addAttribute("pagedFrom", from);
         model.addAttribute("storageInfo", storageInfo);
         model.addAttribute("filterType", type);
         model.addAttribute("isStorageWarning", storageService.isStorageWarning());
@@ -232,4 +385,36 @@ public class FileHostingController {
         
         return "index";
     }
+    
+    // Files outside every volume count nothing, so they keep going out by sendfile
+    private static void sendInThreadWhileCounted(StorageVolumeService.Activity reading, HttpServletRequest request) {
+        if (reading != StorageVolumeService.Activity.NONE) {
+            request.setAttribute(FileServingService.SEND_IN_THREAD, Boolean.TRUE);
+        }
+    }
+    
+    private boolean serveColdCopy(UploadedFile uploadedFile, Path coldPath, boolean attachment,
+                                  HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // Streamed from the cold tier while the blob is moved back for later requests
+        tieringService.coldFileRead(uploadedFile);
+        return fileServingService.serveStream(() -> tieringService.openCold(coldPath), uploadedFile.getFileSize(),
+                Files.getLastModifiedTime(coldPath).toMillis(), uploadedFile.getContentType(),
+                uploadedFile.getOriginalName(), attachment, request, response);
+    }
+    
+    private String contentCategory(String type) {
+        switch (type.toLowerCase()) {
+            case "images":
+                return "image";
+            case "videos":
+                return "video";
+            default:
+                return null;
+        }
+    }
+    
+    private String validCursor(String cursor) {
+        // A stale or hand-edited cursor in a page link just starts from the newest files
+        return fileStorageService.isValidPageCursor(cursor) ? cursor : null;
+    }
 }
@@ -0,0 +1,41 @@
+package com.filehosting.model;
+
+import java.util.List;
+
+/**
+ * One page of a file listing. nextCursor is opaque to clients and null on the last page.
+ */
+public class FilePage {
+    
+    private List<FileSummary> files;
+    private String nextCursor;
+    
+    public FilePage() {
+    }
+    
+    public FilePage(List<FileSummary> files, String nextCursor) {
+        this.files = files;
+        this.nextCursor = nextCursor;
+    }
+    
+    // Getters and Setters
+    public List<FileSummary> getFiles() {
+        return files;
+    }
+    
+    public void setFiles(List<FileSummary> files) {
+        this.files = files;
+    }
+    
+    public String getNextCursor() {
+        return nextCursor;
+    }
+    
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+    
+    public boolean isHasMore() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,111 @@
+package com.filehosting.model;
+
+import com.filehosting.util.FileUtils;
+import java.time.LocalDateTime;
+
+/**
+ * The columns a file listing needs, read straight into a DTO rather than as managed entities.
+ */
+public class FileSummary {
+    
+    private Long id;
+    private String originalName;
+    private String storedName;
+    private Long fileSize;
+    private String contentType;
+    private LocalDateTime uploadTime;
+    private Long downloadCount;
+    
+    public FileSummary() {
+    }
+    
+    public FileSummary(Long id, String originalName, String storedName, Long fileSize,
+                       String contentType, LocalDateTime uploadTime, Long downloadCount) {
+        this.id = id;
+        this.originalName = originalName;
+        this.storedName = storedName;
+        this.fileSize = fileSize;
+        this.contentType = contentType;
+        this.uploadTime = uploadTime;
+        this.downloadCount = downloadCount;
+    }
+    
+    /**
+     * The listing columns of a row already loaded, e.g. one just stored, so the API
+     * never sends its storage path or content hash.
+     */
+    public static FileSummary of(UploadedFile file) {
+        return new FileSummary(file.getId(), file.getOriginalName(), file.getStoredName(), file.getFileSize(),
+                file.getContentType(), file.getUploadTime(), file.getDownloadCount());
+    }
+    
+    // Getters and Setters
+    public Long getId() {
+        return id;
+    }
+    
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public String getOriginalName() {
+        return originalName;
+    }
+    
+    public void setOriginalName(String originalName) {
+        this.originalName = originalName;
+    }
+    
+    public String getStoredName() {
+        return storedName;
+    }
+    
+    public void setStoredName(String storedName) {
+        this.storedName = storedName;
+    }
+    
+    public Long getFileSize() {
+        return fileSize;
+    }
+    
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+    
+    public String getContentType() {
+        return contentType;
+    }
+    
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+    
+    public LocalDateTime getUploadTime() {
+        return uploadTime;
+    }
+    
+    public void setUploadTime(LocalDateTime uploadTime) {
+        this.uploadTime = uploadTime;
+    }
+    
+    public Long getDownloadCount() {
+        return downloadCount;
+    }
+    
+    public void setDownloadCount(Long downloadCount) {
+        this.downloadCount = downloadCount;
+    }
+    
+    // Utility methods
+    public boolean isImage() {
+        return contentType != null && contentType.startsWith("image/");
+    }
+    
+    public boolean isVideo() {
+        return contentType != null && contentType.startsWith("video/");
+    }
+    
+    public String getFormattedFileSize() {
+        return FileUtils.formatFileSize(fileSize != null ? fileSize : 0L);
+    }
+}
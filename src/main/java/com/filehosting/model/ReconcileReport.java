@@ -0,0 +1,191 @@
+package com.filehosting.model;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a reconciliation of the files on disk with the database, as reported by
+ * /api/storage/reconcile.
+ */
+public class ReconcileReport {
+    
+    private LocalDateTime startedAt;
+    private long durationMs;
+    private boolean repair;
+    private long filesScanned;
+    private long rowsChecked;
+    private long recentFiles;
+    private long orphanFiles;
+    private long orphanBytes;
+    private long staleLinks;
+    private long missingFiles;
+    private long unavailableFiles;
+    private long orphansQueued;
+    private long rowsRemoved;
+    private long rowsWithheld;
+    private List<String> orphanSamples = new ArrayList<>();
+    private List<Long> missingSamples = new ArrayList<>();
+    
+    public ReconcileReport() {
+    }
+    
+    // Getters and Setters
+    public LocalDateTime getStartedAt() {
+        return startedAt;
+    }
+    
+    public void setStartedAt(LocalDateTime startedAt) {
+        this.startedAt = startedAt;
+    }
+    
+    public long getDurationMs() {
+        return durationMs;
+    }
+    
+    public void setDurationMs(long durationMs) {
+        this.durationMs = durationMs;
+    }
+    
+    /**
+     * Whether orphans were queued for removal and rows with missing files deleted.
+     */
+    public boolean isRepair() {
+        return repair;
+    }
+    
+    public void setRepair(boolean repair) {
+        this.repair = repair;
+    }
+    
+    public long getFilesScanned() {
+        return filesScanned;
+    }
+    
+    public void setFilesScanned(long filesScanned) {
+        this.filesScanned = filesScanned;
+    }
+    
+    /**
+     * Blobs and files stored before deduplication whose file was looked for.
+     */
+    public long getRowsChecked() {
+        return rowsChecked;
+    }
+    
+    public void setRowsChecked(long rowsChecked) {
+        this.rowsChecked = rowsChecked;
+    }
+    
+    /**
+     * Unreferenced files left alone because they were modified within the minimum age, e.g. uploads in progress.
+     */
+    public long getRecentFiles() {
+        return recentFiles;
+    }
+    
+    public void setRecentFiles(long recentFiles) {
+        this.recentFiles = recentFiles;
+    }
+    
+    /**
+     * Files no row refers to, including stale links.
+     */
+    public long getOrphanFiles() {
+        return orphanFiles;
+    }
+    
+    public void setOrphanFiles(long orphanFiles) {
+        this.orphanFiles = orphanFiles;
+    }
+    
+    /**
+     * Space taken by orphan files, not counting stale links.
+     */
+    public long getOrphanBytes() {
+        return orphanBytes;
+    }
+    
+    public void setOrphanBytes(long orphanBytes) {
+        this.orphanBytes = orphanBytes;
+    }
+    
+    /**
+     * Orphans that are another link to a stored blob's file, e.g. left by an interrupted layout migration; they take no extra space.
+     */
+    public long getStaleLinks() {
+        return staleLinks;
+    }
+    
+    public void setStaleLinks(long staleLinks) {
+        this.staleLinks = staleLinks;
+    }
+    
+    /**
+     * Rows whose file is gone from disk.
+     */
+    public long getMissingFiles() {
+        return missingFiles;
+    }
+    
+    public void setMissingFiles(long missingFiles) {
+        this.missingFiles = missingFiles;
+    }
+    
+    /**
+     * Rows whose file was not looked for because its volume or the cold tier is missing or unreadable; these are never removed.
+     */
+    public long getUnavailableFiles() {
+        return unavailableFiles;
+    }
+    
+    public void setUnavailableFiles(long unavailableFiles) {
+        this.unavailableFiles = unavailableFiles;
+    }
+    
+    public long getOrphansQueued() {
+        return orphansQueued;
+    }
+    
+    public void setOrphansQueued(long orphansQueued) {
+        this.orphansQueued = orphansQueued;
+    }
+    
+    public long getRowsRemoved() {
+        return rowsRemoved;
+    }
+    
+    public void setRowsRemoved(long rowsRemoved) {
+        this.rowsRemoved = rowsRemoved;
+    }
+    
+    /**
+     * Rows with missing files left in place because removing them would exceed the share of all files one run may remove.
+     */
+    public long getRowsWithheld() {
+        return rowsWithheld;
+    }
+    
+    public void setRowsWithheld(long rowsWithheld) {
+        this.rowsWithheld = rowsWithheld;
+    }
+    
+    public List<String> getOrphanSamples() {
+        return orphanSamples;
+    }
+    
+    public void setOrphanSamples(List<String> orphanSamples) {
+        this.orphanSamples = orphanSamples;
+    }
+    
+    /**
+     * Ids of some of the files whose content is missing.
+     */
+    public List<Long> getMissingSamples() {
+        return missingSamples;
+    }
+    
+    public void setMissingSamples(List<Long> missingSamples) {
+        this.missingSamples = missingSamples;
+    }
+}
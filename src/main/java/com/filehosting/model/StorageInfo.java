@@ -1,19 +1,31 @@
 package com.filehosting.model;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class StorageInfo {
     private long totalSpace;
     private long usedSpace;
+    private long logicalUsedSpace;
+    private long reservedSpace;
     private long availableSpace;
     private double usagePercentage;
     private long fileCount;
+    private List<VolumeInfo> volumes = new ArrayList<>();
     
     public StorageInfo() {
     }
     
     public StorageInfo(long totalSpace, long usedSpace, long fileCount) {
+        this(totalSpace, usedSpace, usedSpace, 0, fileCount);
+    }
+    
+    public StorageInfo(long totalSpace, long usedSpace, long logicalUsedSpace, long reservedSpace, long fileCount) {
         this.totalSpace = totalSpace;
         this.usedSpace = usedSpace;
-        this.availableSpace = totalSpace - usedSpace;
+        this.logicalUsedSpace = logicalUsedSpace;
+        this.reservedSpace = reservedSpace;
+        this.availableSpace = totalSpace - usedSpace - reservedSpace;
         this.usagePercentage = totalSpace > 0 ? (double) usedSpace / totalSpace * 100 : 0;
         this.fileCount = fileCount;
     }
@@ -35,6 +47,22 @@ public class StorageInfo {
         this.usedSpace = usedSpace;
     }
     
+    public long getLogicalUsedSpace() {
+        return logicalUsedSpace;
+    }
+    
+    public void setLogicalUsedSpace(long logicalUsedSpace) {
+        this.logicalUsedSpace = logicalUsedSpace;
+    }
+    
+    public long getReservedSpace() {
+        return reservedSpace;
+    }
+    
+    public void setReservedSpace(long reservedSpace) {
+        this.reservedSpace = reservedSpace;
+    }
+    
     public long getAvailableSpace() {
         return availableSpace;
     }
@@ -59,6 +87,14 @@ public class StorageInfo {
         this.fileCount = fileCount;
     }
     
+    public List<VolumeInfo> getVolumes() {
+        return volumes;
+    }
+    
+    public void setVolumes(List<VolumeInfo> volumes) {
+        this.volumes = volumes;
+    }
+    
     // Utility methods
     public String getFormattedTotalSpace() {
         return formatBytes(totalSpace);
@@ -68,6 +104,18 @@ public class StorageInfo {
         return formatBytes(usedSpace);
     }
     
+    public String getFormattedLogicalUsedSpace() {
+        return formatBytes(logicalUsedSpace);
+    }
+    
+    public long getDeduplicatedSpace() {
+        return Math.max(0, logicalUsedSpace - usedSpace);
+    }
+    
+    public String getFormattedDeduplicatedSpace() {
+        return formatBytes(getDeduplicatedSpace());
+    }
+    
     public String getFormattedAvailableSpace() {
         return formatBytes(availableSpace);
     }
@@ -0,0 +1,109 @@
+package com.filehosting.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "stored_blobs")
+public class StoredBlob {
+
+    // Hex SHA-256 of the content
+    @Id
+    @Column(name = "content_hash", length = 64)
+    private String hash;
+
+    @Column(name = "file_path", nullable = false)
+    private String filePath;
+
+    @Column(name = "blob_size", nullable = false)
+    private Long size;
+
+    @Column(name = "ref_count", nullable = false)
+    private Long refCount = 0L;
+
+    // Name of the storage volume holding the file
+    @Column(name = "volume", length = 64)
+    private String volume;
+
+    // Compressed or slower-tier copy while the file is cold; file_path then doesn't exist
+    @Column(name = "cold_path")
+    private String coldPath;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    // Constructors
+    public StoredBlob() {
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public StoredBlob(String hash, String filePath, Long size) {
+        this();
+        this.hash = hash;
+        this.filePath = filePath;
+        this.size = size;
+        this.refCount = 1L;
+    }
+
+    public StoredBlob(String hash, String volume, String filePath, Long size) {
+        this(hash, filePath, size);
+        this.volume = volume;
+    }
+
+    // Getters and Setters
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public Long getRefCount() {
+        return refCount;
+    }
+
+    public void setRefCount(Long refCount) {
+        this.refCount = refCount;
+    }
+
+    public String getVolume() {
+        return volume;
+    }
+
+    public void setVolume(String volume) {
+        this.volume = volume;
+    }
+
+    public String getColdPath() {
+        return coldPath;
+    }
+
+    public void setColdPath(String coldPath) {
+        this.coldPath = coldPath;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
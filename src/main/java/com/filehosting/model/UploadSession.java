@@ -0,0 +1,138 @@
+package com.filehosting.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "upload_sessions")
+public class UploadSession {
+    
+    @Id
+    @Column(name = "id", length = 36)
+    private String id;
+    
+    @NotBlank
+    @Column(name = "original_name", nullable = false)
+    private String originalName;
+    
+    @Column(name = "content_type")
+    private String contentType;
+    
+    @NotNull
+    @Column(name = "file_size", nullable = false)
+    private Long fileSize;
+    
+    @NotBlank
+    @Column(name = "part_path", nullable = false)
+    private String partPath;
+    
+    // Inclusive byte ranges already on disk, e.g. "0-8388607,16777216-25165823"
+    @Lob
+    @Column(name = "received_ranges")
+    private String receivedRanges = "";
+    
+    @Column(name = "received_bytes", nullable = false)
+    private Long receivedBytes = 0L;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+    
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+    
+    // Constructors
+    public UploadSession() {
+        this.createdAt = LocalDateTime.now();
+    }
+    
+    public UploadSession(String id, String originalName, String contentType, Long fileSize, String partPath) {
+        this();
+        this.id = id;
+        this.originalName = originalName;
+        this.contentType = contentType;
+        this.fileSize = fileSize;
+        this.partPath = partPath;
+    }
+    
+    // Getters and Setters
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public String getOriginalName() {
+        return originalName;
+    }
+    
+    public void setOriginalName(String originalName) {
+        this.originalName = originalName;
+    }
+    
+    public String getContentType() {
+        return contentType;
+    }
+    
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+    
+    public Long getFileSize() {
+        return fileSize;
+    }
+    
+    public void setFileSize(Long fileSize) {
+        this.fileSize = fileSize;
+    }
+    
+    @JsonIgnore
+    public String getPartPath() {
+        return partPath;
+    }
+    
+    public void setPartPath(String partPath) {
+        this.partPath = partPath;
+    }
+    
+    public String getReceivedRanges() {
+        return receivedRanges;
+    }
+    
+    public void setReceivedRanges(String receivedRanges) {
+        this.receivedRanges = receivedRanges;
+    }
+    
+    public Long getReceivedBytes() {
+        return receivedBytes;
+    }
+    
+    public void setReceivedBytes(Long receivedBytes) {
+        this.receivedBytes = receivedBytes;
+    }
+    
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+    
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+    
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+    
+    public void setExpiresAt(LocalDateTime expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+    
+    // Utility methods
+    public boolean isComplete() {
+        return receivedBytes != null && receivedBytes.equals(fileSize);
+    }
+}
@@ -1,10 +1,12 @@
 package com.filehosting.model;
 
+import com.filehosting.util.FileUtils;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import java.time.LocalDateTime;
 
+// Columns and indexes are created by the migrations in db/migration
 @Entity
 @Table(name = "uploaded_files")
 public class UploadedFile {
@@ -32,6 +34,14 @@ public class UploadedFile {
     @Column(name = "content_type")
     private String contentType;
     
+    // Top-level media type, derived from contentType on every write; indexed for the type filters
+    @Column(name = "content_category", length = 32, nullable = false)
+    private String contentCategory;
+    
+    // SHA-256 of the content; null for files stored before deduplication
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+    
     @Column(name = "upload_time", nullable = false)
     private LocalDateTime uploadTime;
     
@@ -56,6 +66,12 @@ public class UploadedFile {
         this.contentType = contentType;
     }
     
+    @PrePersist
+    @PreUpdate
+    void updateContentCategory() {
+        this.contentCategory = FileUtils.getContentCategory(contentType);
+    }
+    
     // Getters and Setters
     public Long getId() {
         return id;
@@ -105,6 +121,18 @@ public class UploadedFile {
         this.contentType = contentType;
     }
     
+    public String getContentCategory() {
+        return contentCategory;
+    }
+    
+    public String getContentHash() {
+        return contentHash;
+    }
+    
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+    
     public LocalDateTime getUploadTime() {
         return uploadTime;
     }
@@ -0,0 +1,109 @@
+package com.filehosting.model;
+
+/**
+ * Capacity and activity of one storage volume, as reported by /api/storage.
+ */
+public class VolumeInfo {
+    
+    private String name;
+    private String path;
+    private long totalSpace;
+    private long freeSpace;
+    private long usedSpace;
+    private long fileCount;
+    private int activeReads;
+    private int activeWrites;
+    
+    public VolumeInfo() {
+    }
+    
+    public VolumeInfo(String name, String path, long totalSpace, long freeSpace, long usedSpace, long fileCount,
+                      int activeReads, int activeWrites) {
+        this.name = name;
+        this.path = path;
+        this.totalSpace = totalSpace;
+        this.freeSpace = freeSpace;
+        this.usedSpace = usedSpace;
+        this.fileCount = fileCount;
+        this.activeReads = activeReads;
+        this.activeWrites = activeWrites;
+    }
+    
+    // Getters and Setters
+    public String getName() {
+        return name;
+    }
+    
+    public void setName(String name) {
+        this.name = name;
+    }
+    
+    public String getPath() {
+        return path;
+    }
+    
+    public void setPath(String path) {
+        this.path = path;
+    }
+    
+    /**
+     * Size of the filesystem the volume is on.
+     */
+    public long getTotalSpace() {
+        return totalSpace;
+    }
+    
+    public void setTotalSpace(long totalSpace) {
+        this.totalSpace = totalSpace;
+    }
+    
+    /**
+     * Space the filesystem still has, whoever else writes to it.
+     */
+    public long getFreeSpace() {
+        return freeSpace;
+    }
+    
+    public void setFreeSpace(long freeSpace) {
+        this.freeSpace = freeSpace;
+    }
+    
+    /**
+     * Bytes of stored files on this volume.
+     */
+    public long getUsedSpace() {
+        return usedSpace;
+    }
+    
+    public void setUsedSpace(long usedSpace) {
+        this.usedSpace = usedSpace;
+    }
+    
+    public long getFileCount() {
+        return fileCount;
+    }
+    
+    public void setFileCount(long fileCount) {
+        this.fileCount = fileCount;
+    }
+    
+    public int getActiveReads() {
+        return activeReads;
+    }
+    
+    public void setActiveReads(int activeReads) {
+        this.activeReads = activeReads;
+    }
+    
+    public int getActiveWrites() {
+        return activeWrites;
+    }
+    
+    public void setActiveWrites(int activeWrites) {
+        this.activeWrites = activeWrites;
+    }
+    
+    public double getUsagePercentage() {
+        return totalSpace > 0 ? (double) (totalSpace - freeSpace) / totalSpace * 100 : 0;
+    }
+}
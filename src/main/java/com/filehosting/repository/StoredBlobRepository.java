@@ -0,0 +1,38 @@
+package com.filehosting.repository;
+
+import com.filehosting.model.StoredBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface StoredBlobRepository extends JpaRepository<StoredBlob, String> {
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE StoredBlob b SET b.refCount = b.refCount + 1 WHERE b.hash = :hash")
+    int incrementRefCount(@Param("hash") String hash);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE StoredBlob b SET b.refCount = b.refCount - 1 WHERE b.hash = :hash AND b.refCount > 0")
+    int decrementRefCount(@Param("hash") String hash);
+
+    @Query("SELECT SUM(b.size) FROM StoredBlob b")
+    Long getTotalBlobSize();
+
+    // Rows: volume name (null before volumes were recorded), bytes, blob count; cold blobs are on no volume
+    @Query("SELECT b.volume, SUM(b.size), COUNT(b) FROM StoredBlob b WHERE b.coldPath IS NULL GROUP BY b.volume")
+    List<Object[]> getUsageByVolume();
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE StoredBlob b SET b.volume = :volume "
+            + "WHERE b.volume IS NULL AND b.coldPath IS NULL AND b.filePath LIKE :pathPrefix")
+    int assignVolume(@Param("volume") String volume, @Param("pathPrefix") String pathPrefix);
+}
@@ -1,11 +1,15 @@
 package com.filehosting.repository;
 
+import com.filehosting.model.FileSummary;
 import com.filehosting.model.UploadedFile;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -14,6 +18,9 @@ public interface UploadedFileRepository extends JpaRepository<UploadedFile, Long
     
     Optional<UploadedFile> findByStoredName(String storedName);
     
+    @Query("SELECT f.id FROM UploadedFile f WHERE f.storedName = :storedName")
+    Optional<Long> findIdByStoredName(@Param("storedName") String storedName);
+    
     List<UploadedFile> findByOriginalNameContainingIgnoreCase(String name);
     
     List<UploadedFile> findByContentTypeStartingWith(String contentTypePrefix);
@@ -23,18 +30,84 @@ public interface UploadedFileRepository extends JpaRepository<UploadedFile, Long
     @Query("SELECT SUM(f.fileSize) FROM UploadedFile f")
     Long getTotalUsedSpace();
     
+    @Query("SELECT SUM(f.fileSize) FROM UploadedFile f WHERE f.contentHash IS NULL")
+    Long getUnhashedUsedSpace();
+    
     @Query("SELECT COUNT(f) FROM UploadedFile f")
     Long getTotalFileCount();
     
     @Query("SELECT f FROM UploadedFile f ORDER BY f.uploadTime DESC")
     List<UploadedFile> findAllOrderByUploadTimeDesc();
     
-    @Query("SELECT f FROM UploadedFile f ORDER BY f.downloadCount DESC")
+    @Query("SELECT f FROM UploadedFile f ORDER BY f.downloadCount DESC, f.id DESC")
     List<UploadedFile> findAllOrderByDownloadCountDesc();
     
-    @Query("SELECT f FROM UploadedFile f WHERE f.contentType LIKE 'image/%' ORDER BY f.uploadTime DESC")
+    @Query("SELECT f FROM UploadedFile f WHERE f.contentHash IS NOT NULL AND f.fileSize <= :maxSize "
+            + "AND f.downloadCount > 0 ORDER BY f.downloadCount DESC, f.id DESC")
+    List<UploadedFile> findMostDownloaded(@Param("maxSize") long maxSize, Limit limit);
+    
+    // The category filters order by the category as well, though it is constant, so that
+    // H2 sees the ORDER BY as a prefix of the category index and reads it in order
+    
+    @Query("SELECT f FROM UploadedFile f WHERE f.contentCategory = 'image' "
+            + "ORDER BY f.contentCategory, f.uploadTime DESC, f.id DESC")
     List<UploadedFile> findAllImages();
     
-    @Query("SELECT f FROM UploadedFile f WHERE f.contentType LIKE 'video/%' ORDER BY f.uploadTime DESC")
+    @Query("SELECT f FROM UploadedFile f WHERE f.contentCategory = 'video' "
+            + "ORDER BY f.contentCategory, f.uploadTime DESC, f.id DESC")
     List<UploadedFile> findAllVideos();
+    
+    @Query("SELECT new com.filehosting.model.FileSummary(f.id, f.originalName, f.storedName, f.fileSize, "
+            + "f.contentType, f.uploadTime, f.downloadCount) FROM UploadedFile f WHERE f.id IN :ids")
+    List<FileSummary> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+    
+    @Query("SELECT new com.filehosting.model.FileSummary(f.id, f.originalName, f.storedName, f.fileSize, "
+            + "f.contentType, f.uploadTime, f.downloadCount) FROM UploadedFile f WHERE f.id > :afterId ORDER BY f.id")
+    List<FileSummary> findSummariesAfterId(@Param("afterId") Long afterId, Limit limit);
+    
+    // Keyset pages, newest first. Each page continues strictly after the (uploadTime, id)
+    // of the previous page's last row, so deep pages cost the same as the first one. The
+    // condition is written as uploadTime <= :uploadTime AND (...) so the index is entered
+    // at the previous page's position rather than scanned from the newest row.
+    
+    @Query("SELECT new com.filehosting.model.FileSummary(f.id, f.originalName, f.storedName, f.fileSize, "
+            + "f.contentType, f.uploadTime, f.downloadCount) FROM UploadedFile f "
+            + "ORDER BY f.uploadTime DESC, f.id DESC")
+    List<FileSummary> findFirstPage(Limit limit);
+    
+    @Query("SELECT new com.filehosting.model.FileSummary(f.id, f.originalName, f.storedName, f.fileSize, "
+            + "f.contentType, f.uploadTime, f.downloadCount) FROM UploadedFile f "
+            + "WHERE f.uploadTime <= :uploadTime AND (f.uploadTime < :uploadTime OR f.id < :id) "
+            + "ORDER BY f.uploadTime DESC, f.id DESC")
+    List<FileSummary> findPageAfter(@Param("uploadTime") LocalDateTime uploadTime, @Param("id") Long id, Limit limit);
+    
+    @Query("SELECT new com.filehosting.model.FileSummary(f.id, f.originalName, f.storedName, f.fileSize, "
+            + "f.contentType, f.uploadTime, f.downloadCount) FROM UploadedFile f "
+            + "WHERE f.contentCategory = :category "
+            + "ORDER BY f.contentCategory, f.uploadTime DESC, f.id DESC")
+    List<FileSummary> findFirstPageByCategory(@Param("category") String contentCategory, Limit limit);
+    
+    @Query("SELECT new com.filehosting.model.FileSummary(f.id, f.originalName, f.storedName, f.fileSize, "
+            + "f.contentType, f.uploadTime, f.downloadCount) FROM UploadedFile f "
+            + "WHERE f.contentCategory = :category "
+            + "AND f.uploadTime <= :uploadTime AND (f.uploadTime < :uploadTime OR f.id < :id) "
+            + "ORDER BY f.contentCategory, f.uploadTime DESC, f.id DESC")
+    List<FileSummary> findPageByCategoryAfter(@Param("category") String contentCategory,
+                                              @Param("uploadTime") LocalDateTime uploadTime,
+                                              @Param("id") Long id, Limit limit);
+    
+    @Query("SELECT new com.filehosting.model.FileSummary(f.id, f.originalName, f.storedName, f.fileSize, "
+            + "f.contentType, f.uploadTime, f.downloadCount) FROM UploadedFile f "
+            + "WHERE LOWER(f.originalName) LIKE :pattern ESCAPE '!' "
+            + "ORDER BY f.uploadTime DESC, f.id DESC")
+    List<FileSummary> searchFirstPage(@Param("pattern") String namePattern, Limit limit);
+    
+    @Query("SELECT new com.filehosting.model.FileSummary(f.id, f.originalName, f.storedName, f.fileSize, "
+            + "f.contentType, f.uploadTime, f.downloadCount) FROM UploadedFile f "
+            + "WHERE LOWER(f.originalName) LIKE :pattern ESCAPE '!' "
+            + "AND f.uploadTime <= :uploadTime AND (f.uploadTime < :uploadTime OR f.id < :id) "
+            + "ORDER BY f.uploadTime DESC, f.id DESC")
+    List<FileSummary> searchPageAfter(@Param("pattern") String namePattern,
+                                      @Param("uploadTime") LocalDateTime uploadTime,
+                                      @Param("id") Long id, Limit limit);
 }
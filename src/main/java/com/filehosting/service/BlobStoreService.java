@@ -0,0 +1,310 @@
+package com.filehosting.service;
+
+import com.filehosting.config.FileStorageConfig;
+import com.filehosting.model.StoredBlob;
+import com.filehosting.repository.StoredBlobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Content-addressed store: each distinct content is kept once, named by its SHA-256,
+ * and shared by every UploadedFile row with that hash. The blob's reference count
+ * tracks those rows and the file is removed when the last one goes. New content goes
+ * to the volume StorageVolumeService picks, spread over hash-prefix subdirectories as
+ * configured by app.upload.layout.
+ */
+@Service
+public class BlobStoreService {
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int RELEASE_BATCH_SIZE = 500;
+    private static final String RELEASE_SQL =
+            "UPDATE stored_blobs SET ref_count = ref_count - ? WHERE content_hash = ?";
+    private static final String UNREFERENCED_SQL =
+            "SELECT content_hash, volume, file_path, cold_path, blob_size FROM stored_blobs "
+            + "WHERE ref_count <= 0 AND content_hash IN (%s) FOR UPDATE";
+    private static final String DELETE_UNREFERENCED_SQL =
+            "DELETE FROM stored_blobs WHERE ref_count <= 0 AND content_hash IN (%s)";
+
+    @Autowired
+    private StoredBlobRepository blobRepository;
+
+    @Autowired
+    private FileStorageConfig fileConfig;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private StorageAccountingService storageAccounting;
+
+    @Autowired
+    private StorageVolumeService volumeService;
+
+    @Autowired
+    private FileContentCache contentCache;
+
+    @Autowired
+    private ContentVariantService variantService;
+
+    @Autowired
+    private IngestPipeline ingestPipeline;
+
+    // Reference counts and paths for one hash are only changed under its stripe
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    public BlobStoreService() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Copies the stream into the store in one pass through the ingest pipeline, which
+     * hashes and checks it on the way, and returns the blob with one new reference taken
+     * for the caller. The context's declared size picks a volume with room.
+     */
+    public StoredBlob store(InputStream in, IngestContext ingest) throws IOException {
+        try (StorageVolumeService.Placement placement = volumeService.place(Math.max(0, ingest.getDeclaredSize()), null)) {
+            StorageVolumeService.Volume volume = placement.getVolume();
+            Path tempPath = volume.getRoot().resolve(UUID.randomUUID() + ".tmp");
+
+            try (OutputStream out = Files.newOutputStream(tempPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ingestPipeline.copy(in, out, ingest);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tempPath);
+                throw e;
+            }
+
+            return addContent(tempPath, ingest.getHash(), ingest.getSize(), volume);
+        }
+    }
+
+    /**
+     * Takes over a file that is already on disk, such as a completed chunked upload.
+     * The file is read once through the ingest pipeline, then moved into the store, or
+     * deleted if the content is already there. Its own volume is preferred, so storing
+     * it is normally a rename. A rejected file is left where it is.
+     */
+    public StoredBlob store(Path source, IngestContext ingest) throws IOException {
+        try (InputStream in = Files.newInputStream(source)) {
+            ingestPipeline.copy(in, null, ingest);
+        }
+        try (StorageVolumeService.Placement placement = volumeService.place(ingest.getSize(), source)) {
+            return addContent(source, ingest.getHash(), ingest.getSize(), placement.getVolume());
+        }
+    }
+
+    /**
+     * Drops one reference and deletes the blob once nothing refers to it.
+     */
+    public void release(String hash) {
+        ReentrantLock lock = lockFor(hash);
+        lock.lock();
+        try {
+            Optional<StoredBlob> blobOpt = blobRepository.findById(hash);
+            if (blobOpt.isEmpty()) {
+                return;
+            }
+
+            StoredBlob blob = blobOpt.get();
+            if (blob.getRefCount() > 1) {
+                blob.setRefCount(blob.getRefCount() - 1);
+                blobRepository.save(blob);
+                return;
+            }
+
+            contentCache.invalidate(hash);
+            variantService.delete(hash);
+            try {
+                Files.deleteIfExists(Paths.get(blob.getFilePath()));
+                if (blob.getColdPath() != null) {
+                    Files.deleteIfExists(Paths.get(blob.getColdPath()));
+                }
+            } catch (IOException e) {
+                // Log the error but continue with database deletion
+                System.err.println("Failed to delete blob file: " + e.getMessage());
+            }
+
+            storageAccounting.beginChange();
+            try {
+                blobRepository.delete(blob);
+                storageAccounting.physicalBytesRemoved(blob.getSize());
+                volumeService.fileRemoved(blob.getVolume(), blob.getSize());
+            } finally {
+                storageAccounting.endChange();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the given number of references from each blob in batched statements, and
+     * deletes the rows of blobs left without any. Must run in the caller's transaction,
+     * inside runLocked for the same hashes. Nothing is removed from disk and no counters
+     * change; the caller queues the returned blobs for reclaiming, and passes them to
+     * released() after committing.
+     *
+     * @return the blobs whose rows were deleted
+     */
+    public List<StoredBlob> releaseAll(Map<String, Long> references) {
+        List<Object[]> releases = new ArrayList<>(references.size());
+        references.forEach((hash, count) -> releases.add(new Object[]{count, hash}));
+        jdbcTemplate.batchUpdate(RELEASE_SQL, releases);
+
+        List<String> hashes = new ArrayList<>(references.keySet());
+        List<StoredBlob> freed = new ArrayList<>();
+        for (int from = 0; from < hashes.size(); from += RELEASE_BATCH_SIZE) {
+            List<String> batch = hashes.subList(from, Math.min(from + RELEASE_BATCH_SIZE, hashes.size()));
+            String placeholders = String.join(",", Collections.nCopies(batch.size(), "?"));
+            freed.addAll(jdbcTemplate.query(String.format(UNREFERENCED_SQL, placeholders), (rs, row) -> {
+                StoredBlob blob = new StoredBlob(rs.getString(1), rs.getString(2), rs.getString(3), rs.getLong(5));
+                blob.setColdPath(rs.getString(4));
+                blob.setRefCount(0L);
+                return blob;
+            }, batch.toArray()));
+            jdbcTemplate.update(String.format(DELETE_UNREFERENCED_SQL, placeholders), batch.toArray());
+        }
+        return freed;
+    }
+
+    /**
+     * Accounts for blobs returned by releaseAll once their transaction has committed.
+     * Their files stay on disk until reclaimed, but no longer count as used.
+     */
+    public void released(Collection<StoredBlob> blobs) {
+        long bytes = 0;
+        for (StoredBlob blob : blobs) {
+            contentCache.invalidate(blob.getHash());
+            volumeService.fileRemoved(blob.getVolume(), blob.getSize());
+            bytes += blob.getSize();
+        }
+        storageAccounting.physicalBytesRemoved(bytes);
+    }
+
+    /**
+     * Where the blob with this hash belongs on the volume in the configured layout.
+     */
+    public Path blobPath(StorageVolumeService.Volume volume, String hash) {
+        return fileConfig.getLayout().resolve(volume.getRoot(), hash);
+    }
+
+    /**
+     * Where the blob recorded at the given path belongs in the configured layout,
+     * on the same volume.
+     */
+    public Path currentPath(Path recordedPath, String hash) {
+        StorageVolumeService.Volume volume = volumeService.volumeOf(recordedPath);
+        return blobPath(volume != null ? volume : volumeService.getDefaultVolume(), hash);
+    }
+
+    /**
+     * Runs the action while no reference count or path of the given hashes can change.
+     * Stripes are taken in index order, so concurrent callers cannot deadlock.
+     */
+    public void runLocked(Collection<String> hashes, Runnable action) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (String hash : hashes) {
+            stripes.add(stripeFor(hash));
+        }
+        List<ReentrantLock> held = new ArrayList<>(stripes.size());
+        try {
+            for (int stripe : stripes) {
+                locks[stripe].lock();
+                held.add(locks[stripe]);
+            }
+            action.run();
+        } finally {
+            for (ReentrantLock lock : held) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The blob's row, if the content is stored.
+     */
+    public Optional<StoredBlob> getBlob(String hash) {
+        return blobRepository.findById(hash);
+    }
+
+    private StoredBlob addContent(Path file, String hash, long size, StorageVolumeService.Volume volume) throws IOException {
+        ReentrantLock lock = lockFor(hash);
+        lock.lock();
+        try {
+            Optional<StoredBlob> existing = blobRepository.findById(hash);
+            if (existing.isPresent() && Files.exists(Paths.get(existing.get().getFilePath()))) {
+                // Duplicate content: keep the stored copy and drop the new one
+                Files.deleteIfExists(file);
+                StoredBlob blob = existing.get();
+                blob.setRefCount(blob.getRefCount() + 1);
+                return blobRepository.save(blob);
+            }
+
+            Path target = blobPath(volume, hash);
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            if (existing.isPresent()) {
+                // A row whose file went missing, or was moved to the cold tier, is repaired in
+                // place so its references read the new copy
+                StoredBlob blob = existing.get();
+                if (blob.getColdPath() != null) {
+                    Files.deleteIfExists(Paths.get(blob.getColdPath()));
+                    blob.setColdPath(null);
+                }
+                volumeService.fileRemoved(blob.getVolume(), blob.getSize());
+                volumeService.fileAdded(volume, blob.getSize());
+                blob.setVolume(volume.getName());
+                blob.setFilePath(target.toString());
+                blob.setRefCount(blob.getRefCount() + 1);
+                return blobRepository.save(blob);
+            }
+
+            storageAccounting.beginChange();
+            try {
+                StoredBlob blob = blobRepository.save(new StoredBlob(hash, volume.getName(), target.toString(), size));
+                storageAccounting.physicalBytesAdded(size);
+                volumeService.fileAdded(volume, size);
+                return blob;
+            } finally {
+                storageAccounting.endChange();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock lockFor(String hash) {
+        return locks[stripeFor(hash)];
+    }
+
+    private static int stripeFor(String hash) {
+        return Math.floorMod(hash.hashCode(), LOCK_STRIPES);
+    }
+}
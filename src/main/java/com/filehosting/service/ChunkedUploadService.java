@@ -0,0 +1,292 @@
+package com.filehosting.service;
+
+import com.filehosting.config.FileStorageConfig;
+import com.filehosting.model.UploadSession;
+import com.filehosting.model.UploadedFile;
+import com.filehosting.repository.UploadSessionRepository;
+import com.filehosting.util.ByteRangeSet;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+@Service
+public class ChunkedUploadService {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    // Clients are told to send chunks of this size; anything up to the maximum is accepted
+    public static final long RECOMMENDED_CHUNK_SIZE = 8L * 1024 * 1024;
+    public static final long MAX_CHUNK_SIZE = 256L * 1024 * 1024;
+
+    @Autowired
+    private UploadSessionRepository sessionRepository;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private StorageMonitoringService storageService;
+
+    @Autowired
+    private StorageAccountingService storageAccounting;
+
+    @Autowired
+    private FileStorageConfig fileConfig;
+
+    // Chunks of a session are written concurrently under the read lock, and their ranges
+    // recorded while synchronized on it. Completing, aborting and expiring a session take
+    // the write lock, so no chunk is still writing to the part file once it is moved into
+    // the blob store or deleted.
+    private final ConcurrentHashMap<String, ReadWriteLock> sessionLocks = new ConcurrentHashMap<>();
+
+    // The declared size of every open session is held against the quota until the session
+    // is completed, aborted or expired, so concurrent sessions cannot fill the disk with
+    // part files the quota never saw
+    private final ConcurrentHashMap<String, StorageAccountingService.Reservation> reservations = new ConcurrentHashMap<>();
+
+    /**
+     * Reservations only live in memory; sessions that survived a restart get theirs back.
+     */
+    @PostConstruct
+    public void restoreReservations() {
+        for (UploadSession session : sessionRepository.findAll()) {
+            reservations.put(session.getId(), storageAccounting.restoreReservation(session.getFileSize()));
+        }
+    }
+
+    public UploadSession createSession(String fileName, long fileSize, String contentType) throws IOException {
+        if (fileSize <= 0) {
+            fileStorageService.recordRejectedUpload(FileStorageService.REJECTED_SIZE);
+            throw new IllegalArgumentException("Cannot store empty file");
+        }
+        if (fileSize > FileStorageService.MAX_FILE_SIZE) {
+            fileStorageService.recordRejectedUpload(FileStorageService.REJECTED_SIZE);
+            throw new IllegalArgumentException("File size exceeds maximum limit of 20GB");
+        }
+        if (!fileStorageService.isValidContentType(contentType)) {
+            fileStorageService.recordRejectedUpload(FileStorageService.REJECTED_FILE_TYPE);
+            throw new IllegalArgumentException("File '" + fileName + "' has unsupported file type.");
+        }
+        StorageAccountingService.Reservation reservation;
+        try {
+            if (!storageService.canUploadFile(fileSize)) {
+                throw new IllegalStateException("Storage limit exceeded. Cannot upload file.");
+            }
+            reservation = storageAccounting.reserve(fileSize);
+        } catch (IllegalStateException e) {
+            fileStorageService.recordRejectedUpload(FileStorageService.REJECTED_QUOTA);
+            throw new IllegalStateException("File '" + fileName + "' exceeds available storage space.");
+        }
+
+        String sessionId = UUID.randomUUID().toString();
+        try {
+            Path sessionDir = Paths.get(fileConfig.getSessionPath());
+            Files.createDirectories(sessionDir);
+            Path partPath = sessionDir.resolve(sessionId + ".part");
+            Files.createFile(partPath);
+
+            UploadSession session = new UploadSession(sessionId,
+                    fileName == null || fileName.isBlank() ? "unknown" : fileName,
+                    contentType, fileSize, partPath.toString());
+            session.setExpiresAt(nextExpiry());
+
+            reservations.put(sessionId, reservation);
+            return sessionRepository.save(session);
+        } catch (IOException | RuntimeException e) {
+            reservations.remove(sessionId);
+            reservation.release();
+            throw e;
+        }
+    }
+
+    public Optional<UploadSession> getSession(String sessionId) {
+        return sessionRepository.findById(sessionId);
+    }
+
+    public UploadSession writeChunk(String sessionId, long offset, long length, InputStream data) throws IOException {
+        ReadWriteLock lock = lockFor(sessionId);
+        lock.readLock().lock();
+        try {
+            // Looked up under the lock, so a session completed or aborted meanwhile is never written to
+            Optional<UploadSession> sessionOpt = sessionRepository.findById(sessionId);
+            if (sessionOpt.isEmpty()) {
+                sessionLocks.remove(sessionId, lock);
+                throw new IllegalArgumentException("Unknown upload session: " + sessionId);
+            }
+            UploadSession session = sessionOpt.get();
+
+            if (offset < 0 || offset >= session.getFileSize()) {
+                throw new IllegalArgumentException("Chunk offset " + offset + " is outside the file");
+            }
+            long maxLength = Math.min(MAX_CHUNK_SIZE, session.getFileSize() - offset);
+            if (length > maxLength) {
+                throw new IllegalArgumentException("Chunk of " + length + " bytes exceeds the allowed " + maxLength);
+            }
+
+            long written = writeAt(Paths.get(session.getPartPath()), offset, length >= 0 ? length : maxLength, data);
+            if (written == 0) {
+                return session;
+            }
+
+            synchronized (lock) {
+                // Re-read so concurrent chunks don't overwrite each other's ranges
+                UploadSession current = sessionRepository.findById(sessionId)
+                        .orElseThrow(() -> new IllegalStateException("Upload session was removed: " + sessionId));
+                ByteRangeSet ranges = ByteRangeSet.parse(current.getReceivedRanges());
+                ranges.add(offset, offset + written - 1);
+
+                current.setReceivedRanges(ranges.toString());
+                current.setReceivedBytes(ranges.getTotalBytes());
+                current.setExpiresAt(nextExpiry());
+                return sessionRepository.save(current);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public UploadedFile completeSession(String sessionId) throws IOException {
+        ReadWriteLock lock = lockFor(sessionId);
+        lock.writeLock().lock();
+        try {
+            UploadSession session = sessionRepository.findById(sessionId)
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown upload session: " + sessionId));
+
+            if (!session.isComplete()) {
+                throw new IllegalStateException("Upload is incomplete: " + session.getReceivedBytes()
+                        + " of " + session.getFileSize() + " bytes received");
+            }
+
+            // The file row only appears once every byte is on disk
+            UploadedFile uploadedFile;
+            try {
+                uploadedFile = fileStorageService.storeCompletedUpload(Paths.get(session.getPartPath()),
+                        session.getOriginalName(), session.getContentType(), reservationFor(session));
+            } catch (UnsupportedContentTypeException e) {
+                // The content is not what was declared; retrying can't help
+                removeSession(session);
+                sessionLocks.remove(sessionId, lock);
+                throw e;
+            }
+
+            sessionRepository.delete(session);
+            releaseReservation(sessionId);
+            sessionLocks.remove(sessionId, lock);
+            return uploadedFile;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean abortSession(String sessionId) {
+        ReadWriteLock lock = lockFor(sessionId);
+        lock.writeLock().lock();
+        try {
+            Optional<UploadSession> sessionOpt = sessionRepository.findById(sessionId);
+            sessionOpt.ifPresent(this::removeSession);
+            sessionLocks.remove(sessionId, lock);
+            return sessionOpt.isPresent();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.upload.session-cleanup-interval-ms:600000}")
+    public void removeExpiredSessions() {
+        for (UploadSession expired : sessionRepository.findByExpiresAtBefore(LocalDateTime.now())) {
+            ReadWriteLock lock = lockFor(expired.getId());
+            // A chunk still being written means the session is in use after all
+            if (!lock.writeLock().tryLock()) {
+                continue;
+            }
+            try {
+                Optional<UploadSession> session = sessionRepository.findById(expired.getId());
+                // A chunk that arrived since the query pushed the expiry back
+                if (session.isPresent() && session.get().getExpiresAt().isAfter(LocalDateTime.now())) {
+                    continue;
+                }
+                session.ifPresent(this::removeSession);
+                sessionLocks.remove(expired.getId(), lock);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private ReadWriteLock lockFor(String sessionId) {
+        return sessionLocks.computeIfAbsent(sessionId, id -> new ReentrantReadWriteLock());
+    }
+
+    private void removeSession(UploadSession session) {
+        try {
+            Files.deleteIfExists(Paths.get(session.getPartPath()));
+        } catch (IOException e) {
+            System.err.println("Failed to delete upload session file: " + e.getMessage());
+        }
+        sessionRepository.delete(session);
+        releaseReservation(session.getId());
+    }
+
+    private StorageAccountingService.Reservation reservationFor(UploadSession session) {
+        // Taken when the session was created or, for sessions older than this run, at startup
+        return reservations.computeIfAbsent(session.getId(),
+                id -> storageAccounting.restoreReservation(session.getFileSize()));
+    }
+
+    private void releaseReservation(String sessionId) {
+        StorageAccountingService.Reservation reservation = reservations.remove(sessionId);
+        if (reservation != null) {
+            reservation.release();
+        }
+    }
+
+    private long writeAt(Path partPath, long offset, long maxLength, InputStream data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(maxLength, 1)));
+        long written = 0;
+
+        // Positional writes let chunks of the same session arrive in any order, in parallel
+        try (FileChannel channel = FileChannel.open(partPath, StandardOpenOption.WRITE)) {
+            while (written < maxLength) {
+                int toRead = (int) Math.min(buffer.capacity(), maxLength - written);
+                int read = data.read(buffer.array(), 0, toRead);
+                if (read < 0) {
+                    break;
+                }
+
+                buffer.limit(read).position(0);
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer, offset + written);
+                }
+                buffer.clear();
+            }
+
+            if (written == maxLength && data.read() >= 0) {
+                throw new IllegalArgumentException("Chunk is larger than the declared length");
+            }
+
+            // A range is only recorded once its bytes survive a crash
+            channel.force(false);
+        }
+        return written;
+    }
+
+    private LocalDateTime nextExpiry() {
+        return LocalDateTime.now().plusHours(fileConfig.getSessionTtlHours());
+    }
+}
@@ -0,0 +1,325 @@
+package com.filehosting.service;
+
+import com.filehosting.config.FileStorageConfig;
+import com.filehosting.model.UploadedFile;
+import com.filehosting.util.FileUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Precompressed gzip copies of text-like files, so compressible downloads go out
+ * compressed without deflating on every request.
+ *
+ * Variants are made once per content hash on a single low-priority thread, after upload
+ * and for existing files at startup, at the highest compression level since the cost is
+ * paid once. A variant is only kept if it saves at least 10%. Requests pick it through
+ * Accept-Encoding; range requests always get the original, so resumed downloads keep
+ * working against the same bytes.
+ */
+@Service
+public class ContentVariantService {
+
+    public static final String GZIP = "gzip";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final double MIN_SAVING_RATIO = 0.9;
+    private static final int BACKFILL_BATCH_SIZE = 500;
+    private static final String BACKFILL_SQL =
+            "SELECT id, content_hash, file_path, content_type, file_size FROM uploaded_files "
+            + "WHERE content_hash IS NOT NULL AND id > ? ORDER BY id LIMIT ?";
+    private static final String BLOB_EXISTS_SQL = "SELECT COUNT(*) FROM stored_blobs WHERE content_hash = ?";
+
+    @Autowired
+    private FileStorageConfig fileConfig;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    // Lazy: BlobStoreService deletes variants through this service
+    @Autowired
+    @Lazy
+    private BlobStoreService blobStoreService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.variants.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.variants.path:${app.upload.path}/.variants}")
+    private String variantRoot;
+
+    @Value("${app.variants.min-size-kb:1}")
+    private long minSizeKb;
+
+    @Value("${app.variants.max-size-mb:1024}")
+    private long maxSizeMb;
+
+    @Value("${app.variants.compression-level:9}")
+    private int compressionLevel;
+
+    @Value("${app.variants.queue-size:1000}")
+    private int queueSize;
+
+    @Value("${app.variants.backfill:true}")
+    private boolean backfill;
+
+    private ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, Boolean> inFlight = new ConcurrentHashMap<>();
+    private Counter created;
+    private Counter served;
+
+    private volatile boolean stopped;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(Paths.get(variantRoot));
+        executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "content-variants");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        created = Counter.builder("filehosting.variants.created")
+                .description("Precompressed variants written")
+                .tag("encoding", GZIP)
+                .register(meterRegistry);
+        served = Counter.builder("filehosting.variants.served")
+                .description("Downloads served from a precompressed variant")
+                .tag("encoding", GZIP)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopped = true;
+        executor.shutdownNow();
+    }
+
+    /**
+     * Creates variants for existing files that have none, one at a time in the background.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startBackfill() {
+        if (!enabled || !backfill) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                int count = backfill();
+                if (count > 0) {
+                    System.out.println("Created " + count + " precompressed variant(s) for existing files");
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Variant backfill stopped: " + e.getMessage());
+            }
+        }, "content-variants-backfill");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    int backfill() {
+        int count = 0;
+        long afterId = 0;
+        while (!stopped) {
+            List<Object[]> page = jdbcTemplate.query(BACKFILL_SQL, (rs, row) -> new Object[]{
+                    rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getLong(5)},
+                    afterId, BACKFILL_BATCH_SIZE);
+            if (page.isEmpty()) {
+                break;
+            }
+            afterId = (Long) page.get(page.size() - 1)[0];
+            for (Object[] file : page) {
+                String hash = (String) file[1];
+                if (isEligible((String) file[3], (Long) file[4]) && !Files.exists(variantPath(hash))
+                        && generate(hash, Paths.get((String) file[2]))) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Queues the variant of a new upload. Best effort: skipped if the queue is full, and
+     * made by the next startup's backfill instead.
+     */
+    public void generateAsync(UploadedFile file, Path source) {
+        String hash = file.getContentHash();
+        if (!isEligible(file.getContentType(), file.getFileSize()) || Files.exists(variantPath(hash))
+                || inFlight.putIfAbsent(hash, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(hash, source);
+                } finally {
+                    inFlight.remove(hash);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(hash);
+        }
+    }
+
+    /**
+     * Picks the representation of the file to send. Responses for compressible files
+     * always vary by Accept-Encoding, so shared caches keep them apart.
+     *
+     * @return the gzip variant if the client accepts it and one exists, otherwise null
+     *         and the original is sent
+     */
+    public Path select(UploadedFile file, HttpServletRequest request, HttpServletResponse response) {
+        if (!enabled || file.getContentHash() == null || !FileUtils.isCompressibleType(file.getContentType())) {
+            return null;
+        }
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (request.getHeader(HttpHeaders.RANGE) != null || !acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+            return null;
+        }
+        Path variant = variantPath(file.getContentHash());
+        if (!Files.exists(variant)) {
+            return null;
+        }
+        served.increment();
+        return variant;
+    }
+
+    public void delete(String hash) {
+        try {
+            Files.deleteIfExists(variantPath(hash));
+        } catch (IOException e) {
+            System.err.println("Failed to delete variant of " + hash + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Whether the Accept-Encoding header allows gzip: listed, or covered by "*", with a
+     * non-zero quality.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            boolean acceptable = true;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        acceptable = Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        acceptable = false;
+                    }
+                }
+            }
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                return acceptable;
+            }
+            if (coding.equals("*")) {
+                wildcard = acceptable;
+            }
+        }
+        return Boolean.TRUE.equals(wildcard);
+    }
+
+    private boolean isEligible(String contentType, long size) {
+        return enabled && FileUtils.isCompressibleType(contentType)
+                && size >= minSizeKb * 1024 && size <= maxSizeMb * 1024 * 1024;
+    }
+
+    private Path variantPath(String hash) {
+        return fileConfig.getLayout().resolve(Paths.get(variantRoot), hash).resolveSibling(hash + ".gz");
+    }
+
+    private boolean generate(String hash, Path source) {
+        Path target = variantPath(hash);
+        Path temp = Paths.get(variantRoot).resolve(UUID.randomUUID() + ".tmp");
+        try {
+            long size = Files.size(source);
+            try (InputStream in = Files.newInputStream(source);
+                 OutputStream out = new FileUtils.LevelGzipOutputStream(
+                         Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                         BUFFER_SIZE, compressionLevel)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    if (stopped) {
+                        return false;
+                    }
+                    out.write(buffer, 0, read);
+                }
+            }
+            if (Files.size(temp) > size * MIN_SAVING_RATIO) {
+                return false;
+            }
+
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            // Released while compressing, so its delete may have missed the variant. Checked on
+            // the row: a blob demoted or moved meanwhile is gone from the source path as well
+            boolean[] stored = new boolean[1];
+            blobStoreService.runLocked(List.of(hash), () -> {
+                Long count = jdbcTemplate.queryForObject(BLOB_EXISTS_SQL, Long.class, hash);
+                stored[0] = count != null && count > 0;
+                if (!stored[0]) {
+                    delete(hash);
+                }
+            });
+            if (!stored[0]) {
+                return false;
+            }
+            created.increment();
+            return true;
+        } catch (IOException e) {
+            // Gone, moved to the cold tier, or unreadable: the original is served as is
+            return false;
+        } finally {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                System.err.println("Failed to delete " + temp + ": " + e.getMessage());
+            }
+        }
+    }
+}
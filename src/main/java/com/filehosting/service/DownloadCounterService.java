@@ -0,0 +1,112 @@
+package com.filehosting.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Write-behind download counters. Downloads only touch an in-memory entry; a scheduled
+ * flush turns everything pending into one batch of UPDATE statements, and whatever is
+ * left is flushed at shutdown.
+ */
+@Service
+public class DownloadCounterService {
+    
+    private static final int BATCH_SIZE = 500;
+    private static final String UPDATE_SQL =
+            "UPDATE uploaded_files SET download_count = COALESCE(download_count, 0) + ?, "
+            + "last_accessed = CASE WHEN last_accessed IS NULL OR last_accessed < ? THEN ? ELSE last_accessed END "
+            + "WHERE id = ?";
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private FileMetadataCache metadataCache;
+    
+    // Entries are only changed inside compute calls, which lock just their hash bin,
+    // so concurrent downloads of different files don't contend and none are lost to a flush
+    private final ConcurrentHashMap<Long, PendingCount> pending = new ConcurrentHashMap<>();
+    
+    public void recordDownload(Long fileId) {
+        record(fileId, 1);
+    }
+    
+    /**
+     * Marks the file as read without counting a download, e.g. for a range request or
+     * an inline view; storage tiering goes by the last access.
+     */
+    public void recordAccess(Long fileId) {
+        record(fileId, 0);
+    }
+    
+    private void record(Long fileId, long downloads) {
+        long now = System.currentTimeMillis();
+        pending.compute(fileId, (id, count) -> {
+            PendingCount updated = count != null ? count : new PendingCount();
+            updated.downloads += downloads;
+            updated.lastAccessed = Math.max(updated.lastAccessed, now);
+            return updated;
+        });
+    }
+    
+    @Scheduled(fixedDelayString = "${app.downloads.flush-interval-ms:5000}")
+    public void flush() {
+        List<Object[]> updates = new ArrayList<>();
+        for (Long fileId : pending.keySet()) {
+            // Take the entry out atomically; later downloads start a new one
+            pending.computeIfPresent(fileId, (id, count) -> {
+                Timestamp lastAccessed = new Timestamp(count.lastAccessed);
+                updates.add(new Object[]{count.downloads, lastAccessed, lastAccessed, id});
+                return null;
+            });
+        }
+        if (updates.isEmpty()) {
+            return;
+        }
+        
+        for (int from = 0; from < updates.size(); from += BATCH_SIZE) {
+            List<Object[]> batch = updates.subList(from, Math.min(updates.size(), from + BATCH_SIZE));
+            try {
+                jdbcTemplate.batchUpdate(UPDATE_SQL, batch);
+                // Cached rows would show the old counts
+                for (Object[] update : batch) {
+                    metadataCache.invalidate((Long) update[3]);
+                }
+            } catch (RuntimeException e) {
+                // Keep the counts for the next flush rather than dropping them
+                System.err.println("Failed to flush download counters: " + e.getMessage());
+                for (Object[] update : updates.subList(from, updates.size())) {
+                    restore((Long) update[3], (Long) update[0], ((Timestamp) update[1]).getTime());
+                }
+                return;
+            }
+        }
+    }
+    
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+    
+    private void restore(Long fileId, long downloads, long lastAccessed) {
+        pending.compute(fileId, (id, count) -> {
+            PendingCount restored = count != null ? count : new PendingCount();
+            restored.downloads += downloads;
+            restored.lastAccessed = Math.max(restored.lastAccessed, lastAccessed);
+            return restored;
+        });
+    }
+    
+    private static final class PendingCount {
+        long downloads;
+        long lastAccessed;
+    }
+}
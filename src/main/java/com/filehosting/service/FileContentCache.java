@@ -0,0 +1,184 @@
+package com.filehosting.service;
+
+import com.filehosting.model.UploadedFile;
+import com.filehosting.repository.UploadedFileRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Keeps the content of small, frequently downloaded files in direct buffers, outside the
+ * heap, so serving them needs no file open or disk read.
+ *
+ * Entries are keyed by content hash, so files with the same content share one and an
+ * entry is never stale. Caffeine's W-TinyLFU policy decides what stays: a new entry
+ * only displaces one that has been requested less often recently. A file is loaded on
+ * its second request within the last app.cache.content.doorkeeper-size distinct ones,
+ * so files downloaded once never cost a buffer. Buffers are freed by the garbage
+ * collector once evicted; -XX:MaxDirectMemorySize must leave room for size-mb.
+ */
+@Service
+public class FileContentCache {
+
+    @Autowired
+    private UploadedFileRepository fileRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.cache.content.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.cache.content.size-mb:64}")
+    private long sizeMb;
+
+    @Value("${app.cache.content.max-file-kb:1024}")
+    private long maxFileKb;
+
+    @Value("${app.cache.content.doorkeeper-size:10000}")
+    private long doorkeeperSize;
+
+    @Value("${app.cache.content.warm-files:100}")
+    private int warmFiles;
+
+    private Cache<String, Entry> cache;
+    // Hashes requested once recently; a second request loads the content
+    private Cache<String, Boolean> doorkeeper;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(sizeMb * 1024 * 1024)
+                .weigher((String hash, Entry entry) -> entry.data.capacity())
+                .recordStats()
+                .build();
+        doorkeeper = Caffeine.newBuilder()
+                .maximumSize(doorkeeperSize)
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "file-content");
+        Gauge.builder("filehosting.content.cache.bytes", cache,
+                        c -> c.policy().eviction().orElseThrow().weightedSize().orElse(0))
+                .description("Bytes of file content held in direct buffers")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("filehosting.content.cache.hit.ratio", cache, c -> c.stats().hitRate())
+                .description("Share of cacheable downloads served from memory")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Loads the most downloaded small files, so a restart doesn't send their traffic back to disk.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warm() {
+        if (!enabled || warmFiles <= 0) {
+            return;
+        }
+        Thread warming = new Thread(() -> {
+            int loaded = 0;
+            for (UploadedFile file : fileRepository.findMostDownloaded(maxFileKb * 1024, Limit.of(warmFiles))) {
+                if (load(file.getContentHash(), Paths.get(file.getFilePath())) != null) {
+                    loaded++;
+                }
+            }
+            if (loaded > 0) {
+                System.out.println("Loaded " + loaded + " frequently downloaded file(s) into the content cache");
+            }
+        }, "content-cache-warm");
+        warming.setDaemon(true);
+        warming.start();
+    }
+
+    /**
+     * The file's content if it is cached, or is small and requested often enough to be
+     * loaded now; otherwise null and the file is served from disk.
+     *
+     * @param filePath where the content is on disk, used on a load
+     */
+    public Entry get(UploadedFile file, Path filePath) {
+        String hash = file.getContentHash();
+        if (!enabled || hash == null || file.getFileSize() > maxFileKb * 1024) {
+            return null;
+        }
+        Entry entry = cache.getIfPresent(hash);
+        if (entry != null) {
+            return entry;
+        }
+        if (doorkeeper.asMap().putIfAbsent(hash, Boolean.TRUE) == null) {
+            return null;
+        }
+        return load(hash, filePath);
+    }
+
+    public void invalidate(String hash) {
+        cache.invalidate(hash);
+        doorkeeper.invalidate(hash);
+    }
+
+    private Entry load(String hash, Path filePath) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+            if (attributes.size() > maxFileKb * 1024) {
+                return null;
+            }
+            ByteBuffer data = ByteBuffer.allocateDirect((int) attributes.size());
+            try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                while (data.hasRemaining()) {
+                    if (channel.read(data) < 0) {
+                        throw new EOFException("File shrank while being cached");
+                    }
+                }
+            }
+            data.flip();
+            Entry entry = new Entry(data.asReadOnlyBuffer(), attributes.lastModifiedTime().toMillis());
+            // A concurrent load of the same content may have won; either copy is the same
+            Entry existing = cache.asMap().putIfAbsent(hash, entry);
+            return existing != null ? existing : entry;
+        } catch (IOException e) {
+            // Moved to the cold tier or deleted meanwhile; served or refused without the cache
+            return null;
+        }
+    }
+
+    /**
+     * Cached content; the buffer is shared and must only be read through duplicates or slices.
+     */
+    public static final class Entry {
+
+        private final ByteBuffer data;
+        private final long lastModified;
+
+        Entry(ByteBuffer data, long lastModified) {
+            this.data = data;
+            this.lastModified = lastModified;
+        }
+
+        public ByteBuffer getData() {
+            return data;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
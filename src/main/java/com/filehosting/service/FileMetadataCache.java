@@ -0,0 +1,107 @@
+package com.filehosting.service;
+
+import com.filehosting.model.UploadedFile;
+import com.filehosting.repository.UploadedFileRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Read-through cache of UploadedFile rows by id and by stored name, so repeated
+ * downloads of a file don't query the database.
+ *
+ * Every change to uploaded_files must invalidate the rows it touches: deletes, the
+ * download counter flush, and path switches by the layout migrator and the tiering job.
+ * A row is loaded inside the cache's compute for its id, and invalidating the id waits
+ * for a load in progress, so an update committed before its invalidation is never
+ * hidden by a row read before it. Path switches invalidate by content hash, which can
+ * miss a load in progress; FileStorageService.resolveFilePath finds the file anyway.
+ * Entries also expire after ttl-seconds, which bounds what a change made outside the
+ * application can leave behind.
+ */
+@Service
+public class FileMetadataCache {
+
+    @Autowired
+    private UploadedFileRepository fileRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.cache.metadata.max-entries:10000}")
+    private long maxEntries;
+
+    @Value("${app.cache.metadata.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private Cache<Long, UploadedFile> filesById;
+    // Stored names never change, so only the id they map to is kept
+    private Cache<String, Long> idsByStoredName;
+
+    @PostConstruct
+    public void init() {
+        filesById = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        idsByStoredName = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, filesById, "file-metadata");
+    }
+
+    /**
+     * The row with this id; the instance is shared and must not be modified.
+     */
+    public Optional<UploadedFile> findById(Long id) {
+        // Missing rows are not cached; the loader returning null leaves no entry
+        return Optional.ofNullable(filesById.get(id, key -> fileRepository.findById(key).orElse(null)));
+    }
+
+    public Optional<UploadedFile> findByStoredName(String storedName) {
+        Long id = idsByStoredName.getIfPresent(storedName);
+        if (id == null) {
+            Optional<Long> found = fileRepository.findIdByStoredName(storedName);
+            if (found.isEmpty()) {
+                return Optional.empty();
+            }
+            id = found.get();
+            idsByStoredName.put(storedName, id);
+        }
+
+        Optional<UploadedFile> file = findById(id);
+        if (file.isEmpty()) {
+            idsByStoredName.invalidate(storedName);
+        }
+        return file;
+    }
+
+    public void invalidate(Long id) {
+        filesById.invalidate(id);
+    }
+
+    public void invalidateAll(Collection<Long> ids) {
+        filesById.invalidateAll(ids);
+    }
+
+    /**
+     * Drops every cached row that refers to one of the given blobs, after their path changed.
+     */
+    public void invalidateContent(Collection<String> hashes) {
+        if (hashes.isEmpty()) {
+            return;
+        }
+        filesById.asMap().values().removeIf(file -> file.getContentHash() != null && hashes.contains(file.getContentHash()));
+    }
+}
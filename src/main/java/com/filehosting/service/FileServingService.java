@@ -0,0 +1,488 @@
+package com.filehosting.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.apache.catalina.connector.CoyoteOutputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Serves stored files with conditional requests (ETag / Last-Modified), single and
+ * multipart byte ranges, and zero-copy transfer: Tomcat's sendfile when the connector
+ * supports it, otherwise mapped regions of the file handed to the connector as they are.
+ * Content cached in memory and streams such as cold-tier files are served the same way.
+ */
+@Service
+public class FileServingService {
+
+    /**
+     * Request attribute marking a transfer that something counts until the request thread
+     * returns, such as a download slot or a volume's read count. Tomcat's sendfile would
+     * send the file only after that, so such files are written before serve returns, from
+     * mapped regions of the file rather than through a heap buffer.
+     */
+    public static final String SEND_IN_THREAD = FileServingService.class.getName() + ".SEND_IN_THREAD";
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Counter bytesOut;
+    private Counter bytesCopied;
+
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // Below this size a plain write is cheaper than handing the file to the poller
+    private static final long SENDFILE_THRESHOLD = 48 * 1024;
+    private static final int MAX_RANGES = 16;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    // Mapped a region at a time, so a large file never needs one huge mapping
+    private static final long MAP_REGION_SIZE = 8 * 1024 * 1024;
+    private static final Pattern NON_PRINTABLE_ASCII = Pattern.compile("[^\\x20-\\x7e]|[\\\\\"]");
+
+    @PostConstruct
+    public void init() {
+        bytesOut = Counter.builder("filehosting.bytes.out")
+                .description("Bytes sent to clients")
+                .baseUnit("bytes")
+                .tag("kind", "file")
+                .register(meterRegistry);
+        bytesCopied = Counter.builder("filehosting.bytes.copied")
+                .description("File bytes copied through a heap buffer because the response stream accepts nothing else")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Writes the file (or the requested ranges of it) to the response.
+     *
+     * @return true if a GET delivered the file from its first byte, i.e. it counts as a download
+     */
+    public boolean serve(Path path, String contentType, String fileName, boolean attachment,
+                         HttpServletRequest request, HttpServletResponse response) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return serve(new FileContent(path, attributes.size()), attributes.lastModifiedTime().toMillis(),
+                contentType, fileName, attachment, request, response);
+    }
+
+    /**
+     * Like serve(Path, ...), for a file whose content is held in memory; a direct buffer
+     * is written to the connector without a copy onto the heap.
+     *
+     * @param lastModifiedMillis the file's modification time, so the ETag matches the file's
+     */
+    public boolean serve(ByteBuffer data, long lastModifiedMillis, String contentType, String fileName,
+                         boolean attachment, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        return serve(new BufferContent(data), lastModifiedMillis, contentType, fileName, attachment, request, response);
+    }
+
+    /**
+     * Like serve(Path, ...), for a precompressed copy of the file sent with the given
+     * Content-Encoding. Its ETag comes from the copy's own size and time, so it never
+     * matches the original's.
+     */
+    public boolean serveEncoded(Path variant, String contentEncoding, String contentType, String fileName,
+                                boolean attachment, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        return serve(variant, contentType, fileName, attachment, request, response);
+    }
+
+    private boolean serve(Content content, long lastModifiedMillis, String contentType, String fileName,
+                          boolean attachment, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = content.length();
+        long lastModified = lastModifiedMillis / 1000 * 1000; // HTTP dates have second precision
+        String etag = etag(length, lastModifiedMillis);
+        String mediaType = contentType != null ? contentType : "application/octet-stream";
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return false;
+        }
+
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(attachment, fileName));
+        response.setHeader("X-Content-Type-Options", "nosniff");
+
+        List<long[]> ranges = null;
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && isIfRangeSatisfied(request, etag, lastModified)) {
+            ranges = parseRanges(rangeHeader, length);
+            if (ranges != null && ranges.isEmpty()) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return false;
+            }
+        }
+
+        boolean head = "HEAD".equalsIgnoreCase(request.getMethod());
+
+        if (ranges == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(mediaType);
+            response.setContentLengthLong(length);
+            if (!head) {
+                content.transfer(0, length, request, response);
+            }
+            return !head;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+
+        if (ranges.size() == 1) {
+            long start = ranges.get(0)[0];
+            long end = ranges.get(0)[1];
+            response.setContentType(mediaType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            response.setContentLengthLong(end - start + 1);
+            if (!head) {
+                content.transfer(start, end - start + 1, request, response);
+            }
+            return !head && start == 0;
+        }
+
+        // multipart/byteranges: part headers are known up front, so Content-Length is exact
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + mediaType + "\r\n"
+                    + "Content-Range: bytes " + range[0] + "-" + range[1] + "/" + length + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + range[1] - range[0] + 1;
+        }
+        byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        contentLength += trailer.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (head) {
+            return false;
+        }
+
+        OutputStream out = response.getOutputStream();
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] range = ranges.get(i);
+            out.write(partHeaders.get(i));
+            content.write(range[0], range[1] - range[0] + 1, out);
+        }
+        out.write(trailer);
+        return ranges.get(0)[0] == 0;
+    }
+
+    /**
+     * Writes content that is only available as a stream, such as a file decompressed from
+     * the cold tier. Conditional requests work as for the file itself, with the same
+     * ETag when the original modification time is given, but ranges are not offered:
+     * a Range header is ignored and the whole content sent.
+     *
+     * @return true if a GET delivered the content, i.e. it counts as a download
+     */
+    public boolean serveStream(ContentSource source, long length, long lastModifiedMillis, String contentType,
+                               String fileName, boolean attachment, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+        long lastModified = lastModifiedMillis / 1000 * 1000;
+        String etag = etag(length, lastModifiedMillis);
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "none");
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return false;
+        }
+
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition(attachment, fileName));
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(contentType != null ? contentType : "application/octet-stream");
+        response.setContentLengthLong(length);
+        if ("HEAD".equalsIgnoreCase(request.getMethod())) {
+            return false;
+        }
+
+        long remaining = length;
+        try (InputStream in = source.open()) {
+            OutputStream out = response.getOutputStream();
+            byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            int read;
+            while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) >= 0) {
+                out.write(buffer, 0, read);
+                bytesOut.increment(read);
+                remaining -= read;
+            }
+        }
+        if (remaining > 0) {
+            throw new IOException("Content ended " + remaining + " bytes short while being served");
+        }
+        return true;
+    }
+
+    /**
+     * Parses a Range header into inclusive [start, end] pairs.
+     *
+     * @return null if the header should be ignored, an empty list if no range is satisfiable
+     */
+    static List<long[]> parseRanges(String header, long length) {
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            String value = spec.trim();
+            int dash = value.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+
+            long start;
+            long end;
+            try {
+                if (dash == 0) {
+                    // Suffix range: the last n bytes
+                    long suffix = Long.parseLong(value.substring(1));
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, length - suffix);
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(value.substring(0, dash));
+                    end = dash == value.length() - 1 ? length - 1 : Long.parseLong(value.substring(dash + 1));
+                    if (end < start) {
+                        return null;
+                    }
+                    end = Math.min(end, length - 1);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            if (start < length && start <= end) {
+                ranges.add(new long[]{start, end});
+            }
+        }
+        return ranges;
+    }
+
+    private void transferFully(FileChannel channel, long position, long count, WritableByteChannel target) throws IOException {
+        while (count > 0) {
+            long transferred = channel.transferTo(position, count, target);
+            if (transferred <= 0) {
+                throw new IOException("File was truncated while being served");
+            }
+            bytesOut.increment(transferred);
+            bytesCopied.increment(transferred);
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    /**
+     * Hands mapped regions of the file to the connector, which writes direct buffers to
+     * the socket as they are; the bytes never pass through a heap array.
+     */
+    private void writeMapped(FileChannel channel, long position, long count, CoyoteOutputStream out) throws IOException {
+        if (position + count > channel.size()) {
+            throw new IOException("File was truncated while being served");
+        }
+        while (count > 0) {
+            long size = Math.min(count, MAP_REGION_SIZE);
+            out.write(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+            bytesOut.increment(size);
+            position += size;
+            count -= size;
+        }
+    }
+
+    private static String etag(long length, long lastModifiedMillis) {
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModifiedMillis) + "\"";
+    }
+
+    private boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return matchesEtag(ifNoneMatch, etag, true);
+        }
+
+        long ifModifiedSince = parseDateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    private boolean isIfRangeSatisfied(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.trim().startsWith("\"") || ifRange.trim().startsWith("W/")) {
+            // If-Range requires a strong comparison
+            return matchesEtag(ifRange, etag, false);
+        }
+        long date = parseDateHeader(request, HttpHeaders.IF_RANGE);
+        return date >= 0 && lastModified == date;
+    }
+
+    private boolean matchesEtag(String header, String etag, boolean weak) {
+        for (String candidate : header.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*")) {
+                return true;
+            }
+            if (weak && value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long parseDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    private String contentDisposition(boolean attachment, String fileName) {
+        String name = fileName != null ? fileName : "download";
+        String fallback = NON_PRINTABLE_ASCII.matcher(name).replaceAll("_");
+        String encoded = URLEncoder.encode(name, StandardCharsets.UTF_8).replace("+", "%20");
+        return (attachment ? "attachment" : "inline") + "; filename=\"" + fallback + "\"; filename*=UTF-8''" + encoded;
+    }
+
+    /**
+     * Bytes that can be served with ranges.
+     */
+    private interface Content {
+
+        long length();
+
+        // The whole response body, or the single range asked for
+        void transfer(long start, long count, HttpServletRequest request, HttpServletResponse response) throws IOException;
+
+        // One part of a multipart/byteranges body
+        void write(long start, long count, OutputStream out) throws IOException;
+    }
+
+    private final class FileContent implements Content {
+
+        private final Path path;
+        private final long length;
+
+        FileContent(Path path, long length) {
+            this.path = path;
+            this.length = length;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public void transfer(long start, long count, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            if (count >= SENDFILE_THRESHOLD && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))
+                    && request.getAttribute(SEND_IN_THREAD) == null) {
+                // Tomcat writes the file with sendfile(2) once the request returns
+                request.setAttribute(SENDFILE_FILENAME, path.toAbsolutePath().toString());
+                request.setAttribute(SENDFILE_START, start);
+                request.setAttribute(SENDFILE_END, start + count);
+                bytesOut.increment(count);
+                return;
+            }
+            write(start, count, response.getOutputStream());
+        }
+
+        @Override
+        public void write(long start, long count, OutputStream out) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (out instanceof CoyoteOutputStream coyoteOut) {
+                    writeMapped(channel, start, count, coyoteOut);
+                } else {
+                    transferFully(channel, start, count, Channels.newChannel(out));
+                }
+            }
+        }
+    }
+
+    private final class BufferContent implements Content {
+
+        private final ByteBuffer data;
+
+        BufferContent(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public long length() {
+            return data.remaining();
+        }
+
+        @Override
+        public void transfer(long start, long count, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            write(start, count, response.getOutputStream());
+        }
+
+        @Override
+        public void write(long start, long count, OutputStream out) throws IOException {
+            // Positions are relative to the buffer's own, which is left untouched
+            ByteBuffer slice = data.slice(data.position() + (int) start, (int) count);
+            if (out instanceof CoyoteOutputStream coyoteOut) {
+                coyoteOut.write(slice);
+            } else {
+                WritableByteChannel target = Channels.newChannel(out);
+                while (slice.hasRemaining()) {
+                    target.write(slice);
+                }
+            }
+            bytesOut.increment(count);
+        }
+    }
+
+    /**
+     * Opens the content to serve; called only once headers show it is needed.
+     */
+    @FunctionalInterface
+    public interface ContentSource {
+
+        InputStream open() throws IOException;
+    }
+}
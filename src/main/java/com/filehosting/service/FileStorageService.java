@@ -1,23 +1,51 @@
 package com.filehosting.service;
 
 import com.filehosting.config.FileStorageConfig;
+import com.filehosting.model.FilePage;
+import com.filehosting.model.FileSummary;
+import com.filehosting.model.StoredBlob;
 import com.filehosting.model.UploadedFile;
 import com.filehosting.repository.UploadedFileRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import org.apache.commons.io.FilenameUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 @Service
 public class FileStorageService {
@@ -25,27 +53,169 @@ public class FileStorageService {
     @Autowired
     private UploadedFileRepository fileRepository;
     
+    @Autowired
+    private BlobStoreService blobStoreService;
+    
+    @Autowired
+    private StorageAccountingService storageAccounting;
+    
+    @Autowired
+    private SearchIndexService searchIndex;
+    
+    @Autowired
+    private DownloadCounterService downloadCounters;
+    
+    @Autowired
+    private ThumbnailService thumbnailService;
+    
+    @Autowired
+    private ContentVariantService variantService;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
     @Autowired
     private FileStorageConfig fileConfig;
-      public UploadedFile storeFile(MultipartFile file) throws IOException {
+    
+    @Autowired
+    private FileMetadataCache metadataCache;
+    
+    @Autowired
+    private StorageReclaimService reclaimService;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    // 20GB = 21,474,836,480 bytes
+    public static final long MAX_FILE_SIZE = 21474836480L;
+    
+    public static final String REJECTED_QUOTA = "quota";
+    public static final String REJECTED_FILE_TYPE = "file_type";
+    public static final String REJECTED_SIZE = "size";
+    
+    private static final int DELETE_BATCH_SIZE = 500;
+    private static final String FILES_TO_DELETE_SQL =
+            "SELECT id, file_size, content_hash, file_path FROM uploaded_files WHERE id IN (%s)";
+    private static final String DELETE_FILES_SQL = "DELETE FROM uploaded_files WHERE id IN (%s)";
+    
+    private static final String SOURCE_FORM = "form";
+    private static final String SOURCE_CHUNKED = "chunked";
+    
+    // Meters are resolved once; the upload and query paths only record
+    private final Map<String, Timer> uploadTimers = new HashMap<>();
+    private final Map<String, Counter> rejectionCounters = new HashMap<>();
+    private Counter bytesIn;
+    private DistributionSummary uploadSizes;
+    private Timer listQueryTimer;
+    private Timer filterQueryTimer;
+    private Timer indexSearchTimer;
+    private Timer databaseSearchTimer;
+    
+    @PostConstruct
+    public void initMetrics() {
+        for (String source : List.of(SOURCE_FORM, SOURCE_CHUNKED)) {
+            for (String outcome : List.of("success", "rejected", "error")) {
+                uploadTimers.put(source + "/" + outcome, Timer.builder("filehosting.upload")
+                        .description("Time to store an uploaded file, from reservation to database row")
+                        .tag("source", source)
+                        .tag("outcome", outcome)
+                        .register(meterRegistry));
+            }
+        }
+        for (String reason : List.of(REJECTED_QUOTA, REJECTED_FILE_TYPE, REJECTED_SIZE)) {
+            rejectionCounters.put(reason, Counter.builder("filehosting.upload.rejected")
+                    .description("Uploads refused before any bytes were stored")
+                    .tag("reason", reason)
+                    .register(meterRegistry));
+        }
+        bytesIn = Counter.builder("filehosting.bytes.in")
+                .description("Bytes of files stored")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        uploadSizes = DistributionSummary.builder("filehosting.upload.size")
+                .description("Size of stored files")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        listQueryTimer = queryTimer("list", "database");
+        filterQueryTimer = queryTimer("filter", "database");
+        indexSearchTimer = queryTimer("search", "index");
+        databaseSearchTimer = queryTimer("search", "database");
+    }
+    
+    private Timer queryTimer(String query, String source) {
+        return Timer.builder("filehosting.query")
+                .description("Time to load one page of the file listing")
+                .tag("query", query)
+                .tag("source", source)
+                .register(meterRegistry);
+    }
+    
+    public void recordRejectedUpload(String reason) {
+        rejectionCounters.get(reason).increment();
+    }
+    
+    public UploadedFile storeFile(MultipartFile file) throws IOException {
+        return storeFile(file, contentType -> true);
+    }
+    
+    /**
+     * Stores the file if the type its content turns out to have, or else its declared
+     * type, is allowed. Otherwise UnsupportedContentTypeException is thrown and nothing
+     * of the file is kept.
+     */
+    public UploadedFile storeFile(MultipartFile file, Predicate<String> allowedTypes) throws IOException {
+        return recordUpload(SOURCE_FORM, () -> storeMultipartFile(file, allowedTypes));
+    }
+    
+    /**
+     * Stores a completed chunked upload; its content type is checked like the declared
+     * one was when the session was created. The space reserved for the session covers
+     * the copy and stays with the caller, who releases it once the session is gone.
+     */
+    public UploadedFile storeCompletedUpload(Path source, String originalFileName, String contentType,
+                                             StorageAccountingService.Reservation reservation) throws IOException {
+        return recordUpload(SOURCE_CHUNKED, () -> storeSessionFile(source, originalFileName, contentType, reservation));
+    }
+    
+    private UploadedFile recordUpload(String source, StoreAction action) throws IOException {
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            UploadedFile stored = action.store();
+            outcome = "success";
+            bytesIn.increment(stored.getFileSize());
+            uploadSizes.record(stored.getFileSize());
+            return stored;
+        } catch (UnsupportedContentTypeException e) {
+            outcome = "rejected";
+            recordRejectedUpload(REJECTED_FILE_TYPE);
+            throw e;
+        } catch (IllegalArgumentException e) {
+            outcome = "rejected";
+            recordRejectedUpload(REJECTED_SIZE);
+            throw e;
+        } catch (IllegalStateException e) {
+            outcome = "rejected";
+            recordRejectedUpload(REJECTED_QUOTA);
+            throw e;
+        } finally {
+            uploadTimers.get(source + "/" + outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    private UploadedFile storeMultipartFile(MultipartFile file, Predicate<String> allowedTypes) throws IOException {
         if (file.isEmpty()) {
             throw new IllegalArgumentException("Cannot store empty file");
         }
         
-        // Validate file size (20GB = 21,474,836,480 bytes)
-        long maxFileSize = 21474836480L; // 20GB in bytes
-        if (file.getSize() > maxFileSize) {
+        // Validate file size
+        if (file.getSize() > MAX_FILE_SIZE) {
             throw new IllegalArgumentException("File size exceeds maximum limit of 20GB");
         }
         
-        // Check storage limits
-        long currentUsedSpace = getCurrentUsedSpace();
-        long maxStorage = fileConfig.getMaxStorageBytes();
-        
-        if (currentUsedSpace + file.getSize() > maxStorage) {
-            throw new IllegalStateException("Storage limit exceeded. Cannot upload file.");
-        }
-        
         String originalFileName = file.getOriginalFilename();
         if (originalFileName == null) {
             originalFileName = "unknown";
@@ -54,38 +224,163 @@ public class FileStorageService {
         // Generate unique stored filename
         String storedFileName = generateUniqueFileName(originalFileName);
         
-        // Create full path
-        Path uploadPath = Paths.get(fileConfig.getUploadPath());
-        Path filePath = uploadPath.resolve(storedFileName);
-        
-        // Ensure upload directory exists
-        Files.createDirectories(uploadPath);
+        // Space is held from before the first byte is written until the row exists
+        try (StorageAccountingService.Reservation reservation = storageAccounting.reserve(file.getSize())) {
+            // Copy into the blob store, hashing and sniffing on the way; identical content is kept once
+            IngestContext ingest = new IngestContext(originalFileName, file.getContentType(), file.getSize(), allowedTypes);
+            StoredBlob blob;
+            try (InputStream in = file.getInputStream()) {
+                blob = blobStoreService.store(in, ingest);
+            }
+            
+            return saveFileRecord(originalFileName, storedFileName, blob, ingest.getContentType());
+        }
+    }
+    
+    private UploadedFile storeSessionFile(Path source, String originalFileName, String contentType,
+                                          StorageAccountingService.Reservation reservation) throws IOException {
+        long size = Files.size(source);
+        if (size > reservation.getBytes()) {
+            throw new IllegalStateException("Upload of " + size + " bytes exceeds the " + reservation.getBytes() + " reserved");
+        }
+        String storedFileName = generateUniqueFileName(originalFileName);
         
-        // Copy file to destination
-        Files.copy(file.getInputStream(), filePath);
+        // Session files live under the upload directory, so new content is normally a rename
+        IngestContext ingest = new IngestContext(originalFileName, contentType, size, this::isValidContentType);
+        StoredBlob blob = blobStoreService.store(source, ingest);
         
-        // Create database record
+        return saveFileRecord(originalFileName, storedFileName, blob, ingest.getContentType());
+    }
+    
+    private UploadedFile saveFileRecord(String originalFileName, String storedFileName, StoredBlob blob,
+                                        String contentType) {
         UploadedFile uploadedFile = new UploadedFile(
             originalFileName,
             storedFileName,
-            filePath.toString(),
-            file.getSize(),
-            file.getContentType()
+            blob.getFilePath(),
+            blob.getSize(),
+            contentType
         );
+        uploadedFile.setContentHash(blob.getHash());
         
-        return fileRepository.save(uploadedFile);
+        UploadedFile saved;
+        storageAccounting.beginChange();
+        try {
+            saved = fileRepository.save(uploadedFile);
+            storageAccounting.fileAdded(saved.getFileSize());
+            searchIndex.fileAdded(saved);
+        } catch (RuntimeException e) {
+            // Give back the reference taken for this row
+            blobStoreService.release(blob.getHash());
+            throw e;
+        } finally {
+            storageAccounting.endChange();
+        }
+        
+        thumbnailService.generateAsync(saved);
+        variantService.generateAsync(saved, Paths.get(saved.getFilePath()));
+        return saved;
     }
     
-    public List<UploadedFile> getAllFiles() {
-        return fileRepository.findAllOrderByUploadTimeDesc();
+    /**
+     * Every file, newest first, fetched batchSize rows at a time as the caller iterates.
+     * Batches follow the same (uploadTime, id) keyset as the file listing, so only the
+     * current one is held in memory. Files uploaded after the walk started sort before
+     * its position and are left out; a file deleted before its batch is fetched is too.
+     */
+    public Iterable<List<UploadedFile>> getAllFilesInBatches(int batchSize) {
+        return () -> new Iterator<>() {
+            private FileCursor after;
+            private List<UploadedFile> batch;
+            private boolean exhausted;
+            
+            @Override
+            public boolean hasNext() {
+                if (batch == null && !exhausted) {
+                    Limit limit = Limit.of(batchSize);
+                    List<FileSummary> rows = after == null
+                            ? fileRepository.findFirstPage(limit)
+                            : fileRepository.findPageAfter(after.uploadTime(), after.id(), limit);
+                    if (rows.size() < batchSize) {
+                        exhausted = true;
+                    }
+                    if (!rows.isEmpty()) {
+                        // The cursor comes from the listing row, which is there even if the file was deleted since
+                        FileSummary last = rows.get(rows.size() - 1);
+                        after = new FileCursor(last.getUploadTime(), last.getId());
+                        batch = getFilesByIds(rows.stream().map(FileSummary::getId).toList());
+                    }
+                }
+                return batch != null;
+            }
+            
+            @Override
+            public List<UploadedFile> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<UploadedFile> next = batch;
+                batch = null;
+                return next;
+            }
+        };
     }
     
+    /**
+     * The file's row, usually from the metadata cache; the instance may be shared and
+     * must not be modified.
+     */
     public Optional<UploadedFile> getFileById(Long id) {
-        return fileRepository.findById(id);
+        return metadataCache.findById(id);
+    }
+    
+    public List<UploadedFile> getFilesByIds(List<Long> ids) {
+        // Single query, returned in the order the ids were requested
+        Map<Long, UploadedFile> filesById = new HashMap<>();
+        for (UploadedFile file : fileRepository.findAllById(ids)) {
+            filesById.put(file.getId(), file);
+        }
+        
+        List<UploadedFile> files = new ArrayList<>(filesById.size());
+        for (Long id : new LinkedHashSet<>(ids)) {
+            UploadedFile file = filesById.get(id);
+            if (file != null) {
+                files.add(file);
+            }
+        }
+        return files;
     }
     
     public Optional<UploadedFile> getFileByStoredName(String storedName) {
-        return fileRepository.findByStoredName(storedName);
+        return metadataCache.findByStoredName(storedName);
+    }
+    
+    /**
+     * The file's location on disk. A row read before the layout migrator moved its file
+     * still carries the old path, so the current layout is tried when that is gone, and
+     * then wherever the blob store last recorded the content, e.g. after a restore from
+     * the cold tier to another volume.
+     */
+    public Path resolveFilePath(UploadedFile file) {
+        Path recorded = Paths.get(file.getFilePath());
+        if (Files.exists(recorded)) {
+            return recorded;
+        }
+        Path current = file.getContentHash() != null
+                ? blobStoreService.currentPath(recorded, file.getContentHash())
+                : fileConfig.getLayout().resolveByName(Paths.get(fileConfig.getUploadPath()), file.getStoredName());
+        if (Files.exists(current)) {
+            return current;
+        }
+        if (file.getContentHash() != null) {
+            Optional<Path> blobPath = blobStoreService.getBlob(file.getContentHash())
+                    .map(blob -> Paths.get(blob.getFilePath()))
+                    .filter(Files::exists);
+            if (blobPath.isPresent()) {
+                return blobPath.get();
+            }
+        }
+        return recorded;
     }
     
     public boolean deleteFile(Long id) {
@@ -93,6 +388,13 @@ public class FileStorageService {
         if (fileOpt.isPresent()) {
             UploadedFile uploadedFile = fileOpt.get();
             
+            if (uploadedFile.getContentHash() != null) {
+                // Shared content: the blob goes away with its last reference
+                removeFileRecord(uploadedFile, false);
+                blobStoreService.release(uploadedFile.getContentHash());
+                return true;
+            }
+            
             // Delete physical file
             try {
                 Path filePath = Paths.get(uploadedFile.getFilePath());
@@ -103,37 +405,253 @@ public class FileStorageService {
             }
             
             // Delete database record
-            fileRepository.delete(uploadedFile);
+            removeFileRecord(uploadedFile, true);
             return true;
         }
         return false;
     }
     
+    private void removeFileRecord(UploadedFile uploadedFile, boolean ownsPhysicalFile) {
+        storageAccounting.beginChange();
+        try {
+            fileRepository.delete(uploadedFile);
+            metadataCache.invalidate(uploadedFile.getId());
+            storageAccounting.fileRemoved(uploadedFile.getFileSize());
+            searchIndex.fileRemoved(uploadedFile.getId());
+            if (ownsPhysicalFile) {
+                storageAccounting.physicalBytesRemoved(uploadedFile.getFileSize());
+            }
+        } finally {
+            storageAccounting.endChange();
+        }
+    }
+    
+    /**
+     * Deletes many files at once: their rows go in batched statements in one transaction,
+     * storage accounting is adjusted once, and the files on disk are queued in the same
+     * transaction for StorageReclaimService to remove in the background.
+     *
+     * @return how many of the files existed and were deleted
+     */
+    public int deleteFiles(Collection<Long> ids) {
+        List<Long> uniqueIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        // A row's hash never changes, so the blobs read here are the ones to lock
+        Set<String> hashes = new HashSet<>();
+        for (DeletedRow row : findRowsToDelete(uniqueIds, false)) {
+            if (row.hash() != null) {
+                hashes.add(row.hash());
+            }
+        }
+        
+        List<DeletedRow> deleted = new ArrayList<>();
+        blobStoreService.runLocked(hashes, () -> {
+            storageAccounting.beginChange();
+            try {
+                List<StoredBlob> freed = transactionTemplate.execute(status -> {
+                    // Rows deleted meanwhile are skipped; the ones read here stay locked until commit
+                    List<DeletedRow> rows = findRowsToDelete(uniqueIds, true);
+                    List<Long> rowIds = new ArrayList<>(rows.size());
+                    Map<String, Long> references = new HashMap<>();
+                    List<String> unhashedPaths = new ArrayList<>();
+                    for (DeletedRow row : rows) {
+                        rowIds.add(row.id());
+                        if (row.hash() != null) {
+                            references.merge(row.hash(), 1L, Long::sum);
+                        } else {
+                            unhashedPaths.add(row.path());
+                        }
+                    }
+                    forEachBatch(rowIds, (batch, placeholders) ->
+                            jdbcTemplate.update(String.format(DELETE_FILES_SQL, placeholders), batch.toArray()));
+                    List<StoredBlob> unreferenced = references.isEmpty()
+                            ? List.of() : blobStoreService.releaseAll(references);
+                    reclaimService.enqueue(unreferenced, unhashedPaths);
+                    deleted.addAll(rows);
+                    return unreferenced;
+                });
+                
+                long logicalBytes = 0;
+                long unhashedBytes = 0;
+                for (DeletedRow row : deleted) {
+                    logicalBytes += row.size();
+                    if (row.hash() == null) {
+                        unhashedBytes += row.size();
+                    }
+                }
+                storageAccounting.filesRemoved(deleted.size(), logicalBytes);
+                storageAccounting.physicalBytesRemoved(unhashedBytes);
+                blobStoreService.released(freed);
+            } finally {
+                storageAccounting.endChange();
+            }
+        });
+        
+        List<Long> deletedIds = deleted.stream().map(DeletedRow::id).toList();
+        metadataCache.invalidateAll(deletedIds);
+        for (Long id : deletedIds) {
+            searchIndex.fileRemoved(id);
+        }
+        reclaimService.wake();
+        return deleted.size();
+    }
+    
+    private List<DeletedRow> findRowsToDelete(List<Long> ids, boolean forUpdate) {
+        List<DeletedRow> rows = new ArrayList<>(ids.size());
+        forEachBatch(ids, (batch, placeholders) -> rows.addAll(jdbcTemplate.query(
+                String.format(FILES_TO_DELETE_SQL, placeholders) + (forUpdate ? " FOR UPDATE" : ""),
+                (rs, row) -> new DeletedRow(rs.getLong(1), rs.getLong(2), rs.getString(3), rs.getString(4)),
+                batch.toArray())));
+        return rows;
+    }
+    
+    private static void forEachBatch(List<Long> ids, BiConsumer<List<Long>, String> action) {
+        for (int from = 0; from < ids.size(); from += DELETE_BATCH_SIZE) {
+            List<Long> batch = ids.subList(from, Math.min(from + DELETE_BATCH_SIZE, ids.size()));
+            action.accept(batch, String.join(",", Collections.nCopies(batch.size(), "?")));
+        }
+    }
+    
     public void incrementDownloadCount(UploadedFile file) {
-        file.incrementDownloadCount();
-        fileRepository.save(file);
+        // Written behind in batches; the download never waits on the database
+        downloadCounters.recordDownload(file.getId());
+    }
+    
+    public void recordAccess(UploadedFile file) {
+        downloadCounters.recordAccess(file.getId());
     }
     
+    /**
+     * Bytes actually on disk: every distinct blob once, plus files stored before deduplication.
+     */
     public long getCurrentUsedSpace() {
-        Long usedSpace = fileRepository.getTotalUsedSpace();
-        return usedSpace != null ? usedSpace : 0L;
+        return storageAccounting.getUsedBytes();
+    }
+    
+    /**
+     * Bytes as seen by users: the size of every file, counting duplicates each time.
+     */
+    public long getLogicalUsedSpace() {
+        return storageAccounting.getLogicalBytes();
     }
     
     public long getFileCount() {
-        Long count = fileRepository.getTotalFileCount();
-        return count != null ? count : 0L;
+        return storageAccounting.getFileCount();
     }
     
-    public List<UploadedFile> getImageFiles() {
-        return fileRepository.findAllImages();
+    public FilePage getFilePage(String cursor, int size) {
+        FileCursor after = FileCursor.decode(cursor);
+        Limit limit = Limit.of(size + 1);
+        long start = System.nanoTime();
+        List<FileSummary> files = after == null
+                ? fileRepository.findFirstPage(limit)
+                : fileRepository.findPageAfter(after.uploadTime(), after.id(), limit);
+        listQueryTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return toPage(files, size);
     }
     
-    public List<UploadedFile> getVideoFiles() {
-        return fileRepository.findAllVideos();
+    /**
+     * @param contentCategory top-level media type, as returned by FileUtils.getContentCategory
+     */
+    public FilePage getFilePageByCategory(String contentCategory, String cursor, int size) {
+        FileCursor after = FileCursor.decode(cursor);
+        Limit limit = Limit.of(size + 1);
+        long start = System.nanoTime();
+        List<FileSummary> files = after == null
+                ? fileRepository.findFirstPageByCategory(contentCategory, limit)
+                : fileRepository.findPageByCategoryAfter(contentCategory, after.uploadTime(), after.id(), limit);
+        filterQueryTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return toPage(files, size);
     }
     
-    public List<UploadedFile> searchFiles(String query) {
-        return fileRepository.findByOriginalNameContainingIgnoreCase(query);
+    /**
+     * Ranked search through the in-memory index: the best matches, up to size, in one page.
+     * While the index is still loading, falls back to a keyset-paged database scan.
+     */
+    public FilePage searchFilePage(String query, String cursor, int size) {
+        long start = System.nanoTime();
+        if (searchIndex.isReady() && (cursor == null || cursor.isBlank())) {
+            long[] ids = searchIndex.search(query, size);
+            List<Long> rankedIds = new ArrayList<>(ids.length);
+            for (long id : ids) {
+                rankedIds.add(id);
+            }
+            
+            Map<Long, FileSummary> filesById = new HashMap<>();
+            for (FileSummary file : fileRepository.findSummariesByIdIn(rankedIds)) {
+                filesById.put(file.getId(), file);
+            }
+            List<FileSummary> files = new ArrayList<>(rankedIds.size());
+            for (Long id : rankedIds) {
+                FileSummary file = filesById.get(id);
+                if (file != null) {
+                    files.add(file);
+                }
+            }
+            indexSearchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return new FilePage(files, null);
+        }
+        
+        FileCursor after = FileCursor.decode(cursor);
+        Limit limit = Limit.of(size + 1);
+        String pattern = "%" + query.toLowerCase(Locale.ROOT)
+                .replace("!", "!!")
+                .replace("%", "!%")
+                .replace("_", "!_") + "%";
+        List<FileSummary> files = after == null
+                ? fileRepository.searchFirstPage(pattern, limit)
+                : fileRepository.searchPageAfter(pattern, after.uploadTime(), after.id(), limit);
+        databaseSearchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return toPage(files, size);
+    }
+    
+    public boolean isValidPageCursor(String cursor) {
+        try {
+            FileCursor.decode(cursor);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+    
+    private FilePage toPage(List<FileSummary> files, int size) {
+        // One extra row was fetched to tell whether another page exists
+        if (files.size() <= size) {
+            return new FilePage(files, null);
+        }
+        
+        List<FileSummary> page = files.subList(0, size);
+        FileSummary last = page.get(size - 1);
+        return new FilePage(page, new FileCursor(last.getUploadTime(), last.getId()).encode());
+    }
+    
+    @FunctionalInterface
+    private interface StoreAction {
+        UploadedFile store() throws IOException;
+    }
+    
+    private record DeletedRow(long id, long size, String hash, String path) {
+    }
+    
+    private record FileCursor(LocalDateTime uploadTime, Long id) {
+        
+        String encode() {
+            String value = uploadTime + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        static FileCursor decode(String cursor) {
+            if (cursor == null || cursor.isBlank()) {
+                return null;
+            }
+            try {
+                String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = value.lastIndexOf('|');
+                return new FileCursor(LocalDateTime.parse(value.substring(0, separator)),
+                        Long.parseLong(value.substring(separator + 1)));
+            } catch (IllegalArgumentException | DateTimeParseException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid page cursor");
+            }
+        }
     }
     
     private String generateUniqueFileName(String originalFileName) {
@@ -148,8 +666,14 @@ public class FileStorageService {
         }
     }
     
+    /**
+     * Checks the declared type only; storeFile with allowed types checks the content.
+     */
     public boolean isValidFileType(MultipartFile file) {
-        String contentType = file.getContentType();
+        return isValidContentType(file.getContentType());
+    }
+    
+    public boolean isValidContentType(String contentType) {
         if (contentType == null) {
             return false;
         }
@@ -0,0 +1,88 @@
+package com.filehosting.service;
+
+import java.util.function.Predicate;
+
+/**
+ * What is known about one upload while IngestPipeline copies it: what the client
+ * declared, and what the pipeline found.
+ */
+public final class IngestContext {
+
+    private final String originalName;
+    private final String declaredContentType;
+    private final long declaredSize;
+    private final Predicate<String> allowedTypes;
+
+    private String detectedContentType;
+    private String hash;
+    private long size;
+
+    /**
+     * @param declaredSize the size the client announced, or -1 if unknown; an upload
+     *                     that turns out larger or smaller is rejected
+     * @param allowedTypes checked against the content type once it is known
+     */
+    public IngestContext(String originalName, String declaredContentType, long declaredSize,
+                         Predicate<String> allowedTypes) {
+        this.originalName = originalName;
+        this.declaredContentType = declaredContentType;
+        this.declaredSize = declaredSize;
+        this.allowedTypes = allowedTypes;
+    }
+
+    public static IngestContext anyType(String originalName, String declaredContentType, long declaredSize) {
+        return new IngestContext(originalName, declaredContentType, declaredSize, contentType -> true);
+    }
+
+    public String getOriginalName() {
+        return originalName;
+    }
+
+    public String getDeclaredContentType() {
+        return declaredContentType;
+    }
+
+    public long getDeclaredSize() {
+        return declaredSize;
+    }
+
+    /**
+     * The type found from the file's signature, or null if none was recognized.
+     */
+    public String getDetectedContentType() {
+        return detectedContentType;
+    }
+
+    /**
+     * The type to store the file under: the detected one if any, else the declared one.
+     */
+    public String getContentType() {
+        return detectedContentType != null ? detectedContentType : declaredContentType;
+    }
+
+    /**
+     * Hex SHA-256 of the content, once the copy is complete.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * Bytes copied, once the copy is complete.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    void contentTypeDetected(String contentType) {
+        this.detectedContentType = contentType;
+        if (!allowedTypes.test(getContentType())) {
+            throw new UnsupportedContentTypeException(getContentType());
+        }
+    }
+
+    void copied(String hash, long size) {
+        this.hash = hash;
+        this.size = size;
+    }
+}
@@ -0,0 +1,188 @@
+package com.filehosting.service;
+
+import com.filehosting.util.BufferPool;
+import com.filehosting.util.ContentSniffer;
+import com.filehosting.util.FileUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Copies an upload to disk in a single pass, running every IngestStage over each block
+ * between reading and writing it: the byte count checked against the declared size,
+ * the file signature that decides the content type, the SHA-256 the blob store names
+ * content by, and any stages registered as beans. However many stages run, each byte is
+ * read from the upload once and written once.
+ *
+ * Blocks go through large buffers from a pool, so concurrent uploads of multi-GB files
+ * neither allocate nor garbage-collect a buffer each.
+ */
+@Service
+public class IngestPipeline {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired(required = false)
+    private List<IngestStage.Factory> stageFactories = List.of();
+
+    @Value("${app.upload.ingest-buffer-kb:1024}")
+    private int bufferKb;
+
+    @Value("${app.upload.ingest-buffer-pool-size:16}")
+    private int bufferPoolSize;
+
+    @Value("${app.upload.sniff-content-type:true}")
+    private boolean sniffContentType;
+
+    private BufferPool buffers;
+    private Counter correctedTypes;
+
+    @PostConstruct
+    public void init() {
+        buffers = new BufferPool(bufferKb * 1024, bufferPoolSize);
+        correctedTypes = Counter.builder("filehosting.upload.type.corrected")
+                .description("Uploads whose content showed a different type than the declared one")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Copies the stream to out, or only reads it if out is null, and fills in the
+     * context's size, hash and detected type.
+     *
+     * @throws UnsupportedContentTypeException as soon as the content type is known and not
+     *         allowed; what was written to out by then must be discarded by the caller
+     * @throws IOException if the upload is not the size it was declared with, or a stage
+     *         rejected it
+     */
+    public void copy(InputStream in, OutputStream out, IngestContext ingest) throws IOException {
+        ByteCountStage count = new ByteCountStage(ingest.getDeclaredSize());
+        DigestStage digest = new DigestStage();
+        List<IngestStage> stages = new ArrayList<>();
+        stages.add(count);
+        stages.add(new ContentTypeStage(ingest));
+        stages.add(digest);
+        for (IngestStage.Factory factory : stageFactories) {
+            IngestStage stage = factory.create(ingest);
+            if (stage != null) {
+                stages.add(stage);
+            }
+        }
+
+        byte[] buffer = buffers.acquire();
+        try {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                for (IngestStage stage : stages) {
+                    stage.update(buffer, 0, read);
+                }
+                if (out != null) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        } finally {
+            buffers.release(buffer);
+        }
+
+        count.verify();
+        ingest.copied(digest.hex(), count.bytes);
+        for (IngestStage stage : stages) {
+            stage.complete(ingest);
+        }
+    }
+
+    private static final class ByteCountStage implements IngestStage {
+
+        private final long declaredSize;
+        private long bytes;
+
+        ByteCountStage(long declaredSize) {
+            this.declaredSize = declaredSize;
+        }
+
+        @Override
+        public void update(byte[] buffer, int offset, int length) throws IOException {
+            bytes += length;
+            // Stops before anything past the space reserved for the upload is written
+            if (declaredSize >= 0 && bytes > declaredSize) {
+                throw new IOException("Upload is larger than its declared " + declaredSize + " bytes");
+            }
+        }
+
+        void verify() throws IOException {
+            if (declaredSize >= 0 && bytes != declaredSize) {
+                throw new IOException("Upload ended after " + bytes + " of " + declaredSize + " bytes");
+            }
+        }
+    }
+
+    private final class ContentTypeStage implements IngestStage {
+
+        private final IngestContext ingest;
+        private final byte[] head = new byte[ContentSniffer.HEAD_SIZE];
+        private int headLength;
+        private boolean decided;
+
+        ContentTypeStage(IngestContext ingest) {
+            this.ingest = ingest;
+            if (!sniffContentType) {
+                // The declared type is all there is, so it is checked before anything is copied
+                decide();
+            }
+        }
+
+        @Override
+        public void update(byte[] buffer, int offset, int length) {
+            if (decided) {
+                return;
+            }
+            int take = Math.min(length, head.length - headLength);
+            System.arraycopy(buffer, offset, head, headLength, take);
+            headLength += take;
+            if (headLength == head.length) {
+                decide();
+            }
+        }
+
+        @Override
+        public void complete(IngestContext ingest) {
+            if (!decided) {
+                decide();
+            }
+        }
+
+        private void decide() {
+            decided = true;
+            String detected = sniffContentType ? ContentSniffer.detect(head, headLength, ingest.getDeclaredContentType()) : null;
+            if (detected != null && !detected.equalsIgnoreCase(ingest.getDeclaredContentType())) {
+                correctedTypes.increment();
+            }
+            ingest.contentTypeDetected(detected);
+        }
+    }
+
+    private static final class DigestStage implements IngestStage {
+
+        private final MessageDigest digest = FileUtils.newSha256Digest();
+
+        @Override
+        public void update(byte[] buffer, int offset, int length) {
+            digest.update(buffer, offset, length);
+        }
+
+        String hex() {
+            return HexFormat.of().formatHex(digest.digest());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.filehosting.service;
+
+import java.io.IOException;
+
+/**
+ * A step of the single pass IngestPipeline makes over each upload. A stage sees every
+ * block once, in order, after it is read and before it is written to disk, so it never
+ * needs a read of its own. Throwing from update or complete rejects the upload, and
+ * nothing of it is kept.
+ *
+ * Register a Factory as a Spring bean to run a stage on every upload; factories run
+ * after the built-in stages, in @Order.
+ */
+public interface IngestStage {
+
+    /**
+     * The buffer is reused for the next block once this returns.
+     */
+    void update(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Called once every byte was seen, with the size and hash already filled in.
+     */
+    default void complete(IngestContext ingest) throws IOException {
+    }
+
+    interface Factory {
+
+        /**
+         * @return the stage for this upload, or null to skip it
+         */
+        IngestStage create(IngestContext ingest);
+    }
+}
@@ -0,0 +1,92 @@
+package com.filehosting.service;
+
+import com.filehosting.model.FileSummary;
+import com.filehosting.model.UploadedFile;
+import com.filehosting.repository.UploadedFileRepository;
+import com.filehosting.util.FileNameIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the file name index in step with the files table. The index is filled in the
+ * background after startup; until then searches fall back to the database.
+ */
+@Service
+public class SearchIndexService {
+    
+    private static final int BUILD_BATCH_SIZE = 10_000;
+    
+    @Autowired
+    private UploadedFileRepository fileRepository;
+    
+    private final FileNameIndex index = new FileNameIndex();
+    
+    private volatile boolean ready;
+    
+    // Deletions that race with the initial load must not be re-added by it
+    private final Set<Long> removedWhileBuilding = ConcurrentHashMap.newKeySet();
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildIndex() {
+        Thread builder = new Thread(this::loadAll, "search-index-build");
+        builder.setDaemon(true);
+        builder.start();
+    }
+    
+    public boolean isReady() {
+        return ready;
+    }
+    
+    public int size() {
+        return index.size();
+    }
+    
+    public void fileAdded(UploadedFile file) {
+        index.add(file.getId(), file.getOriginalName(), file.getContentType());
+    }
+    
+    public void fileRemoved(Long fileId) {
+        if (!ready) {
+            removedWhileBuilding.add(fileId);
+        }
+        index.remove(fileId);
+    }
+    
+    /**
+     * @return ids of the best matching files, best first
+     */
+    public long[] search(String query, int limit) {
+        return index.search(query, limit);
+    }
+    
+    private void loadAll() {
+        long start = System.currentTimeMillis();
+        try {
+            long afterId = 0;
+            List<FileSummary> batch;
+            do {
+                batch = fileRepository.findSummariesAfterId(afterId, Limit.of(BUILD_BATCH_SIZE));
+                for (FileSummary file : batch) {
+                    if (!removedWhileBuilding.contains(file.getId())) {
+                        index.add(file.getId(), file.getOriginalName(), file.getContentType());
+                    }
+                    afterId = file.getId();
+                }
+            } while (batch.size() == BUILD_BATCH_SIZE);
+            
+            ready = true;
+            removedWhileBuilding.clear();
+            System.out.println("Search index built: " + index.size() + " files in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (RuntimeException e) {
+            System.err.println("Failed to build search index, searching the database instead: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.filehosting.service;
+
+import com.filehosting.config.FileStorageConfig;
+import com.filehosting.repository.StoredBlobRepository;
+import com.filehosting.repository.UploadedFileRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps storage usage in memory so quota checks and the dashboard don't aggregate the
+ * files table on every request. Counters are seeded from the database at startup,
+ * adjusted as files come and go, and reconciled with the database on a schedule.
+ *
+ * Uploads reserve their size before any bytes are written; the reservation and the
+ * bytes already on disk are checked against the quota in one atomic step, so
+ * concurrent uploads cannot overcommit it.
+ *
+ * Code that changes the database and then the counters brackets both with
+ * beginChange/endChange. Those sections only share a read lock; reconciliation takes
+ * the write lock so it never sees a row without its counter update or vice versa.
+ */
+@Service
+public class StorageAccountingService {
+
+    @Autowired
+    private UploadedFileRepository fileRepository;
+
+    @Autowired
+    private StoredBlobRepository blobRepository;
+
+    @Autowired
+    private FileStorageConfig fileConfig;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Physical bytes on disk plus outstanding reservations; the quota is enforced on this
+    private final AtomicLong claimedBytes = new AtomicLong();
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicLong logicalBytes = new AtomicLong();
+    private final AtomicLong fileCount = new AtomicLong();
+
+    private final ReadWriteLock reconcileLock = new ReentrantReadWriteLock();
+
+    @PostConstruct
+    public void init() {
+        claimedBytes.set(queryPhysicalBytes());
+        logicalBytes.set(queryLogicalBytes());
+        fileCount.set(queryFileCount());
+        
+        // Gauges read the counters when scraped; nothing is recorded on the upload path
+        Gauge.builder("filehosting.storage.used", this, StorageAccountingService::getUsedBytes)
+                .description("Bytes on disk")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("filehosting.storage.reserved", this, StorageAccountingService::getReservedBytes)
+                .description("Bytes held for uploads in progress")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("filehosting.storage.logical", this, StorageAccountingService::getLogicalBytes)
+                .description("Total size of all files before deduplication")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("filehosting.storage.capacity", fileConfig, FileStorageConfig::getMaxStorageBytes)
+                .description("Storage quota")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("filehosting.files", this, StorageAccountingService::getFileCount)
+                .description("Stored files")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Claims space for an upload of the given size.
+     *
+     * @throws IllegalStateException if the upload would exceed the storage quota
+     */
+    public Reservation reserve(long bytes) {
+        long maxStorage = fileConfig.getMaxStorageBytes();
+        beginChange();
+        try {
+            while (true) {
+                long claimed = claimedBytes.get();
+                if (claimed + bytes > maxStorage) {
+                    throw new IllegalStateException("Storage limit exceeded. Cannot upload file.");
+                }
+                if (claimedBytes.compareAndSet(claimed, claimed + bytes)) {
+                    reservedBytes.addAndGet(bytes);
+                    return new Reservation(bytes);
+                }
+            }
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * Reinstates a reservation granted before a restart, e.g. for a resumable upload that
+     * is still open. It is not checked against the quota, since the space was promised.
+     */
+    public Reservation restoreReservation(long bytes) {
+        beginChange();
+        try {
+            claimedBytes.addAndGet(bytes);
+            reservedBytes.addAndGet(bytes);
+            return new Reservation(bytes);
+        } finally {
+            endChange();
+        }
+    }
+
+    public void beginChange() {
+        reconcileLock.readLock().lock();
+    }
+
+    public void endChange() {
+        reconcileLock.readLock().unlock();
+    }
+
+    public void physicalBytesAdded(long bytes) {
+        claimedBytes.addAndGet(bytes);
+    }
+
+    public void physicalBytesRemoved(long bytes) {
+        claimedBytes.addAndGet(-bytes);
+    }
+
+    public void fileAdded(long bytes) {
+        logicalBytes.addAndGet(bytes);
+        fileCount.incrementAndGet();
+    }
+
+    public void fileRemoved(long bytes) {
+        logicalBytes.addAndGet(-bytes);
+        fileCount.decrementAndGet();
+    }
+
+    public void filesRemoved(long count, long bytes) {
+        logicalBytes.addAndGet(-bytes);
+        fileCount.addAndGet(-count);
+    }
+
+    public long getUsedBytes() {
+        return claimedBytes.get() - reservedBytes.get();
+    }
+
+    public long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    public long getLogicalBytes() {
+        return logicalBytes.get();
+    }
+
+    public long getFileCount() {
+        return fileCount.get();
+    }
+
+    public long getAvailableBytes() {
+        return fileConfig.getMaxStorageBytes() - claimedBytes.get();
+    }
+
+    /**
+     * Corrects any drift against the database, e.g. from rows changed outside the app.
+     * Changes are held off only while the aggregates run; uploads keep copying bytes.
+     */
+    @Scheduled(fixedDelayString = "${app.storage.reconcile-interval-ms:300000}",
+               initialDelayString = "${app.storage.reconcile-interval-ms:300000}")
+    public void reconcile() {
+        reconcileLock.writeLock().lock();
+        try {
+            long physical = queryPhysicalBytes();
+            long logical = queryLogicalBytes();
+            long count = queryFileCount();
+
+            long physicalDrift = physical - getUsedBytes();
+            long logicalDrift = logical - logicalBytes.get();
+            long countDrift = count - fileCount.get();
+
+            if (physicalDrift != 0 || logicalDrift != 0 || countDrift != 0) {
+                claimedBytes.addAndGet(physicalDrift);
+                logicalBytes.addAndGet(logicalDrift);
+                fileCount.addAndGet(countDrift);
+                System.err.println("Storage accounting corrected by " + physicalDrift + " physical bytes, "
+                        + logicalDrift + " logical bytes and " + countDrift + " files");
+            }
+        } finally {
+            reconcileLock.writeLock().unlock();
+        }
+    }
+
+    private long queryPhysicalBytes() {
+        Long blobBytes = blobRepository.getTotalBlobSize();
+        Long unhashedBytes = fileRepository.getUnhashedUsedSpace();
+        return (blobBytes != null ? blobBytes : 0L) + (unhashedBytes != null ? unhashedBytes : 0L);
+    }
+
+    private long queryLogicalBytes() {
+        Long usedSpace = fileRepository.getTotalUsedSpace();
+        return usedSpace != null ? usedSpace : 0L;
+    }
+
+    private long queryFileCount() {
+        Long count = fileRepository.getTotalFileCount();
+        return count != null ? count : 0L;
+    }
+
+    /**
+     * Space held for one upload. Released exactly once, whether the upload succeeded
+     * (its bytes are then accounted as stored) or failed.
+     */
+    public class Reservation implements AutoCloseable {
+
+        private final long bytes;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                beginChange();
+                try {
+                    reservedBytes.addAndGet(-bytes);
+                    claimedBytes.addAndGet(-bytes);
+                } finally {
+                    endChange();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package com.filehosting.service;
+
+import com.filehosting.config.FileStorageConfig;
+import com.filehosting.util.FanOutLayout;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Moves blobs and legacy uploads that are not yet in the configured directory layout,
+ * in the background and without taking the service down.
+ *
+ * Files are moved a batch at a time: each is hard-linked at its new location, then the
+ * paths of the whole batch are switched in one transaction, so every row always points
+ * at a file that exists. The old links are removed only after a grace period, which
+ * covers readers that loaded a row just before the switch; readers that hold a row for
+ * longer fall back to the new location (FileStorageService.resolveFilePath). Blob
+ * batches run under the blob store's locks for their hashes, so uploads and deletes of
+ * the same content never see a half-moved blob.
+ */
+@Service
+public class StorageLayoutMigrator {
+
+    private static final String BLOB_PAGE_SQL =
+            "SELECT content_hash, file_path, volume FROM stored_blobs WHERE content_hash > ? AND cold_path IS NULL "
+            + "ORDER BY content_hash LIMIT ?";
+    private static final String LEGACY_PAGE_SQL =
+            "SELECT id, stored_name, file_path FROM uploaded_files WHERE content_hash IS NULL AND id > ? ORDER BY id LIMIT ?";
+    private static final String UPDATE_BLOB_SQL =
+            "UPDATE stored_blobs SET file_path = ? WHERE content_hash = ? AND file_path = ?";
+    private static final String UPDATE_BLOB_FILES_SQL =
+            "UPDATE uploaded_files SET file_path = ? WHERE content_hash = ?";
+    private static final String UPDATE_LEGACY_FILE_SQL =
+            "UPDATE uploaded_files SET file_path = ? WHERE id = ? AND file_path = ?";
+    private static final String FILE_IN_USE_SQL = "SELECT COUNT(*) FROM uploaded_files WHERE file_path = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private BlobStoreService blobStoreService;
+
+    @Autowired
+    private StorageVolumeService volumeService;
+
+    @Autowired
+    private FileStorageConfig fileConfig;
+
+    @Autowired
+    private FileMetadataCache metadataCache;
+
+    @Value("${app.upload.layout.migrate:true}")
+    private boolean enabled;
+
+    @Value("${app.upload.layout.migration-batch-size:200}")
+    private int batchSize;
+
+    @Value("${app.upload.layout.migration-pause-ms:100}")
+    private long pauseMs;
+
+    @Value("${app.upload.layout.migration-grace-seconds:300}")
+    private long graceSeconds;
+
+    // Old locations waiting out the grace period, oldest first
+    private final Deque<Removal> removals = new ArrayDeque<>();
+
+    private volatile boolean migrating;
+    private volatile boolean stopped;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Thread migration = new Thread(() -> {
+            try {
+                migrate();
+            } catch (RuntimeException e) {
+                System.err.println("Storage layout migration stopped: " + e.getMessage());
+            }
+        }, "storage-layout-migration");
+        migration.setDaemon(true);
+        migration.setPriority(Thread.NORM_PRIORITY - 1);
+        migration.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        // Nothing reads the old locations once the server is stopping
+        synchronized (removals) {
+            removeDue(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Moves everything not yet in the configured layout and waits out the grace period.
+     *
+     * @return the number of files moved
+     */
+    public synchronized int migrate() {
+        migrating = true;
+        try {
+            return migrateAll();
+        } finally {
+            migrating = false;
+        }
+    }
+
+    /**
+     * Whether no migration is running. While one is, files may exist at paths no row
+     * refers to: new links before their batch is switched, and old ones in their grace
+     * period.
+     */
+    public boolean isIdle() {
+        return !migrating;
+    }
+
+    private int migrateAll() {
+        long started = System.currentTimeMillis();
+        int moved = migrateBlobs() + migrateLegacyFiles();
+
+        // Wait out the grace period of the last batches
+        while (!stopped) {
+            Long nextDue;
+            synchronized (removals) {
+                removeDue(System.currentTimeMillis());
+                nextDue = removals.isEmpty() ? null : removals.peekFirst().dueMillis;
+            }
+            if (nextDue == null || !pause(nextDue - System.currentTimeMillis())) {
+                break;
+            }
+        }
+
+        if (moved > 0) {
+            FanOutLayout layout = fileConfig.getLayout();
+            System.out.println("Storage layout migration moved " + moved + " file(s) to " + layout.getLevels()
+                    + " level(s) of " + layout.getCharsPerLevel() + " character(s) in "
+                    + (System.currentTimeMillis() - started) + " ms");
+        }
+        return moved;
+    }
+
+    private int migrateBlobs() {
+        int moved = 0;
+        String afterHash = "";
+        while (!stopped) {
+            List<Move> batch = new ArrayList<>();
+            List<String> hashes = new ArrayList<>();
+            List<String[]> page = jdbcTemplate.query(BLOB_PAGE_SQL,
+                    (rs, row) -> new String[]{rs.getString(1), rs.getString(2), rs.getString(3)}, afterHash, batchSize);
+            if (page.isEmpty()) {
+                break;
+            }
+            afterHash = page.get(page.size() - 1)[0];
+
+            for (String[] blob : page) {
+                // Files stay on their volume; only the layout within it changes
+                StorageVolumeService.Volume volume = blob[2] != null
+                        ? volumeService.getVolume(blob[2]) : volumeService.volumeOf(Paths.get(blob[1]));
+                if (volume == null) {
+                    continue;
+                }
+                Path target = blobStoreService.blobPath(volume, blob[0]);
+                if (!target.toString().equals(blob[1])) {
+                    batch.add(new Move(blob[0], 0L, Paths.get(blob[1]), target));
+                    hashes.add(blob[0]);
+                }
+            }
+            if (!batch.isEmpty()) {
+                int[] count = new int[1];
+                blobStoreService.runLocked(hashes, () -> count[0] = moveBatch(batch, true));
+                moved += count[0];
+            }
+            endBatch();
+        }
+        return moved;
+    }
+
+    private int migrateLegacyFiles() {
+        int moved = 0;
+        long afterId = 0;
+        Path uploadRoot = Paths.get(fileConfig.getUploadPath());
+        while (!stopped) {
+            List<Move> batch = new ArrayList<>();
+            List<Object[]> page = jdbcTemplate.query(LEGACY_PAGE_SQL,
+                    (rs, row) -> new Object[]{rs.getLong(1), rs.getString(2), rs.getString(3)}, afterId, batchSize);
+            if (page.isEmpty()) {
+                break;
+            }
+            afterId = (Long) page.get(page.size() - 1)[0];
+
+            for (Object[] file : page) {
+                Path target = fileConfig.getLayout().resolveByName(uploadRoot, (String) file[1]);
+                if (!target.toString().equals(file[2])) {
+                    batch.add(new Move(null, (Long) file[0], Paths.get((String) file[2]), target));
+                }
+            }
+            if (!batch.isEmpty()) {
+                moved += moveBatch(batch, false);
+            }
+            endBatch();
+        }
+        return moved;
+    }
+
+    /**
+     * Links the files at their new locations and switches the rows over in one transaction.
+     */
+    private int moveBatch(List<Move> batch, boolean blobs) {
+        List<Move> linked = new ArrayList<>(batch.size());
+        for (Move move : batch) {
+            try {
+                link(move.source, move.target);
+                linked.add(move);
+            } catch (NoSuchFileException e) {
+                // Missing from disk, or deleted meanwhile: nothing to move
+            } catch (IOException e) {
+                System.err.println("Failed to move " + move.source + " to " + move.target + ": " + e.getMessage());
+            }
+        }
+        if (linked.isEmpty()) {
+            return 0;
+        }
+
+        List<Object[]> updates = new ArrayList<>(linked.size());
+        List<Object[]> fileUpdates = new ArrayList<>(linked.size());
+        for (Move move : linked) {
+            if (blobs) {
+                updates.add(new Object[]{move.target.toString(), move.hash, move.source.toString()});
+                fileUpdates.add(new Object[]{move.target.toString(), move.hash});
+            } else {
+                updates.add(new Object[]{move.target.toString(), move.fileId, move.source.toString()});
+            }
+        }
+
+        int[] switched;
+        try {
+            switched = transactionTemplate.execute(status -> {
+                int[] counts = jdbcTemplate.batchUpdate(blobs ? UPDATE_BLOB_SQL : UPDATE_LEGACY_FILE_SQL, updates);
+                if (blobs) {
+                    jdbcTemplate.batchUpdate(UPDATE_BLOB_FILES_SQL, fileUpdates);
+                }
+                return counts;
+            });
+        } catch (RuntimeException e) {
+            System.err.println("Failed to update moved file paths: " + e.getMessage());
+            for (Move move : linked) {
+                deleteQuietly(move.target);
+            }
+            return 0;
+        }
+
+        if (blobs) {
+            metadataCache.invalidateContent(linked.stream().map(Move::hash).collect(Collectors.toSet()));
+        } else {
+            metadataCache.invalidateAll(linked.stream().map(Move::fileId).toList());
+        }
+
+        int moved = 0;
+        long due = System.currentTimeMillis() + graceSeconds * 1000;
+        synchronized (removals) {
+            for (int i = 0; i < linked.size(); i++) {
+                Move move = linked.get(i);
+                if (switched[i] == 0) {
+                    // The row changed or went away before the switch; the new link is unused
+                    if (!move.isSameEntry()) {
+                        deleteQuietly(move.target);
+                    }
+                    continue;
+                }
+                if (!move.isSameEntry()) {
+                    removals.addLast(new Removal(move.source, move.target, blobs, due));
+                }
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    private static void link(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        if (!Files.exists(source)) {
+            throw new NoSuchFileException(source.toString());
+        }
+        if (Files.exists(target)) {
+            if (Files.isSameFile(source, target)) {
+                return;
+            }
+            // Left by an earlier run that stopped before the switch
+            Files.delete(target);
+        }
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            if (e instanceof NoSuchFileException) {
+                throw (NoSuchFileException) e;
+            }
+            // No hard links here: copy, then publish atomically
+            Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+            Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private void endBatch() {
+        synchronized (removals) {
+            removeDue(System.currentTimeMillis());
+        }
+        pause(pauseMs);
+    }
+
+    private void removeDue(long now) {
+        while (!removals.isEmpty() && removals.peekFirst().dueMillis <= now) {
+            Removal removal = removals.removeFirst();
+            deleteQuietly(removal.oldPath);
+            if (removal.blob) {
+                // Blob deletes read the path under the same lock as the switch, so they
+                // always removed the new location themselves
+                continue;
+            }
+            // A legacy file deleted through a row read before the switch removed only its
+            // old path; the new one has no row left and goes too
+            Long references = jdbcTemplate.queryForObject(FILE_IN_USE_SQL, Long.class, removal.newPath.toString());
+            if (references != null && references == 0) {
+                deleteQuietly(removal.newPath);
+            }
+        }
+    }
+
+    private boolean pause(long millis) {
+        if (millis <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Failed to delete " + path + ": " + e.getMessage());
+        }
+    }
+
+    private record Move(String hash, Long fileId, Path source, Path target) {
+
+        // The same directory entry spelled differently, e.g. after a change from a relative upload path
+        boolean isSameEntry() {
+            return source.toAbsolutePath().normalize().equals(target.toAbsolutePath().normalize());
+        }
+    }
+
+    private record Removal(Path oldPath, Path newPath, boolean blob, long dueMillis) {
+    }
+}
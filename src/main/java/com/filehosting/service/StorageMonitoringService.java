@@ -12,14 +12,22 @@ public class StorageMonitoringService {
     private FileStorageConfig fileConfig;
     
     @Autowired
-    private FileStorageService fileStorageService;
+    private StorageAccountingService storageAccounting;
+    
+    @Autowired
+    private StorageVolumeService volumeService;
     
     public StorageInfo getStorageInfo() {
+        // Served from in-memory counters; no aggregate queries per request
         long maxStorage = fileConfig.getMaxStorageBytes();
-        long usedSpace = fileStorageService.getCurrentUsedSpace();
-        long fileCount = fileStorageService.getFileCount();
+        long usedSpace = storageAccounting.getUsedBytes();
+        long logicalUsedSpace = storageAccounting.getLogicalBytes();
+        long reservedSpace = storageAccounting.getReservedBytes();
+        long fileCount = storageAccounting.getFileCount();
         
-        return new StorageInfo(maxStorage, usedSpace, fileCount);
+        StorageInfo info = new StorageInfo(maxStorage, usedSpace, logicalUsedSpace, reservedSpace, fileCount);
+        info.setVolumes(volumeService.getVolumeInfos());
+        return info;
     }
     
     public boolean isStorageFull() {
@@ -33,7 +41,7 @@ public class StorageMonitoringService {
     }
     
     public boolean canUploadFile(long fileSize) {
-        StorageInfo info = getStorageInfo();
-        return info.getAvailableSpace() >= fileSize;
+        // Advisory only; the upload itself reserves the space atomically
+        return storageAccounting.getAvailableBytes() >= fileSize && volumeService.hasRoomFor(fileSize);
     }
 }
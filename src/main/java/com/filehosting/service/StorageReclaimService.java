@@ -0,0 +1,285 @@
+package com.filehosting.service;
+
+import com.filehosting.model.StoredBlob;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Removes files from disk after their rows were deleted in bulk, so deleting thousands
+ * of files doesn't hold a request thread on as many unlinks.
+ *
+ * The queue is the pending_reclaims table, written in the same transaction as the
+ * deletes; entries left by a crash or restart are picked up on the next start. Unlinks
+ * are limited to max-files-per-second so a large purge doesn't starve downloads of disk
+ * time, and a failed one is retried with a doubling delay up to max-attempts times.
+ *
+ * A blob's path is derived from its hash, so the same content stored again before the
+ * reclaimer gets to the old file may be using that path. The check and the unlink are
+ * done under the hash's lock in BlobStoreService, and the file is kept if a blob row
+ * refers to it.
+ */
+@Service
+public class StorageReclaimService {
+
+    private static final String ENQUEUE_SQL =
+            "INSERT INTO pending_reclaims (file_path, content_hash, attempts, next_attempt) VALUES (?, ?, 0, ?)";
+    private static final String DUE_SQL =
+            "SELECT id, file_path, content_hash, attempts FROM pending_reclaims "
+            + "WHERE next_attempt <= ? ORDER BY next_attempt, id LIMIT ?";
+    private static final String DONE_SQL = "DELETE FROM pending_reclaims WHERE id = ?";
+    private static final String RETRY_SQL =
+            "UPDATE pending_reclaims SET attempts = ?, next_attempt = ?, last_error = ? WHERE id = ?";
+    private static final String PENDING_SQL = "SELECT COUNT(*) FROM pending_reclaims";
+    private static final String BLOB_PATHS_SQL = "SELECT file_path, cold_path FROM stored_blobs WHERE content_hash = ?";
+    private static final long MAX_RETRY_DELAY_MS = TimeUnit.HOURS.toMillis(1);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private BlobStoreService blobStoreService;
+
+    @Autowired
+    private ContentVariantService variantService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.reclaim.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.reclaim.interval-ms:10000}")
+    private long intervalMs;
+
+    @Value("${app.reclaim.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.reclaim.max-files-per-second:200}")
+    private int maxFilesPerSecond;
+
+    @Value("${app.reclaim.max-attempts:10}")
+    private int maxAttempts;
+
+    @Value("${app.reclaim.retry-delay-ms:5000}")
+    private long retryDelayMs;
+
+    private final AtomicLong pending = new AtomicLong();
+    private final Object signal = new Object();
+    private boolean woken;
+    private volatile boolean stopped;
+    private Thread worker;
+    private Counter reclaimed;
+    private Counter failures;
+
+    @PostConstruct
+    public void init() {
+        pending.set(jdbcTemplate.queryForObject(PENDING_SQL, Long.class));
+        Gauge.builder("filehosting.reclaim.pending", pending, AtomicLong::get)
+                .description("Deleted files still waiting to be removed from disk")
+                .register(meterRegistry);
+        reclaimed = Counter.builder("filehosting.reclaim.files")
+                .description("Files removed from disk by the reclaimer")
+                .register(meterRegistry);
+        failures = Counter.builder("filehosting.reclaim.failures")
+                .description("Failed attempts to remove a file from disk")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        worker = new Thread(this::run, "storage-reclaim");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopped = true;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Queues the files of blobs whose rows were deleted, and files stored before
+     * deduplication. Must run in the transaction that deletes their rows; call wake()
+     * after it commits.
+     */
+    public void enqueue(Collection<StoredBlob> blobs, Collection<String> unhashedPaths) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> entries = new ArrayList<>();
+        for (StoredBlob blob : blobs) {
+            entries.add(new Object[]{blob.getFilePath(), blob.getHash(), now});
+            if (blob.getColdPath() != null) {
+                entries.add(new Object[]{blob.getColdPath(), blob.getHash(), now});
+            }
+        }
+        for (String path : unhashedPaths) {
+            entries.add(new Object[]{path, null, now});
+        }
+        if (!entries.isEmpty()) {
+            jdbcTemplate.batchUpdate(ENQUEUE_SQL, entries);
+            pending.addAndGet(entries.size());
+        }
+    }
+
+    /**
+     * Queues a single file no row refers to, such as an orphan found by
+     * StorageReconcileService. A hash-named file is checked against its blob under the
+     * hash's lock before it is removed, like the files of deleted blobs.
+     *
+     * @param hash the content hash the file is named after, or null
+     */
+    public void enqueue(Path path, String hash) {
+        jdbcTemplate.update(ENQUEUE_SQL, path.toString(), hash, new Timestamp(System.currentTimeMillis()));
+        pending.incrementAndGet();
+    }
+
+    public void wake() {
+        synchronized (signal) {
+            woken = true;
+            signal.notifyAll();
+        }
+    }
+
+    /**
+     * Works through every entry that is due, in batches.
+     *
+     * @return files removed, or found already gone or in use again
+     */
+    public synchronized int reclaimDue() {
+        int done = 0;
+        long start = System.nanoTime();
+        while (!stopped) {
+            List<Entry> due = jdbcTemplate.query(DUE_SQL, (rs, row) -> new Entry(
+                    rs.getLong(1), rs.getString(2), rs.getString(3), rs.getInt(4)),
+                    new Timestamp(System.currentTimeMillis()), batchSize);
+            if (due.isEmpty()) {
+                break;
+            }
+            for (Entry entry : due) {
+                if (stopped) {
+                    break;
+                }
+                try {
+                    reclaim(entry);
+                    jdbcTemplate.update(DONE_SQL, entry.id);
+                    pending.decrementAndGet();
+                    reclaimed.increment();
+                    done++;
+                } catch (IOException | UncheckedIOException e) {
+                    failed(entry, e);
+                }
+                throttle(start, done);
+            }
+        }
+        return done;
+    }
+
+    private void run() {
+        while (!stopped) {
+            try {
+                reclaimDue();
+            } catch (RuntimeException e) {
+                System.err.println("Reclaiming deleted files failed: " + e.getMessage());
+            }
+            synchronized (signal) {
+                if (!woken && !stopped) {
+                    try {
+                        signal.wait(intervalMs);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                woken = false;
+            }
+        }
+    }
+
+    private void reclaim(Entry entry) throws IOException {
+        if (entry.hash == null) {
+            Files.deleteIfExists(Paths.get(entry.path));
+            return;
+        }
+        Path target = Paths.get(entry.path).toAbsolutePath().normalize();
+        blobStoreService.runLocked(List.of(entry.hash), () -> {
+            List<String[]> blobs = jdbcTemplate.query(BLOB_PATHS_SQL,
+                    (rs, row) -> new String[]{rs.getString(1), rs.getString(2)}, entry.hash);
+            boolean inUse = false;
+            for (String[] paths : blobs) {
+                inUse |= refersTo(paths[0], target) || refersTo(paths[1], target);
+            }
+            try {
+                if (!inUse) {
+                    Files.deleteIfExists(target);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (blobs.isEmpty()) {
+                variantService.delete(entry.hash);
+            }
+        });
+    }
+
+    // Rows may spell the same path differently, e.g. relative to the working directory
+    private static boolean refersTo(String recordedPath, Path target) {
+        return recordedPath != null && Paths.get(recordedPath).toAbsolutePath().normalize().equals(target);
+    }
+
+    private void failed(Entry entry, Exception e) {
+        failures.increment();
+        int attempts = entry.attempts + 1;
+        String message = e instanceof UncheckedIOException ? e.getCause().toString() : e.toString();
+        if (attempts >= maxAttempts) {
+            System.err.println("Giving up on removing " + entry.path + " after " + attempts + " attempts: " + message);
+            jdbcTemplate.update(DONE_SQL, entry.id);
+            pending.decrementAndGet();
+            return;
+        }
+        long delay = Math.min(retryDelayMs << Math.min(attempts - 1, 20), MAX_RETRY_DELAY_MS);
+        jdbcTemplate.update(RETRY_SQL, attempts, new Timestamp(System.currentTimeMillis() + delay),
+                message.length() > 255 ? message.substring(0, 255) : message, entry.id);
+    }
+
+    private void throttle(long startNanos, int done) {
+        if (maxFilesPerSecond <= 0) {
+            return;
+        }
+        long aheadNanos = done * 1_000_000_000L / maxFilesPerSecond - (System.nanoTime() - startNanos);
+        if (aheadNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(aheadNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private record Entry(long id, String path, String hash, int attempts) {
+    }
+}
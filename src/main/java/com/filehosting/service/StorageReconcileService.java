@@ -0,0 +1,668 @@
+package com.filehosting.service;
+
+import com.filehosting.config.FileStorageConfig;
+import com.filehosting.config.ThumbnailConfig;
+import com.filehosting.model.ReconcileReport;
+import com.filehosting.util.FileUtils;
+import com.filehosting.util.LongHashSet;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds differences between the files on disk and the rows that refer to them, in both
+ * directions: orphan files no row refers to, left by a crash between copying an upload
+ * and saving its row or by a failed unlink, and rows whose file is gone, which downloads
+ * report as 404.
+ *
+ * The referenced paths are streamed from the database in keyset batches into a set of
+ * path hashes, and the storage directories are then walked in parallel, one fork/join
+ * task per directory; only entries missing from the set are stat'ed. Each batch of rows
+ * is checked for its files on the same pool as soon as it is read. Uploads, deletes,
+ * tiering and migration carry on meanwhile, so every candidate is checked again against
+ * the current rows before it is reported, and files modified within min-age-minutes are
+ * left alone.
+ *
+ * Repairs are off by default. Orphans are queued for StorageReclaimService, which
+ * removes a hash-named file under the hash's lock only if no blob refers to it by then;
+ * none are queued while the layout migrator runs, since its links exist before their
+ * rows are switched. Rows whose file is missing are deleted like any other file, but
+ * never those on a volume or cold tier whose root is missing or unreadable, where every
+ * file would look missing, and no more than max-remove-fraction of all files in one run;
+ * the rest are only reported.
+ */
+@Service
+public class StorageReconcileService {
+
+    private static final String BLOB_COUNT_SQL = "SELECT COUNT(*) FROM stored_blobs";
+    private static final String FILE_COUNT_SQL = "SELECT COUNT(*) FROM uploaded_files";
+    private static final String LEGACY_COUNT_SQL = "SELECT COUNT(*) FROM uploaded_files WHERE content_hash IS NULL";
+    private static final String BLOB_PAGE_SQL =
+            "SELECT content_hash, file_path, cold_path FROM stored_blobs WHERE content_hash > ? "
+            + "ORDER BY content_hash LIMIT ?";
+    private static final String LEGACY_PAGE_SQL =
+            "SELECT id, file_path, stored_name FROM uploaded_files WHERE content_hash IS NULL AND id > ? "
+            + "ORDER BY id LIMIT ?";
+    private static final String BLOB_SQL = "SELECT file_path, cold_path FROM stored_blobs WHERE content_hash = ?";
+    private static final String FILES_OF_BLOB_SQL = "SELECT id FROM uploaded_files WHERE content_hash = ?";
+    private static final String LEGACY_FILE_SQL =
+            "SELECT file_path, stored_name FROM uploaded_files WHERE id = ? AND content_hash IS NULL";
+    private static final String STORED_NAME_SQL = "SELECT file_path FROM uploaded_files WHERE stored_name = ?";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String COMPRESSED_SUFFIX = ".gz";
+    private static final int HASH_LENGTH = 64;
+    private static final int MAX_SAMPLES = 100;
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private FileStorageConfig fileConfig;
+
+    @Autowired
+    private ThumbnailConfig thumbnailConfig;
+
+    @Autowired
+    private StorageVolumeService volumeService;
+
+    @Autowired
+    private BlobStoreService blobStoreService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private StorageReclaimService reclaimService;
+
+    @Autowired
+    private StorageLayoutMigrator layoutMigrator;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.reconcile.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.reconcile.on-startup:true}")
+    private boolean onStartup;
+
+    @Value("${app.reconcile.startup-delay-seconds:60}")
+    private long startupDelaySeconds;
+
+    @Value("${app.reconcile.repair:false}")
+    private boolean repairOnStartup;
+
+    @Value("${app.reconcile.parallelism:8}")
+    private int parallelism;
+
+    @Value("${app.reconcile.batch-size:5000}")
+    private int batchSize;
+
+    @Value("${app.reconcile.min-age-minutes:60}")
+    private long minAgeMinutes;
+
+    @Value("${app.reconcile.max-remove-fraction:0.1}")
+    private double maxRemoveFraction;
+
+    @Value("${app.tiering.path:${app.upload.path}/cold}")
+    private String coldRoot;
+
+    @Value("${app.variants.path:${app.upload.path}/.variants}")
+    private String variantRoot;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong orphanFiles = new AtomicLong();
+    private final AtomicLong orphanBytes = new AtomicLong();
+    private final AtomicLong missingFiles = new AtomicLong();
+    private volatile ReconcileReport lastReport;
+    private volatile boolean stopped;
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("filehosting.reconcile.orphan.files", orphanFiles, AtomicLong::get)
+                .description("Files on disk no row referred to in the last reconciliation")
+                .register(meterRegistry);
+        Gauge.builder("filehosting.reconcile.orphan.bytes", orphanBytes, AtomicLong::get)
+                .description("Space taken by the orphan files of the last reconciliation")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("filehosting.reconcile.missing.files", missingFiles, AtomicLong::get)
+                .description("Files whose content was missing from disk in the last reconciliation")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopped = true;
+    }
+
+    /**
+     * Reconciles once in the background after startup, late enough not to compete with
+     * the cache warm-up and the other startup jobs.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || !onStartup) {
+            return;
+        }
+        startThread(() -> {
+            if (pause(TimeUnit.SECONDS.toMillis(startupDelaySeconds)) && running.compareAndSet(false, true)) {
+                runAndRelease(repairOnStartup);
+            }
+        });
+    }
+
+    /**
+     * Starts a reconciliation in the background; its report is then available from
+     * getLastReport().
+     *
+     * @return false if one is already running
+     */
+    public boolean startReconcile(boolean repair) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        startThread(() -> runAndRelease(repair));
+        return true;
+    }
+
+    /**
+     * Reconciles the files on disk with the database and waits for the report.
+     *
+     * @param repair queue orphan files for removal and delete rows whose file is missing
+     * @throws IllegalStateException if a reconciliation is already running
+     */
+    public ReconcileReport reconcile(boolean repair) {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("A reconciliation is already running");
+        }
+        try {
+            return run(repair);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return the report of the last completed reconciliation, or null if none has run
+     */
+    public ReconcileReport getLastReport() {
+        return lastReport;
+    }
+
+    private void startThread(Runnable action) {
+        Thread thread = new Thread(action, "storage-reconcile");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private void runAndRelease(boolean repair) {
+        try {
+            run(repair);
+        } catch (RuntimeException e) {
+            System.err.println("Storage reconciliation failed: " + e.getMessage());
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private ReconcileReport run(boolean repair) {
+        long started = System.currentTimeMillis();
+        ReconcileReport report = new ReconcileReport();
+        report.setStartedAt(LocalDateTime.now());
+        report.setRepair(repair);
+
+        Scan scan = new Scan(started - TimeUnit.MINUTES.toMillis(minAgeMinutes), expectedPaths());
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism), forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("storage-reconcile-" + thread.getPoolIndex());
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }, null, false);
+        List<Orphan> orphans = new ArrayList<>();
+        Set<Long> missingIds = new LinkedHashSet<>();
+        Set<Long> unavailableIds = new HashSet<>();
+        try {
+            // The walk needs every referenced path, so the rows are all read before it starts
+            List<ForkJoinTask<?>> rowChecks = streamRows(scan, pool);
+            for (Path root : storageRoots()) {
+                if (Files.isDirectory(root)) {
+                    pool.invoke(new DirectoryScan(root, scan));
+                }
+            }
+            for (ForkJoinTask<?> check : rowChecks) {
+                check.join();
+            }
+
+            Queue<Orphan> verified = new ConcurrentLinkedQueue<>();
+            pool.submit(() -> scan.candidates.parallelStream()
+                    .map(this::verifyOrphan)
+                    .filter(orphan -> orphan != null)
+                    .forEach(verified::add)).join();
+            orphans.addAll(verified);
+            for (String hash : scan.missingBlobs) {
+                verifyMissingBlob(hash, missingIds, unavailableIds);
+            }
+            for (Long id : scan.missingLegacyFiles) {
+                verifyMissingLegacyFile(id, missingIds, unavailableIds);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        report.setFilesScanned(scan.filesScanned.sum());
+        report.setRowsChecked(scan.rowsChecked.sum());
+        report.setRecentFiles(scan.recentFiles.sum());
+        long bytes = 0;
+        long links = 0;
+        for (Orphan orphan : orphans) {
+            if (orphan.link) {
+                links++;
+            } else {
+                bytes += orphan.size;
+            }
+            if (report.getOrphanSamples().size() < MAX_SAMPLES) {
+                report.getOrphanSamples().add(orphan.path.toString());
+            }
+        }
+        report.setOrphanFiles(orphans.size());
+        report.setOrphanBytes(bytes);
+        report.setStaleLinks(links);
+        report.setMissingFiles(missingIds.size());
+        report.setUnavailableFiles(unavailableIds.size());
+        report.getMissingSamples().addAll(missingIds.stream().limit(MAX_SAMPLES).toList());
+
+        if (repair && !stopped) {
+            repair(orphans, new ArrayList<>(missingIds), report);
+        }
+
+        report.setDurationMs(System.currentTimeMillis() - started);
+        orphanFiles.set(report.getOrphanFiles());
+        orphanBytes.set(report.getOrphanBytes());
+        missingFiles.set(report.getMissingFiles());
+        lastReport = report;
+        System.out.println("Storage reconciliation checked " + report.getFilesScanned() + " file(s) and "
+                + report.getRowsChecked() + " row(s) in " + report.getDurationMs() + " ms: "
+                + report.getOrphanFiles() + " orphan file(s) using " + FileUtils.formatFileSize(report.getOrphanBytes())
+                + ", " + report.getMissingFiles() + " file(s) missing from disk"
+                + (report.getUnavailableFiles() > 0
+                        ? ", " + report.getUnavailableFiles() + " file(s) on unavailable storage not checked" : "")
+                + (repair ? "; " + report.getOrphansQueued() + " orphan(s) queued for removal, "
+                        + report.getRowsRemoved() + " row(s) removed, " + report.getRowsWithheld() + " withheld" : ""));
+        return report;
+    }
+
+    private long expectedPaths() {
+        Long blobs = jdbcTemplate.queryForObject(BLOB_COUNT_SQL, Long.class);
+        Long legacy = jdbcTemplate.queryForObject(LEGACY_COUNT_SQL, Long.class);
+        return (blobs != null ? blobs : 0) + (legacy != null ? legacy : 0);
+    }
+
+    /**
+     * Reads every referenced path into the scan's set, and queues a check for the files
+     * of each batch on the pool.
+     */
+    private List<ForkJoinTask<?>> streamRows(Scan scan, ForkJoinPool pool) {
+        List<ForkJoinTask<?>> checks = new ArrayList<>();
+        String afterHash = "";
+        while (!stopped) {
+            List<String[]> page = jdbcTemplate.query(BLOB_PAGE_SQL,
+                    (rs, row) -> new String[]{rs.getString(1), rs.getString(2), rs.getString(3)}, afterHash, batchSize);
+            if (page.isEmpty()) {
+                break;
+            }
+            afterHash = page.get(page.size() - 1)[0];
+            for (String[] blob : page) {
+                scan.addReferenced(blob[1]);
+                scan.addReferenced(blob[2]);
+            }
+            checks.add(pool.submit(() -> {
+                for (String[] blob : page) {
+                    if (!exists(blob[1]) && !exists(blob[2])) {
+                        scan.missingBlobs.add(blob[0]);
+                    }
+                }
+                scan.rowsChecked.add(page.size());
+            }));
+        }
+
+        long afterId = 0;
+        Path uploadRoot = Paths.get(fileConfig.getUploadPath());
+        while (!stopped) {
+            List<Object[]> page = jdbcTemplate.query(LEGACY_PAGE_SQL,
+                    (rs, row) -> new Object[]{rs.getLong(1), rs.getString(2), rs.getString(3)}, afterId, batchSize);
+            if (page.isEmpty()) {
+                break;
+            }
+            afterId = (Long) page.get(page.size() - 1)[0];
+            for (Object[] file : page) {
+                scan.addReferenced((String) file[1]);
+            }
+            checks.add(pool.submit(() -> {
+                for (Object[] file : page) {
+                    if (!exists((String) file[1])
+                            && !Files.exists(fileConfig.getLayout().resolveByName(uploadRoot, (String) file[2]))) {
+                        scan.missingLegacyFiles.add((Long) file[0]);
+                    }
+                }
+                scan.rowsChecked.add(page.size());
+            }));
+        }
+        return checks;
+    }
+
+    /**
+     * The directories to walk: the upload directory for files stored before
+     * deduplication, every volume and the cold tier. Nested ones are walked once.
+     */
+    private Set<Path> storageRoots() {
+        Set<Path> roots = new LinkedHashSet<>();
+        roots.add(normalize(Paths.get(fileConfig.getUploadPath())));
+        for (StorageVolumeService.Volume volume : volumeService.getVolumes()) {
+            roots.add(normalize(volume.getRoot()));
+        }
+        roots.add(normalize(Paths.get(coldRoot)));
+        return roots;
+    }
+
+    /**
+     * @return the orphan if no row refers to the file now, otherwise null
+     */
+    private Orphan verifyOrphan(Candidate candidate) {
+        String name = candidate.path.getFileName().toString();
+        if (name.endsWith(TEMP_SUFFIX)) {
+            // Left by an interrupted upload, tier move or restore
+            return new Orphan(candidate.path, candidate.size, null, false);
+        }
+
+        String hash = hashOf(name);
+        if (hash != null) {
+            List<String[]> blobs = jdbcTemplate.query(BLOB_SQL,
+                    (rs, row) -> new String[]{rs.getString(1), rs.getString(2)}, hash);
+            for (String[] paths : blobs) {
+                if (refersTo(paths[0], candidate.path) || refersTo(paths[1], candidate.path)) {
+                    return null;
+                }
+            }
+            boolean link = !blobs.isEmpty() && isSameFile(candidate.path, blobs.get(0)[0]);
+            return new Orphan(candidate.path, candidate.size, hash, link);
+        }
+
+        for (String path : jdbcTemplate.queryForList(STORED_NAME_SQL, String.class, name)) {
+            if (refersTo(path, candidate.path)) {
+                return null;
+            }
+        }
+        return new Orphan(candidate.path, candidate.size, null, false);
+    }
+
+    /**
+     * Adds the ids of the files of the blob to missingIds if it is still stored and its
+     * file is still missing, or to unavailableIds if the storage it is on can't be read.
+     */
+    private void verifyMissingBlob(String hash, Set<Long> missingIds, Set<Long> unavailableIds) {
+        List<String[]> blobs = jdbcTemplate.query(BLOB_SQL,
+                (rs, row) -> new String[]{rs.getString(1), rs.getString(2)}, hash);
+        if (blobs.isEmpty() || exists(blobs.get(0)[0]) || exists(blobs.get(0)[1])
+                || Files.exists(blobStoreService.currentPath(Paths.get(blobs.get(0)[0]), hash))) {
+            return;
+        }
+        boolean available = isAvailable(blobs.get(0)[0]) && (blobs.get(0)[1] == null || isAvailable(blobs.get(0)[1]));
+        (available ? missingIds : unavailableIds).addAll(jdbcTemplate.queryForList(FILES_OF_BLOB_SQL, Long.class, hash));
+    }
+
+    private void verifyMissingLegacyFile(Long id, Set<Long> missingIds, Set<Long> unavailableIds) {
+        List<String[]> files = jdbcTemplate.query(LEGACY_FILE_SQL,
+                (rs, row) -> new String[]{rs.getString(1), rs.getString(2)}, id);
+        if (files.isEmpty() || exists(files.get(0)[0]) || Files.exists(
+                fileConfig.getLayout().resolveByName(Paths.get(fileConfig.getUploadPath()), files.get(0)[1]))) {
+            return;
+        }
+        (isAvailable(files.get(0)[0]) ? missingIds : unavailableIds).add(id);
+    }
+
+    /**
+     * Whether the root of the volume, cold tier or upload directory holding the path can be
+     * read. One that is missing or unreadable, e.g. an unmounted disk, proves nothing about
+     * the files on it.
+     */
+    private boolean isAvailable(String recordedPath) {
+        Path path = normalize(Paths.get(recordedPath));
+        StorageVolumeService.Volume volume = volumeService.volumeOf(path);
+        Path root;
+        if (volume != null) {
+            root = volume.getRoot();
+        } else if (path.startsWith(normalize(Paths.get(coldRoot)))) {
+            root = Paths.get(coldRoot);
+        } else {
+            root = Paths.get(fileConfig.getUploadPath());
+        }
+        return Files.isDirectory(root) && Files.isReadable(root);
+    }
+
+    private void repair(List<Orphan> orphans, List<Long> missingIds, ReconcileReport report) {
+        if (!orphans.isEmpty()) {
+            if (layoutMigrator.isIdle()) {
+                for (Orphan orphan : orphans) {
+                    reclaimService.enqueue(orphan.path, orphan.hash);
+                }
+                report.setOrphansQueued(orphans.size());
+                reclaimService.wake();
+            } else {
+                System.out.println("Orphan files are not removed while the storage layout migration runs");
+            }
+        }
+        // Many rows missing at once points at the storage rather than at the rows
+        Long files = jdbcTemplate.queryForObject(FILE_COUNT_SQL, Long.class);
+        int limit = (int) Math.min(missingIds.size(), (long) ((files != null ? files : 0) * maxRemoveFraction));
+        if (limit < missingIds.size()) {
+            System.out.println("Only " + limit + " of " + missingIds.size()
+                    + " row(s) with missing files are removed in one run (max-remove-fraction " + maxRemoveFraction + ")");
+        }
+        int removed = 0;
+        for (int from = 0; from < limit && !stopped; from += DELETE_BATCH_SIZE) {
+            removed += fileStorageService.deleteFiles(missingIds.subList(from, Math.min(from + DELETE_BATCH_SIZE, limit)));
+        }
+        report.setRowsRemoved(removed);
+        report.setRowsWithheld(missingIds.size() - limit);
+    }
+
+    /**
+     * The content hash a blob or cold file is named after, or null for any other name.
+     */
+    static String hashOf(String fileName) {
+        String name = fileName.endsWith(COMPRESSED_SUFFIX)
+                ? fileName.substring(0, fileName.length() - COMPRESSED_SUFFIX.length()) : fileName;
+        if (name.length() != HASH_LENGTH) {
+            return null;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return null;
+            }
+        }
+        return name;
+    }
+
+    /**
+     * 63-bit FNV-1a hash of a normalized absolute path. A collision can only hide an
+     * orphan from one run, never make a referenced file look unreferenced.
+     */
+    static long pathKey(String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash ^= path.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash & Long.MAX_VALUE;
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private static boolean exists(String recordedPath) {
+        return recordedPath != null && Files.exists(Paths.get(recordedPath));
+    }
+
+    // Rows may spell the same path differently, e.g. relative to the working directory
+    private static boolean refersTo(String recordedPath, Path path) {
+        return recordedPath != null && normalize(Paths.get(recordedPath)).equals(path);
+    }
+
+    private static boolean isSameFile(Path path, String recordedPath) {
+        try {
+            return Files.isSameFile(path, Paths.get(recordedPath));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private boolean pause(long millis) {
+        try {
+            Thread.sleep(millis);
+            return !stopped;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * State of one run, shared by the tasks on its pool.
+     */
+    private final class Scan {
+
+        final long modifiedBefore;
+        final LongHashSet referenced;
+        final Set<Path> skipped = new HashSet<>();
+        final LongAdder filesScanned = new LongAdder();
+        final LongAdder rowsChecked = new LongAdder();
+        final LongAdder recentFiles = new LongAdder();
+        final Queue<Candidate> candidates = new ConcurrentLinkedQueue<>();
+        final Queue<String> missingBlobs = new ConcurrentLinkedQueue<>();
+        final Queue<Long> missingLegacyFiles = new ConcurrentLinkedQueue<>();
+
+        Scan(long modifiedBefore, long expectedPaths) {
+            this.modifiedBefore = modifiedBefore;
+            // Blobs in the cold tier have two paths
+            this.referenced = new LongHashSet((int) Math.min(expectedPaths + expectedPaths / 4, Integer.MAX_VALUE / 4));
+            // Other roots are walked on their own; the rest holds files no row refers to
+            skipped.addAll(storageRoots());
+            skipped.add(normalize(Paths.get(fileConfig.getSessionPath())));
+            skipped.add(normalize(Paths.get(thumbnailConfig.getCachePath())));
+            skipped.add(normalize(Paths.get(variantRoot)));
+        }
+
+        // Only called by the thread streaming the rows, before the walk starts
+        void addReferenced(String recordedPath) {
+            if (recordedPath == null) {
+                return;
+            }
+            try {
+                referenced.add(pathKey(normalize(Paths.get(recordedPath)).toString()));
+            } catch (InvalidPathException e) {
+                System.err.println("Invalid stored path " + recordedPath + ": " + e.getMessage());
+            }
+        }
+
+        boolean isStopped() {
+            return stopped;
+        }
+    }
+
+    private static final class DirectoryScan extends RecursiveAction {
+
+        private final Path directory;
+        private final Scan scan;
+
+        DirectoryScan(Path directory, Scan scan) {
+            this.directory = directory;
+            this.scan = scan;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryScan> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (scan.isStopped()) {
+                        return;
+                    }
+                    // Entries of a normalized directory are normalized too
+                    if (scan.referenced.contains(pathKey(entry.toString()))) {
+                        scan.filesScanned.increment();
+                        continue;
+                    }
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (NoSuchFileException e) {
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        if (!scan.skipped.contains(entry)) {
+                            subdirectories.add(new DirectoryScan(entry, scan));
+                        }
+                    } else if (attributes.isRegularFile()) {
+                        scan.filesScanned.increment();
+                        if (attributes.lastModifiedTime().toMillis() > scan.modifiedBefore) {
+                            scan.recentFiles.increment();
+                        } else {
+                            scan.candidates.add(new Candidate(entry, attributes.size()));
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to list " + directory + ": " + e.getMessage());
+            }
+            invokeAll(subdirectories);
+        }
+    }
+
+    private record Candidate(Path path, long size) {
+    }
+
+    private record Orphan(Path path, long size, String hash, boolean link) {
+    }
+}
@@ -0,0 +1,606 @@
+package com.filehosting.service;
+
+import com.filehosting.config.FileStorageConfig;
+import com.filehosting.model.StoredBlob;
+import com.filehosting.model.UploadedFile;
+import com.filehosting.util.FileUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Moves blobs nobody has read for a while to a cold tier directory, gzip-compressed when
+ * that saves space, and back to a volume when they are read again.
+ *
+ * A blob is cold once no file referring to it has been accessed (or uploaded) within
+ * app.tiering.cold-after-days. The job reads at most app.tiering.max-mb-per-second and
+ * waits while the blob's volume is busy with transfers, so it only uses idle disk time.
+ * Reads of a cold file are streamed from the cold copy, decompressing on the fly, and
+ * queue the blob to be restored to a volume; once restored, ranges and sendfile work again.
+ *
+ * A blob switches tiers under the blob store's lock for its hash. The hot copy of a blob
+ * that went cold is kept for a grace period, for requests that resolved it just before.
+ */
+@Service
+public class StorageTieringService {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    // Content is stored uncompressed when a sample of it doesn't shrink below this ratio
+    private static final double MIN_COMPRESSION_RATIO = 0.9;
+    private static final int SAMPLE_SIZE = 1024 * 1024;
+    private static final String COMPRESSED_SUFFIX = ".gz";
+
+    private static final String CANDIDATE_SQL =
+            "SELECT b.content_hash, b.file_path, b.volume, b.blob_size FROM stored_blobs b "
+            + "WHERE b.content_hash > ? AND b.cold_path IS NULL AND b.blob_size >= ? AND NOT EXISTS ("
+            + "SELECT 1 FROM uploaded_files f WHERE f.content_hash = b.content_hash "
+            + "AND COALESCE(f.last_accessed, f.upload_time) >= ?) "
+            + "ORDER BY b.content_hash LIMIT ?";
+    private static final String STILL_COLD_SQL =
+            "SELECT COUNT(*) FROM stored_blobs b WHERE b.content_hash = ? AND b.file_path = ? "
+            + "AND b.cold_path IS NULL AND NOT EXISTS ("
+            + "SELECT 1 FROM uploaded_files f WHERE f.content_hash = b.content_hash "
+            + "AND COALESCE(f.last_accessed, f.upload_time) >= ?)";
+    private static final String DEMOTE_SQL =
+            "UPDATE stored_blobs SET cold_path = ?, volume = NULL WHERE content_hash = ?";
+    private static final String RESTORE_SQL =
+            "UPDATE stored_blobs SET file_path = ?, volume = ?, cold_path = NULL WHERE content_hash = ?";
+    private static final String RESTORE_FILES_SQL =
+            "UPDATE uploaded_files SET file_path = ? WHERE content_hash = ?";
+    private static final String IS_COLD_SQL =
+            "SELECT COUNT(*) FROM stored_blobs WHERE content_hash = ? AND file_path = ? AND cold_path IS NOT NULL";
+
+    @Autowired
+    private BlobStoreService blobStoreService;
+
+    @Autowired
+    private StorageVolumeService volumeService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private FileStorageConfig fileConfig;
+
+    @Autowired
+    private FileMetadataCache metadataCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.tiering.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.tiering.path:${app.upload.path}/cold}")
+    private String coldRoot;
+
+    @Value("${app.tiering.cold-after-days:90}")
+    private int coldAfterDays;
+
+    @Value("${app.tiering.min-size-kb:64}")
+    private long minSizeKb;
+
+    @Value("${app.tiering.compress:true}")
+    private boolean compress;
+
+    @Value("${app.tiering.compression-level:6}")
+    private int compressionLevel;
+
+    @Value("${app.tiering.batch-size:100}")
+    private int batchSize;
+
+    @Value("${app.tiering.max-mb-per-second:20}")
+    private long maxMbPerSecond;
+
+    @Value("${app.tiering.busy-transfers:4}")
+    private int busyTransfers;
+
+    @Value("${app.tiering.grace-seconds:60}")
+    private long graceSeconds;
+
+    @Value("${app.tiering.restore-on-read:true}")
+    private boolean restoreOnRead;
+
+    private ThreadPoolExecutor restoreExecutor;
+    private final Set<String> restoresQueued = ConcurrentHashMap.newKeySet();
+
+    // Hot copies of demoted blobs waiting out the grace period, oldest first
+    private final Deque<Removal> removals = new ArrayDeque<>();
+
+    private final AtomicLong coldFiles = new AtomicLong();
+    private final AtomicLong coldBytes = new AtomicLong();
+    private Counter demotedFiles;
+    private Counter demotedBytes;
+    private Counter restoredFiles;
+    private Counter restoredBytes;
+
+    private volatile boolean stopped;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(Paths.get(coldRoot));
+        restoreExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "storage-restore");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        Gauge.builder("filehosting.tiering.cold.files", coldFiles, AtomicLong::get)
+                .description("Stored files in the cold tier")
+                .register(meterRegistry);
+        Gauge.builder("filehosting.tiering.cold.bytes", coldBytes, AtomicLong::get)
+                .description("Uncompressed size of the stored files in the cold tier")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        demotedFiles = tierCounter("filehosting.tiering.files", "cold");
+        demotedBytes = tierCounter("filehosting.tiering.bytes", "cold");
+        restoredFiles = tierCounter("filehosting.tiering.files", "hot");
+        restoredBytes = tierCounter("filehosting.tiering.bytes", "hot");
+        refreshColdUsage();
+    }
+
+    private Counter tierCounter(String name, String direction) {
+        return Counter.builder(name)
+                .description("Stored files moved between tiers")
+                .tag("direction", direction)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        restoreExecutor.shutdownNow();
+        // Nothing reads the hot copies once the server is stopping
+        synchronized (removals) {
+            removeDue(Long.MAX_VALUE);
+        }
+    }
+
+    @Scheduled(initialDelayString = "${app.tiering.interval-ms:3600000}", fixedDelayString = "${app.tiering.interval-ms:3600000}")
+    public void scheduledRun() {
+        if (enabled) {
+            moveColdFiles();
+        }
+    }
+
+    /**
+     * Moves every blob that has gone cold to the cold tier and waits out the grace period.
+     *
+     * @return the number of blobs moved
+     */
+    public synchronized int moveColdFiles() {
+        long started = System.currentTimeMillis();
+        Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minusDays(coldAfterDays));
+        Throttle throttle = new Throttle(maxMbPerSecond * 1024 * 1024);
+        int moved = 0;
+        long movedBytes = 0;
+        String afterHash = "";
+
+        while (!stopped) {
+            List<Candidate> page = jdbcTemplate.query(CANDIDATE_SQL,
+                    (rs, row) -> new Candidate(rs.getString(1), rs.getString(2), rs.getString(3), rs.getLong(4)),
+                    afterHash, minSizeKb * 1024, cutoff, batchSize);
+            if (page.isEmpty()) {
+                break;
+            }
+            afterHash = page.get(page.size() - 1).hash;
+
+            for (Candidate candidate : page) {
+                if (stopped) {
+                    break;
+                }
+                try {
+                    if (demote(candidate, cutoff, throttle)) {
+                        moved++;
+                        movedBytes += candidate.size;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Failed to move " + candidate.hash + " to the cold tier: " + e.getMessage());
+                }
+            }
+            synchronized (removals) {
+                removeDue(System.currentTimeMillis());
+            }
+        }
+
+        // Wait out the grace period of the last files
+        while (!stopped) {
+            Long nextDue;
+            synchronized (removals) {
+                removeDue(System.currentTimeMillis());
+                nextDue = removals.isEmpty() ? null : removals.peekFirst().dueMillis;
+            }
+            if (nextDue == null || !pause(nextDue - System.currentTimeMillis())) {
+                break;
+            }
+        }
+
+        refreshColdUsage();
+        if (moved > 0) {
+            System.out.println("Moved " + moved + " cold file(s), " + FileUtils.formatFileSize(movedBytes)
+                    + ", to the cold tier in " + (System.currentTimeMillis() - started) + " ms");
+        }
+        return moved;
+    }
+
+    /**
+     * The cold copy of the file's content, or null if it is not in the cold tier.
+     */
+    public Path coldCopyOf(UploadedFile file) {
+        if (file.getContentHash() == null) {
+            return null;
+        }
+        Optional<StoredBlob> blob = blobStoreService.getBlob(file.getContentHash());
+        if (blob.isEmpty() || blob.get().getColdPath() == null) {
+            return null;
+        }
+        Path coldPath = Paths.get(blob.get().getColdPath());
+        return Files.exists(coldPath) ? coldPath : null;
+    }
+
+    /**
+     * Opens a cold copy for reading, decompressing it if it was stored compressed.
+     */
+    public InputStream openCold(Path coldPath) throws IOException {
+        InputStream in = Files.newInputStream(coldPath);
+        if (coldPath.getFileName().toString().endsWith(COMPRESSED_SUFFIX)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return new BufferedInputStream(in, BUFFER_SIZE);
+    }
+
+    /**
+     * Records that a cold file was read; its blob is restored to a volume in the
+     * background unless app.tiering.restore-on-read is off.
+     */
+    public void coldFileRead(UploadedFile file) {
+        String hash = file.getContentHash();
+        if (!restoreOnRead || hash == null || !restoresQueued.add(hash)) {
+            return;
+        }
+        try {
+            restoreExecutor.execute(() -> {
+                try {
+                    restore(hash);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Failed to restore " + hash + " from the cold tier: " + e.getMessage());
+                } finally {
+                    restoresQueued.remove(hash);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            restoresQueued.remove(hash);
+        }
+    }
+
+    /**
+     * Moves a cold blob back to a volume, verifying its content on the way.
+     *
+     * @return true if the blob was in the cold tier and is now hot
+     */
+    public boolean restore(String hash) throws IOException {
+        Optional<StoredBlob> blobOpt = blobStoreService.getBlob(hash);
+        if (blobOpt.isEmpty() || blobOpt.get().getColdPath() == null) {
+            return false;
+        }
+        StoredBlob blob = blobOpt.get();
+        Path coldPath = Paths.get(blob.getColdPath());
+        Path hotPath = Paths.get(blob.getFilePath());
+
+        if (Files.exists(hotPath)) {
+            // Still within the grace period: the hot copy only has to be taken back
+            return switchToHot(hash, coldPath, hotPath, volumeService.volumeOf(hotPath), blob.getSize(), null);
+        }
+
+        try (StorageVolumeService.Placement placement = volumeService.place(blob.getSize(), null)) {
+            StorageVolumeService.Volume volume = placement.getVolume();
+            Path tempPath = volume.getRoot().resolve(UUID.randomUUID() + ".tmp");
+            try {
+                MessageDigest digest = FileUtils.newSha256Digest();
+                try (InputStream in = openCold(coldPath);
+                     OutputStream out = Files.newOutputStream(tempPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        digest.update(buffer, 0, read);
+                        out.write(buffer, 0, read);
+                    }
+                }
+                if (!HexFormat.of().formatHex(digest.digest()).equals(hash)) {
+                    throw new IOException("Cold copy " + coldPath + " does not match its hash");
+                }
+                Files.setLastModifiedTime(tempPath, Files.getLastModifiedTime(coldPath));
+                return switchToHot(hash, coldPath, blobStoreService.blobPath(volume, hash), volume, blob.getSize(), tempPath);
+            } finally {
+                Files.deleteIfExists(tempPath);
+            }
+        }
+    }
+
+    private boolean switchToHot(String hash, Path coldPath, Path hotPath, StorageVolumeService.Volume volume,
+                                long size, Path tempPath) throws IOException {
+        boolean[] restored = new boolean[1];
+        try {
+            blobStoreService.runLocked(List.of(hash), () -> {
+                Optional<StoredBlob> current = blobStoreService.getBlob(hash);
+                if (current.isEmpty() || !coldPath.toString().equals(current.get().getColdPath())) {
+                    // Deleted, or brought back by an upload of the same content, meanwhile
+                    return;
+                }
+                try {
+                    if (tempPath != null) {
+                        Files.createDirectories(hotPath.getParent());
+                        moveAtomically(tempPath, hotPath);
+                    }
+                    transactionTemplate.executeWithoutResult(status -> {
+                        jdbcTemplate.update(RESTORE_SQL, hotPath.toString(), volume != null ? volume.getName() : null, hash);
+                        jdbcTemplate.update(RESTORE_FILES_SQL, hotPath.toString(), hash);
+                    });
+                    metadataCache.invalidateContent(List.of(hash));
+                    if (volume != null) {
+                        volumeService.fileAdded(volume, size);
+                    }
+                    Files.deleteIfExists(coldPath);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                restored[0] = true;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (restored[0]) {
+            restoredFiles.increment();
+            restoredBytes.increment(size);
+            coldFiles.decrementAndGet();
+            coldBytes.addAndGet(-size);
+        }
+        return restored[0];
+    }
+
+    private boolean demote(Candidate candidate, Timestamp cutoff, Throttle throttle) throws IOException {
+        if (!Files.exists(candidate.hotPath())) {
+            return false;
+        }
+        StorageVolumeService.Volume volume = candidate.volume != null
+                ? volumeService.getVolume(candidate.volume) : volumeService.volumeOf(candidate.hotPath());
+        waitWhileBusy(volume);
+
+        Path tempPath = Paths.get(coldRoot).resolve(UUID.randomUUID() + ".tmp");
+        try {
+            boolean compressed;
+            try (StorageVolumeService.Activity reading = volumeService.reading(candidate.hotPath())) {
+                compressed = compress && isCompressible(candidate.hotPath());
+                copyThrottled(candidate.hotPath(), tempPath, compressed, throttle);
+            }
+            // Keeps the ETag, which is made from size and modification time, across tiers
+            Files.setLastModifiedTime(tempPath, Files.getLastModifiedTime(candidate.hotPath()));
+
+            Path coldPath = coldLocation(candidate.hash, compressed);
+            boolean[] switched = new boolean[1];
+            try {
+                blobStoreService.runLocked(List.of(candidate.hash), () -> {
+                    // Read, deleted or moved while it was being copied
+                    Long count = jdbcTemplate.queryForObject(STILL_COLD_SQL, Long.class,
+                            candidate.hash, candidate.filePath, cutoff);
+                    if (count == null || count == 0) {
+                        return;
+                    }
+                    try {
+                        Files.createDirectories(coldPath.getParent());
+                        moveAtomically(tempPath, coldPath);
+                        jdbcTemplate.update(DEMOTE_SQL, coldPath.toString(), candidate.hash);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    if (volume != null) {
+                        volumeService.fileRemoved(volume.getName(), candidate.size);
+                    }
+                    switched[0] = true;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (!switched[0]) {
+                return false;
+            }
+
+            synchronized (removals) {
+                removals.addLast(new Removal(candidate.hash, candidate.hotPath(),
+                        System.currentTimeMillis() + graceSeconds * 1000));
+            }
+            demotedFiles.increment();
+            demotedBytes.increment(candidate.size);
+            return true;
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    private Path coldLocation(String hash, boolean compressed) {
+        Path path = fileConfig.getLayout().resolve(Paths.get(coldRoot), hash);
+        return compressed ? path.resolveSibling(hash + COMPRESSED_SUFFIX) : path;
+    }
+
+    /**
+     * Deflates the start of the file to see whether compressing the rest is worth it;
+     * images, video and archives usually are not.
+     */
+    private boolean isCompressible(Path file) throws IOException {
+        byte[] sample;
+        try (InputStream in = Files.newInputStream(file)) {
+            sample = in.readNBytes(SAMPLE_SIZE);
+        }
+        if (sample.length == 0) {
+            return false;
+        }
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] output = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                deflater.deflate(output);
+            }
+            return deflater.getBytesWritten() < sample.length * MIN_COMPRESSION_RATIO;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void copyThrottled(Path source, Path target, boolean compressed, Throttle throttle) throws IOException {
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream fileOut = Files.newOutputStream(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+             OutputStream out = compressed ? new FileUtils.LevelGzipOutputStream(fileOut, BUFFER_SIZE, compressionLevel) : fileOut) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                if (stopped) {
+                    throw new IOException("Stopping");
+                }
+                out.write(buffer, 0, read);
+                throttle.acquire(read);
+            }
+        }
+    }
+
+    private void waitWhileBusy(StorageVolumeService.Volume volume) {
+        while (volume != null && !stopped && volume.getActiveTransfers() >= busyTransfers) {
+            if (!pause(1000)) {
+                return;
+            }
+        }
+    }
+
+    private void removeDue(long now) {
+        while (!removals.isEmpty() && removals.peekFirst().dueMillis <= now) {
+            Removal removal = removals.removeFirst();
+            // A blob read during the grace period took its hot copy back; that one stays
+            blobStoreService.runLocked(List.of(removal.hash), () -> {
+                Long cold = jdbcTemplate.queryForObject(IS_COLD_SQL, Long.class, removal.hash, removal.hotPath.toString());
+                if (cold != null && cold > 0) {
+                    deleteQuietly(removal.hotPath);
+                }
+            });
+        }
+    }
+
+    private void refreshColdUsage() {
+        List<Object[]> usage = jdbcTemplate.query(
+                "SELECT COUNT(*), COALESCE(SUM(blob_size), 0) FROM stored_blobs WHERE cold_path IS NOT NULL",
+                (rs, row) -> new Object[]{rs.getLong(1), rs.getLong(2)});
+        coldFiles.set((Long) usage.get(0)[0]);
+        coldBytes.set((Long) usage.get(0)[1]);
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private boolean pause(long millis) {
+        if (millis <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Failed to delete " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Limits a copy to a byte rate by sleeping whenever it gets ahead; 0 means unlimited.
+     */
+    private static final class Throttle {
+
+        private final long bytesPerSecond;
+        private final long startNanos = System.nanoTime();
+        private long bytes;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(long count) throws IOException {
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            bytes += count;
+            long aheadNanos = bytes * 1_000_000_000L / bytesPerSecond - (System.nanoTime() - startNanos);
+            if (aheadNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(aheadNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted");
+                }
+            }
+        }
+    }
+
+    private record Candidate(String hash, String filePath, String volume, long size) {
+
+        Path hotPath() {
+            return Paths.get(filePath);
+        }
+    }
+
+    private record Removal(String hash, Path hotPath, long dueMillis) {
+    }
+}
@@ -0,0 +1,326 @@
+package com.filehosting.service;
+
+import com.filehosting.config.FileStorageConfig;
+import com.filehosting.model.VolumeInfo;
+import com.filehosting.repository.StoredBlobRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The directories blobs are stored in, usually one per disk.
+ *
+ * A new file goes to the volume with the most free space per transfer in progress on
+ * it, so an idle disk with room is preferred over a busy one with a little more. Free
+ * space counts the bytes of uploads already placed on a volume but not yet written, so
+ * concurrent large uploads don't all pick the same one. Volumes are independent: a copy
+ * to one never waits for I/O on another.
+ */
+@Service
+public class StorageVolumeService {
+
+    @Autowired
+    private FileStorageConfig fileConfig;
+
+    @Autowired
+    private StoredBlobRepository blobRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final List<Volume> volumes = new ArrayList<>();
+    private final Map<String, Volume> volumesByName = new HashMap<>();
+    // Deepest roots first, in case one volume is nested inside another
+    private final List<Volume> lookupOrder = new ArrayList<>();
+
+    @PostConstruct
+    public void init() throws IOException {
+        for (Map.Entry<String, String> entry : fileConfig.getVolumeRoots().entrySet()) {
+            Path root = Paths.get(entry.getValue());
+            Files.createDirectories(root);
+            Volume volume = new Volume(entry.getKey(), root, Files.getFileStore(root));
+            volumes.add(volume);
+            volumesByName.put(volume.name, volume);
+        }
+        lookupOrder.addAll(volumes);
+        lookupOrder.sort(Comparator.comparingInt((Volume volume) -> volume.absoluteRoot.getNameCount()).reversed());
+
+        // Blobs stored before volumes were recorded belong to whichever root they are under
+        for (Volume volume : lookupOrder) {
+            int assigned = blobRepository.assignVolume(volume.name, volume.root + File.separator + "%");
+            if (assigned > 0) {
+                System.out.println("Assigned " + assigned + " stored file(s) to volume " + volume.name);
+            }
+        }
+        for (Object[] usage : blobRepository.getUsageByVolume()) {
+            Volume volume = usage[0] != null ? volumesByName.get((String) usage[0]) : null;
+            if (volume == null) {
+                System.err.println("Stored files on unknown volume " + usage[0] + ": " + usage[2]
+                        + " file(s), check app.upload.volumes");
+                continue;
+            }
+            volume.usedBytes.set(((Number) usage[1]).longValue());
+            volume.fileCount.set(((Number) usage[2]).longValue());
+        }
+
+        for (Volume volume : volumes) {
+            Gauge.builder("filehosting.volume.used", volume.usedBytes, AtomicLong::get)
+                    .description("Bytes of stored files on the volume")
+                    .baseUnit("bytes")
+                    .tag("volume", volume.name)
+                    .register(meterRegistry);
+            Gauge.builder("filehosting.volume.free", volume, Volume::getFreeSpace)
+                    .description("Free space of the volume's filesystem")
+                    .baseUnit("bytes")
+                    .tag("volume", volume.name)
+                    .register(meterRegistry);
+            Gauge.builder("filehosting.volume.transfers", volume.activeReads, AtomicInteger::get)
+                    .tag("volume", volume.name)
+                    .tag("direction", "read")
+                    .register(meterRegistry);
+            Gauge.builder("filehosting.volume.transfers", volume.activeWrites, AtomicInteger::get)
+                    .tag("volume", volume.name)
+                    .tag("direction", "write")
+                    .register(meterRegistry);
+        }
+    }
+
+    public List<Volume> getVolumes() {
+        return Collections.unmodifiableList(volumes);
+    }
+
+    public Volume getDefaultVolume() {
+        return volumesByName.get(FileStorageConfig.DEFAULT_VOLUME);
+    }
+
+    /**
+     * @return the named volume, or null if it is no longer configured
+     */
+    public Volume getVolume(String name) {
+        return name != null ? volumesByName.get(name) : null;
+    }
+
+    /**
+     * @return the volume whose root contains the path, or null
+     */
+    public Volume volumeOf(Path path) {
+        Path absolute = path.toAbsolutePath().normalize();
+        for (Volume volume : lookupOrder) {
+            if (absolute.startsWith(volume.absoluteRoot)) {
+                return volume;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Picks the volume for a new file of the given size and counts the write against it
+     * until the returned placement is closed.
+     *
+     * @param source a file already on disk whose volume is preferred when it has room,
+     *               so storing it is a rename rather than a copy; null for streamed uploads
+     * @throws IllegalStateException if no volume has room
+     */
+    public Placement place(long size, Path source) {
+        Volume chosen = null;
+        if (source != null) {
+            Volume local = sameFileStore(source);
+            if (local != null && local.getFreeSpace() - local.pendingBytes.get() - fileConfig.getVolumeMinFreeBytes() >= size) {
+                chosen = local;
+            }
+        }
+
+        if (chosen == null) {
+            double bestScore = -1;
+            for (Volume volume : volumes) {
+                long room = volume.getFreeSpace() - volume.pendingBytes.get() - fileConfig.getVolumeMinFreeBytes();
+                if (room < size) {
+                    continue;
+                }
+                double score = (double) room / (1 + volume.activeReads.get() + volume.activeWrites.get());
+                if (score > bestScore) {
+                    bestScore = score;
+                    chosen = volume;
+                }
+            }
+        }
+        if (chosen == null) {
+            throw new IllegalStateException("Storage limit exceeded. No storage volume has room for this file.");
+        }
+
+        chosen.pendingBytes.addAndGet(size);
+        chosen.activeWrites.incrementAndGet();
+        return new Placement(chosen, size);
+    }
+
+    public boolean hasRoomFor(long size) {
+        for (Volume volume : volumes) {
+            if (volume.getFreeSpace() - volume.pendingBytes.get() - fileConfig.getVolumeMinFreeBytes() >= size) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts a read of the path against its volume until closed; a no-op for paths
+     * outside every volume.
+     */
+    public Activity reading(Path path) {
+        Volume volume = volumeOf(path);
+        if (volume == null) {
+            return Activity.NONE;
+        }
+        volume.activeReads.incrementAndGet();
+        return volume.activeReads::decrementAndGet;
+    }
+
+    public void fileAdded(Volume volume, long size) {
+        volume.usedBytes.addAndGet(size);
+        volume.fileCount.incrementAndGet();
+    }
+
+    public void fileRemoved(String volumeName, long size) {
+        Volume volume = getVolume(volumeName);
+        if (volume != null) {
+            volume.usedBytes.addAndGet(-size);
+            volume.fileCount.decrementAndGet();
+        }
+    }
+
+    public List<VolumeInfo> getVolumeInfos() {
+        List<VolumeInfo> infos = new ArrayList<>(volumes.size());
+        for (Volume volume : volumes) {
+            infos.add(new VolumeInfo(volume.name, volume.root.toString(), volume.getTotalSpace(), volume.getFreeSpace(),
+                    volume.usedBytes.get(), volume.fileCount.get(), volume.activeReads.get(), volume.activeWrites.get()));
+        }
+        return infos;
+    }
+
+    private Volume sameFileStore(Path path) {
+        try {
+            FileStore store = Files.getFileStore(path);
+            Volume inside = volumeOf(path);
+            if (inside != null) {
+                return inside;
+            }
+            for (Volume volume : volumes) {
+                if (volume.fileStore.equals(store)) {
+                    return volume;
+                }
+            }
+        } catch (IOException e) {
+            // Treated like a streamed upload
+        }
+        return null;
+    }
+
+    /**
+     * One configured volume and its live counters.
+     */
+    public static final class Volume {
+
+        private final String name;
+        private final Path root;
+        private final Path absoluteRoot;
+        private final FileStore fileStore;
+        private final AtomicLong usedBytes = new AtomicLong();
+        private final AtomicLong fileCount = new AtomicLong();
+        private final AtomicLong pendingBytes = new AtomicLong();
+        private final AtomicInteger activeReads = new AtomicInteger();
+        private final AtomicInteger activeWrites = new AtomicInteger();
+
+        Volume(String name, Path root, FileStore fileStore) {
+            this.name = name;
+            this.root = root;
+            this.absoluteRoot = root.toAbsolutePath().normalize();
+            this.fileStore = fileStore;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Path getRoot() {
+            return root;
+        }
+
+        public long getTotalSpace() {
+            try {
+                return fileStore.getTotalSpace();
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        public long getFreeSpace() {
+            try {
+                return fileStore.getUsableSpace();
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        public int getActiveTransfers() {
+            return activeReads.get() + activeWrites.get();
+        }
+    }
+
+    /**
+     * A write placed on a volume; closing it ends the write.
+     */
+    public static final class Placement implements AutoCloseable {
+
+        private final Volume volume;
+        private final long size;
+        private boolean closed;
+
+        Placement(Volume volume, long size) {
+            this.volume = volume;
+            this.size = size;
+        }
+
+        public Volume getVolume() {
+            return volume;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                volume.pendingBytes.addAndGet(-size);
+                volume.activeWrites.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A read in progress on a volume.
+     */
+    @FunctionalInterface
+    public interface Activity extends AutoCloseable {
+
+        Activity NONE = () -> {
+        };
+
+        @Override
+        void close();
+    }
+}
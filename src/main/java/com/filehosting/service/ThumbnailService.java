@@ -0,0 +1,258 @@
+package com.filehosting.service;
+
+import com.filehosting.config.ThumbnailConfig;
+import com.filehosting.model.UploadedFile;
+import com.filehosting.util.DiskLruCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scales images down to JPEG previews in the background.
+ *
+ * Work runs on a small fixed pool with a bounded queue, so a burst of uploads cannot
+ * take CPU away from requests; when the queue is full eager generation is skipped and
+ * the preview is made on first view instead. Previews are keyed by content hash, so
+ * deduplicated uploads share them, and concurrent requests for the same preview share
+ * one generation job. Results live in a size-capped LRU directory.
+ */
+@Service
+public class ThumbnailService {
+
+    private static final String FORMAT = "jpg";
+    private static final float JPEG_QUALITY = 0.82f;
+
+    @Autowired
+    private ThumbnailConfig thumbnailConfig;
+
+    // Lazy: FileStorageService queues previews through this service
+    @Autowired
+    @Lazy
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private StorageTieringService tieringService;
+
+    private DiskLruCache cache;
+    private ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() throws IOException {
+        cache = new DiskLruCache(Paths.get(thumbnailConfig.getCachePath()), thumbnailConfig.getCacheSizeBytes());
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        int workers = thumbnailConfig.getWorkers();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(thumbnailConfig.getQueueSize()), runnable -> {
+                    Thread thread = new Thread(runnable, "thumbnail-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public boolean isSupported(UploadedFile file) {
+        String contentType = file.getContentType();
+        return contentType != null && contentType.startsWith("image/")
+                && ImageIO.getImageReadersByMIMEType(contentType).hasNext();
+    }
+
+    /**
+     * Queues the default preview sizes for a new upload. Best effort: skipped if the
+     * queue is full.
+     */
+    public void generateAsync(UploadedFile file) {
+        if (!isSupported(file)) {
+            return;
+        }
+        for (int size : thumbnailConfig.getSizes()) {
+            try {
+                getThumbnail(file, size);
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the cached preview, or the pending generation of it.
+     *
+     * @throws RejectedExecutionException if generation is needed but the queue is full
+     */
+    public CompletableFuture<Path> getThumbnail(UploadedFile file, int requestedSize) {
+        int size = thumbnailConfig.resolveSize(requestedSize);
+        String key = cacheKey(file, size);
+
+        Path cached = cache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<Path> created = new CompletableFuture<>();
+        CompletableFuture<Path> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    created.complete(generate(key, file, size));
+                } catch (Throwable e) {
+                    created.completeExceptionally(e);
+                } finally {
+                    inFlight.remove(key, created);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+        return created;
+    }
+
+    private Path generate(String key, UploadedFile file, int size) throws IOException {
+        // Finished by another job between the cache check and this one starting
+        Path cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        BufferedImage image = readSource(file, size);
+        if (image == null) {
+            throw new IOException("Unsupported image: " + file.getStoredName());
+        }
+
+        Path temp = cache.newTempFile();
+        try {
+            write(scale(image, size), temp);
+            return cache.commit(key, temp);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the file wherever it lives when the job runs: the recorded path goes stale
+     * once the file is moved to another volume or demoted. A cold copy is decoded in
+     * place rather than restored, since a preview is no reason to warm the file up.
+     */
+    private BufferedImage readSource(UploadedFile file, int size) throws IOException {
+        Path source = fileStorageService.resolveFilePath(file);
+        if (Files.exists(source)) {
+            return read(source.toFile(), size);
+        }
+        Path coldPath = tieringService.coldCopyOf(file);
+        if (coldPath == null) {
+            throw new NoSuchFileException(source.toString());
+        }
+        try (InputStream in = tieringService.openCold(coldPath)) {
+            return read(in, size);
+        }
+    }
+
+    /**
+     * Decodes the image, skipping source pixels the preview won't need so large photos
+     * are never fully decoded.
+     *
+     * @param source a File or an InputStream, as accepted by ImageIO
+     */
+    private static BufferedImage read(Object source, int size) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(source)) {
+            if (input == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int subsampling = Math.max(1, longest / (size * 2));
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, int size) {
+        double ratio = Math.min(1.0, (double) size / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+
+        // JPEG has no alpha; transparent areas become white
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private static void write(BufferedImage image, Path target) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(FORMAT).next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(target.toFile())) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static String cacheKey(UploadedFile file, int size) {
+        String content = file.getContentHash() != null ? file.getContentHash() : "file-" + file.getId();
+        return content + "-" + size + "." + FORMAT;
+    }
+}
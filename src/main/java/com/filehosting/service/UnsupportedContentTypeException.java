@@ -0,0 +1,18 @@
+package com.filehosting.service;
+
+/**
+ * The content of an upload is of a type that is not allowed, whatever it was declared as.
+ */
+public class UnsupportedContentTypeException extends IllegalArgumentException {
+
+    private final String contentType;
+
+    public UnsupportedContentTypeException(String contentType) {
+        super("Unsupported file type: " + contentType);
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+}
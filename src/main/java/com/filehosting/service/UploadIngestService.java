@@ -0,0 +1,155 @@
+package com.filehosting.service;
+
+import com.filehosting.config.FileStorageConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores the files of a multi-file upload several at a time.
+ *
+ * Each request keeps at most app.upload.ingest-parallelism files in flight on a pool
+ * of the same size shared by all requests, so the copy, hash and database work of one
+ * file overlaps with the next without one large folder upload taking over the server.
+ * Once a file is refused for lack of space no further files are started; files
+ * already in flight finish or fail on their own reservation.
+ */
+@Service
+public class UploadIngestService {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private StorageMonitoringService storageService;
+
+    @Autowired
+    private FileStorageConfig fileConfig;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        int parallelism = fileConfig.getIngestParallelism();
+        executor = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "upload-ingest-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public Result ingest(MultipartFile[] files) {
+        List<MultipartFile> pending = new ArrayList<>(files.length);
+        for (MultipartFile file : files) {
+            if (!file.isEmpty()) {
+                pending.add(file);
+            }
+        }
+
+        String[] errors = new String[pending.size()];
+        AtomicInteger uploadedCount = new AtomicInteger();
+        AtomicBoolean storageFull = new AtomicBoolean();
+        ExecutorCompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+
+        int next = 0;
+        int running = 0;
+        try {
+            while (next < pending.size() || running > 0) {
+                while (next < pending.size() && running < fileConfig.getIngestParallelism() && !storageFull.get()) {
+                    int index = next++;
+                    completion.submit(() -> {
+                        ingestOne(pending.get(index), index, errors, uploadedCount, storageFull);
+                        return null;
+                    });
+                    running++;
+                }
+                if (running == 0) {
+                    break;
+                }
+                completion.take().get();
+                running--;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // ingestOne records its own failures; anything else is a bug
+            throw new IllegalStateException("Upload failed", e.getCause());
+        }
+
+        StringBuilder errorMessages = new StringBuilder();
+        for (String error : errors) {
+            if (error != null) {
+                errorMessages.append(error);
+            }
+        }
+        return new Result(uploadedCount.get(), errorMessages.toString());
+    }
+
+    private void ingestOne(MultipartFile file, int index, String[] errors, AtomicInteger uploadedCount,
+                           AtomicBoolean storageFull) {
+        try {
+            // Check if storage can accommodate the file
+            if (!storageService.canUploadFile(file.getSize())) {
+                fileStorageService.recordRejectedUpload(FileStorageService.REJECTED_QUOTA);
+                errors[index] = "File '" + file.getOriginalFilename() + "' exceeds available storage space. ";
+                return;
+            }
+
+            // The type is checked against the content as it is copied, not just the declared one
+            fileStorageService.storeFile(file, fileStorageService::isValidContentType);
+            uploadedCount.incrementAndGet();
+
+        } catch (UnsupportedContentTypeException e) {
+            errors[index] = "File '" + file.getOriginalFilename() + "' has unsupported file type. ";
+        } catch (IOException | IllegalArgumentException e) {
+            errors[index] = "Failed to upload '" + file.getOriginalFilename() + "': " + e.getMessage() + " ";
+        } catch (IllegalStateException e) {
+            // Storage is full: reported once, and no further files are started
+            if (storageFull.compareAndSet(false, true)) {
+                errors[index] = e.getMessage() + " ";
+            }
+        }
+    }
+
+    /**
+     * Outcome of a multi-file upload; errors are in the order the files were sent.
+     */
+    public static class Result {
+
+        private final int uploadedCount;
+        private final String errors;
+
+        Result(int uploadedCount, String errors) {
+            this.uploadedCount = uploadedCount;
+            this.errors = errors;
+        }
+
+        public int getUploadedCount() {
+            return uploadedCount;
+        }
+
+        public String getErrors() {
+            return errors;
+        }
+    }
+}
@@ -1,92 +1,207 @@
 package com.filehosting.service;
 
+import com.filehosting.config.ZipConfig;
 import com.filehosting.model.UploadedFile;
+import com.filehosting.util.FileUtils;
+import com.filehosting.util.ParallelZipWriter;
+import com.filehosting.util.ZipStreamWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.*;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.HashSet;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class ZipService {
     
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    // Rows fetched per query when zipping every file; each batch is written before the next is read
+    private static final int ALL_FILES_BATCH_SIZE = 200;
+    
     @Autowired
     private FileStorageService fileStorageService;
     
-    public File createZipFile(List<Long> fileIds, String zipFileName) throws IOException {
-        // Create temporary zip file
-        Path tempDir = Files.createTempDirectory("file_hosting_zip");
-        Path zipPath = tempDir.resolve(zipFileName + ".zip");
+    @Autowired
+    private ZipConfig zipConfig;
+    
+    @Autowired
+    private StorageVolumeService volumeService;
+    
+    @Autowired
+    private StorageTieringService tieringService;
+    
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    private ForkJoinPool compressionPool;
+    private Timer selectedZipTimer;
+    private Timer failedSelectedZipTimer;
+    private Timer allFilesZipTimer;
+    private Timer failedAllFilesZipTimer;
+    private Counter bytesOut;
+    
+    @PostConstruct
+    public void init() {
+        selectedZipTimer = zipTimer("selected", "success");
+        failedSelectedZipTimer = zipTimer("selected", "error");
+        allFilesZipTimer = zipTimer("all", "success");
+        failedAllFilesZipTimer = zipTimer("all", "error");
+        bytesOut = Counter.builder("filehosting.bytes.out")
+                .description("Bytes sent to clients")
+                .baseUnit("bytes")
+                .tag("kind", "zip")
+                .register(meterRegistry);
         
-        try (ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(zipPath.toFile()))) {
-            for (Long fileId : fileIds) {
-                var fileOpt = fileStorageService.getFileById(fileId);
-                if (fileOpt.isPresent()) {
-                    UploadedFile uploadedFile = fileOpt.get();
-                    addFileToZip(uploadedFile, zipOut);
+        int parallelism = zipConfig.getParallelism();
+        if (parallelism > 1) {
+            // Shared by all ZIP downloads, so total deflate threads stay bounded
+            compressionPool = new ForkJoinPool(parallelism, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("zip-deflate-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+    }
+    
+    private Timer zipTimer(String scope, String outcome) {
+        return Timer.builder("filehosting.zip")
+                .description("Time to stream a ZIP download")
+                .tag("scope", scope)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        if (compressionPool != null) {
+            compressionPool.shutdownNow();
+        }
+    }
+    
+    public void writeZip(List<Long> fileIds, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        boolean completed = false;
+        try {
+            List<UploadedFile> files = fileStorageService.getFilesByIds(fileIds);
+            for (UploadedFile file : files) {
+                fileStorageService.recordAccess(file);
+            }
+            writeEntries(List.of(files), out);
+            completed = true;
+        } finally {
+            (completed ? selectedZipTimer : failedSelectedZipTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    public void writeAllFilesZip(OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        boolean completed = false;
+        try {
+            writeEntries(fileStorageService.getAllFilesInBatches(ALL_FILES_BATCH_SIZE), out);
+            completed = true;
+        } finally {
+            (completed ? allFilesZipTimer : failedAllFilesZipTimer).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    private void writeEntries(Iterable<List<UploadedFile>> batches, OutputStream out) throws IOException {
+        // Entries go straight to the client; nothing is staged on disk
+        try (ZipStreamWriter zipOut = new ZipStreamWriter(out)) {
+            ParallelZipWriter parallelOut = compressionPool != null
+                    ? new ParallelZipWriter(zipOut, compressionPool, zipConfig.getBlockSize(), zipConfig.getParallelism() * 2)
+                    : null;
+            Set<String> entryNames = new HashSet<>();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            
+            try {
+                for (List<UploadedFile> files : batches) {
+                    for (UploadedFile uploadedFile : files) {
+                        addFileToZip(uploadedFile, zipOut, parallelOut, entryNames, buffer);
+                    }
                 }
+                if (parallelOut != null) {
+                    parallelOut.drain();
+                }
+                zipOut.finish();
+            } catch (IOException | RuntimeException e) {
+                if (parallelOut != null) {
+                    parallelOut.cancel();
+                }
+                throw e;
+            } finally {
+                bytesOut.increment(zipOut.getBytesWritten());
             }
         }
-        
-        return zipPath.toFile();
     }
     
-    public File createZipFileFromAll() throws IOException {
-        List<UploadedFile> allFiles = fileStorageService.getAllFiles();
+    private void addFileToZip(UploadedFile uploadedFile, ZipStreamWriter zipOut, ParallelZipWriter parallelOut,
+                              Set<String> entryNames, byte[] buffer) throws IOException {
+        Path filePath = fileStorageService.resolveFilePath(uploadedFile);
         
-        // Create temporary zip file
-        Path tempDir = Files.createTempDirectory("file_hosting_zip");
-        Path zipPath = tempDir.resolve("all_files.zip");
-        
-        try (ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(zipPath.toFile()))) {
-            for (UploadedFile uploadedFile : allFiles) {
-                addFileToZip(uploadedFile, zipOut);
+        // Files in the cold tier are decompressed into the archive without being moved back
+        Path coldPath = null;
+        if (!Files.exists(filePath)) {
+            coldPath = tieringService.coldCopyOf(uploadedFile);
+            if (coldPath == null) {
+                return;
             }
         }
         
-        return zipPath.toFile();
-    }
-    
-    private void addFileToZip(UploadedFile uploadedFile, ZipOutputStream zipOut) throws IOException {
-        Path filePath = Paths.get(uploadedFile.getFilePath());
+        // Use original filename in zip, made unique so extractors don't overwrite entries
+        String entryName = uniqueEntryName(uploadedFile.getOriginalName(), entryNames);
+        long size = coldPath != null ? uploadedFile.getFileSize() : Files.size(filePath);
+        long lastModified = Files.getLastModifiedTime(coldPath != null ? coldPath : filePath).toMillis();
         
-        if (Files.exists(filePath)) {
-            // Use original filename in zip
-            ZipEntry zipEntry = new ZipEntry(uploadedFile.getOriginalName());
-            zipOut.putNextEntry(zipEntry);
-            
-            try (FileInputStream fis = new FileInputStream(filePath.toFile())) {
-                byte[] buffer = new byte[1024];
-                int length;
-                while ((length = fis.read(buffer)) >= 0) {
-                    zipOut.write(buffer, 0, length);
-                }
+        // Deflating JPEGs, videos or archives burns CPU for no gain
+        int level = FileUtils.isCompressedFormat(uploadedFile.getContentType(), uploadedFile.getOriginalName())
+                ? 0 : zipConfig.getCompressionLevel(uploadedFile.getContentType());
+        
+        try (StorageVolumeService.Activity reading = volumeService.reading(filePath);
+             InputStream in = coldPath != null ? tieringService.openCold(coldPath) : Files.newInputStream(filePath)) {
+            if (parallelOut != null) {
+                parallelOut.addEntry(entryName, in, size, lastModified, level);
+                return;
             }
             
+            zipOut.setLevel(level);
+            zipOut.putNextEntry(entryName, size, lastModified, level > 0);
+            int length;
+            while ((length = in.read(buffer)) >= 0) {
+                zipOut.write(buffer, 0, length);
+            }
             zipOut.closeEntry();
         }
     }
     
-    public void cleanupTempFile(File tempFile) {
-        if (tempFile != null && tempFile.exists()) {
-            try {
-                Files.deleteIfExists(tempFile.toPath());
-                // Also try to delete parent temp directory if it's empty
-                Path parentDir = tempFile.toPath().getParent();
-                if (parentDir != null && Files.exists(parentDir)) {
-                    try {
-                        Files.deleteIfExists(parentDir);
-                    } catch (IOException e) {
-                        // Ignore - directory might not be empty
-                    }
-                }
-            } catch (IOException e) {
-                System.err.println("Failed to cleanup temp file: " + e.getMessage());
+    static String uniqueEntryName(String originalName, Set<String> entryNames) {
+        String name = originalName != null && !originalName.isBlank() ? originalName : "unknown";
+        if (entryNames.add(name)) {
+            return name;
+        }
+        
+        int dotIndex = name.lastIndexOf('.');
+        String base = dotIndex > 0 ? name.substring(0, dotIndex) : name;
+        String extension = dotIndex > 0 ? name.substring(dotIndex) : "";
+        
+        for (int i = 1; ; i++) {
+            String candidate = base + " (" + i + ")" + extension;
+            if (entryNames.add(candidate)) {
+                return candidate;
             }
         }
     }
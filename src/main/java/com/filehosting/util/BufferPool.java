@@ -0,0 +1,47 @@
+package com.filehosting.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Large byte arrays kept for reuse, so concurrent multi-GB copies don't each allocate a
+ * buffer that the collector then has to reclaim. When every pooled buffer is in use a
+ * new one is allocated, and buffers beyond the pool's capacity are dropped on release.
+ */
+public final class BufferPool {
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<byte[]> free;
+
+    public BufferPool(int bufferSize, int capacity) {
+        if (bufferSize <= 0 || capacity < 0) {
+            throw new IllegalArgumentException("Invalid buffer pool: " + capacity + " buffer(s) of " + bufferSize + " bytes");
+        }
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public byte[] acquire() {
+        byte[] buffer = free.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    /**
+     * Returns a buffer from acquire; it must not be used afterwards.
+     */
+    public void release(byte[] buffer) {
+        if (buffer.length == bufferSize) {
+            free.offer(buffer);
+        }
+    }
+
+    /**
+     * @return buffers waiting to be reused
+     */
+    public int available() {
+        return free.size();
+    }
+}
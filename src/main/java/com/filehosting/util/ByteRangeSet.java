@@ -0,0 +1,79 @@
+package com.filehosting.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Set of inclusive byte ranges that merges overlapping and adjacent ranges,
+ * used to track which parts of a chunked upload are already on disk.
+ */
+public class ByteRangeSet {
+    
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+    
+    public static ByteRangeSet parse(String value) {
+        ByteRangeSet set = new ByteRangeSet();
+        if (value == null || value.isBlank()) {
+            return set;
+        }
+        
+        for (String range : value.split(",")) {
+            int dash = range.indexOf('-');
+            set.add(Long.parseLong(range.substring(0, dash).trim()),
+                    Long.parseLong(range.substring(dash + 1).trim()));
+        }
+        return set;
+    }
+    
+    public void add(long start, long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Invalid range " + start + "-" + end);
+        }
+        
+        // Absorb a preceding range that overlaps or touches the new one
+        Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+        if (floor != null && floor.getValue() >= start - 1) {
+            start = floor.getKey();
+            end = Math.max(end, floor.getValue());
+        }
+        
+        // ...and every following range that starts inside or right after it
+        Iterator<Map.Entry<Long, Long>> following = ranges.tailMap(start, true).entrySet().iterator();
+        while (following.hasNext()) {
+            Map.Entry<Long, Long> next = following.next();
+            if (next.getKey() > end + 1) {
+                break;
+            }
+            end = Math.max(end, next.getValue());
+            following.remove();
+        }
+        
+        ranges.put(start, end);
+    }
+    
+    public long getTotalBytes() {
+        long total = 0;
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            total += range.getValue() - range.getKey() + 1;
+        }
+        return total;
+    }
+    
+    public boolean covers(long start, long end) {
+        Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+        return floor != null && floor.getValue() >= end;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(range.getKey()).append('-').append(range.getValue());
+        }
+        return sb.toString();
+    }
+}
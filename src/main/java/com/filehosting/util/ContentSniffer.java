@@ -0,0 +1,186 @@
+package com.filehosting.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Identifies binary formats by the signature at the start of the file, so a file's type
+ * doesn't depend on what the client claimed. Most signatures contain bytes no text file
+ * starts with; the two that are plain letters, "MZ" and "ID3", only count when the header
+ * that follows them is well formed, so notes that happen to begin with them stay text.
+ * Text formats such as HTML and SVG are never sniffed, since serving a file declared as
+ * text under a markup type would let it run scripts in the browser.
+ */
+public final class ContentSniffer {
+
+    /**
+     * Bytes from the start of the file that detect looks at; enough to reach the PE header
+     * of Windows executables, which the DOS header points to.
+     */
+    public static final int HEAD_SIZE = 1024;
+
+    private static final int PE_OFFSET_FIELD = 0x3C;
+    private static final int ID3_HEADER_SIZE = 10;
+
+    private static final String ZIP = "application/zip";
+
+    private ContentSniffer() {
+    }
+
+    /**
+     * @param head the first bytes of the file, HEAD_SIZE or all of it if shorter
+     * @param declaredType the client's type, kept where it names a format more exactly
+     *                     than the signature can, e.g. a .docx, which is a ZIP archive
+     * @return the detected type, or null if no known signature matches
+     */
+    public static String detect(byte[] head, int length, String declaredType) {
+        String detected = detectSignature(head, length);
+        if (detected == null) {
+            return null;
+        }
+        String declared = declaredType == null ? "" : declaredType.toLowerCase(Locale.ROOT);
+        if (detected.equals(ZIP) && isZipContainer(declared)) {
+            return declaredType;
+        }
+        return detected;
+    }
+
+    private static String detectSignature(byte[] head, int length) {
+        if (startsWith(head, length, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return "image/png";
+        }
+        if (startsWith(head, length, 0, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(head, length, 0, 'G', 'I', 'F', '8', '7', 'a') || startsWith(head, length, 0, 'G', 'I', 'F', '8', '9', 'a')) {
+            return "image/gif";
+        }
+        if (startsWith(head, length, 0, 'I', 'I', '*', 0) || startsWith(head, length, 0, 'M', 'M', 0, '*')) {
+            return "image/tiff";
+        }
+        if (startsWith(head, length, 0, 'R', 'I', 'F', 'F')) {
+            if (startsWith(head, length, 8, 'W', 'E', 'B', 'P')) {
+                return "image/webp";
+            }
+            if (startsWith(head, length, 8, 'W', 'A', 'V', 'E')) {
+                return "audio/wav";
+            }
+            if (startsWith(head, length, 8, 'A', 'V', 'I', ' ')) {
+                return "video/x-msvideo";
+            }
+            return null;
+        }
+        if (startsWith(head, length, 4, 'f', 't', 'y', 'p') && length >= 12) {
+            String brand = new String(head, 8, 4, StandardCharsets.ISO_8859_1);
+            switch (brand) {
+                case "qt  ":
+                    return "video/quicktime";
+                case "M4A ":
+                case "M4B ":
+                    return "audio/mp4";
+                case "heic":
+                case "heix":
+                case "mif1":
+                    return "image/heic";
+                case "avif":
+                    return "image/avif";
+                default:
+                    return "video/mp4";
+            }
+        }
+        if (startsWith(head, length, 0, 0x1A, 0x45, 0xDF, 0xA3)) {
+            // Matroska; WebM names itself as the document type a few bytes in
+            return contains(head, length, "webm") ? "video/webm" : "video/x-matroska";
+        }
+        if (startsWith(head, length, 0, 'I', 'D', '3') && isId3Header(head, length)) {
+            return "audio/mpeg";
+        }
+        if (startsWith(head, length, 0, 'f', 'L', 'a', 'C')) {
+            return "audio/flac";
+        }
+        if (startsWith(head, length, 0, 'O', 'g', 'g', 'S')) {
+            return "application/ogg";
+        }
+        if (startsWith(head, length, 0, '%', 'P', 'D', 'F', '-')) {
+            return "application/pdf";
+        }
+        if (startsWith(head, length, 0, 'P', 'K', 3, 4) || startsWith(head, length, 0, 'P', 'K', 5, 6)) {
+            return ZIP;
+        }
+        if (startsWith(head, length, 0, 0x1F, 0x8B)) {
+            return "application/gzip";
+        }
+        if (startsWith(head, length, 0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C)) {
+            return "application/x-7z-compressed";
+        }
+        if (startsWith(head, length, 0, 'R', 'a', 'r', '!', 0x1A, 0x07)) {
+            return "application/vnd.rar";
+        }
+        if (startsWith(head, length, 0, 0x7F, 'E', 'L', 'F')) {
+            return "application/x-executable";
+        }
+        if (startsWith(head, length, 0, 'M', 'Z') && isPortableExecutable(head, length)) {
+            return "application/x-msdownload";
+        }
+        if (startsWith(head, length, 0, 0xCA, 0xFE, 0xBA, 0xBE)) {
+            return "application/java-vm";
+        }
+        return null;
+    }
+
+    // ID3v2.2 to 2.4: major version, a revision below 0xFF, no undefined flags set, and a
+    // syncsafe size whose bytes all have the high bit clear
+    private static boolean isId3Header(byte[] head, int length) {
+        if (length < ID3_HEADER_SIZE) {
+            return false;
+        }
+        int version = head[3] & 0xFF;
+        if (version < 2 || version > 4 || (head[4] & 0xFF) == 0xFF || (head[5] & 0x0F) != 0) {
+            return false;
+        }
+        for (int i = 6; i < ID3_HEADER_SIZE; i++) {
+            if ((head[i] & 0x80) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The DOS header's e_lfanew field points to "PE\0\0"; a header beyond the head can't be
+    // confirmed, so the declared type is kept then
+    private static boolean isPortableExecutable(byte[] head, int length) {
+        if (length < PE_OFFSET_FIELD + 4) {
+            return false;
+        }
+        long offset = (head[PE_OFFSET_FIELD] & 0xFF) | (head[PE_OFFSET_FIELD + 1] & 0xFF) << 8
+                | (head[PE_OFFSET_FIELD + 2] & 0xFF) << 16 | (long) (head[PE_OFFSET_FIELD + 3] & 0xFF) << 24;
+        return offset >= PE_OFFSET_FIELD + 4 && offset <= length - 4
+                && startsWith(head, length, (int) offset, 'P', 'E', 0, 0);
+    }
+
+    // Office documents, EPUB, JAR and APK files are ZIP archives too
+    private static boolean isZipContainer(String declared) {
+        return declared.endsWith("+zip")
+                || declared.startsWith("application/vnd.openxmlformats-officedocument.")
+                || declared.startsWith("application/vnd.oasis.opendocument.")
+                || declared.equals("application/java-archive")
+                || declared.equals("application/vnd.android.package-archive")
+                || declared.equals("application/x-zip-compressed");
+    }
+
+    private static boolean startsWith(byte[] head, int length, int offset, int... signature) {
+        if (length < offset + signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if ((head[offset + i] & 0xFF) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(byte[] head, int length, String text) {
+        return new String(head, 0, length, StandardCharsets.ISO_8859_1).contains(text);
+    }
+}
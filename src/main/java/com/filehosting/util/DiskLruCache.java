@@ -0,0 +1,137 @@
+package com.filehosting.util;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * A directory of derived files capped at a total size. Entries are tracked in access
+ * order and the least recently used ones are deleted when a new entry pushes the total
+ * over the cap. Use is recorded in the files' last access time, so the order survives
+ * restarts while modification times (and the ETags derived from them) stay put.
+ */
+public class DiskLruCache {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    public DiskLruCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /**
+     * @return the cached file, or null if the key is not cached
+     */
+    public synchronized Path get(String key) {
+        if (entries.get(key) == null) {
+            return null;
+        }
+        Path path = directory.resolve(key);
+        try {
+            Files.getFileAttributeView(path, BasicFileAttributeView.class)
+                    .setTimes(null, FileTime.fromMillis(System.currentTimeMillis()), null);
+        } catch (IOException e) {
+            // Removed behind our back
+            totalBytes -= entries.remove(key);
+            return null;
+        }
+        return path;
+    }
+
+    /**
+     * A temp file in the cache directory for writing a new entry before {@link #commit}.
+     */
+    public Path newTempFile() throws IOException {
+        return Files.createTempFile(directory, "entry", TEMP_SUFFIX);
+    }
+
+    /**
+     * Moves a finished temp file into the cache under the key and evicts as needed.
+     */
+    public synchronized Path commit(String key, Path tempFile) throws IOException {
+        Path path = directory.resolve(key);
+        try {
+            Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        long size = Files.size(path);
+        Long previous = entries.put(key, size);
+        totalBytes += size - (previous != null ? previous : 0);
+        evict(key);
+        return path;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(directory.resolve(entry.getKey()));
+            } catch (IOException e) {
+                System.err.println("Failed to evict cached file: " + e.getMessage());
+                continue;
+            }
+            totalBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(directory)) {
+            stream.filter(Files::isRegularFile).forEach(files::add);
+        }
+
+        List<Object[]> found = new ArrayList<>(files.size());
+        for (Path file : files) {
+            if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                // Left over from a crash mid-write
+                Files.deleteIfExists(file);
+                continue;
+            }
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            found.add(new Object[]{file.getFileName().toString(), attributes.size(), attributes.lastAccessTime().toMillis()});
+        }
+
+        found.sort(Comparator.comparingLong(entry -> (Long) entry[2]));
+        synchronized (this) {
+            for (Object[] entry : found) {
+                entries.put((String) entry[0], (Long) entry[1]);
+                totalBytes += (Long) entry[1];
+            }
+            evict(null);
+        }
+    }
+}
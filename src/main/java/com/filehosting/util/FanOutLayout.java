@@ -0,0 +1,61 @@
+package com.filehosting.util;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+/**
+ * Spreads files over nested subdirectories named after a prefix of a hex key, so no
+ * single directory grows past a few thousand entries. With 2 levels of 2 characters,
+ * "3fa9c0..." is stored as 3f/a9/3fa9c0...; with 0 levels everything stays flat.
+ */
+public final class FanOutLayout {
+
+    private final int levels;
+    private final int charsPerLevel;
+
+    public FanOutLayout(int levels, int charsPerLevel) {
+        if (levels < 0 || (levels > 0 && charsPerLevel <= 0) || levels * charsPerLevel > 32) {
+            throw new IllegalArgumentException("Invalid directory layout: " + levels + " level(s) of "
+                    + charsPerLevel + " character(s)");
+        }
+        this.levels = levels;
+        this.charsPerLevel = charsPerLevel;
+    }
+
+    public int getLevels() {
+        return levels;
+    }
+
+    public int getCharsPerLevel() {
+        return charsPerLevel;
+    }
+
+    /**
+     * Location of a file named by its own hex key, such as a content hash.
+     */
+    public Path resolve(Path root, String hexKey) {
+        return resolve(root, hexKey, hexKey);
+    }
+
+    /**
+     * Location of a file whose name is not a hex key; the key is derived from the name.
+     */
+    public Path resolveByName(Path root, String fileName) {
+        return resolve(root, keyFor(fileName), fileName);
+    }
+
+    private Path resolve(Path root, String hexKey, String fileName) {
+        Path directory = root;
+        for (int level = 0; level < levels; level++) {
+            directory = directory.resolve(hexKey.substring(level * charsPerLevel, (level + 1) * charsPerLevel));
+        }
+        return directory.resolve(fileName);
+    }
+
+    private static String keyFor(String fileName) {
+        MessageDigest digest = FileUtils.newSha256Digest();
+        return HexFormat.of().formatHex(digest.digest(fileName.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,798 @@
+package com.filehosting.util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory trigram index over file names and content types.
+ *
+ * Every file gets a dense document number; each trigram maps to a sorted int[] of the
+ * documents containing it. A query intersects the posting lists of its terms' trigrams
+ * (shortest first), confirms each candidate by substring match, and keeps the best
+ * matches in a bounded heap. Removed documents are tombstoned and the index compacts
+ * itself once they make up a quarter of it.
+ *
+ * Broad terms match a large share of all names, so their matches are not all scored.
+ * Documents are also listed by what a term can score against them: exact names, names
+ * starting with their extension, extensions, and name and word prefixes, the larger
+ * tiers split by name length. A broad query walks the tiers of its rarest term best
+ * first and shortest name first, and stops once nothing left can beat the k-th best
+ * match. A profile packed into one long per document bounds what the other terms can
+ * add without reading the name.
+ *
+ * Terms of one or two characters, the first keystrokes of a search, have no trigram.
+ * The first one and two characters of every word in a name are indexed as well, so such
+ * terms match the start of a name or of a word in it rather than any substring.
+ */
+public class FileNameIndex {
+
+    private static final int GRAM = 3;
+    // Keys of word prefixes shorter than a trigram carry their length above the characters
+    private static final int PREFIX_LENGTH_SHIFT = 48;
+    // Tier keys carry a tag and a name length above a word prefix or a hash, see indexTiers()
+    private static final int TIER_SHIFT = 50;
+    private static final long EXACT_NAME = 1L << TIER_SHIFT;
+    private static final long NAME_EXTENSION = 2L << TIER_SHIFT;
+    private static final long EXTENSION = 3L << TIER_SHIFT;
+    private static final long NAME_START = 4L << TIER_SHIFT;
+    private static final long WORD_START = 5L << TIER_SHIFT;
+    private static final int NAME_LENGTH_SHIFT = 53;
+    private static final int MAX_NAME_LENGTH = 63;
+    private static final int EXACT_HASH_MASK = 0x3FF;
+    // A term whose rarest posting list is no longer than this skips the tiers
+    private static final int NARROW_TERM = 8192;
+    // Profile fields below the first two characters of a name
+    private static final int LENGTH_BITS = 10;
+    private static final int EXTENSION_BITS = 12;
+    private static final int MAX_TERMS = 8;
+
+    private static final int SCORE_SUBSTRING = 10;
+    private static final int SCORE_WORD_START = 25;
+    private static final int SCORE_EXTENSION = 30;
+    private static final int SCORE_NAME_START = 50;
+    private static final int SCORE_EXACT_NAME = 100;
+    private static final int SCORE_CONTENT_TYPE = 5;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Per document
+    private long[] fileIds = new long[1024];
+    private String[] names = new String[1024];
+    private String[] types = new String[1024];
+    private long[] profiles = new long[1024];
+    private final BitSet deleted = new BitSet();
+    private int documentCount;
+    private int liveCount;
+    private LongIntHashMap documentsByFileId = new LongIntHashMap(1024);
+
+    // Per trigram
+    private LongIntHashMap gramSlots = new LongIntHashMap(4096);
+    private int[][] postings = new int[4096][];
+    private int[] postingSizes = new int[4096];
+    private int gramCount;
+
+    /**
+     * Adds a file, replacing any earlier entry with the same id.
+     */
+    public void add(long fileId, String name, String contentType) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(fileId);
+            addDocument(fileId, normalize(name), contentType == null ? "" : normalize(contentType).intern());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long fileId) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(fileId);
+            if (documentCount - liveCount > 1024 && documentCount - liveCount > liveCount / 3) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ids of the best matching files, best first. Every whitespace-separated
+     * term must occur in the name or content type, or for terms shorter than three
+     * characters start the name or a word in it; names that start with a term, have a
+     * word starting with it, or whose extension equals it rank higher.
+     */
+    public long[] search(String query, int limit) {
+        Term[] terms = terms(query);
+        if (terms.length == 0 || limit <= 0) {
+            return new long[0];
+        }
+
+        lock.readLock().lock();
+        try {
+            int k = Math.min(limit, Math.max(liveCount, 1));
+            TopK top = new TopK(k);
+            int[] slots = candidateSlots(terms);
+            if (slots.length > 0 && postingSizes[slots[0]] > NARROW_TERM) {
+                rankInTiers(terms, slots, top);
+            } else {
+                int[] candidates = candidates(slots);
+                rank(candidates, candidates.length, -1, -1, terms, top);
+            }
+
+            int[] docs = top.sortedDocuments();
+            long[] result = new long[docs.length];
+            for (int i = 0; i < docs.length; i++) {
+                result[i] = fileIds[docs[i]];
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ranks broad terms one tier of matches of the rarest term at a time: names starting
+     * with their own extension and exact names, which are few, then names with the term as
+     * extension, names and words starting with it by ascending name length, and any other
+     * match last. A document of a tier not already met in an earlier one scores at most a
+     * fixed amount for that term, so the walk stops as soon as that and the most the other
+     * terms can add cannot beat the k-th best match. Names in the name start tier begin
+     * with the first characters of the rarest term, and another term can only start such
+     * a name as well if one of the two is a prefix of the other.
+     */
+    private void rankInTiers(Term[] terms, int[] slots, TopK top) {
+        int driver = 0;
+        for (int i = 0; i < terms.length; i++) {
+            if (rarestPosting(terms[i]) < rarestPosting(terms[driver])) {
+                driver = i;
+            }
+        }
+        Term term = terms[driver];
+        String text = term.text;
+        String head = text.substring(0, Math.min(GRAM, text.length()));
+        int others = 0;
+        int othersAfterNameStart = 0;
+        for (int i = 0; i < terms.length; i++) {
+            if (i != driver) {
+                int max = maxScore(terms[i]);
+                others += max;
+                othersAfterNameStart += head.startsWith(terms[i].text) || terms[i].text.startsWith(head)
+                        ? max
+                        : SCORE_SUBSTRING + SCORE_WORD_START + (hasExtension(terms[i]) ? SCORE_EXTENSION : 0);
+            }
+        }
+
+        long extension = term.extension & 0xFFFFFFFFL;
+        long prefix = prefixKey(head, 0, head.length());
+        rankPosting(gramSlots.get(NAME_EXTENSION | extension), terms, top);
+        rankPosting(gramSlots.get(exactKey(text.length(), term.extension)), terms, top);
+        rankByLength(EXTENSION | extension, SCORE_SUBSTRING + SCORE_WORD_START + SCORE_EXTENSION, driver, others, terms, top);
+        rankByLength(NAME_START | prefix, SCORE_SUBSTRING + SCORE_NAME_START, driver, othersAfterNameStart, terms, top);
+        rankByLength(WORD_START | prefix, SCORE_SUBSTRING + SCORE_WORD_START, driver, others, terms, top);
+        if (text.length() >= GRAM && !(top.isFull() && top.min() >>> 48 > SCORE_SUBSTRING + others)) {
+            int[] candidates = candidates(slots);
+            rank(candidates, candidates.length, SCORE_SUBSTRING, driver, terms, top);
+        }
+    }
+
+    private int rarestPosting(Term term) {
+        int[] slots = candidateSlots(new Term[]{term});
+        return slots.length == 0 ? 0 : postingSizes[slots[0]];
+    }
+
+    private boolean hasExtension(Term term) {
+        for (int length = 0; length <= MAX_NAME_LENGTH; length++) {
+            if (gramSlots.get(EXTENSION | (long) length << NAME_LENGTH_SHIFT | term.extension & 0xFFFFFFFFL) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The most the term can score against any name: what the few names starting with it
+     * as their extension or named exactly like it score, else a name start or an extension.
+     */
+    private int maxScore(Term term) {
+        int max = SCORE_SUBSTRING + (hasExtension(term) ? SCORE_WORD_START + SCORE_EXTENSION : SCORE_NAME_START);
+        for (long key : new long[]{NAME_EXTENSION | term.extension & 0xFFFFFFFFL, exactKey(term.text.length(), term.extension)}) {
+            int slot = gramSlots.get(key);
+            for (int i = 0; slot >= 0 && i < postingSizes[slot]; i++) {
+                max = Math.max(max, score(postings[slot][i], term.text));
+            }
+        }
+        return max;
+    }
+
+    private void rankPosting(int slot, Term[] terms, TopK top) {
+        if (slot >= 0) {
+            rank(postings[slot], postingSizes[slot], -1, -1, terms, top);
+        }
+    }
+
+    /**
+     * Walks a tier from the shortest names up, newest first within each length, and stops
+     * at the first document whose best possible key could not enter the heap. Documents
+     * whose own bound could not are skipped without reading their names.
+     *
+     * @param bound what the driving term can score against a document of the tier not met
+     *              in an earlier one
+     * @param others the most all other terms together can add
+     */
+    private void rankByLength(long tier, int bound, int driver, int others, Term[] terms, TopK top) {
+        for (int length = 0; length <= MAX_NAME_LENGTH; length++) {
+            if (top.isFull() && TopK.key(bound + others, length, Integer.MAX_VALUE) <= top.min()) {
+                return;
+            }
+            int slot = gramSlots.get(tier | (long) length << NAME_LENGTH_SHIFT);
+            if (slot < 0) {
+                continue;
+            }
+            int[] docs = postings[slot];
+            for (int i = postingSizes[slot] - 1; i >= 0; i--) {
+                int doc = docs[i];
+                if (top.isFull() && TopK.key(bound + others, length, doc) <= top.min()) {
+                    break;
+                }
+                if (deleted.get(doc)
+                        || others > 0 && top.isFull() && TopK.key(bound + bound(doc, terms, driver), length, doc) <= top.min()) {
+                    continue;
+                }
+                offer(top, doc, terms);
+            }
+        }
+    }
+
+    /**
+     * Offers docs[0..size) to the heap, scoring those with the best bounds and widening the
+     * selection until the k-th best score is at least the bound of every document left out.
+     * A fixed bound need only hold for documents not met in an earlier tier; those were
+     * scored or bounded below the heap already.
+     *
+     * @param bound what the driving term can score against any of the documents, or -1 to
+     *              bound each one for every term
+     */
+    private void rank(int[] docs, int size, int bound, int driver, Term[] terms, TopK top) {
+        for (int selected = top.capacity(); ; selected = (int) Math.min(selected * 4L, Integer.MAX_VALUE)) {
+            // Newest first: the heap prefers newer documents on ties, so later ones rarely displace it
+            TopK bounds = new TopK(selected);
+            boolean anyDeleted = liveCount < documentCount;
+            long[] profiles = this.profiles;
+            for (int i = size - 1; i >= 0; i--) {
+                int doc = docs[i];
+                if (!anyDeleted || !deleted.get(doc)) {
+                    int docBound = bound < 0 ? bound(doc, terms, -1) : bound + bound(doc, terms, driver);
+                    long key = TopK.key(docBound, nameLength(profiles[doc]), doc);
+                    if (!bounds.isFull() || key > bounds.min()) {
+                        bounds.offer(key);
+                    }
+                }
+            }
+
+            for (long key : bounds.keys()) {
+                offer(top, (int) key, terms);
+            }
+            if (!bounds.isFull() || top.isFull() && top.min() >= bounds.min()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * The most the document could score for the terms other than skip: a name start where
+     * its first characters allow it, a word start anywhere else, the extension where the
+     * hash agrees.
+     */
+    private int bound(int doc, Term[] terms, int skip) {
+        long profile = profiles[doc];
+        int nameLength = nameLength(profile);
+        int stemLength = (int) (profile >>> EXTENSION_BITS) & (1 << LENGTH_BITS) - 1;
+
+        int bound = 0;
+        for (int i = 0; i < terms.length; i++) {
+            Term term = terms[i];
+            if (i == skip) {
+                continue;
+            }
+            if ((profile & term.headMask) == term.head) {
+                int length = term.text.length();
+                bound += SCORE_SUBSTRING + (length == stemLength || length == nameLength ? SCORE_EXACT_NAME : SCORE_NAME_START);
+            } else {
+                bound += SCORE_SUBSTRING + SCORE_WORD_START;
+            }
+            if ((profile & (1 << EXTENSION_BITS) - 1) == (term.extension & (1 << EXTENSION_BITS) - 1)) {
+                bound += SCORE_EXTENSION;
+            }
+        }
+        return bound;
+    }
+
+    private void offer(TopK top, int doc, Term[] terms) {
+        int score = 0;
+        for (Term term : terms) {
+            int termScore = score(doc, term.text);
+            if (termScore == 0) {
+                return;
+            }
+            score += termScore;
+        }
+        // Tiers overlap, so a document may be scored twice
+        long key = TopK.key(score, names[doc].length(), doc);
+        if (!top.contains(key)) {
+            top.offer(key);
+        }
+    }
+
+    private int score(int doc, String term) {
+        String name = names[doc];
+        int index = name.indexOf(term);
+        if (index < 0) {
+            return term.length() >= GRAM && types[doc].contains(term) ? SCORE_CONTENT_TYPE : 0;
+        }
+
+        int score = SCORE_SUBSTRING;
+        int dot = name.lastIndexOf('.');
+        int stemLength = dot > 0 ? dot : name.length();
+
+        if (index == 0) {
+            score += term.length() == stemLength || term.length() == name.length() ? SCORE_EXACT_NAME : SCORE_NAME_START;
+        } else {
+            boolean wordStart = false;
+            for (int i = index; i >= 0; i = name.indexOf(term, i + 1)) {
+                if (isWordStart(name, i)) {
+                    wordStart = true;
+                    break;
+                }
+            }
+            if (wordStart) {
+                score += SCORE_WORD_START;
+            } else if (term.length() < GRAM) {
+                return 0;
+            }
+        }
+
+        if (dot >= 0 && name.length() - dot - 1 == term.length() && name.startsWith(term, dot + 1)) {
+            score += SCORE_EXTENSION;
+        }
+        return score;
+    }
+
+    /**
+     * The posting lists of every trigram in the terms, and of the word prefix each shorter
+     * term stands for, rarest first; none if one of them is missing.
+     */
+    private int[] candidateSlots(Term[] terms) {
+        Set<Long> grams = new LinkedHashSet<>();
+        for (Term t : terms) {
+            String term = t.text;
+            if (term.length() < GRAM) {
+                grams.add(prefixKey(term, 0, term.length()));
+            }
+            for (int i = 0; i + GRAM <= term.length(); i++) {
+                grams.add(gramKey(term, i));
+            }
+        }
+
+        Integer[] order = new Integer[grams.size()];
+        int count = 0;
+        for (long gram : grams) {
+            int slot = gramSlots.get(gram);
+            if (slot < 0) {
+                return new int[0];
+            }
+            order[count++] = slot;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(postingSizes[a], postingSizes[b]));
+
+        int[] slots = new int[count];
+        for (int i = 0; i < count; i++) {
+            slots[i] = order[i];
+        }
+        return slots;
+    }
+
+    /**
+     * Intersects the posting lists, starting from the rarest so the working set only shrinks.
+     *
+     * @return candidate documents in ascending order
+     */
+    private int[] candidates(int[] slots) {
+        if (slots.length == 0) {
+            return new int[0];
+        }
+        int[] result = Arrays.copyOf(postings[slots[0]], postingSizes[slots[0]]);
+        int resultSize = result.length;
+        for (int i = 1; i < slots.length && resultSize > 0; i++) {
+            resultSize = intersect(result, resultSize, postings[slots[i]], postingSizes[slots[i]]);
+        }
+        return Arrays.copyOf(result, resultSize);
+    }
+
+    /**
+     * Keeps the entries of target[0..targetSize) that also occur in other, in place.
+     * Galloping search keeps this cheap when the other list is much longer; lists of
+     * about the same length are merged.
+     */
+    private static int intersect(int[] target, int targetSize, int[] other, int otherSize) {
+        if (otherSize / 8 < targetSize) {
+            // Written without data-dependent branches, which interleaved lists mispredict
+            int kept = 0;
+            for (int i = 0, j = 0; i < targetSize && j < otherSize; ) {
+                int value = target[i];
+                int next = other[j];
+                target[kept] = value;
+                kept += value == next ? 1 : 0;
+                i += value <= next ? 1 : 0;
+                j += next <= value ? 1 : 0;
+            }
+            return kept;
+        }
+
+        int kept = 0;
+        int from = 0;
+        for (int i = 0; i < targetSize && from < otherSize; i++) {
+            int value = target[i];
+            int step = 1;
+            int hi = from;
+            while (hi < otherSize && other[hi] < value) {
+                from = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            int found = Arrays.binarySearch(other, from, Math.min(hi + 1, otherSize), value);
+            if (found >= 0) {
+                target[kept++] = value;
+                from = found + 1;
+            } else {
+                from = -found - 1;
+            }
+        }
+        return kept;
+    }
+
+    private void addDocument(long fileId, String name, String type) {
+        int doc = documentCount++;
+        if (doc == fileIds.length) {
+            int capacity = fileIds.length * 2;
+            fileIds = Arrays.copyOf(fileIds, capacity);
+            names = Arrays.copyOf(names, capacity);
+            types = Arrays.copyOf(types, capacity);
+            profiles = Arrays.copyOf(profiles, capacity);
+        }
+        fileIds[doc] = fileId;
+        names[doc] = name;
+        types[doc] = type;
+        profiles[doc] = profile(name);
+        documentsByFileId.put(fileId, doc);
+        liveCount++;
+
+        indexGrams(doc, name);
+        indexGrams(doc, type);
+        indexWordPrefixes(doc, name);
+        indexTiers(doc, name);
+    }
+
+    private void indexGrams(int doc, String text) {
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            addPosting(doc, gramKey(text, i));
+        }
+    }
+
+    private void indexWordPrefixes(int doc, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (isWordStart(name, i)) {
+                addPosting(doc, prefixKey(name, i, 1));
+                if (i + 1 < name.length()) {
+                    addPosting(doc, prefixKey(name, i, 2));
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes what rankInTiers() walks. Exact names are keyed by their length and a few
+     * bits of their hash, so those lists stay few; extensions and the first one to three
+     * characters of the name and of every word are split by name length, capped.
+     */
+    private void indexTiers(int doc, String name) {
+        int dot = name.lastIndexOf('.');
+        addPosting(doc, exactKey(name.length(), hash(name, 0, name.length())));
+        if (dot > 0) {
+            addPosting(doc, exactKey(dot, hash(name, 0, dot)));
+        }
+
+        long length = (long) Math.min(name.length(), MAX_NAME_LENGTH) << NAME_LENGTH_SHIFT;
+        if (dot >= 0) {
+            long extension = hash(name, dot + 1, name.length()) & 0xFFFFFFFFL;
+            addPosting(doc, EXTENSION | length | extension);
+            if (name.regionMatches(0, name, dot + 1, name.length() - dot - 1)) {
+                addPosting(doc, NAME_EXTENSION | extension);
+            }
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (isWordStart(name, i)) {
+                for (int prefix = 1; prefix <= GRAM && i + prefix <= name.length(); prefix++) {
+                    long key = length | prefixKey(name, i, prefix);
+                    addPosting(doc, WORD_START | key);
+                    if (i == 0) {
+                        addPosting(doc, NAME_START | key);
+                    }
+                }
+            }
+        }
+    }
+
+    private void addPosting(int doc, long gram) {
+        int slot = gramSlots.get(gram);
+        if (slot < 0) {
+            slot = gramCount++;
+            if (slot == postings.length) {
+                postings = Arrays.copyOf(postings, slot * 2);
+                postingSizes = Arrays.copyOf(postingSizes, slot * 2);
+            }
+            postings[slot] = new int[4];
+            gramSlots.put(gram, slot);
+        }
+
+        // Documents are numbered in insertion order, so lists stay sorted by appending
+        int size = postingSizes[slot];
+        int[] list = postings[slot];
+        if (size > 0 && list[size - 1] == doc) {
+            return;
+        }
+        if (size == list.length) {
+            list = Arrays.copyOf(list, size + (size >> 1) + 1);
+            postings[slot] = list;
+        }
+        list[size] = doc;
+        postingSizes[slot] = size + 1;
+    }
+
+    private void removeDocument(long fileId) {
+        int doc = documentsByFileId.remove(fileId);
+        if (doc >= 0) {
+            deleted.set(doc);
+            names[doc] = "";
+            types[doc] = "";
+            liveCount--;
+        }
+    }
+
+    private void compact() {
+        long[] oldFileIds = fileIds;
+        String[] oldNames = names;
+        String[] oldTypes = types;
+        int oldCount = documentCount;
+        BitSet oldDeleted = (BitSet) deleted.clone();
+
+        int capacity = Math.max(1024, Integer.highestOneBit(Math.max(1, liveCount)) << 1);
+        fileIds = new long[capacity];
+        names = new String[capacity];
+        types = new String[capacity];
+        profiles = new long[capacity];
+        deleted.clear();
+        documentCount = 0;
+        liveCount = 0;
+        documentsByFileId = new LongIntHashMap(capacity);
+        gramSlots = new LongIntHashMap(Math.max(4096, gramCount));
+        postings = new int[Math.max(4096, gramCount)][];
+        postingSizes = new int[postings.length];
+        gramCount = 0;
+
+        for (int doc = 0; doc < oldCount; doc++) {
+            if (!oldDeleted.get(doc)) {
+                addDocument(oldFileIds[doc], oldNames[doc], oldTypes[doc]);
+            }
+        }
+        for (int slot = 0; slot < gramCount; slot++) {
+            postings[slot] = Arrays.copyOf(postings[slot], postingSizes[slot]);
+        }
+    }
+
+    private static Term[] terms(String query) {
+        if (query == null) {
+            return new Term[0];
+        }
+        Set<String> terms = new LinkedHashSet<>();
+        for (String term : normalize(query).trim().split("\\s+")) {
+            if (!term.isEmpty() && terms.size() < MAX_TERMS) {
+                terms.add(term);
+            }
+        }
+        return terms.stream().map(Term::new).toArray(Term[]::new);
+    }
+
+    private static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    private static long gramKey(String text, int offset) {
+        return ((long) text.charAt(offset) << 32) | ((long) text.charAt(offset + 1) << 16) | text.charAt(offset + 2);
+    }
+
+    private static long prefixKey(String text, int offset, int length) {
+        long chars = 0;
+        for (int i = 0; i < length; i++) {
+            chars = chars << 16 | text.charAt(offset + i);
+        }
+        return (long) length << PREFIX_LENGTH_SHIFT | chars;
+    }
+
+    private static long exactKey(int length, int hash) {
+        return EXACT_NAME | (long) Math.min(length, MAX_NAME_LENGTH) << NAME_LENGTH_SHIFT | hash & EXACT_HASH_MASK;
+    }
+
+    /**
+     * Packs what bound() reads into one long, so ranking touches a single array per
+     * document: the first two characters, name and stem length and part of the extension
+     * hash. Lengths saturate, which only loosens the bound.
+     */
+    private static long profile(String name) {
+        int dot = name.lastIndexOf('.');
+        int lengthMask = (1 << LENGTH_BITS) - 1;
+        return head(name)
+                | (long) Math.min(name.length(), lengthMask) << (LENGTH_BITS + EXTENSION_BITS)
+                | (long) Math.min(dot > 0 ? dot : name.length(), lengthMask) << EXTENSION_BITS
+                | (dot >= 0 ? hash(name, dot + 1, name.length()) & (1 << EXTENSION_BITS) - 1 : 0);
+    }
+
+    private static int nameLength(long profile) {
+        return (int) (profile >>> (LENGTH_BITS + EXTENSION_BITS)) & (1 << LENGTH_BITS) - 1;
+    }
+
+    // The first two characters in the top half, zero past the end of the text
+    private static long head(String text) {
+        long head = 0;
+        for (int i = 0; i < 2; i++) {
+            head = head << 16 | (i < text.length() ? text.charAt(i) : 0);
+        }
+        return head << 32;
+    }
+
+    // String.hashCode of text.substring(from, to), without the copy
+    private static int hash(String text, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+
+    private static boolean isWordStart(String name, int index) {
+        return index == 0 || !Character.isLetterOrDigit(name.charAt(index - 1));
+    }
+
+    /**
+     * A query term with what bound() compares against every document.
+     */
+    private static final class Term {
+
+        final String text;
+        final long head;
+        final long headMask;
+        final int extension;
+
+        Term(String text) {
+            this.text = text;
+            head = head(text);
+            headMask = text.length() == 1 ? 0xFFFFL << 48 : 0xFFFF_FFFFL << 32;
+            extension = text.hashCode();
+        }
+    }
+
+    /**
+     * Bounded min-heap of (score, shorter name, newer document) packed into longs.
+     */
+    private static final class TopK {
+
+        private final long[] heap;
+        private int size;
+
+        TopK(int capacity) {
+            heap = new long[capacity];
+        }
+
+        static long key(int score, int nameLength, int doc) {
+            return ((long) Math.min(score, 0x7FFF) << 48)
+                    | ((long) (0xFFFF - Math.min(nameLength, 0xFFFF)) << 32)
+                    | (doc & 0xFFFFFFFFL);
+        }
+
+        void offer(int score, int nameLength, int doc) {
+            offer(key(score, nameLength, doc));
+        }
+
+        void offer(long key) {
+            if (size < heap.length) {
+                heap[size] = key;
+                siftUp(size++);
+            } else if (key > heap[0]) {
+                heap[0] = key;
+                siftDown(0);
+            }
+        }
+
+        int capacity() {
+            return heap.length;
+        }
+
+        boolean contains(long key) {
+            for (int i = 0; i < size; i++) {
+                if (heap[i] == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isFull() {
+            return size == heap.length;
+        }
+
+        long min() {
+            return heap[0];
+        }
+
+        long[] keys() {
+            return Arrays.copyOf(heap, size);
+        }
+
+        int[] sortedDocuments() {
+            long[] keys = Arrays.copyOf(heap, size);
+            Arrays.sort(keys);
+            int[] docs = new int[size];
+            for (int i = 0; i < size; i++) {
+                docs[i] = (int) keys[size - 1 - i];
+            }
+            return docs;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= heap[i]) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (heap[i] <= heap[child]) {
+                    break;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int a, int b) {
+            long tmp = heap[a];
+            heap[a] = heap[b];
+            heap[b] = tmp;
+        }
+    }
+}
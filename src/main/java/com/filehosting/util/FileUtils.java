@@ -3,15 +3,26 @@ package com.filehosting.util;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 public class FileUtils {
     
+    private static final int HASH_BUFFER_SIZE = 1024 * 1024;
+    
+    private static final Pattern UNSAFE_FILENAME_CHARACTERS = Pattern.compile("[^a-zA-Z0-9._-]");
+    private static final Pattern REPEATED_UNDERSCORES = Pattern.compile("_{2,}");
+    
     private static final String[] ALLOWED_IMAGE_TYPES = {
         "image/jpeg", "image/jpg", "image/png", "image/gif", "image/bmp", "image/webp"
     };
@@ -27,6 +38,34 @@ public class FileUtils {
         "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"
     };
     
+    // Formats whose payload is already entropy-coded; deflating them again gains nothing
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+        "image/jpeg", "image/jpg", "image/png", "image/gif", "image/webp",
+        "application/zip", "application/x-zip-compressed", "application/x-rar-compressed",
+        "application/x-7z-compressed", "application/gzip", "application/x-gzip",
+        "application/x-bzip2", "application/x-xz", "application/zstd"
+    );
+    
+    private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+        "jpg", "jpeg", "png", "gif", "webp", "heic",
+        "mp4", "m4v", "mov", "avi", "wmv", "flv", "webm", "mkv",
+        "mp3", "m4a", "aac", "ogg", "opus", "flac",
+        "zip", "rar", "7z", "gz", "tgz", "bz2", "xz", "zst"
+    );
+    
+    // Text-based formats that usually shrink several times under gzip
+    private static final Set<String> COMPRESSIBLE_TYPES = Set.of(
+        "application/javascript", "application/x-javascript", "application/ecmascript",
+        "application/json", "application/x-ndjson", "application/xml", "application/xhtml+xml",
+        "application/yaml", "application/x-yaml", "application/sql", "application/rtf",
+        "image/svg+xml", "image/bmp", "image/x-icon"
+    );
+    
+    // Top-level media types kept as a file's category; anything else is "other"
+    private static final Set<String> CONTENT_CATEGORIES = Set.of(
+        "application", "audio", "font", "image", "message", "model", "multipart", "text", "video"
+    );
+    
     public static boolean isValidFileType(MultipartFile file) {
         String contentType = file.getContentType();
         if (contentType == null) {
@@ -73,6 +112,46 @@ public class FileUtils {
                contentType.equals("application/x-7z-compressed");
     }
     
+    public static boolean isCompressedFormat(String contentType, String filename) {
+        if (contentType != null) {
+            if (contentType.startsWith("video/") ||
+                (contentType.startsWith("audio/") && !contentType.contains("wav"))) {
+                return true;
+            }
+            if (COMPRESSED_TYPES.contains(contentType)) {
+                return true;
+            }
+        }
+        return COMPRESSED_EXTENSIONS.contains(getFileExtension(filename));
+    }
+    
+    public static boolean isCompressibleType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.split(";")[0].trim().toLowerCase();
+        return type.startsWith("text/") ||
+               type.endsWith("+json") ||
+               type.endsWith("+xml") ||
+               COMPRESSIBLE_TYPES.contains(type);
+    }
+    
+    /**
+     * The file's category for the type filters: its top-level media type, e.g. "image" for
+     * "image/png". Must match the mapping in the V2 schema migration.
+     */
+    public static String getContentCategory(String contentType) {
+        if (contentType == null) {
+            return "other";
+        }
+        int slash = contentType.indexOf('/');
+        if (slash <= 0) {
+            return "other";
+        }
+        String category = contentType.substring(0, slash).trim().toLowerCase();
+        return CONTENT_CATEGORIES.contains(category) ? category : "other";
+    }
+    
     public static String formatFileSize(long bytes) {
         if (bytes <= 0) return "0 B";
         
@@ -104,17 +183,22 @@ public class FileUtils {
     }
     
     public static String calculateFileHash(Path filePath) throws IOException {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] fileBytes = Files.readAllBytes(filePath);
-            byte[] hashBytes = md.digest(fileBytes);
-            
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hashBytes) {
-                sb.append(String.format("%02x", b));
+        MessageDigest md = newSha256Digest();
+        
+        // Stream through a fixed buffer; files can be far larger than the heap
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(filePath)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                md.update(buffer, 0, read);
             }
-            return sb.toString();
-            
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+    
+    public static MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException("SHA-256 algorithm not available", e);
         }
@@ -126,10 +210,8 @@ public class FileUtils {
         }
         
         // Remove or replace unsafe characters
-        return filename
-            .replaceAll("[^a-zA-Z0-9._-]", "_")
-            .replaceAll("_{2,}", "_")
-            .trim();
+        String sanitized = UNSAFE_FILENAME_CHARACTERS.matcher(filename).replaceAll("_");
+        return REPEATED_UNDERSCORES.matcher(sanitized).replaceAll("_").trim();
     }
     
     public static boolean isFileSizeValid(long fileSize, long maxSizeBytes) {
@@ -178,4 +260,15 @@ public class FileUtils {
             default -> "application/octet-stream";
         };
     }
+
+    /**
+     * A GZIPOutputStream at the given deflate level instead of the default one.
+     */
+    public static final class LevelGzipOutputStream extends GZIPOutputStream {
+
+        public LevelGzipOutputStream(OutputStream out, int bufferSize, int level) throws IOException {
+            super(out, bufferSize);
+            def.setLevel(level);
+        }
+    }
 }
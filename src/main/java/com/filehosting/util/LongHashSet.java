@@ -0,0 +1,82 @@
+package com.filehosting.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing set of non-negative longs, without boxing: a million keys take 16 MB
+ * rather than the ~80 MB of a HashSet&lt;Long&gt;. Not thread-safe for writes; once filled,
+ * any number of threads may call contains.
+ */
+public final class LongHashSet {
+
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private int size;
+    private int mask;
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(long key) {
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the key was not in the set yet
+     */
+    public boolean add(long key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Keys must be non-negative: " + key);
+        }
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        size++;
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        allocate(capacity);
+        size = 0;
+        for (long key : oldKeys) {
+            if (key != EMPTY) {
+                add(key);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
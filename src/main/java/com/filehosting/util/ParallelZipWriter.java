@@ -0,0 +1,198 @@
+package com.filehosting.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Feeds a {@link ZipStreamWriter} with entries whose blocks are deflated on a worker pool.
+ * Each block is compressed independently (sync-flushed, primed with the previous 32 KB as
+ * dictionary) and the results are appended in submission order, so the output is a single
+ * valid deflate stream per entry. The number of blocks in flight is bounded.
+ */
+public class ParallelZipWriter {
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    // One raw deflater per level per worker thread, so levels never have to be switched mid-stream
+    private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater[10]);
+
+    private final ZipStreamWriter zip;
+    private final ExecutorService pool;
+    private final int blockSize;
+    private final int maxInFlight;
+    private final Deque<Step> pending = new ArrayDeque<>();
+
+    public ParallelZipWriter(ZipStreamWriter zip, ExecutorService pool, int blockSize, int maxInFlight) {
+        this.zip = zip;
+        this.pool = pool;
+        this.blockSize = blockSize;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Adds an entry read from the stream. Level 0 keeps the content uncompressed.
+     */
+    public void addEntry(String name, InputStream in, long expectedSize, long lastModified, int level) throws IOException {
+        if (level == 0) {
+            // Uncompressed entries are copied on the calling thread once earlier blocks are out
+            drain();
+            zip.putNextEntry(name, expectedSize, lastModified, false);
+            byte[] buffer = new byte[Math.min(blockSize, 64 * 1024)];
+            int length;
+            while ((length = in.read(buffer)) >= 0) {
+                zip.write(buffer, 0, length);
+            }
+            zip.closeEntry();
+            return;
+        }
+
+        enqueue(null, chunk -> zip.putNextRawEntry(name, expectedSize, lastModified));
+
+        CRC32 crc = new CRC32();
+        long size = 0;
+        byte[] previous = null;
+        byte[] current = new byte[blockSize];
+        int currentLength = readBlock(in, current);
+
+        while (true) {
+            // Read one block ahead so the final block can be marked as such
+            byte[] next = null;
+            int nextLength = 0;
+            if (currentLength == blockSize) {
+                next = new byte[blockSize];
+                nextLength = readBlock(in, next);
+            }
+            boolean last = nextLength <= 0;
+
+            crc.update(current, 0, currentLength);
+            size += currentLength;
+
+            byte[] data = current;
+            int length = currentLength;
+            byte[] dictionary = previous;
+            Future<Chunk> future = pool.submit(() -> deflateBlock(data, length, dictionary, last, level));
+            enqueue(future, chunk -> zip.writeRaw(chunk.data, 0, chunk.length));
+
+            if (last) {
+                break;
+            }
+            previous = current;
+            current = next;
+            currentLength = nextLength;
+        }
+
+        long crcValue = crc.getValue();
+        long entrySize = size;
+        enqueue(null, chunk -> zip.closeRawEntry(crcValue, entrySize));
+    }
+
+    /**
+     * Writes every pending block. Must be called before the archive is finished.
+     */
+    public void drain() throws IOException {
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Discards blocks that were not written, e.g. after the client went away.
+     */
+    public void cancel() {
+        Step step;
+        while ((step = pending.poll()) != null) {
+            if (step.future != null) {
+                step.future.cancel(true);
+            }
+        }
+    }
+
+    private void enqueue(Future<Chunk> future, ChunkWriter writer) throws IOException {
+        pending.add(new Step(future != null ? future : CompletableFuture.completedFuture(null), writer));
+        while (pending.size() > maxInFlight) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Step step = pending.poll();
+        Chunk chunk;
+        try {
+            chunk = step.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for compressed block");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress block", e.getCause());
+        }
+        step.writer.write(chunk);
+    }
+
+    private int readBlock(InputStream in, byte[] block) throws IOException {
+        int total = 0;
+        while (total < block.length) {
+            int read = in.read(block, total, block.length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static Chunk deflateBlock(byte[] data, int length, byte[] dictionary, boolean last, int level) {
+        Deflater[] deflaters = DEFLATERS.get();
+        Deflater deflater = deflaters[level];
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+            deflaters[level] = deflater;
+        } else {
+            deflater.reset();
+        }
+
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary, dictionary.length - DICTIONARY_SIZE, DICTIONARY_SIZE);
+        }
+        deflater.setInput(data, 0, length);
+        if (last) {
+            deflater.finish();
+        }
+
+        byte[] out = new byte[length + (length >> 3) + 64];
+        int written = 0;
+        while (true) {
+            if (written == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            written += deflater.deflate(out, written, out.length - written,
+                    last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+
+            // A flush is complete once it leaves spare room in the output buffer
+            if (last ? deflater.finished() : written < out.length) {
+                break;
+            }
+        }
+        return new Chunk(out, written);
+    }
+
+    private record Chunk(byte[] data, int length) {
+    }
+
+    private record Step(Future<Chunk> future, ChunkWriter writer) {
+    }
+
+    @FunctionalInterface
+    private interface ChunkWriter {
+        void write(Chunk chunk) throws IOException;
+    }
+}
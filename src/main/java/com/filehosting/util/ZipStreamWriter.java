@@ -0,0 +1,417 @@
+package com.filehosting.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a ZIP archive sequentially to a non-seekable stream such as an HTTP response.
+ * Every entry is followed by a data descriptor, so nothing has to be buffered or
+ * rewritten, and ZIP64 records are emitted only for entries and archives that need them.
+ *
+ * Every entry is DEFLATED. Readers such as java.util.zip.ZipInputStream refuse STORED
+ * entries with a data descriptor, and a STORED entry's local header would need its CRC
+ * before the data, so content that is not worth compressing goes out as deflate stored
+ * blocks instead: the same bytes plus 5 bytes per 64 KB block.
+ */
+public class ZipStreamWriter implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int METHOD_DEFLATED = 8;
+
+    // Bit 3: sizes and CRC follow the data, bit 11: names are UTF-8
+    private static final int FLAGS = 0x0008 | 0x0800;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int VERSION_MADE_BY = (3 << 8) | VERSION_ZIP64; // UNIX
+    private static final int EXTERNAL_ATTRIBUTES = 0100644 << 16;        // -rw-r--r--
+
+    private static final long ZIP32_LIMIT = 0xFFFFFFFFL;
+    private static final int ZIP16_LIMIT = 0xFFFF;
+    // Entries this large get ZIP64 headers up front; the margin absorbs deflate overhead
+    private static final long ZIP64_ENTRY_THRESHOLD = 0xF0000000L;
+
+    private final CountingOutputStream out;
+    private final Deflater deflater;
+    private final byte[] deflateBuffer = new byte[64 * 1024];
+    private final byte[] header = new byte[512];
+    private final CRC32 crc = new CRC32();
+    private final List<Entry> entries = new ArrayList<>();
+
+    private int level;
+    private Entry current;
+    private boolean finished;
+
+    public ZipStreamWriter(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public ZipStreamWriter(OutputStream out, int compressionLevel) {
+        this.out = new CountingOutputStream(out);
+        this.deflater = new Deflater(compressionLevel, true);
+        this.level = compressionLevel;
+    }
+
+    /**
+     * Sets the deflate level used for entries started after this call.
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    /**
+     * Starts an entry whose content is passed uncompressed to {@link #write}.
+     * The expected size only decides whether ZIP64 headers are needed. Without compress
+     * the content is kept in stored deflate blocks.
+     */
+    public void putNextEntry(String name, long expectedSize, long lastModified, boolean compress) throws IOException {
+        deflater.setLevel(compress ? level : Deflater.NO_COMPRESSION);
+        startEntry(name, expectedSize, lastModified, false);
+    }
+
+    /**
+     * Starts a DEFLATED entry whose raw deflate data is produced by the caller and passed
+     * to {@link #writeRaw}; the entry must be closed with {@link #closeRawEntry}.
+     */
+    public void putNextRawEntry(String name, long expectedSize, long lastModified) throws IOException {
+        startEntry(name, expectedSize, lastModified, true);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        Entry entry = requireEntry(false);
+        crc.update(b, off, len);
+        entry.size += len;
+
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            drainDeflater();
+        }
+    }
+
+    public void writeRaw(byte[] b, int off, int len) throws IOException {
+        requireEntry(true);
+        out.write(b, off, len);
+    }
+
+    public void closeEntry() throws IOException {
+        Entry entry = requireEntry(false);
+
+        deflater.finish();
+        while (!deflater.finished()) {
+            drainDeflater();
+        }
+        deflater.reset();
+
+        entry.crc = crc.getValue();
+        crc.reset();
+        completeEntry(entry);
+    }
+
+    public void closeRawEntry(long crc32, long uncompressedSize) throws IOException {
+        Entry entry = requireEntry(true);
+        entry.crc = crc32;
+        entry.size = uncompressedSize;
+        completeEntry(entry);
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getBytesWritten() {
+        return out.count;
+    }
+
+    /**
+     * Writes the central directory. The underlying stream is left open.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (current != null) {
+            throw new ZipException("Entry '" + new String(current.name, StandardCharsets.UTF_8) + "' was not closed");
+        }
+
+        long centralStart = out.count;
+        for (Entry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        long centralSize = out.count - centralStart;
+
+        boolean zip64 = entries.size() >= ZIP16_LIMIT
+                || centralStart >= ZIP32_LIMIT
+                || centralSize >= ZIP32_LIMIT;
+
+        if (zip64) {
+            long zip64EndOffset = out.count;
+            int p = 0;
+            p = putInt(header, p, ZIP64_END_SIGNATURE);
+            p = putLong(header, p, 44);                  // size of remaining record
+            p = putShort(header, p, VERSION_MADE_BY);
+            p = putShort(header, p, VERSION_ZIP64);
+            p = putInt(header, p, 0);                    // this disk
+            p = putInt(header, p, 0);                    // disk with central directory
+            p = putLong(header, p, entries.size());
+            p = putLong(header, p, entries.size());
+            p = putLong(header, p, centralSize);
+            p = putLong(header, p, centralStart);
+
+            p = putInt(header, p, ZIP64_LOCATOR_SIGNATURE);
+            p = putInt(header, p, 0);
+            p = putLong(header, p, zip64EndOffset);
+            p = putInt(header, p, 1);                    // total disks
+            out.write(header, 0, p);
+        }
+
+        int p = 0;
+        p = putInt(header, p, END_SIGNATURE);
+        p = putShort(header, p, 0);
+        p = putShort(header, p, 0);
+        p = putShort(header, p, Math.min(entries.size(), ZIP16_LIMIT));
+        p = putShort(header, p, Math.min(entries.size(), ZIP16_LIMIT));
+        p = putInt(header, p, clamp32(centralSize));
+        p = putInt(header, p, clamp32(centralStart));
+        p = putShort(header, p, 0);                      // comment length
+        out.write(header, 0, p);
+        out.flush();
+
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void startEntry(String name, long expectedSize, long lastModified, boolean raw) throws IOException {
+        if (finished) {
+            throw new ZipException("Archive already finished");
+        }
+        if (current != null) {
+            throw new ZipException("Entry '" + new String(current.name, StandardCharsets.UTF_8) + "' was not closed");
+        }
+
+        Entry entry = new Entry();
+        entry.name = name.getBytes(StandardCharsets.UTF_8);
+        entry.raw = raw;
+        entry.offset = out.count;
+        entry.dosTime = toDosTime(lastModified);
+        entry.zip64 = expectedSize >= ZIP64_ENTRY_THRESHOLD;
+
+        if (entry.name.length > ZIP16_LIMIT) {
+            throw new ZipException("Entry name too long: " + name);
+        }
+
+        int p = 0;
+        p = putInt(header, p, LOCAL_HEADER_SIGNATURE);
+        p = putShort(header, p, entry.zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        p = putShort(header, p, FLAGS);
+        p = putShort(header, p, METHOD_DEFLATED);
+        p = putInt(header, p, (int) entry.dosTime);
+        p = putInt(header, p, 0);                                  // CRC in data descriptor
+        p = putInt(header, p, entry.zip64 ? (int) ZIP32_LIMIT : 0); // compressed size
+        p = putInt(header, p, entry.zip64 ? (int) ZIP32_LIMIT : 0); // uncompressed size
+        p = putShort(header, p, entry.name.length);
+        p = putShort(header, p, entry.zip64 ? 20 : 0);
+        out.write(header, 0, p);
+        out.write(entry.name, 0, entry.name.length);
+
+        if (entry.zip64) {
+            p = 0;
+            p = putShort(header, p, 0x0001);
+            p = putShort(header, p, 16);
+            p = putLong(header, p, 0);
+            p = putLong(header, p, 0);
+            out.write(header, 0, p);
+        }
+
+        entry.dataStart = out.count;
+        current = entry;
+    }
+
+    private Entry requireEntry(boolean raw) throws ZipException {
+        if (current == null) {
+            throw new ZipException("No current entry");
+        }
+        if (current.raw != raw) {
+            throw new ZipException(raw ? "Entry does not accept raw data" : "Entry expects raw deflate data");
+        }
+        return current;
+    }
+
+    private void completeEntry(Entry entry) throws IOException {
+        entry.compressedSize = out.count - entry.dataStart;
+
+        if (!entry.zip64 && (entry.size >= ZIP32_LIMIT || entry.compressedSize >= ZIP32_LIMIT)) {
+            throw new ZipException("Entry grew past 4 GB without ZIP64 headers: "
+                    + new String(entry.name, StandardCharsets.UTF_8));
+        }
+
+        int p = 0;
+        p = putInt(header, p, DATA_DESCRIPTOR_SIGNATURE);
+        p = putInt(header, p, (int) entry.crc);
+        if (entry.zip64) {
+            p = putLong(header, p, entry.compressedSize);
+            p = putLong(header, p, entry.size);
+        } else {
+            p = putInt(header, p, (int) entry.compressedSize);
+            p = putInt(header, p, (int) entry.size);
+        }
+        out.write(header, 0, p);
+
+        entries.add(entry);
+        current = null;
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        boolean sizeOverflow = entry.size >= ZIP32_LIMIT;
+        boolean compressedOverflow = entry.compressedSize >= ZIP32_LIMIT;
+        boolean offsetOverflow = entry.offset >= ZIP32_LIMIT;
+        int extraLength = (sizeOverflow ? 8 : 0) + (compressedOverflow ? 8 : 0) + (offsetOverflow ? 8 : 0);
+        if (extraLength > 0) {
+            extraLength += 4;
+        }
+
+        int p = 0;
+        p = putInt(header, p, CENTRAL_HEADER_SIGNATURE);
+        p = putShort(header, p, VERSION_MADE_BY);
+        p = putShort(header, p, entry.zip64 || extraLength > 0 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        p = putShort(header, p, FLAGS);
+        p = putShort(header, p, METHOD_DEFLATED);
+        p = putInt(header, p, (int) entry.dosTime);
+        p = putInt(header, p, (int) entry.crc);
+        p = putInt(header, p, clamp32(entry.compressedSize));
+        p = putInt(header, p, clamp32(entry.size));
+        p = putShort(header, p, entry.name.length);
+        p = putShort(header, p, extraLength);
+        p = putShort(header, p, 0);                      // comment length
+        p = putShort(header, p, 0);                      // disk number
+        p = putShort(header, p, 0);                      // internal attributes
+        p = putInt(header, p, EXTERNAL_ATTRIBUTES);
+        p = putInt(header, p, clamp32(entry.offset));
+        out.write(header, 0, p);
+        out.write(entry.name, 0, entry.name.length);
+
+        if (extraLength > 0) {
+            p = 0;
+            p = putShort(header, p, 0x0001);
+            p = putShort(header, p, extraLength - 4);
+            if (sizeOverflow) {
+                p = putLong(header, p, entry.size);
+            }
+            if (compressedOverflow) {
+                p = putLong(header, p, entry.compressedSize);
+            }
+            if (offsetOverflow) {
+                p = putLong(header, p, entry.offset);
+            }
+            out.write(header, 0, p);
+        }
+    }
+
+    private void drainDeflater() throws IOException {
+        int length = deflater.deflate(deflateBuffer, 0, deflateBuffer.length, Deflater.NO_FLUSH);
+        if (length > 0) {
+            out.write(deflateBuffer, 0, length);
+        }
+    }
+
+    private static int clamp32(long value) {
+        return (int) Math.min(value, ZIP32_LIMIT);
+    }
+
+    private static long toDosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (long) (time.getYear() - 1980) << 25
+                | (long) time.getMonthValue() << 21
+                | (long) time.getDayOfMonth() << 16
+                | (long) time.getHour() << 11
+                | (long) time.getMinute() << 5
+                | (long) time.getSecond() >> 1;
+    }
+
+    private static int putShort(byte[] b, int p, int value) {
+        b[p] = (byte) value;
+        b[p + 1] = (byte) (value >>> 8);
+        return p + 2;
+    }
+
+    private static int putInt(byte[] b, int p, int value) {
+        b[p] = (byte) value;
+        b[p + 1] = (byte) (value >>> 8);
+        b[p + 2] = (byte) (value >>> 16);
+        b[p + 3] = (byte) (value >>> 24);
+        return p + 4;
+    }
+
+    private static int putLong(byte[] b, int p, long value) {
+        p = putInt(b, p, (int) value);
+        return putInt(b, p, (int) (value >>> 32));
+    }
+
+    private static class Entry {
+        byte[] name;
+        boolean raw;
+        boolean zip64;
+        long dosTime;
+        long offset;
+        long dataStart;
+        long crc;
+        long size;
+        long compressedSize;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream delegate;
+        private long count;
+
+        CountingOutputStream(OutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+-- Schema as Hibernate's ddl-auto last created it. Written to be idempotent: databases
+-- created by ddl-auto are baselined at version 0, so this also runs on them and only
+-- adds what an older build didn't create yet.
+
+CREATE TABLE IF NOT EXISTS uploaded_files (
+    id              BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    original_name   VARCHAR(255) NOT NULL,
+    stored_name     VARCHAR(255) NOT NULL,
+    file_path       VARCHAR(255) NOT NULL,
+    file_size       BIGINT NOT NULL,
+    content_type    VARCHAR(255),
+    content_hash    VARCHAR(64),
+    upload_time     TIMESTAMP(6) NOT NULL,
+    download_count  BIGINT,
+    last_accessed   TIMESTAMP(6),
+    CONSTRAINT uk_uploaded_files_stored_name UNIQUE (stored_name)
+);
+
+ALTER TABLE uploaded_files ADD COLUMN IF NOT EXISTS content_hash VARCHAR(64);
+ALTER TABLE uploaded_files ADD COLUMN IF NOT EXISTS last_accessed TIMESTAMP(6);
+
+CREATE INDEX IF NOT EXISTS idx_uploaded_files_upload_time_id ON uploaded_files (upload_time, id);
+
+CREATE TABLE IF NOT EXISTS stored_blobs (
+    content_hash    VARCHAR(64) NOT NULL PRIMARY KEY,
+    file_path       VARCHAR(255) NOT NULL,
+    blob_size       BIGINT NOT NULL,
+    ref_count       BIGINT NOT NULL,
+    volume          VARCHAR(64),
+    cold_path       VARCHAR(255),
+    created_at      TIMESTAMP(6) NOT NULL
+);
+
+ALTER TABLE stored_blobs ADD COLUMN IF NOT EXISTS volume VARCHAR(64);
+ALTER TABLE stored_blobs ADD COLUMN IF NOT EXISTS cold_path VARCHAR(255);
+
+CREATE TABLE IF NOT EXISTS upload_sessions (
+    id              VARCHAR(36) NOT NULL PRIMARY KEY,
+    original_name   VARCHAR(255) NOT NULL,
+    content_type    VARCHAR(255),
+    file_size       BIGINT NOT NULL,
+    part_path       VARCHAR(255) NOT NULL,
+    received_ranges CLOB,
+    received_bytes  BIGINT NOT NULL,
+    created_at      TIMESTAMP(6) NOT NULL,
+    expires_at      TIMESTAMP(6) NOT NULL
+);
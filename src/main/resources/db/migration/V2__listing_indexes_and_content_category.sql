@@ -0,0 +1,33 @@
+-- Indexes for the listing, filter and top-downloads queries, and the column the type
+-- filters use instead of LIKE 'image/%'.
+--
+-- H2 only reads an index in its declared order, so the newest-first and most-downloaded
+-- queries need DESC indexes to stop after one page instead of sorting the whole table.
+
+ALTER TABLE uploaded_files ADD COLUMN IF NOT EXISTS content_category VARCHAR(32);
+
+-- Same mapping as FileUtils.getContentCategory: the top-level media type, if it is a known one
+UPDATE uploaded_files SET content_category = CASE
+        WHEN LOCATE('/', content_type) > 1
+             AND LOWER(TRIM(SUBSTRING(content_type, 1, LOCATE('/', content_type) - 1)))
+                 IN ('application', 'audio', 'font', 'image', 'message', 'model', 'multipart', 'text', 'video')
+        THEN LOWER(TRIM(SUBSTRING(content_type, 1, LOCATE('/', content_type) - 1)))
+        ELSE 'other'
+    END
+    WHERE content_category IS NULL;
+
+ALTER TABLE uploaded_files ALTER COLUMN content_category SET NOT NULL;
+
+-- Keyset pages, newest first
+DROP INDEX IF EXISTS idx_uploaded_files_upload_time_id;
+CREATE INDEX idx_uploaded_files_upload_time_id ON uploaded_files (upload_time DESC, id DESC);
+
+-- Type filters, newest first within a category
+CREATE INDEX idx_uploaded_files_category_time_id ON uploaded_files (content_category, upload_time DESC, id DESC);
+
+-- Most downloaded files, for the listing and the content cache warm-up
+CREATE INDEX idx_uploaded_files_download_count ON uploaded_files (download_count DESC, id DESC);
+
+-- Rows sharing a blob: path switches by the layout migrator and the tiering job, and
+-- the tiering job's "read recently" check per candidate blob
+CREATE INDEX idx_uploaded_files_content_hash ON uploaded_files (content_hash);
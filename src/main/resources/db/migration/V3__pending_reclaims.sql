@@ -0,0 +1,14 @@
+-- Files on disk whose rows have been deleted and that StorageReclaimService still has to
+-- remove. Entries are written in the transaction that deletes the rows, so a crash can't
+-- leave a file that is neither referenced nor queued.
+
+CREATE TABLE pending_reclaims (
+    id              BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    file_path       VARCHAR(1024) NOT NULL,
+    content_hash    VARCHAR(64),
+    attempts        INT DEFAULT 0 NOT NULL,
+    next_attempt    TIMESTAMP(6) NOT NULL,
+    last_error      VARCHAR(255)
+);
+
+CREATE INDEX idx_pending_reclaims_next_attempt ON pending_reclaims (next_attempt, id);
@@ -142,10 +142,14 @@ function updateSelectionButtons() {
     const checkboxes = document.querySelectorAll('.file-checkbox');
     const checkedBoxes = document.querySelectorAll('.file-checkbox:checked');
     const downloadBtn = document.getElementById('download-selected-btn');
+    const deleteBtn = document.getElementById('delete-selected-btn');
     
     if (downloadBtn) {
         downloadBtn.disabled = checkedBoxes.length === 0;
     }
+    if (deleteBtn) {
+        deleteBtn.disabled = checkedBoxes.length === 0;
+    }
 }
 
 function getSelectedFileIds() {
@@ -204,6 +208,26 @@ function confirmDownloadSelected() {
     modal.hide();
 }
 
+async function deleteSelected() {
+    const selectedIds = getSelectedFileIds();
+    
+    if (selectedIds.length === 0 || !confirm('Delete ' + selectedIds.length + ' selected file(s)?')) {
+        return;
+    }
+    
+    // One request for the whole selection; files are removed from disk in the background
+    const response = await fetch('/api/files/delete', {
+        method: 'POST',
+        headers: { 'Content-Type': 'application/json' },
+        body: JSON.stringify(selectedIds.map(Number))
+    });
+    if (!response.ok) {
+        showToast(await errorMessage(response), 'danger');
+        return;
+    }
+    window.location.reload();
+}
+
 function deleteFile(fileId, fileName) {
     document.getElementById('delete-filename').textContent = fileName;
     document.getElementById('delete-form').action = '/delete/' + fileId;
@@ -240,10 +264,155 @@ function showUploadProgress() {
 // Form submission handler
 document.addEventListener('submit', function(e) {
     if (e.target.enctype === 'multipart/form-data') {
+        const fileInput = document.getElementById('file-input');
+        const largeFiles = fileInput ? Array.from(fileInput.files)
+            .filter(file => file.size >= CHUNKED_UPLOAD_THRESHOLD) : [];
+        
+        if (largeFiles.length > 0) {
+            // Large files go through the resumable API; the rest still use the form
+            e.preventDefault();
+            uploadLargeFilesThenSubmit(e.target, fileInput, largeFiles);
+        }
+        
         showUploadProgress();
     }
 });
 
+// Resumable chunked uploads for large files
+const CHUNKED_UPLOAD_THRESHOLD = 64 * 1024 * 1024;
+const CHUNK_SIZE = 8 * 1024 * 1024;
+const PARALLEL_CHUNKS = 3;
+const CHUNK_RETRIES = 5;
+
+async function uploadLargeFilesThenSubmit(form, fileInput, largeFiles) {
+    const uploadBtn = document.getElementById('upload-btn');
+    
+    try {
+        for (const file of largeFiles) {
+            await uploadFileInChunks(file, percent => {
+                uploadBtn.innerHTML = `<span class="spinner"></span> Uploading ${file.name} (${percent}%)...`;
+            });
+        }
+    } catch (error) {
+        showToast('Upload failed: ' + error.message + ' - submit again to resume.', 'danger');
+        uploadBtn.innerHTML = '<i class="bi bi-upload"></i> Upload Files';
+        uploadBtn.disabled = false;
+        return;
+    }
+    
+    // Drop the finished large files and let the form carry the remaining small ones
+    const dt = new DataTransfer();
+    Array.from(fileInput.files).forEach(file => {
+        if (!largeFiles.includes(file)) {
+            dt.items.add(file);
+        }
+    });
+    fileInput.files = dt.files;
+    
+    if (fileInput.files.length > 0) {
+        form.submit();
+    } else {
+        window.location.reload();
+    }
+}
+
+async function uploadFileInChunks(file, onProgress) {
+    const storageKey = 'upload:' + file.name + ':' + file.size + ':' + file.lastModified;
+    let session = await resumeUploadSession(localStorage.getItem(storageKey));
+    
+    if (!session) {
+        const params = new URLSearchParams({
+            fileName: file.name,
+            fileSize: file.size,
+            contentType: file.type || 'application/octet-stream'
+        });
+        const response = await fetch('/api/uploads?' + params, { method: 'POST' });
+        if (!response.ok) {
+            throw new Error(await errorMessage(response));
+        }
+        session = await response.json();
+        localStorage.setItem(storageKey, session.id);
+    }
+    
+    // Only send chunks the server doesn't already have
+    const received = parseRanges(session.receivedRanges);
+    const pending = [];
+    for (let offset = 0; offset < file.size; offset += CHUNK_SIZE) {
+        const end = Math.min(offset + CHUNK_SIZE, file.size) - 1;
+        if (!received.some(range => range[0] <= offset && range[1] >= end)) {
+            pending.push(offset);
+        }
+    }
+    
+    let done = file.size - pending.reduce((sum, offset) => sum + Math.min(CHUNK_SIZE, file.size - offset), 0);
+    const worker = async () => {
+        while (pending.length > 0) {
+            const offset = pending.shift();
+            const chunk = file.slice(offset, Math.min(offset + CHUNK_SIZE, file.size));
+            await putChunk(session.id, offset, chunk);
+            done += chunk.size;
+            onProgress(Math.min(100, Math.floor(done * 100 / file.size)));
+        }
+    };
+    await Promise.all(Array.from({ length: PARALLEL_CHUNKS }, worker));
+    
+    const response = await fetch(`/api/uploads/${session.id}/complete`, { method: 'POST' });
+    if (!response.ok) {
+        throw new Error(await errorMessage(response));
+    }
+    localStorage.removeItem(storageKey);
+}
+
+async function resumeUploadSession(sessionId) {
+    if (!sessionId) {
+        return null;
+    }
+    const response = await fetch('/api/uploads/' + sessionId);
+    return response.ok ? response.json() : null;
+}
+
+async function putChunk(sessionId, offset, chunk) {
+    for (let attempt = 1; ; attempt++) {
+        let response = null;
+        try {
+            response = await fetch(`/api/uploads/${sessionId}?offset=${offset}`, {
+                method: 'PUT',
+                headers: { 'Content-Type': 'application/octet-stream' },
+                body: chunk
+            });
+        } catch (error) {
+            // Network failure: retry with backoff
+            if (attempt >= CHUNK_RETRIES) {
+                throw error;
+            }
+        }
+        
+        if (response && response.ok) {
+            return;
+        }
+        if (response && (response.status < 500 || attempt >= CHUNK_RETRIES)) {
+            throw new Error(await errorMessage(response));
+        }
+        await new Promise(resolve => setTimeout(resolve, 1000 * attempt));
+    }
+}
+
+function parseRanges(value) {
+    if (!value) {
+        return [];
+    }
+    return value.split(',').map(range => range.split('-').map(Number));
+}
+
+async function errorMessage(response) {
+    try {
+        const body = await response.json();
+        return body.error || response.statusText;
+    } catch (e) {
+        return response.statusText;
+    }
+}
+
 // Utility functions
 function copyToClipboard(text) {
     navigator.clipboard.writeText(text).then(function() {
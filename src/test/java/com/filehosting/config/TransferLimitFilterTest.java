@@ -0,0 +1,159 @@
+package com.filehosting.config;
+
+import com.filehosting.model.UploadedFile;
+import com.filehosting.model.VolumeInfo;
+import com.filehosting.service.FileStorageService;
+import com.filehosting.service.StorageVolumeService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/transfer-limit",
+    "app.upload.max-size-gb=1",
+    "app.transfers.max-concurrent-downloads=2",
+    "app.transfers.queue-timeout-ms=200",
+    "app.cache.content.enabled=false",
+    "spring.datasource.url=jdbc:h2:mem:transfer-limit-test"
+})
+class TransferLimitFilterTest {
+
+    // Far more than the socket buffers on both ends hold, so a client that stops reading stalls the transfer
+    private static final int LARGE_FILE_SIZE = 64 * 1024 * 1024;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private StorageVolumeService volumeService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void largeDownloadsHoldTheirSlotUntilTheBodyIsSent() throws Exception {
+        UploadedFile file = storeLargeFile("large.mp4");
+
+        List<Socket> stalled = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2; i++) {
+                Socket socket = open();
+                stalled.add(socket);
+                assertEquals(200, status(socket, "/download/" + file.getId()));
+            }
+
+            try (Socket third = open()) {
+                assertEquals(503, status(third, "/download/" + file.getId()));
+            }
+        } finally {
+            for (Socket socket : stalled) {
+                socket.close();
+            }
+        }
+
+        // Closing the stalled clients ends their transfers and frees the slots
+        int status = 0;
+        for (int attempt = 0; attempt < 50 && status != 200; attempt++) {
+            try (Socket socket = open()) {
+                status = status(socket, "/download/" + file.getId() + "?attempt=" + attempt);
+            }
+            if (status != 200) {
+                Thread.sleep(100);
+            }
+        }
+        assertEquals(200, status);
+    }
+
+    @Test
+    void largeReadsCountAgainstTheVolumeUntilTheBodyIsSent() throws Exception {
+        UploadedFile file = storeLargeFile("inline.mp4");
+
+        try (Socket socket = open()) {
+            assertEquals(200, status(socket, "/uploads/" + file.getStoredName()));
+            // Placement and the tiering job see the read while the body is still going out
+            assertEquals(1, activeReads());
+        }
+
+        int reads = 1;
+        for (int attempt = 0; attempt < 50 && reads != 0; attempt++) {
+            Thread.sleep(100);
+            reads = activeReads();
+        }
+        assertEquals(0, reads);
+    }
+
+    @Test
+    void largeDownloadsHoldingASlotAreNotCopiedThroughTheHeap() throws Exception {
+        UploadedFile file = storeLargeFile("whole.mp4");
+        double copied = meterRegistry.get("filehosting.bytes.copied").counter().count();
+
+        HttpResponse<byte[]> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/download/" + file.getId())).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, response.statusCode());
+        assertArrayEquals(largeFileContent(), response.body());
+        // Written on the request thread from mapped regions of the file, not through a heap buffer
+        assertEquals(copied, meterRegistry.get("filehosting.bytes.copied").counter().count());
+    }
+
+    private UploadedFile storeLargeFile(String name) throws IOException {
+        return fileStorageService.storeFile(new MockMultipartFile("file", name, "video/mp4", largeFileContent()));
+    }
+
+    private static byte[] largeFileContent() {
+        byte[] content = new byte[LARGE_FILE_SIZE];
+        new Random(11).nextBytes(content);
+        return content;
+    }
+
+    private int activeReads() {
+        return volumeService.getVolumeInfos().stream().mapToInt(VolumeInfo::getActiveReads).sum();
+    }
+
+    private Socket open() throws IOException {
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new java.net.InetSocketAddress("localhost", port), 5000);
+        socket.setSoTimeout(10_000);
+        return socket;
+    }
+
+    // Sends the request and reads only the status line, leaving the body unread
+    private static int status(Socket socket, String path) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+
+        InputStream in = socket.getInputStream();
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            line.append((char) b);
+        }
+        return Integer.parseInt(line.toString().split(" ")[1]);
+    }
+}
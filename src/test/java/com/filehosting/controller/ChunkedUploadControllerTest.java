@@ -0,0 +1,101 @@
+package com.filehosting.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/chunked-api",
+    "app.upload.max-size-gb=1",
+    "spring.datasource.url=jdbc:h2:mem:chunked-api-test"
+})
+class ChunkedUploadControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void chunksByOffsetAndContentRangeCompleteTheUpload() throws Exception {
+        String sessionId = createSession("notes.txt", 10);
+
+        mockMvc.perform(put("/api/uploads/" + sessionId).param("offset", "0").content(bytes("01234")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.receivedRanges").value("0-4"));
+
+        // Completing before every byte arrived is a conflict, and the session stays usable
+        mockMvc.perform(post("/api/uploads/" + sessionId + "/complete"))
+                .andExpect(status().isConflict());
+
+        mockMvc.perform(put("/api/uploads/" + sessionId).header(HttpHeaders.CONTENT_RANGE, "bytes 5-9/10").content(bytes("56789")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.receivedBytes").value(10));
+        mockMvc.perform(post("/api/uploads/" + sessionId + "/complete"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.fileSize").value(10))
+                .andExpect(jsonPath("$.originalName").value("notes.txt"))
+                .andExpect(jsonPath("$.filePath").doesNotExist())
+                .andExpect(jsonPath("$.contentHash").doesNotExist());
+
+        mockMvc.perform(get("/api/uploads/" + sessionId)).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void invalidChunksAreRejected() throws Exception {
+        String sessionId = createSession("small.txt", 10);
+
+        mockMvc.perform(put("/api/uploads/" + sessionId).content(bytes("0")))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(put("/api/uploads/" + sessionId).header(HttpHeaders.CONTENT_RANGE, "bytes x-y/10").content(bytes("0")))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(put("/api/uploads/" + sessionId).param("offset", "8").content(bytes("89A")))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(put("/api/uploads/unknown").param("offset", "0").content(bytes("0")))
+                .andExpect(status().isNotFound());
+
+        mockMvc.perform(delete("/api/uploads/" + sessionId)).andExpect(status().isNoContent());
+        mockMvc.perform(delete("/api/uploads/" + sessionId)).andExpect(status().isNotFound());
+        mockMvc.perform(post("/api/uploads/" + sessionId + "/complete")).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void sessionsBeyondTheQuotaAreRefused() throws Exception {
+        mockMvc.perform(post("/api/uploads")
+                        .param("fileName", "huge.mp4")
+                        .param("fileSize", String.valueOf(2L * 1024 * 1024 * 1024))
+                        .param("contentType", "video/mp4"))
+                .andExpect(status().isInsufficientStorage());
+    }
+
+    private String createSession(String fileName, long fileSize) throws Exception {
+        String body = mockMvc.perform(post("/api/uploads")
+                        .param("fileName", fileName)
+                        .param("fileSize", String.valueOf(fileSize))
+                        .param("contentType", "text/plain"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(body).get("id").asText();
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,118 @@
+package com.filehosting.repository;
+
+import com.filehosting.model.UploadedFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the listing, filter and top-downloads queries are answered from an index in
+ * its order, so they stop after one page. The SQL mirrors what Hibernate generates for
+ * the repository queries.
+ */
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/query-plan",
+    "app.upload.max-size-gb=1",
+    "spring.datasource.url=jdbc:h2:mem:query-plan-test"
+})
+class UploadedFileQueryPlanTest {
+
+    private static final String COLUMNS = "SELECT id, original_name, stored_name, file_size, content_type, "
+            + "upload_time, download_count FROM uploaded_files ";
+
+    @Autowired
+    private UploadedFileRepository fileRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void fillTable() {
+        if (fileRepository.count() > 0) {
+            return;
+        }
+        jdbcTemplate.update("INSERT INTO uploaded_files (original_name, stored_name, file_path, file_size, "
+                + "content_type, content_category, upload_time, download_count) "
+                + "SELECT 'file' || X, 'stored-' || X, '/tmp/' || X, X, "
+                + "CASE MOD(X, 3) WHEN 0 THEN 'image/png' WHEN 1 THEN 'video/mp4' ELSE 'text/plain' END, "
+                + "CASE MOD(X, 3) WHEN 0 THEN 'image' WHEN 1 THEN 'video' ELSE 'text' END, "
+                + "DATEADD('MINUTE', X, TIMESTAMP '2024-01-01 00:00:00'), MOD(X, 50) FROM SYSTEM_RANGE(1, 3000)");
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @Test
+    void keysetPagesReadTheTimeIndexInOrder() {
+        assertIndexSorted("idx_uploaded_files_upload_time_id",
+                COLUMNS + "ORDER BY upload_time DESC, id DESC OFFSET 0 ROWS FETCH FIRST 51 ROWS ONLY");
+        String plan = assertIndexSorted("idx_uploaded_files_upload_time_id",
+                COLUMNS + "WHERE upload_time <= ? AND (upload_time < ? OR id < ?) "
+                + "ORDER BY upload_time DESC, id DESC OFFSET 0 ROWS FETCH FIRST 51 ROWS ONLY", at(1000), at(1000), 1000L);
+        // Entered at the previous page's position, not scanned from the newest row
+        assertTrue(plan.contains("UPLOAD_TIME <= ?1"), plan);
+    }
+
+    @Test
+    void categoryFiltersReadTheCategoryIndexInOrder() {
+        assertIndexSorted("idx_uploaded_files_category_time_id",
+                COLUMNS + "WHERE content_category = ? "
+                + "ORDER BY content_category, upload_time DESC, id DESC OFFSET 0 ROWS FETCH FIRST 51 ROWS ONLY", "image");
+        String plan = assertIndexSorted("idx_uploaded_files_category_time_id",
+                COLUMNS + "WHERE content_category = ? AND upload_time <= ? AND (upload_time < ? OR id < ?) "
+                + "ORDER BY content_category, upload_time DESC, id DESC OFFSET 0 ROWS FETCH FIRST 51 ROWS ONLY",
+                "video", at(1000), at(1000), 1000L);
+        assertTrue(plan.contains("UPLOAD_TIME <= ?2"), plan);
+    }
+
+    @Test
+    void topDownloadsReadTheDownloadCountIndexInOrder() {
+        assertIndexSorted("idx_uploaded_files_download_count",
+                COLUMNS + "ORDER BY download_count DESC, id DESC OFFSET 0 ROWS FETCH FIRST 100 ROWS ONLY");
+        assertIndexSorted("idx_uploaded_files_download_count",
+                COLUMNS + "WHERE content_hash IS NOT NULL AND file_size <= ? AND download_count > 0 "
+                + "ORDER BY download_count DESC, id DESC OFFSET 0 ROWS FETCH FIRST 100 ROWS ONLY", 1024L);
+    }
+
+    @Test
+    void blobLookupsUseTheHashIndex() {
+        String plan = explain("UPDATE uploaded_files SET file_path = ? WHERE content_hash = ?", "/tmp/new", "abc");
+        assertTrue(plan.contains("IDX_UPLOADED_FILES_CONTENT_HASH"), plan);
+    }
+
+    @Test
+    void categoryIsDerivedFromTheContentTypeOnSave() {
+        UploadedFile image = fileRepository.save(new UploadedFile("a.png", "category-a", "/tmp/a", 1L, "IMAGE/PNG"));
+        UploadedFile unknown = fileRepository.save(new UploadedFile("b.x", "category-b", "/tmp/b", 1L, "x-custom/thing"));
+        UploadedFile untyped = fileRepository.save(new UploadedFile("c", "category-c", "/tmp/c", 1L, null));
+
+        assertEquals("image", image.getContentCategory());
+        assertEquals("other", unknown.getContentCategory());
+        assertEquals("other", untyped.getContentCategory());
+        assertEquals("image", jdbcTemplate.queryForObject(
+                "SELECT content_category FROM uploaded_files WHERE id = ?", String.class, image.getId()));
+    }
+
+    private String assertIndexSorted(String index, String sql, Object... args) {
+        String plan = explain(sql, args);
+        assertTrue(plan.contains(index.toUpperCase()), plan);
+        assertTrue(plan.contains("index sorted"), plan);
+        return plan;
+    }
+
+    private String explain(String sql, Object... args) {
+        return jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class, args);
+    }
+
+    private static Timestamp at(int minutes) {
+        return Timestamp.valueOf(LocalDateTime.of(2024, 1, 1, 0, 0).plusMinutes(minutes));
+    }
+}
@@ -0,0 +1,184 @@
+package com.filehosting.service;
+
+import com.filehosting.model.UploadSession;
+import com.filehosting.model.UploadedFile;
+import com.filehosting.repository.UploadSessionRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/chunked",
+    "app.upload.max-size-gb=1",
+    "app.upload.session-cleanup-interval-ms=3600000",
+    "spring.datasource.url=jdbc:h2:mem:chunked-test"
+})
+class ChunkedUploadServiceTest {
+
+    private static final long GB = 1024L * 1024 * 1024;
+
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    private UploadSessionRepository sessionRepository;
+
+    @Autowired
+    private StorageAccountingService storageAccounting;
+
+    @Test
+    void outOfOrderAndOverlappingChunksAssembleTheFile() throws IOException {
+        UploadSession session = chunkedUploadService.createSession("digits.txt", 10, "text/plain");
+
+        assertEquals("6-9", write(session, 6, "6789").getReceivedRanges());
+        assertEquals("0-3,6-9", write(session, 0, "0123").getReceivedRanges());
+        UploadSession updated = write(session, 2, "23456");
+        assertEquals("0-9", updated.getReceivedRanges());
+        assertEquals(10, updated.getReceivedBytes());
+
+        UploadedFile file = chunkedUploadService.completeSession(session.getId());
+        assertEquals(10, file.getFileSize());
+        assertEquals("0123456789", Files.readString(Paths.get(file.getFilePath())));
+        assertTrue(chunkedUploadService.getSession(session.getId()).isEmpty());
+        assertFalse(Files.exists(Paths.get(session.getPartPath())));
+    }
+
+    @Test
+    void chunksOutsideTheFileOrLongerThanDeclaredAreRejected() throws IOException {
+        UploadSession session = chunkedUploadService.createSession("small.txt", 10, "text/plain");
+
+        assertThrows(IllegalArgumentException.class, () -> write(session, 10, "x"));
+        assertThrows(IllegalArgumentException.class, () -> write(session, -1, "x"));
+        // Declared past the end of the file
+        assertThrows(IllegalArgumentException.class, () -> chunkedUploadService.writeChunk(session.getId(), 8, 3,
+                new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8))));
+        // A body longer than the length it declared
+        assertThrows(IllegalArgumentException.class, () -> chunkedUploadService.writeChunk(session.getId(), 0, 2,
+                new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8))));
+        // Without a declared length a body running past the end of the file is cut off there
+        assertThrows(IllegalArgumentException.class, () -> chunkedUploadService.writeChunk(session.getId(), 8, -1,
+                new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8))));
+
+        assertEquals(0, chunkedUploadService.getSession(session.getId()).get().getReceivedBytes());
+        assertThrows(IllegalArgumentException.class, () -> write(new UploadSession("missing", "x", "text/plain", 1L, "x"), 0, "x"));
+        chunkedUploadService.abortSession(session.getId());
+    }
+
+    @Test
+    void incompleteSessionsCannotBeCompleted() throws IOException {
+        UploadSession session = chunkedUploadService.createSession("half.txt", 10, "text/plain");
+        write(session, 0, "01234");
+
+        assertThrows(IllegalStateException.class, () -> chunkedUploadService.completeSession(session.getId()));
+        assertTrue(chunkedUploadService.getSession(session.getId()).isPresent());
+        assertTrue(Files.exists(Paths.get(session.getPartPath())));
+        chunkedUploadService.abortSession(session.getId());
+    }
+
+    @Test
+    void openSessionsHoldTheirDeclaredSizeAgainstTheQuota() throws IOException {
+        long reserved = storageAccounting.getReservedBytes();
+        UploadSession large = chunkedUploadService.createSession("large.mp4", GB / 2, "video/mp4");
+        assertEquals(reserved + GB / 2, storageAccounting.getReservedBytes());
+
+        // Each would fit on its own, but not next to the open session
+        assertThrows(IllegalStateException.class,
+                () -> chunkedUploadService.createSession("second.mp4", GB * 3 / 4, "video/mp4"));
+
+        assertTrue(chunkedUploadService.abortSession(large.getId()));
+        assertEquals(reserved, storageAccounting.getReservedBytes());
+        chunkedUploadService.abortSession(
+                chunkedUploadService.createSession("second.mp4", GB * 3 / 4, "video/mp4").getId());
+        assertEquals(reserved, storageAccounting.getReservedBytes());
+    }
+
+    @Test
+    void abortAndExpiryRemoveThePartFileAndReservation() throws IOException {
+        long reserved = storageAccounting.getReservedBytes();
+        UploadSession aborted = chunkedUploadService.createSession("aborted.txt", 10, "text/plain");
+        write(aborted, 0, "01234");
+        UploadSession expired = chunkedUploadService.createSession("expired.txt", 10, "text/plain");
+        write(expired, 0, "01234");
+        UploadSession active = chunkedUploadService.createSession("active.txt", 10, "text/plain");
+
+        assertTrue(chunkedUploadService.abortSession(aborted.getId()));
+        assertFalse(chunkedUploadService.abortSession(aborted.getId()));
+        assertFalse(Files.exists(Paths.get(aborted.getPartPath())));
+
+        UploadSession stale = sessionRepository.findById(expired.getId()).get();
+        stale.setExpiresAt(LocalDateTime.now().minusMinutes(1));
+        sessionRepository.save(stale);
+        chunkedUploadService.removeExpiredSessions();
+        assertTrue(chunkedUploadService.getSession(expired.getId()).isEmpty());
+        assertFalse(Files.exists(Paths.get(expired.getPartPath())));
+
+        assertTrue(Files.exists(Paths.get(active.getPartPath())));
+        assertEquals(reserved + 10, storageAccounting.getReservedBytes());
+        chunkedUploadService.abortSession(active.getId());
+        assertEquals(reserved, storageAccounting.getReservedBytes());
+    }
+
+    @Test
+    void abortWaitsForChunksInFlight() throws Exception {
+        UploadSession session = chunkedUploadService.createSession("slow.txt", 10, "text/plain");
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        InputStream slowBody = new FilterInputStream(new ByteArrayInputStream("01234".getBytes(StandardCharsets.UTF_8))) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                reading.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.read(b, off, len);
+            }
+        };
+
+        CompletableFuture<UploadSession> chunk = CompletableFuture.supplyAsync(() -> {
+            try {
+                return chunkedUploadService.writeChunk(session.getId(), 0, 5, slowBody);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(reading.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Boolean> abort = CompletableFuture.supplyAsync(() -> chunkedUploadService.abortSession(session.getId()));
+
+        Thread.sleep(200);
+        assertFalse(abort.isDone());
+        proceed.countDown();
+
+        assertEquals(5, chunk.get(10, TimeUnit.SECONDS).getReceivedBytes());
+        assertTrue(abort.get(10, TimeUnit.SECONDS));
+        assertFalse(Files.exists(Paths.get(session.getPartPath())));
+        // Once the session is gone a late chunk is refused instead of recreating the part file
+        assertThrows(IllegalArgumentException.class, () -> write(session, 5, "56789"));
+        assertFalse(Files.exists(Paths.get(session.getPartPath())));
+    }
+
+    private UploadSession write(UploadSession session, long offset, String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return chunkedUploadService.writeChunk(session.getId(), offset, bytes.length, new ByteArrayInputStream(bytes));
+    }
+}
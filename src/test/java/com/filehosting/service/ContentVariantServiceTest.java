@@ -0,0 +1,125 @@
+package com.filehosting.service;
+
+import com.filehosting.model.UploadedFile;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/variants",
+    "app.upload.max-size-gb=1",
+    "app.variants.backfill=false",
+    "spring.datasource.url=jdbc:h2:mem:variants-test"
+})
+class ContentVariantServiceTest {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private ContentVariantService variantService;
+
+    @Test
+    void servesGzipVariantOnlyWhenAccepted() throws Exception {
+        byte[] json = "{\"id\": 1, \"name\": \"a record that repeats\"},\n".repeat(2000).getBytes(StandardCharsets.UTF_8);
+        byte[] noise = new byte[64 * 1024];
+        new Random(21).nextBytes(noise);
+
+        UploadedFile jsonFile = store("records.json", "application/json", json);
+        UploadedFile noiseFile = store("noise.txt", "text/plain", noise);
+        // Made in the background after upload; the backfill makes any still missing now
+        variantService.backfill();
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Path variant = variantService.select(jsonFile, request("gzip, deflate, br", false), response);
+        assertNotNull(variant);
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertTrue(Files.size(variant) < json.length / 10);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(variant))) {
+            assertArrayEquals(json, in.readAllBytes());
+        }
+
+        assertNull(variantService.select(jsonFile, request("gzip;q=0, identity", false), new MockHttpServletResponse()));
+        assertNull(variantService.select(jsonFile, request(null, false), new MockHttpServletResponse()));
+        // Ranges always address the original bytes
+        assertNull(variantService.select(jsonFile, request("gzip", true), new MockHttpServletResponse()));
+        // Random bytes don't shrink, so no variant is kept
+        assertNull(variantService.select(noiseFile, request("gzip", false), new MockHttpServletResponse()));
+
+        assertTrue(fileStorageService.deleteFile(jsonFile.getId()));
+        assertFalse(Files.exists(variant));
+    }
+
+    @Test
+    void variantsOfContentNoLongerStoredAreDropped() throws Exception {
+        byte[] csv = "id,name\n1,a row that repeats\n".repeat(2000).getBytes(StandardCharsets.UTF_8);
+        Path source = Files.createTempFile("released", ".csv");
+        Files.write(source, csv);
+        // Its blob was released while the variant was being written
+        UploadedFile released = new UploadedFile("released.csv", "released.csv", source.toString(),
+                (long) csv.length, "text/csv");
+        released.setContentHash("0".repeat(64));
+        variantService.delete(released.getContentHash());
+        variantService.generateAsync(released, source);
+
+        // Variants are made one at a time in order, so once the next one exists the first is done.
+        // Content new to this run, so no variant is left from an earlier one
+        UploadedFile stored = store("stored.csv", "text/csv", (new String(csv, StandardCharsets.UTF_8) + System.nanoTime())
+                .getBytes(StandardCharsets.UTF_8));
+        Path variant = null;
+        for (int attempt = 0; attempt < 100 && variant == null; attempt++) {
+            Thread.sleep(50);
+            variant = variantService.select(stored, request("gzip", false), new MockHttpServletResponse());
+        }
+        assertNotNull(variant);
+        assertNull(variantService.select(released, request("gzip", false), new MockHttpServletResponse()));
+        Files.delete(source);
+    }
+
+    @Test
+    void parsesAcceptEncoding() {
+        assertTrue(ContentVariantService.acceptsGzip("gzip"));
+        assertTrue(ContentVariantService.acceptsGzip("br;q=1.0, GZIP;q=0.5"));
+        assertTrue(ContentVariantService.acceptsGzip("*"));
+        assertFalse(ContentVariantService.acceptsGzip("gzip;q=0"));
+        assertFalse(ContentVariantService.acceptsGzip("*, gzip;q=0"));
+        assertFalse(ContentVariantService.acceptsGzip("*;q=0"));
+        assertFalse(ContentVariantService.acceptsGzip("br, deflate"));
+        assertFalse(ContentVariantService.acceptsGzip(""));
+    }
+
+    private UploadedFile store(String name, String contentType, byte[] content) throws IOException {
+        return fileStorageService.storeFile(new MockMultipartFile("files", name, contentType, content));
+    }
+
+    private static MockHttpServletRequest request(String acceptEncoding, boolean range) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/download/1");
+        if (acceptEncoding != null) {
+            request.addHeader("Accept-Encoding", acceptEncoding);
+        }
+        if (range) {
+            request.addHeader("Range", "bytes=0-99");
+        }
+        return request;
+    }
+}
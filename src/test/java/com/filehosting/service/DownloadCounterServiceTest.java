@@ -0,0 +1,65 @@
+package com.filehosting.service;
+
+import com.filehosting.model.UploadedFile;
+import com.filehosting.repository.UploadedFileRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/counters",
+    "app.upload.max-size-gb=1",
+    "app.downloads.flush-interval-ms=3600000",
+    "spring.datasource.url=jdbc:h2:mem:counter-test"
+})
+class DownloadCounterServiceTest {
+
+    @Autowired
+    private DownloadCounterService downloadCounters;
+
+    @Autowired
+    private UploadedFileRepository fileRepository;
+
+    @Test
+    void concurrentDownloadsAreFlushedAsOneBatch() throws InterruptedException {
+        UploadedFile hot = fileRepository.save(new UploadedFile("hot.bin", "hot_stored", "/nowhere/hot", 1L, "text/plain"));
+        UploadedFile cold = fileRepository.save(new UploadedFile("cold.bin", "cold_stored", "/nowhere/cold", 1L, "text/plain"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 4000; i++) {
+            int round = i;
+            executor.submit(() -> {
+                downloadCounters.recordDownload(hot.getId());
+                if (round % 2 == 0) {
+                    // Flushes racing with downloads must not lose or double-count any of them
+                    downloadCounters.flush();
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Nothing is written until a flush
+        downloadCounters.recordDownload(cold.getId());
+        assertEquals(0L, fileRepository.findById(cold.getId()).orElseThrow().getDownloadCount());
+        assertNull(fileRepository.findById(cold.getId()).orElseThrow().getLastAccessed());
+
+        downloadCounters.flush();
+
+        UploadedFile flushed = fileRepository.findById(hot.getId()).orElseThrow();
+        assertEquals(4000L, flushed.getDownloadCount());
+        assertNotNull(flushed.getLastAccessed());
+        assertEquals(1L, fileRepository.findById(cold.getId()).orElseThrow().getDownloadCount());
+    }
+}
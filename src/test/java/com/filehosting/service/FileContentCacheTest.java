@@ -0,0 +1,67 @@
+package com.filehosting.service;
+
+import com.filehosting.model.UploadedFile;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/content-cache",
+    "app.upload.max-size-gb=1",
+    "app.cache.content.max-file-kb=4",
+    "app.cache.content.warm-files=0",
+    "spring.datasource.url=jdbc:h2:mem:content-cache-test"
+})
+class FileContentCacheTest {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private FileContentCache contentCache;
+
+    @Test
+    void cachesSmallFilesFromTheirSecondRequestUntilDeleted() throws IOException {
+        byte[] logo = "<svg>logo</svg>".getBytes(StandardCharsets.UTF_8);
+        UploadedFile file = fileStorageService.storeFile(new MockMultipartFile("files", "logo.svg", "image/svg+xml", logo));
+        Path path = fileStorageService.resolveFilePath(file);
+
+        // A one-off download never takes a buffer
+        assertNull(contentCache.get(file, path));
+        FileContentCache.Entry entry = contentCache.get(file, path);
+        assertNotNull(entry);
+        assertTrue(entry.getData().isDirect());
+        assertEquals(Files.getLastModifiedTime(path).toMillis(), entry.getLastModified());
+        byte[] cached = new byte[entry.getData().remaining()];
+        entry.getData().duplicate().get(cached);
+        assertEquals(new String(logo, StandardCharsets.UTF_8), new String(cached, StandardCharsets.UTF_8));
+
+        // Served from memory even with the file gone from disk
+        Files.move(path, path.resolveSibling("moved"));
+        assertSame(entry, contentCache.get(file, path));
+        Files.move(path.resolveSibling("moved"), path);
+
+        fileStorageService.deleteFile(file.getId());
+        assertNull(contentCache.get(file, path));
+
+        byte[] large = new byte[8 * 1024];
+        UploadedFile big = fileStorageService.storeFile(new MockMultipartFile("files", "big.bin", "application/octet-stream", large));
+        Path bigPath = fileStorageService.resolveFilePath(big);
+        contentCache.get(big, bigPath);
+        assertNull(contentCache.get(big, bigPath));
+    }
+}
@@ -0,0 +1,59 @@
+package com.filehosting.service;
+
+import com.filehosting.model.UploadedFile;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/metadata-cache",
+    "app.upload.max-size-gb=1",
+    "app.downloads.flush-interval-ms=3600000",
+    "spring.datasource.url=jdbc:h2:mem:metadata-cache-test"
+})
+class FileMetadataCacheTest {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private DownloadCounterService downloadCounters;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void servesRepeatedLookupsFromMemoryUntilTheRowChanges() throws IOException {
+        UploadedFile stored = fileStorageService.storeFile(new MockMultipartFile("files", "report.pdf", "application/pdf",
+                "report".getBytes(StandardCharsets.UTF_8)));
+
+        UploadedFile byId = fileStorageService.getFileById(stored.getId()).orElseThrow();
+        assertSame(byId, fileStorageService.getFileByStoredName(stored.getStoredName()).orElseThrow());
+
+        // Hits don't read the database, so a change behind the cache's back isn't seen
+        jdbcTemplate.update("UPDATE uploaded_files SET original_name = 'renamed.pdf' WHERE id = ?", stored.getId());
+        assertEquals("report.pdf", fileStorageService.getFileById(stored.getId()).orElseThrow().getOriginalName());
+
+        // The counter flush writes the row, so its cached copy goes
+        fileStorageService.incrementDownloadCount(byId);
+        downloadCounters.flush();
+        UploadedFile reloaded = fileStorageService.getFileByStoredName(stored.getStoredName()).orElseThrow();
+        assertEquals("renamed.pdf", reloaded.getOriginalName());
+        assertEquals(1L, reloaded.getDownloadCount());
+
+        assertTrue(fileStorageService.deleteFile(stored.getId()));
+        assertTrue(fileStorageService.getFileById(stored.getId()).isEmpty());
+        assertTrue(fileStorageService.getFileByStoredName(stored.getStoredName()).isEmpty());
+    }
+}
@@ -0,0 +1,141 @@
+package com.filehosting.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileServingServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final FileServingService service = new FileServingService();
+    private Path file;
+
+    @BeforeEach
+    void createFile() throws IOException {
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        service.init();
+
+        file = tempDir.resolve("data.txt");
+        Files.writeString(file, "0123456789abcdefghij");
+    }
+
+    @Test
+    void servesWholeFileWithValidators() throws IOException {
+        MockHttpServletResponse response = serve(new MockHttpServletRequest("GET", "/download/1"));
+
+        assertEquals(200, response.getStatus());
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertNotNull(response.getHeader("ETag"));
+        assertNotNull(response.getHeader("Last-Modified"));
+        assertEquals("0123456789abcdefghij", response.getContentAsString());
+    }
+
+    @Test
+    void returnsNotModifiedForMatchingEtagOrDate() throws IOException {
+        String etag = serve(new MockHttpServletRequest("GET", "/download/1")).getHeader("ETag");
+
+        MockHttpServletRequest byEtag = new MockHttpServletRequest("GET", "/download/1");
+        byEtag.addHeader("If-None-Match", "\"other\", " + etag);
+        assertEquals(304, serve(byEtag).getStatus());
+
+        MockHttpServletRequest byDate = new MockHttpServletRequest("GET", "/download/1");
+        byDate.addHeader("If-Modified-Since", Files.getLastModifiedTime(file).toMillis() + 1000);
+        assertEquals(304, serve(byDate).getStatus());
+    }
+
+    @Test
+    void servesSingleRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/download/1");
+        request.addHeader("Range", "bytes=-5");
+        MockHttpServletResponse response = serve(request);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 15-19/20", response.getHeader("Content-Range"));
+        assertEquals("fghij", response.getContentAsString());
+    }
+
+    @Test
+    void servesMultipleRangesAsMultipart() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/download/1");
+        request.addHeader("Range", "bytes=0-1, 10-");
+        MockHttpServletResponse response = serve(request);
+
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        String body = response.getContentAsString();
+        assertTrue(body.contains("Content-Range: bytes 0-1/20\r\n\r\n01\r\n"));
+        assertTrue(body.contains("Content-Range: bytes 10-19/20\r\n\r\nabcdefghij\r\n"));
+        assertEquals(response.getContentAsByteArray().length, response.getContentLengthLong());
+    }
+
+    @Test
+    void rejectsUnsatisfiableRangeAndIgnoresStaleIfRange() throws IOException {
+        MockHttpServletRequest unsatisfiable = new MockHttpServletRequest("GET", "/download/1");
+        unsatisfiable.addHeader("Range", "bytes=50-60");
+        MockHttpServletResponse response = serve(unsatisfiable);
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */20", response.getHeader("Content-Range"));
+
+        MockHttpServletRequest stale = new MockHttpServletRequest("GET", "/download/1");
+        stale.addHeader("Range", "bytes=0-1");
+        stale.addHeader("If-Range", "\"stale\"");
+        assertEquals(200, serve(stale).getStatus());
+    }
+
+    @Test
+    void servesCachedContentWithTheFilesValidators() throws IOException {
+        String fileEtag = serve(new MockHttpServletRequest("GET", "/download/1")).getHeader("ETag");
+        ByteBuffer data = ByteBuffer.allocateDirect(20);
+        data.put("0123456789abcdefghij".getBytes(StandardCharsets.ISO_8859_1)).flip();
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+
+        MockHttpServletResponse whole = new MockHttpServletResponse();
+        service.serve(data.asReadOnlyBuffer(), lastModified, "text/plain", "data.txt", true,
+                new MockHttpServletRequest("GET", "/download/1"), whole);
+        assertEquals(fileEtag, whole.getHeader("ETag"));
+        assertEquals("0123456789abcdefghij", whole.getContentAsString());
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/download/1");
+        request.addHeader("Range", "bytes=2-4, -3");
+        MockHttpServletResponse ranges = new MockHttpServletResponse();
+        ranges.setCharacterEncoding(StandardCharsets.ISO_8859_1.name());
+        service.serve(data, lastModified, "text/plain", "data.txt", true, request, ranges);
+        assertEquals(206, ranges.getStatus());
+        assertTrue(ranges.getContentAsString().contains("Content-Range: bytes 2-4/20\r\n\r\n234\r\n"));
+        assertTrue(ranges.getContentAsString().contains("Content-Range: bytes 17-19/20\r\n\r\nhij\r\n"));
+        // The shared buffer is never moved
+        assertEquals(0, data.position());
+    }
+
+    @Test
+    void parsesRangeSpecs() {
+        assertNull(FileServingService.parseRanges("items=0-1", 20));
+        assertNull(FileServingService.parseRanges("bytes=5-2", 20));
+        assertArrayEquals(new long[]{5, 19}, FileServingService.parseRanges("bytes=5-100", 20).get(0));
+        List<long[]> ranges = FileServingService.parseRanges("bytes=0-0,-1", 20);
+        assertEquals(2, ranges.size());
+        assertArrayEquals(new long[]{19, 19}, ranges.get(1));
+    }
+
+    private MockHttpServletResponse serve(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        response.setCharacterEncoding(StandardCharsets.ISO_8859_1.name());
+        service.serve(file, "text/plain", "data.txt", true, request, response);
+        return response;
+    }
+}
@@ -0,0 +1,111 @@
+package com.filehosting.service;
+
+import com.filehosting.model.UploadedFile;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/bulk-delete",
+    "app.upload.max-size-gb=1",
+    "app.reclaim.enabled=false",
+    "app.reclaim.max-files-per-second=0",
+    "spring.datasource.url=jdbc:h2:mem:bulk-delete-test"
+})
+class FileStorageServiceBulkDeleteTest {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private StorageReclaimService reclaimService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void deletesRowsAtOnceAndReclaimsFilesInTheBackground() throws IOException {
+        byte[] shared = "kept while another copy refers to it".getBytes(StandardCharsets.UTF_8);
+        byte[] single = "deleted with its only file".getBytes(StandardCharsets.UTF_8);
+        byte[] other = "never deleted in the first batch".getBytes(StandardCharsets.UTF_8);
+
+        UploadedFile first = store("first.txt", shared);
+        UploadedFile copy = store("copy.txt", shared);
+        UploadedFile alone = store("alone.txt", single);
+        UploadedFile kept = store("kept.txt", other);
+
+        // Unknown and repeated ids are ignored
+        assertEquals(2, fileStorageService.deleteFiles(List.of(first.getId(), alone.getId(), 999_999L, alone.getId())));
+        assertTrue(fileStorageService.getFileById(first.getId()).isEmpty());
+        assertTrue(fileStorageService.getFileById(alone.getId()).isEmpty());
+        assertEquals(2, fileStorageService.getFileCount());
+        assertEquals(shared.length + other.length, fileStorageService.getLogicalUsedSpace());
+        assertEquals(shared.length + other.length, fileStorageService.getCurrentUsedSpace());
+        assertEquals(1L, jdbcTemplate.queryForObject(
+                "SELECT ref_count FROM stored_blobs WHERE content_hash = ?", Long.class, copy.getContentHash()));
+
+        // The unreferenced file is only queued; it is stored again before the reclaimer runs
+        Path alonePath = Paths.get(alone.getFilePath());
+        assertTrue(Files.exists(alonePath));
+        assertEquals(1L, pendingReclaims());
+        UploadedFile again = store("again.txt", single);
+        assertEquals(alone.getFilePath(), again.getFilePath());
+        assertEquals(1, reclaimService.reclaimDue());
+        assertTrue(Files.exists(alonePath));
+        assertEquals(0L, pendingReclaims());
+
+        assertEquals(3, fileStorageService.deleteFiles(List.of(copy.getId(), kept.getId(), again.getId())));
+        assertEquals(3, reclaimService.reclaimDue());
+        assertFalse(Files.exists(Paths.get(copy.getFilePath())));
+        assertFalse(Files.exists(Paths.get(kept.getFilePath())));
+        assertFalse(Files.exists(alonePath));
+        assertEquals(0, fileStorageService.getFileCount());
+        assertEquals(0L, fileStorageService.getCurrentUsedSpace());
+    }
+
+    @Test
+    void failedRemovalsAreRetriedLater() throws IOException {
+        // A non-empty directory can't be deleted like a file
+        Path stuck = Paths.get("./test-uploads/bulk-delete/stuck");
+        Files.createDirectories(stuck);
+        Files.writeString(stuck.resolve("inside"), "x");
+        jdbcTemplate.update("INSERT INTO pending_reclaims (file_path, attempts, next_attempt) VALUES (?, 0, ?)",
+                stuck.toString(), new Timestamp(System.currentTimeMillis()));
+
+        assertEquals(0, reclaimService.reclaimDue());
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT attempts FROM pending_reclaims WHERE file_path = ?", Integer.class, stuck.toString()));
+        assertTrue(jdbcTemplate.queryForObject("SELECT next_attempt FROM pending_reclaims WHERE file_path = ?",
+                Timestamp.class, stuck.toString()).getTime() > System.currentTimeMillis());
+
+        Files.delete(stuck.resolve("inside"));
+        // A second back, since the reclaimer compares with a millisecond clock
+        jdbcTemplate.update("UPDATE pending_reclaims SET next_attempt = DATEADD(SECOND, -1, CURRENT_TIMESTAMP)");
+        assertEquals(1, reclaimService.reclaimDue());
+        assertFalse(Files.exists(stuck));
+    }
+
+    private long pendingReclaims() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM pending_reclaims", Long.class);
+    }
+
+    private UploadedFile store(String name, byte[] content) throws IOException {
+        return fileStorageService.storeFile(new MockMultipartFile("files", name, "text/plain", content));
+    }
+}
@@ -0,0 +1,59 @@
+package com.filehosting.service;
+
+import com.filehosting.model.UploadedFile;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/dedup",
+    "app.upload.max-size-gb=1",
+    "spring.datasource.url=jdbc:h2:mem:dedup-test"
+})
+class FileStorageServiceDeduplicationTest {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Test
+    void identicalUploadsShareOneBlobUntilTheLastIsDeleted() throws IOException {
+        byte[] content = "the same installer, uploaded twice".getBytes(StandardCharsets.UTF_8);
+        byte[] other = "a different file".getBytes(StandardCharsets.UTF_8);
+
+        UploadedFile first = fileStorageService.storeFile(new MockMultipartFile("files", "setup.exe", "text/plain", content));
+        UploadedFile second = fileStorageService.storeFile(new MockMultipartFile("files", "setup (1).exe", "text/plain", content));
+        UploadedFile third = fileStorageService.storeFile(new MockMultipartFile("files", "notes.txt", "text/plain", other));
+
+        assertNotEquals(first.getStoredName(), second.getStoredName());
+        assertEquals(first.getContentHash(), second.getContentHash());
+        assertEquals(first.getFilePath(), second.getFilePath());
+        assertNotEquals(first.getFilePath(), third.getFilePath());
+
+        assertEquals(2L * content.length + other.length, fileStorageService.getLogicalUsedSpace());
+        assertEquals((long) content.length + other.length, fileStorageService.getCurrentUsedSpace());
+
+        assertTrue(fileStorageService.deleteFile(first.getId()));
+        assertTrue(Files.exists(Paths.get(second.getFilePath())));
+        assertEquals((long) content.length + other.length, fileStorageService.getCurrentUsedSpace());
+
+        assertTrue(fileStorageService.deleteFile(second.getId()));
+        assertFalse(Files.exists(Paths.get(second.getFilePath())));
+        assertEquals(other.length, fileStorageService.getCurrentUsedSpace());
+
+        assertTrue(fileStorageService.deleteFile(third.getId()));
+        assertEquals(0L, fileStorageService.getLogicalUsedSpace());
+    }
+}
@@ -0,0 +1,79 @@
+package com.filehosting.service;
+
+import com.filehosting.model.FilePage;
+import com.filehosting.model.UploadedFile;
+import com.filehosting.repository.UploadedFileRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/paging",
+    "app.upload.max-size-gb=1",
+    "spring.datasource.url=jdbc:h2:mem:paging-test"
+})
+class FileStorageServicePagingTest {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private UploadedFileRepository fileRepository;
+
+    @Test
+    void pagesWalkEveryFileOnceNewestFirst() {
+        // Several rows share an upload time, so the id must break ties
+        LocalDateTime base = LocalDateTime.of(2024, 1, 1, 12, 0);
+        List<UploadedFile> rows = new ArrayList<>();
+        for (int i = 0; i < 23; i++) {
+            String type = i % 3 == 0 ? "image/png" : "text/plain";
+            UploadedFile file = new UploadedFile("file_" + i + ".txt",
+                    "stored_" + i, "/nowhere/" + i, 10L, type);
+            file.setUploadTime(base.plusMinutes(i / 4));
+            rows.add(file);
+        }
+        fileRepository.saveAll(rows);
+
+        List<Long> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            FilePage page = fileStorageService.getFilePage(cursor, 5);
+            page.getFiles().forEach(file -> seen.add(file.getId()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        List<Long> expected = fileRepository.findAllOrderByUploadTimeDesc().stream()
+                .sorted((a, b) -> a.getUploadTime().equals(b.getUploadTime())
+                        ? b.getId().compareTo(a.getId())
+                        : b.getUploadTime().compareTo(a.getUploadTime()))
+                .map(UploadedFile::getId)
+                .toList();
+        assertEquals(expected, seen);
+        
+        // The ZIP of every file walks the same keyset in batches of entities
+        List<Long> batched = new ArrayList<>();
+        for (List<UploadedFile> batch : fileStorageService.getAllFilesInBatches(5)) {
+            assertTrue(batch.size() <= 5);
+            batch.forEach(file -> batched.add(file.getId()));
+        }
+        assertEquals(expected, batched);
+
+        FilePage images = fileStorageService.getFilePageByCategory("image", null, 100);
+        assertEquals(8, images.getFiles().size());
+        assertFalse(images.isHasMore());
+        images.getFiles().forEach(file -> assertEquals("image/png", file.getContentType()));
+
+        assertThrows(IllegalArgumentException.class, () -> fileStorageService.getFilePage("not-a-cursor", 5));
+    }
+}
@@ -0,0 +1,152 @@
+package com.filehosting.service;
+
+import com.filehosting.model.UploadedFile;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/ingest",
+    "app.upload.max-size-gb=1",
+    "app.upload.ingest-buffer-kb=64",
+    "spring.datasource.url=jdbc:h2:mem:ingest-test"
+})
+class IngestPipelineTest {
+
+    // What a stage registered as a bean saw
+    private static final AtomicLong stageBytes = new AtomicLong();
+    private static final AtomicInteger stagesCompleted = new AtomicInteger();
+
+    @TestConfiguration
+    static class ExtraStage {
+
+        @Bean
+        IngestStage.Factory countingStage() {
+            return ingest -> new IngestStage() {
+                @Override
+                public void update(byte[] buffer, int offset, int length) {
+                    stageBytes.addAndGet(length);
+                }
+
+                @Override
+                public void complete(IngestContext context) {
+                    stagesCompleted.incrementAndGet();
+                }
+            };
+        }
+    }
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private StorageMonitoringService storageService;
+
+    @Test
+    void readsEachByteOnceAndCorrectsTheDeclaredType() throws IOException {
+        // A PNG several buffers long, sent as a generic binary
+        byte[] content = new byte[300 * 1024];
+        new Random(42).nextBytes(content);
+        System.arraycopy(new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A}, 0, content, 0, 8);
+        CountingMultipartFile upload = new CountingMultipartFile("photo.bin", "application/octet-stream", content);
+        long stageBytesBefore = stageBytes.get();
+        int completedBefore = stagesCompleted.get();
+
+        UploadedFile stored = fileStorageService.storeFile(upload, fileStorageService::isValidContentType);
+
+        assertEquals("image/png", stored.getContentType());
+        assertEquals("image", stored.getContentCategory());
+        assertEquals(content.length, upload.bytesRead.get());
+        assertEquals(content.length, stageBytes.get() - stageBytesBefore);
+        assertEquals(completedBefore + 1, stagesCompleted.get());
+        assertArrayEquals(content, Files.readAllBytes(Paths.get(stored.getFilePath())));
+    }
+
+    @Test
+    void rejectsContentOfADisallowedTypeWhateverItWasDeclaredAs() throws IOException {
+        byte[] executable = new byte[200 * 1024];
+        executable[0] = 'M';
+        executable[1] = 'Z';
+        executable[0x3C] = (byte) 0x80;
+        executable[0x80] = 'P';
+        executable[0x81] = 'E';
+        long filesBefore = fileStorageService.getFileCount();
+        long usedBefore = storageService.getStorageInfo().getUsedSpace();
+
+        UnsupportedContentTypeException e = assertThrows(UnsupportedContentTypeException.class, () ->
+                fileStorageService.storeFile(new MockMultipartFile("files", "cat.png", "image/png", executable),
+                        fileStorageService::isValidContentType));
+
+        assertEquals("application/x-msdownload", e.getContentType());
+        assertEquals(filesBefore, fileStorageService.getFileCount());
+        assertEquals(usedBefore, storageService.getStorageInfo().getUsedSpace());
+        // Rejected on the first block; its temp file is gone
+        try (Stream<Path> files = Files.walk(Paths.get("./test-uploads/ingest/blobs"))) {
+            assertEquals(0, files.filter(path -> path.toString().endsWith(".tmp")).count());
+        }
+    }
+
+    @Test
+    void rejectsUploadsThatAreNotTheDeclaredSize() {
+        MockMultipartFile truncated = new MockMultipartFile("files", "notes.txt", "text/plain", new byte[100]) {
+            @Override
+            public long getSize() {
+                return 1000;
+            }
+        };
+        IOException e = assertThrows(IOException.class, () -> fileStorageService.storeFile(truncated));
+        assertEquals("Upload ended after 100 of 1000 bytes", e.getMessage());
+    }
+
+    private static final class CountingMultipartFile extends MockMultipartFile {
+
+        private final AtomicLong bytesRead = new AtomicLong();
+
+        CountingMultipartFile(String name, String contentType, byte[] content) {
+            super("files", name, contentType, content);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            InputStream in = super.getInputStream();
+            return new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    int b = in.read();
+                    if (b >= 0) {
+                        bytesRead.incrementAndGet();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = in.read(buffer, offset, length);
+                    if (read > 0) {
+                        bytesRead.addAndGet(read);
+                    }
+                    return read;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.filehosting.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/accounting",
+    "app.upload.max-size-gb=1",
+    "spring.datasource.url=jdbc:h2:mem:accounting-test"
+})
+class StorageAccountingServiceTest {
+
+    private static final long GB = 1024L * 1024 * 1024;
+
+    @Autowired
+    private StorageAccountingService storageAccounting;
+
+    @Test
+    void concurrentReservationsNeverOvercommitTheQuota() throws Exception {
+        long chunk = GB / 10;
+        int threads = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<StorageAccountingService.Reservation>> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        return storageAccounting.reserve(chunk);
+                    } catch (IllegalStateException e) {
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+
+            List<StorageAccountingService.Reservation> granted = new ArrayList<>();
+            for (Future<StorageAccountingService.Reservation> result : results) {
+                if (result.get() != null) {
+                    granted.add(result.get());
+                }
+            }
+
+            assertEquals(10, granted.size());
+            assertEquals(10 * chunk, storageAccounting.getReservedBytes());
+            assertThrows(IllegalStateException.class, () -> storageAccounting.reserve(chunk));
+
+            // Releasing twice must not give the space back twice
+            granted.get(0).release();
+            granted.get(0).release();
+            assertEquals(GB - 9 * chunk, storageAccounting.getAvailableBytes());
+
+            granted.forEach(StorageAccountingService.Reservation::release);
+            assertEquals(0, storageAccounting.getReservedBytes());
+            assertEquals(GB, storageAccounting.getAvailableBytes());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.filehosting.service;
+
+import com.filehosting.model.UploadedFile;
+import com.filehosting.repository.UploadedFileRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/layout",
+    "app.upload.max-size-gb=1",
+    "app.upload.layout.migrate=false",
+    "app.upload.layout.migration-pause-ms=0",
+    "app.upload.layout.migration-grace-seconds=0",
+    "spring.datasource.url=jdbc:h2:mem:layout-test"
+})
+class StorageLayoutMigratorTest {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private StorageLayoutMigrator migrator;
+
+    @Autowired
+    private UploadedFileRepository fileRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void movesFlatFilesIntoTheLayoutWhileOldRowsStayReadable() throws IOException {
+        byte[] content = "stored before the layout existed".getBytes(StandardCharsets.UTF_8);
+        UploadedFile stored = fileStorageService.storeFile(new MockMultipartFile("files", "old.txt", "text/plain", content));
+        String hash = stored.getContentHash();
+
+        // New uploads already land in hash-prefix subdirectories
+        Path sharded = Paths.get(stored.getFilePath());
+        assertEquals(Paths.get("./test-uploads/layout/blobs", hash.substring(0, 2), hash.substring(2, 4), hash), sharded);
+
+        // Put it back where the flat layout kept it
+        Path flatBlob = Paths.get("./test-uploads/layout/blobs").resolve(hash);
+        Files.move(sharded, flatBlob);
+        jdbcTemplate.update("UPDATE stored_blobs SET file_path = ? WHERE content_hash = ?", flatBlob.toString(), hash);
+        jdbcTemplate.update("UPDATE uploaded_files SET file_path = ? WHERE content_hash = ?", flatBlob.toString(), hash);
+        UploadedFile staleRow = fileStorageService.getFileById(stored.getId()).orElseThrow();
+
+        // And a legacy upload from before content addressing
+        Path flatLegacy = Paths.get("./test-uploads/layout/20200101_000000_legacy01.txt");
+        Files.write(flatLegacy, "legacy".getBytes(StandardCharsets.UTF_8));
+        UploadedFile legacy = fileRepository.save(new UploadedFile("legacy.txt", "20200101_000000_legacy01.txt",
+                flatLegacy.toString(), 6L, "text/plain"));
+
+        assertEquals(2, migrator.migrate());
+
+        UploadedFile movedBlob = fileStorageService.getFileById(stored.getId()).orElseThrow();
+        UploadedFile movedLegacy = fileStorageService.getFileById(legacy.getId()).orElseThrow();
+        assertEquals(sharded.toString(), movedBlob.getFilePath());
+        assertEquals(sharded.toString(), jdbcTemplate.queryForObject(
+                "SELECT file_path FROM stored_blobs WHERE content_hash = ?", String.class, hash));
+        assertTrue(Files.exists(Paths.get(movedLegacy.getFilePath())));
+        assertFalse(Files.exists(flatBlob));
+        assertFalse(Files.exists(flatLegacy));
+
+        // A row read before the move still finds its file
+        assertEquals(sharded, fileStorageService.resolveFilePath(staleRow));
+        assertEquals(0, migrator.migrate());
+
+        assertTrue(fileStorageService.deleteFile(stored.getId()));
+        assertTrue(fileStorageService.deleteFile(legacy.getId()));
+        assertFalse(Files.exists(sharded));
+        assertFalse(Files.exists(Paths.get(movedLegacy.getFilePath())));
+    }
+}
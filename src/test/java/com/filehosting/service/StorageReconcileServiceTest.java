@@ -0,0 +1,178 @@
+package com.filehosting.service;
+
+import com.filehosting.model.ReconcileReport;
+import com.filehosting.model.UploadedFile;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/reconcile",
+    "app.upload.max-size-gb=1",
+    "app.upload.layout.migrate=false",
+    "app.reconcile.on-startup=false",
+    "app.reconcile.batch-size=2",
+    "app.reconcile.max-remove-fraction=0.5",
+    "app.reclaim.enabled=false",
+    "app.reclaim.max-files-per-second=0",
+    "spring.datasource.url=jdbc:h2:mem:reconcile-test"
+})
+class StorageReconcileServiceTest {
+
+    private static final String ORPHAN_HASH = "ab".repeat(32);
+
+    @Autowired
+    private StorageReconcileService reconcileService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private StorageReclaimService reclaimService;
+
+    @Autowired
+    private BlobStoreService blobStoreService;
+
+    @Autowired
+    private StorageVolumeService volumeService;
+
+    @Test
+    void reportsAndRepairsDifferencesInBothDirections() throws IOException {
+        // The database starts empty, so anything left by an earlier run would be an orphan
+        try (Stream<Path> files = Files.walk(Paths.get("./test-uploads/reconcile"))) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                Files.delete(file);
+            }
+        }
+        UploadedFile kept = store("kept.txt", "still on disk");
+        UploadedFile other = store("other.txt", "also on disk");
+        UploadedFile lost = store("lost.txt", "removed behind the application's back");
+        Files.delete(Paths.get(lost.getFilePath()));
+
+        // A blob copied before a crash, a temp file of an interrupted upload, a stray file
+        // and a hard link left by an interrupted migration, all old enough to count
+        Path orphanBlob = old(write(blobStoreService.blobPath(volumeService.getDefaultVolume(), ORPHAN_HASH), "orphan"));
+        Path orphanTemp = old(write(volumeService.getDefaultVolume().getRoot().resolve("stale.tmp"), "partial"));
+        Path stray = old(write(Paths.get("./test-uploads/reconcile/stray.bin"), "stray"));
+        Path staleLink = Paths.get("./test-uploads/reconcile/blobs/" + kept.getContentHash());
+        Files.createLink(staleLink, Paths.get(kept.getFilePath()));
+        old(staleLink);
+        // Too new to judge, and files of other kinds that no row refers to by design
+        Path recent = write(Paths.get("./test-uploads/reconcile/uploading.tmp"), "in progress");
+        old(write(Paths.get("./test-uploads/reconcile/.thumbnails/preview.jpg"), "thumbnail"));
+        old(write(Paths.get("./test-uploads/reconcile/.sessions/chunk.part"), "chunk"));
+
+        ReconcileReport report = reconcileService.reconcile(false);
+        assertEquals(4, report.getOrphanFiles());
+        assertEquals(1, report.getStaleLinks());
+        assertEquals("orphan".length() + "partial".length() + "stray".length(), report.getOrphanBytes());
+        assertEquals(1, report.getRecentFiles());
+        assertEquals(1, report.getMissingFiles());
+        assertEquals(lost.getId(), report.getMissingSamples().get(0));
+        assertEquals(3, report.getRowsChecked());
+        assertEquals(0, report.getOrphansQueued());
+        assertTrue(Files.exists(orphanBlob));
+        assertTrue(fileStorageService.getFileById(lost.getId()).isPresent());
+        assertSame(report, reconcileService.getLastReport());
+
+        report = reconcileService.reconcile(true);
+        assertEquals(4, report.getOrphansQueued());
+        assertEquals(1, report.getRowsRemoved());
+        assertEquals(5, reclaimService.reclaimDue());
+        assertFalse(Files.exists(orphanBlob));
+        assertFalse(Files.exists(orphanTemp));
+        assertFalse(Files.exists(stray));
+        assertFalse(Files.exists(staleLink));
+        assertTrue(Files.exists(recent));
+        assertTrue(Files.exists(Paths.get(kept.getFilePath())));
+        assertTrue(Files.exists(Paths.get(other.getFilePath())));
+        assertTrue(fileStorageService.getFileById(lost.getId()).isEmpty());
+
+        report = reconcileService.reconcile(false);
+        assertEquals(0, report.getOrphanFiles());
+        assertEquals(0, report.getMissingFiles());
+    }
+
+    @Test
+    void leavesRowsAloneWhenTheirStorageLooksBroken() throws IOException {
+        UploadedFile first = store("first.txt", "first on disk");
+        UploadedFile second = store("second.txt", "second on disk");
+
+        // More missing at once than one run may remove
+        Files.delete(Paths.get(first.getFilePath()));
+        ReflectionTestUtils.setField(reconcileService, "maxRemoveFraction", 0.0);
+        try {
+            ReconcileReport report = reconcileService.reconcile(true);
+            assertTrue(report.getMissingSamples().contains(first.getId()));
+            assertEquals(0, report.getRowsRemoved());
+            assertEquals(report.getMissingFiles(), report.getRowsWithheld());
+            assertTrue(fileStorageService.getFileById(first.getId()).isPresent());
+        } finally {
+            ReflectionTestUtils.setField(reconcileService, "maxRemoveFraction", 0.5);
+        }
+
+        // A volume whose root is gone, e.g. an unmounted disk, makes every file on it look missing
+        Path root = volumeService.getDefaultVolume().getRoot();
+        Path offline = Paths.get("./test-uploads/reconcile-offline");
+        Files.move(root, offline);
+        try {
+            ReconcileReport report = reconcileService.reconcile(true);
+            assertFalse(report.getMissingSamples().contains(second.getId()));
+            assertTrue(report.getUnavailableFiles() >= 2);
+            assertEquals(0, report.getRowsRemoved());
+            assertTrue(fileStorageService.getFileById(first.getId()).isPresent());
+            assertTrue(fileStorageService.getFileById(second.getId()).isPresent());
+        } finally {
+            Files.move(offline, root);
+        }
+        fileStorageService.deleteFile(first.getId());
+        fileStorageService.deleteFile(second.getId());
+        reclaimService.reclaimDue();
+    }
+
+    @Test
+    void onlyHashNamedFilesAreTakenForBlobs() {
+        assertEquals(ORPHAN_HASH, StorageReconcileService.hashOf(ORPHAN_HASH));
+        assertEquals(ORPHAN_HASH, StorageReconcileService.hashOf(ORPHAN_HASH + ".gz"));
+        assertNull(StorageReconcileService.hashOf(ORPHAN_HASH.toUpperCase()));
+        assertNull(StorageReconcileService.hashOf("ab.gz"));
+        assertNull(StorageReconcileService.hashOf("1700000000000_report.pdf"));
+        assertTrue(StorageReconcileService.pathKey("/a/b") >= 0);
+    }
+
+    private UploadedFile store(String name, String content) throws IOException {
+        return fileStorageService.storeFile(new MockMultipartFile("file", name, "text/plain",
+                content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static Path write(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, content);
+        return path;
+    }
+
+    private static Path old(Path path) throws IOException {
+        Files.setLastModifiedTime(path, FileTime.from(Instant.now().minus(2, ChronoUnit.HOURS)));
+        return path;
+    }
+}
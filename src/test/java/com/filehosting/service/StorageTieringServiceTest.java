@@ -0,0 +1,105 @@
+package com.filehosting.service;
+
+import com.filehosting.model.StoredBlob;
+import com.filehosting.model.UploadedFile;
+import com.filehosting.repository.StoredBlobRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/tiering",
+    "app.upload.max-size-gb=1",
+    "app.upload.volume-min-free-mb=0",
+    "app.tiering.cold-after-days=30",
+    "app.tiering.min-size-kb=0",
+    "app.tiering.max-mb-per-second=0",
+    "app.tiering.grace-seconds=0",
+    "app.tiering.restore-on-read=false",
+    "spring.datasource.url=jdbc:h2:mem:tiering-test"
+})
+class StorageTieringServiceTest {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private StorageTieringService tieringService;
+
+    @Autowired
+    private StoredBlobRepository blobRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void movesUnreadFilesToTheColdTierAndBack() throws IOException {
+        byte[] text = "a log line that compresses well\n".repeat(4000).getBytes(StandardCharsets.UTF_8);
+        byte[] noise = new byte[200 * 1024];
+        new Random(18).nextBytes(noise);
+        byte[] recent = "read last week".getBytes(StandardCharsets.UTF_8);
+
+        UploadedFile textFile = store("old.log", text);
+        UploadedFile noiseFile = store("old.bin", noise);
+        UploadedFile recentFile = store("recent.txt", recent);
+        Timestamp longAgo = Timestamp.valueOf(LocalDateTime.now().minusDays(60));
+        jdbcTemplate.update("UPDATE uploaded_files SET upload_time = ?", longAgo);
+        jdbcTemplate.update("UPDATE uploaded_files SET last_accessed = ? WHERE id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusDays(7)), recentFile.getId());
+
+        assertEquals(2, tieringService.moveColdFiles());
+
+        // Text is gzipped; random bytes don't shrink and are moved as they are
+        StoredBlob textBlob = blobRepository.findById(textFile.getContentHash()).orElseThrow();
+        assertNotNull(textBlob.getColdPath());
+        assertTrue(textBlob.getColdPath().endsWith(".gz"));
+        assertTrue(Files.size(Paths.get(textBlob.getColdPath())) < text.length / 10);
+        assertFalse(Files.exists(Paths.get(textFile.getFilePath())));
+        StoredBlob noiseBlob = blobRepository.findById(noiseFile.getContentHash()).orElseThrow();
+        assertFalse(noiseBlob.getColdPath().endsWith(".gz"));
+        assertNull(blobRepository.findById(recentFile.getContentHash()).orElseThrow().getColdPath());
+
+        Path coldText = tieringService.coldCopyOf(textFile);
+        try (InputStream in = tieringService.openCold(coldText)) {
+            assertArrayEquals(text, in.readAllBytes());
+        }
+
+        // Read again: restored to a volume, under the path every file row now records
+        assertTrue(tieringService.restore(textFile.getContentHash()));
+        textBlob = blobRepository.findById(textFile.getContentHash()).orElseThrow();
+        assertNull(textBlob.getColdPath());
+        assertFalse(Files.exists(coldText));
+        UploadedFile restored = fileStorageService.getFileById(textFile.getId()).orElseThrow();
+        assertArrayEquals(text, Files.readAllBytes(fileStorageService.resolveFilePath(restored)));
+
+        // Deleting a cold file removes its cold copy
+        Path coldNoise = tieringService.coldCopyOf(noiseFile);
+        assertTrue(fileStorageService.deleteFile(noiseFile.getId()));
+        assertFalse(Files.exists(coldNoise));
+    }
+
+    private UploadedFile store(String name, byte[] content) throws IOException {
+        return fileStorageService.storeFile(new MockMultipartFile("files", name, "application/octet-stream", content));
+    }
+}
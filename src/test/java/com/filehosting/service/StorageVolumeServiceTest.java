@@ -0,0 +1,80 @@
+package com.filehosting.service;
+
+import com.filehosting.model.StoredBlob;
+import com.filehosting.model.UploadedFile;
+import com.filehosting.model.VolumeInfo;
+import com.filehosting.repository.StoredBlobRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/volumes",
+    "app.upload.max-size-gb=1",
+    "app.upload.volumes=b=./test-uploads/volumes/b",
+    "app.upload.volume-min-free-mb=0",
+    "app.upload.layout.migrate=false",
+    "spring.datasource.url=jdbc:h2:mem:volumes-test"
+})
+class StorageVolumeServiceTest {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private StorageVolumeService volumeService;
+
+    @Autowired
+    private StorageMonitoringService storageMonitoringService;
+
+    @Autowired
+    private StoredBlobRepository blobRepository;
+
+    @Test
+    void placesNewFilesOnTheLeastBusyVolume() throws IOException {
+        UploadedFile first = fileStorageService.storeFile(new MockMultipartFile("files", "first.txt", "text/plain",
+                "first file".getBytes(StandardCharsets.UTF_8)));
+        StoredBlob firstBlob = blobRepository.findById(first.getContentHash()).orElseThrow();
+        assertEquals("default", firstBlob.getVolume());
+
+        // Both volumes share a disk here, so a download in progress on the default one decides
+        Path firstPath = Paths.get(first.getFilePath());
+        UploadedFile second;
+        try (StorageVolumeService.Activity reading = volumeService.reading(firstPath)) {
+            second = fileStorageService.storeFile(new MockMultipartFile("files", "second.txt", "text/plain",
+                    "second file".getBytes(StandardCharsets.UTF_8)));
+        }
+        StoredBlob secondBlob = blobRepository.findById(second.getContentHash()).orElseThrow();
+        assertEquals("b", secondBlob.getVolume());
+        Path secondPath = Paths.get(second.getFilePath()).toAbsolutePath().normalize();
+        assertTrue(secondPath.startsWith(Paths.get("./test-uploads/volumes/b").toAbsolutePath().normalize()));
+        assertTrue(Files.exists(secondPath));
+
+        List<VolumeInfo> volumes = storageMonitoringService.getStorageInfo().getVolumes();
+        assertEquals(2, volumes.size());
+        for (VolumeInfo volume : volumes) {
+            assertEquals(1, volume.getFileCount(), volume.getName());
+            assertEquals(0, volume.getActiveReads(), volume.getName());
+        }
+
+        assertTrue(fileStorageService.deleteFile(first.getId()));
+        assertTrue(fileStorageService.deleteFile(second.getId()));
+        for (VolumeInfo volume : storageMonitoringService.getStorageInfo().getVolumes()) {
+            assertEquals(0, volume.getFileCount(), volume.getName());
+            assertEquals(0, volume.getUsedSpace(), volume.getName());
+        }
+    }
+}
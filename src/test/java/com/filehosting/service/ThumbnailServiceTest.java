@@ -0,0 +1,94 @@
+package com.filehosting.service;
+
+import com.filehosting.model.UploadedFile;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/thumbnails",
+    "app.upload.max-size-gb=1",
+    "app.upload.volume-min-free-mb=0",
+    "app.thumbnails.sizes=64,128",
+    "app.tiering.cold-after-days=30",
+    "app.tiering.min-size-kb=0",
+    "app.tiering.max-mb-per-second=0",
+    "app.tiering.grace-seconds=0",
+    "app.tiering.restore-on-read=false",
+    "spring.datasource.url=jdbc:h2:mem:thumbnail-test"
+})
+class ThumbnailServiceTest {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private StorageTieringService tieringService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void scalesImagesToTheNearestConfiguredSizeAndSharesPendingWork() throws Exception {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_ARGB), "png", png);
+        UploadedFile file = fileStorageService.storeFile(
+                new MockMultipartFile("files", "wide.png", "image/png", png.toByteArray()));
+
+        CompletableFuture<Path> first = thumbnailService.getThumbnail(file, 100);
+        CompletableFuture<Path> second = thumbnailService.getThumbnail(file, 128);
+        Path preview = first.get(10, TimeUnit.SECONDS);
+        assertEquals(preview, second.get(10, TimeUnit.SECONDS));
+
+        BufferedImage image = ImageIO.read(preview.toFile());
+        assertEquals(128, image.getWidth());
+        assertEquals(64, image.getHeight());
+
+        UploadedFile text = fileStorageService.storeFile(
+                new MockMultipartFile("files", "notes.txt", "text/plain", new byte[]{1, 2, 3}));
+        assertFalse(thumbnailService.isSupported(text));
+    }
+
+    @Test
+    void previewsOfDemotedImagesAreReadFromTheColdTier() throws Exception {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(300, 600, BufferedImage.TYPE_INT_RGB), "png", png);
+        UploadedFile file = fileStorageService.storeFile(
+                new MockMultipartFile("files", "tall.png", "image/png", png.toByteArray()));
+        Path eager = thumbnailService.getThumbnail(file, 64).get(10, TimeUnit.SECONDS);
+        thumbnailService.getThumbnail(file, 128).get(10, TimeUnit.SECONDS);
+
+        jdbcTemplate.update("UPDATE uploaded_files SET upload_time = ? WHERE id = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusDays(60)), file.getId());
+        tieringService.moveColdFiles();
+        assertFalse(Files.exists(Paths.get(file.getFilePath())));
+
+        // Evicted after the file went cold; regenerating it must not need the hot copy
+        Files.delete(eager);
+        Path preview = thumbnailService.getThumbnail(file, 64).get(10, TimeUnit.SECONDS);
+        BufferedImage image = ImageIO.read(preview.toFile());
+        assertEquals(32, image.getWidth());
+        assertEquals(64, image.getHeight());
+    }
+}
@@ -0,0 +1,48 @@
+package com.filehosting.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest
+@TestPropertySource(properties = {
+    "app.upload.path=./test-uploads/ingest-service",
+    "app.upload.max-size-gb=1",
+    "app.upload.ingest-parallelism=3",
+    "spring.datasource.url=jdbc:h2:mem:ingest-service-test"
+})
+class UploadIngestServiceTest {
+
+    @Autowired
+    private UploadIngestService uploadIngestService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Test
+    void storesFilesConcurrentlyAndReportsErrorsInUploadOrder() {
+        MultipartFile[] files = new MultipartFile[12];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new MockMultipartFile("files", "photo-" + i + ".jpg", "image/jpeg",
+                    ("photo " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        files[2] = new MockMultipartFile("files", "script.sh", "application/x-sh", new byte[]{1});
+        files[5] = new MockMultipartFile("files", "empty.txt", "text/plain", new byte[0]);
+        files[9] = new MockMultipartFile("files", "setup.exe", "application/x-msdownload", new byte[]{2});
+
+        long before = fileStorageService.getFileCount();
+        UploadIngestService.Result result = uploadIngestService.ingest(files);
+
+        assertEquals(9, result.getUploadedCount());
+        assertEquals(before + 9, fileStorageService.getFileCount());
+        assertEquals("File 'script.sh' has unsupported file type. File 'setup.exe' has unsupported file type. ",
+                result.getErrors());
+    }
+}
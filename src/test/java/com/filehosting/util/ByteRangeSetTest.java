@@ -0,0 +1,66 @@
+package com.filehosting.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteRangeSetTest {
+
+    @Test
+    void mergesOverlappingAndAdjacentRanges() {
+        ByteRangeSet ranges = new ByteRangeSet();
+        ranges.add(20, 29);
+        ranges.add(0, 9);
+        assertEquals("0-9,20-29", ranges.toString());
+
+        ranges.add(10, 14);
+        assertEquals("0-14,20-29", ranges.toString());
+
+        ranges.add(12, 25);
+        assertEquals("0-29", ranges.toString());
+        assertEquals(30, ranges.getTotalBytes());
+
+        ranges.add(40, 49);
+        ranges.add(5, 7);
+        assertEquals("0-29,40-49", ranges.toString());
+        assertEquals(40, ranges.getTotalBytes());
+    }
+
+    @Test
+    void oneRangeSpanningSeveralAbsorbsThemAll() {
+        ByteRangeSet ranges = ByteRangeSet.parse("10-19,30-39,50-59");
+        ranges.add(5, 55);
+        assertEquals("5-59", ranges.toString());
+    }
+
+    @Test
+    void parseAndToStringRoundTrip() {
+        assertEquals("", ByteRangeSet.parse(null).toString());
+        assertEquals("", ByteRangeSet.parse(" ").toString());
+        assertEquals("0-8388607,16777216-25165823",
+                ByteRangeSet.parse("0-8388607,16777216-25165823").toString());
+        // Stored values are normalized: unordered, overlapping or spaced input parses to the merged form
+        assertEquals("0-19", ByteRangeSet.parse("10-19, 0-9").toString());
+        assertEquals("0-99", ByteRangeSet.parse("0-49,25-99").toString());
+    }
+
+    @Test
+    void coversOnlyRangesReceivedInFull() {
+        ByteRangeSet ranges = ByteRangeSet.parse("0-9,20-29");
+        assertTrue(ranges.covers(0, 9));
+        assertTrue(ranges.covers(22, 25));
+        assertFalse(ranges.covers(5, 20));
+        assertFalse(ranges.covers(10, 10));
+    }
+
+    @Test
+    void rejectsInvalidRanges() {
+        ByteRangeSet ranges = new ByteRangeSet();
+        assertThrows(IllegalArgumentException.class, () -> ranges.add(-1, 5));
+        assertThrows(IllegalArgumentException.class, () -> ranges.add(10, 9));
+        assertThrows(IllegalArgumentException.class, () -> ByteRangeSet.parse("0-9,x-12"));
+    }
+}
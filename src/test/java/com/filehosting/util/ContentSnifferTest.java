@@ -0,0 +1,77 @@
+package com.filehosting.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ContentSnifferTest {
+
+    @Test
+    void recognizesFormatsByTheirSignature() {
+        assertEquals("image/png", detect(bytes(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0), "text/plain"));
+        assertEquals("image/jpeg", detect(bytes(0xFF, 0xD8, 0xFF, 0xE0), "application/octet-stream"));
+        assertEquals("application/pdf", detect("%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII), "image/png"));
+        assertEquals("image/webp", detect("RIFF\0\0\0\0WEBPVP8 ".getBytes(StandardCharsets.US_ASCII), null));
+        assertEquals("video/quicktime", detect("\0\0\0\u0014ftypqt  ".getBytes(StandardCharsets.ISO_8859_1), null));
+        assertEquals("video/mp4", detect("\0\0\0\u0018ftypisom".getBytes(StandardCharsets.ISO_8859_1), null));
+        assertEquals("application/x-msdownload", detect(portableExecutable(0x80), "image/png"));
+        assertEquals("audio/mpeg", detect(bytes('I', 'D', '3', 4, 0, 0, 0, 0, 0x12, 0x7F), "application/octet-stream"));
+    }
+
+    @Test
+    void textStartingWithShortSignaturesStaysText() {
+        assertNull(detect("MZ-80 service manual, chapter 1: unpacking the computer and connecting the cassette deck".getBytes(StandardCharsets.US_ASCII), "text/plain"));
+        assertNull(detect("ID3 tags hold the artist and title of a track".getBytes(StandardCharsets.US_ASCII), "text/plain"));
+        assertNull(detect("ID3\n2024-01-01\n".getBytes(StandardCharsets.US_ASCII), "text/plain"));
+        // A DOS header whose PE header lies beyond what was read isn't taken on trust
+        assertNull(detect(portableExecutable(ContentSniffer.HEAD_SIZE + 64), "application/octet-stream"));
+        byte[] notPe = portableExecutable(0x80);
+        notPe[0x81] = 'X';
+        assertNull(detect(notPe, "text/plain"));
+    }
+
+    @Test
+    void keepsTheDeclaredTypeOfZipBasedFormats() {
+        byte[] zip = bytes('P', 'K', 3, 4, 20, 0);
+        String docx = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+        assertEquals(docx, detect(zip, docx));
+        assertEquals("application/epub+zip", detect(zip, "application/epub+zip"));
+        assertEquals("application/zip", detect(zip, "image/jpeg"));
+    }
+
+    @Test
+    void leavesTextAndShortFilesToTheDeclaredType() {
+        assertNull(detect("<html><script>alert(1)</script>".getBytes(StandardCharsets.US_ASCII), "text/plain"));
+        assertNull(detect("plain notes".getBytes(StandardCharsets.US_ASCII), "text/plain"));
+        assertNull(detect(bytes(0x89, 'P', 'N'), "image/png"));
+        assertNull(detect(new byte[0], "text/plain"));
+    }
+
+    private static String detect(byte[] content, String declaredType) {
+        byte[] head = Arrays.copyOf(content, ContentSniffer.HEAD_SIZE);
+        return ContentSniffer.detect(head, Math.min(content.length, head.length), declaredType);
+    }
+
+    private static byte[] portableExecutable(int peOffset) {
+        byte[] content = new byte[peOffset + 24];
+        content[0] = 'M';
+        content[1] = 'Z';
+        content[0x3C] = (byte) peOffset;
+        content[0x3D] = (byte) (peOffset >> 8);
+        content[peOffset] = 'P';
+        content[peOffset + 1] = 'E';
+        return content;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
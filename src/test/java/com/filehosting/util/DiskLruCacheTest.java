@@ -0,0 +1,54 @@
+package com.filehosting.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DiskLruCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void evictsLeastRecentlyUsedEntriesBeyondTheCap() throws IOException {
+        DiskLruCache cache = new DiskLruCache(directory, 250);
+        put(cache, "a", 100);
+        put(cache, "b", 100);
+
+        // Touching "a" makes "b" the eviction candidate
+        assertNotNull(cache.get("a"));
+        put(cache, "c", 100);
+
+        assertNull(cache.get("b"));
+        assertFalse(Files.exists(directory.resolve("b")));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(200, cache.getTotalBytes());
+    }
+
+    @Test
+    void reloadsEntriesAndDropsUnfinishedWrites() throws IOException {
+        DiskLruCache cache = new DiskLruCache(directory, 1000);
+        put(cache, "a", 100);
+        Path unfinished = cache.newTempFile();
+
+        DiskLruCache reopened = new DiskLruCache(directory, 1000);
+        assertEquals(1, reopened.size());
+        assertEquals(100, reopened.getTotalBytes());
+        assertFalse(Files.exists(unfinished));
+    }
+
+    private static void put(DiskLruCache cache, String key, int size) throws IOException {
+        Path temp = cache.newTempFile();
+        Files.write(temp, new byte[size]);
+        cache.commit(key, temp);
+    }
+}
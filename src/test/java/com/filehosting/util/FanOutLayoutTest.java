@@ -0,0 +1,41 @@
+package com.filehosting.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FanOutLayoutTest {
+
+    private static final String HASH = "3fa9c0d2e1b4";
+    private final Path root = Paths.get("store");
+
+    @Test
+    void nestsFilesUnderPrefixesOfTheirKey() {
+        assertEquals(root.resolve("3f/a9/" + HASH), new FanOutLayout(2, 2).resolve(root, HASH));
+        assertEquals(root.resolve("3fa/9c0/" + HASH), new FanOutLayout(2, 3).resolve(root, HASH));
+        assertEquals(root.resolve(HASH), new FanOutLayout(0, 2).resolve(root, HASH));
+    }
+
+    @Test
+    void spreadsNamedFilesByAStableHashOfTheName() {
+        FanOutLayout layout = new FanOutLayout(2, 2);
+        Path path = layout.resolveByName(root, "20240101_120000_ab12cd34.pdf");
+
+        assertEquals(path, layout.resolveByName(root, "20240101_120000_ab12cd34.pdf"));
+        assertEquals("20240101_120000_ab12cd34.pdf", path.getFileName().toString());
+        assertEquals(root, path.getParent().getParent().getParent());
+        assertTrue(path.getParent().getFileName().toString().matches("[0-9a-f]{2}"));
+    }
+
+    @Test
+    void rejectsUnusableLayouts() {
+        assertThrows(IllegalArgumentException.class, () -> new FanOutLayout(-1, 2));
+        assertThrows(IllegalArgumentException.class, () -> new FanOutLayout(2, 0));
+        assertThrows(IllegalArgumentException.class, () -> new FanOutLayout(8, 8));
+    }
+}
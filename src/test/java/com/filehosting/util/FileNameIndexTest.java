@@ -0,0 +1,185 @@
+package com.filehosting.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FileNameIndexTest {
+
+    @Test
+    void findsSubstringsAndRanksPrefixAndWordMatchesFirst() {
+        FileNameIndex index = new FileNameIndex();
+        index.add(1, "holiday_report.pdf", "application/pdf");
+        index.add(2, "Report 2024.PDF", "application/pdf");
+        index.add(3, "misreported.txt", "text/plain");
+        index.add(4, "report.pdf", "application/pdf");
+        index.add(5, "cat.jpg", "image/jpeg");
+
+        // Exact name, then name prefix, then word start, then plain substring
+        assertArrayEquals(new long[]{4, 2, 1, 3}, index.search("report", 10));
+        assertArrayEquals(new long[]{4, 2}, index.search("report", 2));
+
+        // Every term must match; the content type counts as well
+        assertArrayEquals(new long[]{4, 2, 1}, index.search("REPORT pdf", 10));
+        assertArrayEquals(new long[]{5}, index.search("jpeg", 10));
+
+        // Terms shorter than a trigram match the start of a word
+        assertArrayEquals(new long[]{5}, index.search("jp", 10));
+        assertArrayEquals(new long[0], index.search("zzz", 10));
+        assertArrayEquals(new long[0], index.search("   ", 10));
+    }
+
+    @Test
+    void shortTermsMatchNameAndWordStartsThroughTheIndex() {
+        FileNameIndex index = new FileNameIndex();
+        index.add(1, "holiday_report.pdf", "application/pdf");
+        index.add(2, "Report 2024.PDF", "application/pdf");
+        index.add(3, "misreported.txt", "text/plain");
+        index.add(4, "r.txt", "text/plain");
+        index.add(5, "cat.jpg", "image/jpeg");
+
+        // Exact name, then name starts, then word starts; "misreported" only contains "r"
+        assertArrayEquals(new long[]{4, 2, 1}, index.search("r", 10));
+        assertArrayEquals(new long[]{2, 1}, index.search("re", 10));
+        assertArrayEquals(new long[]{5}, index.search("c", 10));
+        assertArrayEquals(new long[0], index.search("at", 10));
+        assertArrayEquals(new long[]{2}, index.search("20", 10));
+
+        // Mixed with longer terms, and never matched against the content type
+        assertArrayEquals(new long[]{2, 1}, index.search("re pdf", 10));
+        assertArrayEquals(new long[]{1}, index.search("h report", 10));
+        assertArrayEquals(new long[0], index.search("im", 10));
+
+        index.remove(4);
+        assertArrayEquals(new long[]{2, 1}, index.search("r", 10));
+    }
+
+    @Test
+    void reflectsUpdatesRemovalsAndCompaction() {
+        FileNameIndex index = new FileNameIndex();
+        for (int i = 1; i <= 5000; i++) {
+            index.add(i, "file_" + i + (i % 2 == 0 ? "_100%.log" : ".bin"), "text/plain");
+        }
+        index.add(7, "renamed.bin", "application/octet-stream");
+
+        assertArrayEquals(new long[]{7}, index.search("renamed", 10));
+        assertArrayEquals(new long[0], index.search("file_7.bin", 10));
+
+        // Removing most files triggers a compaction; what is left must still be found
+        for (int i = 1; i <= 5000; i++) {
+            if (i % 1000 != 0) {
+                index.remove(i);
+            }
+        }
+        assertEquals(5, index.size());
+        assertArrayEquals(new long[]{1000}, index.search("file_1000_", 10));
+        assertEquals(5, index.search("100%", 10).length);
+        assertArrayEquals(new long[0], index.search("renamed", 10));
+
+        index.add(9999, "after_compaction.log", "text/plain");
+        assertArrayEquals(new long[]{9999}, index.search("compaction", 10));
+        assertArrayEquals(new long[]{9999}, index.search("co", 10));
+    }
+
+    @Test
+    void broadTermsRankAsIfEveryMatchWereScored() {
+        String[] words = {"r", "re", "report", "rep", "pdf", "img", "scan", "final", "a", "2024"};
+        String[] extensions = {".pdf", ".jpg", ".txt", ".r", "", ".report"};
+        Random random = new Random(7);
+        FileNameIndex index = new FileNameIndex();
+        Map<Long, String> names = new LinkedHashMap<>();
+
+        // Enough names that the broad terms go through the tiers, with removals and renames
+        for (long id = 1; id <= 120_000; id++) {
+            StringBuilder name = new StringBuilder(words[random.nextInt(words.length)]);
+            for (int i = random.nextInt(3); i > 0; i--) {
+                name.append(random.nextBoolean() ? "_" : " ").append(words[random.nextInt(words.length)]);
+            }
+            if (random.nextInt(4) == 0) {
+                name.append(random.nextInt(1000));
+            }
+            name.append(extensions[random.nextInt(extensions.length)]);
+            index.add(id, name.toString(), "text/plain");
+            names.put(id, name.toString());
+        }
+        for (long id = 1; id <= 120_000; id += 3) {
+            index.remove(id);
+            names.remove(id);
+        }
+        for (long id = 2; id <= 3_000; id += 5) {
+            index.add(id, "renamed report.pdf", "text/plain");
+            names.remove(id);
+            names.put(id, "renamed report.pdf");
+        }
+
+        for (String query : new String[]{"r", "re", "rep", "report", "pdf", "PDF", "a", "2024", "port", "jpg", "scan", "r pdf", "pdf r", "scan final", "re report", "a 2024", "report r"}) {
+            for (int limit : new int[]{1, 10, 50}) {
+                assertArrayEquals(scoreEverything(names, query, limit), index.search(query, limit), query + " top " + limit);
+            }
+        }
+    }
+
+    /**
+     * The ranking search() promises, by scoring every name (newest last in the map): by
+     * total score, then shorter name, then newer. None of the queries match the type.
+     */
+    private static long[] scoreEverything(Map<Long, String> names, String query, int limit) {
+        String[] terms = query.toLowerCase(Locale.ROOT).trim().split("\\s+");
+        List<long[]> matches = new ArrayList<>();
+        int order = 0;
+        for (Map.Entry<Long, String> entry : names.entrySet()) {
+            String name = entry.getValue().toLowerCase(Locale.ROOT);
+            int total = 0;
+            for (String term : terms) {
+                int score = score(name, term);
+                if (score == 0) {
+                    total = 0;
+                    break;
+                }
+                total += score;
+            }
+            if (total > 0) {
+                matches.add(new long[]{total, name.length(), order, entry.getKey()});
+            }
+            order++;
+        }
+        matches.sort(Comparator.<long[]>comparingLong(m -> -m[0]).thenComparingLong(m -> m[1]).thenComparingLong(m -> -m[2]));
+        return matches.stream().limit(limit).mapToLong(m -> m[3]).toArray();
+    }
+
+    private static int score(String name, String term) {
+        int index = name.indexOf(term);
+        if (index < 0) {
+            return 0;
+        }
+        int dot = name.lastIndexOf('.');
+        int stemLength = dot > 0 ? dot : name.length();
+        int score = 10;
+        if (index == 0) {
+            score += term.length() == stemLength || term.length() == name.length() ? 100 : 50;
+        } else {
+            boolean wordStart = false;
+            for (int i = index; i >= 0; i = name.indexOf(term, i + 1)) {
+                wordStart |= !Character.isLetterOrDigit(name.charAt(i - 1));
+            }
+            if (wordStart) {
+                score += 25;
+            } else if (term.length() < 3) {
+                return 0;
+            }
+        }
+        if (dot >= 0 && name.substring(dot + 1).equals(term)) {
+            score += 30;
+        }
+        return score;
+    }
+}
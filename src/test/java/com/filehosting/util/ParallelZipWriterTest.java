@@ -0,0 +1,69 @@
+package com.filehosting.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelZipWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void blocksDeflatedInParallelFormOneValidEntry() throws IOException {
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(7);
+        while (text.length() < 700_000) {
+            text.append("line ").append(random.nextInt(1000)).append(" of a compressible log\n");
+        }
+        byte[] large = text.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] exactBlocks = new byte[128 * 1024];
+        random.nextBytes(exactBlocks);
+
+        Path zipPath = tempDir.resolve("parallel.zip");
+        try (OutputStream out = Files.newOutputStream(zipPath);
+             ZipStreamWriter zip = new ZipStreamWriter(out)) {
+            ParallelZipWriter parallel = new ParallelZipWriter(zip, pool, 64 * 1024, 3);
+            parallel.addEntry("large.log", new ByteArrayInputStream(large), large.length, 0L, 6);
+            parallel.addEntry("empty.txt", new ByteArrayInputStream(new byte[0]), 0, 0L, 6);
+            parallel.addEntry("exact.bin", new ByteArrayInputStream(exactBlocks), exactBlocks.length, 0L, 1);
+            parallel.addEntry("stored.jpg", new ByteArrayInputStream(exactBlocks), exactBlocks.length, 0L, 0);
+            parallel.drain();
+        }
+
+        try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+            ZipEntry largeEntry = zipFile.getEntry("large.log");
+            assertTrue(largeEntry.getCompressedSize() < large.length / 3);
+            assertArrayEquals(large, zipFile.getInputStream(largeEntry).readAllBytes());
+            assertEquals(0, zipFile.getInputStream(zipFile.getEntry("empty.txt")).readAllBytes().length);
+            assertArrayEquals(exactBlocks, zipFile.getInputStream(zipFile.getEntry("exact.bin")).readAllBytes());
+
+            ZipEntry storedEntry = zipFile.getEntry("stored.jpg");
+            assertEquals(ZipEntry.DEFLATED, storedEntry.getMethod());
+            assertTrue(storedEntry.getCompressedSize() < exactBlocks.length + 64);
+            assertArrayEquals(exactBlocks, zipFile.getInputStream(storedEntry).readAllBytes());
+        }
+    }
+}
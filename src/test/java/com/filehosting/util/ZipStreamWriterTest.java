@@ -0,0 +1,111 @@
+package com.filehosting.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZipStreamWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writesStoredAndDeflatedEntriesReadableByZipFile() throws IOException {
+        byte[] text = "hello zip ".repeat(10_000).getBytes(StandardCharsets.UTF_8);
+        byte[] random = new byte[200_000];
+        new Random(42).nextBytes(random);
+
+        Path zipPath = tempDir.resolve("mixed.zip");
+        try (OutputStream out = Files.newOutputStream(zipPath);
+             ZipStreamWriter zip = new ZipStreamWriter(out)) {
+            zip.putNextEntry("text.txt", text.length, System.currentTimeMillis(), true);
+            zip.write(text, 0, text.length);
+            zip.closeEntry();
+
+            zip.putNextEntry("ünïcode.bin", random.length, System.currentTimeMillis(), false);
+            zip.write(random, 0, random.length);
+            zip.closeEntry();
+        }
+
+        try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+            ZipEntry textEntry = zipFile.getEntry("text.txt");
+            assertEquals(ZipEntry.DEFLATED, textEntry.getMethod());
+            assertArrayEquals(text, zipFile.getInputStream(textEntry).readAllBytes());
+
+            ZipEntry binEntry = zipFile.getEntry("ünïcode.bin");
+            assertEquals(ZipEntry.DEFLATED, binEntry.getMethod());
+            assertTrue(binEntry.getCompressedSize() < random.length + 64);
+            assertArrayEquals(random, zipFile.getInputStream(binEntry).readAllBytes());
+        }
+    }
+
+    @Test
+    void streamingReadersAcceptEveryEntry() throws IOException {
+        byte[] text = "hello zip ".repeat(10_000).getBytes(StandardCharsets.UTF_8);
+        byte[] random = new byte[200_000];
+        new Random(42).nextBytes(random);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ZipStreamWriter zip = new ZipStreamWriter(buffer)) {
+            zip.putNextEntry("text.txt", text.length, 0L, true);
+            zip.write(text, 0, text.length);
+            zip.closeEntry();
+
+            zip.putNextEntry("photo.jpg", random.length, 0L, false);
+            zip.write(random, 0, random.length);
+            zip.closeEntry();
+
+            zip.putNextEntry("empty.txt", 0, 0L, false);
+            zip.closeEntry();
+        }
+
+        // ZipInputStream reads local headers only and rejects STORED entries with a data descriptor
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+            assertEquals("text.txt", in.getNextEntry().getName());
+            assertArrayEquals(text, in.readAllBytes());
+            assertEquals("photo.jpg", in.getNextEntry().getName());
+            assertArrayEquals(random, in.readAllBytes());
+            assertEquals("empty.txt", in.getNextEntry().getName());
+            assertEquals(0, in.readAllBytes().length);
+            assertNull(in.getNextEntry());
+        }
+    }
+
+    @Test
+    void switchesToZip64EndRecordsPastEntryLimit() throws IOException {
+        int entryCount = 70_000;
+        byte[] data = {1, 2, 3};
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ZipStreamWriter zip = new ZipStreamWriter(buffer)) {
+            for (int i = 0; i < entryCount; i++) {
+                zip.putNextEntry("f" + i, data.length, 0L, false);
+                zip.write(data, 0, data.length);
+                zip.closeEntry();
+            }
+        }
+
+        Path zipPath = tempDir.resolve("many.zip");
+        Files.write(zipPath, buffer.toByteArray());
+        try (ZipFile zipFile = new ZipFile(zipPath.toFile())) {
+            assertEquals(entryCount, zipFile.size());
+            assertArrayEquals(data, zipFile.getInputStream(zipFile.getEntry("f69999")).readAllBytes());
+        }
+    }
+}